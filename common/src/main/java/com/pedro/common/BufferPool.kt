@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import java.util.ArrayDeque
+
+/**
+ * Pool of byte arrays grouped in size classes (powers of 2) to reuse packet buffers instead of
+ * allocate a new array per packet.
+ *
+ * Buffers obtained could be bigger than requested so you must always use the packet length instead of buffer size.
+ * Buffers must be released after write it in the socket to be reused.
+ */
+class BufferPool(private val maxPooledBytes: Long = DEFAULT_MAX_POOLED_BYTES) {
+
+  companion object {
+    private const val MIN_CLASS_SHIFT = 7 //128 bytes
+    private const val MAX_CLASS_SHIFT = 22 //4 MB
+    const val DEFAULT_MAX_POOLED_BYTES = 16L * 1024 * 1024
+  }
+
+  private val classes = Array(MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1) { ArrayDeque<ByteArray>() }
+  private var pooledBytes = 0L
+  @Volatile
+  var hits: Long = 0
+    private set
+  @Volatile
+  var misses: Long = 0
+    private set
+  /**
+   * Bytes allocated by misses
+   */
+  @Volatile
+  var allocatedBytes: Long = 0
+    private set
+  /**
+   * Buffers obtained and not released yet
+   */
+  @Volatile
+  var liveBuffers: Long = 0
+    private set
+
+  /**
+   * @return a buffer with size >= size
+   */
+  fun obtain(size: Int): ByteArray {
+    val index = getClassIndex(size)
+    synchronized(this) {
+      liveBuffers++
+      if (index == -1) {
+        misses++
+        allocatedBytes += size
+        return ByteArray(size)
+      }
+      val buffer = classes[index].pollFirst()
+      return if (buffer != null) {
+        hits++
+        pooledBytes -= buffer.size
+        buffer
+      } else {
+        misses++
+        val classSize = 1 shl (index + MIN_CLASS_SHIFT)
+        allocatedBytes += classSize
+        ByteArray(classSize)
+      }
+    }
+  }
+
+  /**
+   * Return buffer to the pool. Buffer can't be used after call it.
+   */
+  fun release(buffer: ByteArray) {
+    val index = getClassIndex(buffer.size)
+    synchronized(this) {
+      liveBuffers--
+      //discard not pooled sizes or if the pool is full
+      if (index == -1 || buffer.size != 1 shl (index + MIN_CLASS_SHIFT)) return
+      if (pooledBytes + buffer.size > maxPooledBytes) return
+      classes[index].addFirst(buffer)
+      pooledBytes += buffer.size
+    }
+  }
+
+  fun getPooledBytes(): Long = synchronized(this) { pooledBytes }
+
+  /**
+   * @return percentage of obtain calls that reused a buffer
+   */
+  fun getHitRate(): Float {
+    val total = hits + misses
+    return if (total == 0L) 0f else hits * 100f / total
+  }
+
+  fun clear() {
+    synchronized(this) {
+      classes.forEach { it.clear() }
+      pooledBytes = 0
+    }
+  }
+
+  fun resetMetrics() {
+    synchronized(this) {
+      hits = 0
+      misses = 0
+      allocatedBytes = 0
+    }
+  }
+
+  private fun getClassIndex(size: Int): Int {
+    if (size > 1 shl MAX_CLASS_SHIFT) return -1
+    val shift = if (size <= 1 shl MIN_CLASS_SHIFT) MIN_CLASS_SHIFT else 32 - Integer.numberOfLeadingZeros(size - 1)
+    return shift - MIN_CLASS_SHIFT
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import java.io.IOException
+import java.net.SocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+
+/**
+ * Group multiple datagrams to send them together in a DatagramChannel reusing direct buffers.
+ *
+ * Java doesn't provide sendmmsg so each datagram is still a send call, but the data is copied only once
+ * to a direct buffer (heap buffers are copied to a temporary direct buffer per call by the channel)
+ * and no DatagramPacket is created per send.
+ *
+ * Not thread safe. Callers must synchronize add and flush calls.
+ */
+class DatagramBatchWriter(
+  maxPacketSize: Int,
+  private val maxBatchSize: Int = DEFAULT_MAX_BATCH_SIZE
+) {
+
+  companion object {
+    const val DEFAULT_MAX_BATCH_SIZE = 32
+  }
+
+  private val buffers = Array(maxBatchSize) { ByteBuffer.allocateDirect(maxPacketSize) }
+  //null if the channel is connected
+  private val targets = arrayOfNulls<SocketAddress>(maxBatchSize)
+  private var size = 0
+  var sentDatagrams: Long = 0
+    private set
+  var sentBatches: Long = 0
+    private set
+
+  fun isEmpty(): Boolean = size == 0
+
+  fun isFull(): Boolean = size == maxBatchSize
+
+  /**
+   * Reserve the next buffer of the batch. The caller must write the datagram data in it.
+   * Buffer is reallocated if the datagram doesn't fit.
+   */
+  fun next(length: Int, target: SocketAddress? = null): ByteBuffer {
+    if (isFull()) throw IllegalStateException("batch is full, flush it before add more datagrams")
+    var buffer = buffers[size]
+    if (buffer.capacity() < length) {
+      buffer = ByteBuffer.allocateDirect(length)
+      buffers[size] = buffer
+    }
+    buffer.clear()
+    targets[size] = target
+    size++
+    return buffer
+  }
+
+  fun add(data: ByteArray, offset: Int, length: Int, target: SocketAddress? = null) {
+    next(length, target).put(data, offset, length)
+  }
+
+  /**
+   * Send all datagrams of the batch in order.
+   *
+   * @return bytes sent
+   */
+  @Throws(IOException::class)
+  fun flush(channel: DatagramChannel): Int {
+    if (size == 0) return 0
+    var bytes = 0
+    try {
+      for (i in 0 until size) {
+        val buffer = buffers[i]
+        buffer.flip()
+        val target = targets[i]
+        bytes += if (target == null) channel.write(buffer) else channel.send(buffer, target)
+      }
+      sentDatagrams += size
+      sentBatches++
+    } finally {
+      targets.fill(null, 0, size)
+      size = 0
+    }
+    return bytes
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import java.nio.ByteBuffer
+
+/**
+ * Put frames in the queue of a sender following a DropPolicy when the queue is full.
+ *
+ * With DropPolicy.DROP_OLDEST the oldest frames in the queue are discarded until the new frame fits. Packets of a video
+ * frame are queued as a group of the queue so a frame is always discarded whole, never the part of a frame that is
+ * not sent yet. A frame bigger than the queue is discarded.
+ *
+ * With DropPolicy.DROP_GOP all packets of a video frame (access unit) are queued or discarded together.
+ * Non reference frames are discarded first when the queue is above HIGH_WATER_MARK. If a reference frame doesn't
+ * fit, it is discarded with the rest of its GOP until the next keyframe and a keyframe is requested to the encoder.
+ * Only one keyframe is requested until a keyframe is queued.
+ *
+ * There are no locks, the queue is lock free and audio and video encoder threads can queue frames at the same time.
+ * enqueueVideo must be called only from the video encoder thread.
+ *
+ * @param onDiscard called with each packet discarded. The packet must be released.
+ */
+class DropController<T: Any>(private val onDiscard: (T) -> Unit) {
+
+  companion object {
+    //used part of the queue from which non reference frames are discarded
+    private const val HIGH_WATER_MARK = 0.5f
+
+    /**
+     * Check the first slice of an Annex-B frame.
+     *
+     * @return true if no other frame uses the frame as reference so it can be discarded without artifacts.
+     */
+    fun isNonReference(buffer: ByteBuffer, isHevc: Boolean): Boolean {
+      var i = buffer.position()
+      val last = buffer.limit() - 3
+      while (i < last) {
+        if (buffer.get(i).toInt() == 0 && buffer.get(i + 1).toInt() == 0 && buffer.get(i + 2).toInt() == 1) {
+          val header = buffer.get(i + 3).toInt()
+          if (isHevc) {
+            val type = (header shr 1) and 0x3F
+            //sub-layer non reference slices are the even types until RSV_VCL_N14
+            if (type < 32) return type <= 14 && type % 2 == 0
+          } else {
+            val type = header and 0x1F
+            //nal_ref_idc is 0 in non reference slices
+            if (type in 1..5) return (header shr 5) and 0x03 == 0
+          }
+          i += 3
+        } else {
+          i++
+        }
+      }
+      return false
+    }
+  }
+
+  @Volatile
+  var dropPolicy = DropPolicy.DROP_NEWEST
+  @Volatile
+  var keyFrameRequestListener: Runnable? = null
+  val dropStats = DropStats()
+  @Volatile
+  private var waitingKeyFrame = false
+  //a keyframe was requested and no keyframe was queued after that
+  @Volatile
+  private var keyFrameRequested = false
+
+  /**
+   * Queue a packet that doesn't need to be handled as a video frame (audio or video with other policies).
+   */
+  fun enqueue(queue: FrameRing<T>, packet: T) {
+    if (queue.offer(packet)) return
+    if (dropPolicy == DropPolicy.DROP_OLDEST) {
+      while (dropOldest(queue)) {
+        if (queue.offer(packet)) return
+      }
+    }
+    dropStats.newestCount.incrementAndGet()
+    onDiscard(packet)
+  }
+
+  /**
+   * Queue all packets of a video frame.
+   */
+  fun enqueueVideo(queue: FrameRing<T>, packets: List<T>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    if (dropPolicy == DropPolicy.DROP_NEWEST) {
+      packets.forEach { enqueue(queue, it) }
+      return
+    }
+    if (dropPolicy == DropPolicy.DROP_OLDEST) {
+      //a frame bigger than the queue never fits, discard it without emptying the queue
+      if (packets.size <= queue.size + queue.remainingCapacity()) {
+        while (true) {
+          if (queue.offerAll(packets)) return
+          if (!dropOldest(queue)) break
+        }
+      }
+      dropStats.newestCount.incrementAndGet()
+      packets.forEach(onDiscard)
+      return
+    }
+    if (waitingKeyFrame && !isKeyFrame) {
+      dropStats.gopTailCount.incrementAndGet()
+      packets.forEach(onDiscard)
+      return
+    }
+    val size = queue.size
+    val remaining = queue.remainingCapacity()
+    if (!isKeyFrame && isNonReference && (remaining < packets.size || size >= (size + remaining) * HIGH_WATER_MARK)) {
+      dropStats.nonReferenceCount.incrementAndGet()
+      packets.forEach(onDiscard)
+      return
+    }
+    //fails if there is no space or other producer took the space checked, nothing is queued in that case
+    if (!queue.offerAll(packets)) {
+      dropGop(packets)
+      return
+    }
+    waitingKeyFrame = false
+    if (isKeyFrame) keyFrameRequested = false
+  }
+
+  fun reset() {
+    waitingKeyFrame = false
+    keyFrameRequested = false
+  }
+
+  //the oldest frame (group of packets) is discarded whole
+  private fun dropOldest(queue: FrameRing<T>): Boolean {
+    if (queue.dropOldest(onDiscard) == 0) return false
+    dropStats.oldestCount.incrementAndGet()
+    return true
+  }
+
+  //next frames are not decodable without the frame discarded, they wait for a keyframe
+  private fun dropGop(packets: List<T>) {
+    dropStats.gopTailCount.incrementAndGet()
+    packets.forEach(onDiscard)
+    waitingKeyFrame = true
+    if (keyFrameRequested) return
+    keyFrameRequested = true
+    dropStats.keyFrameRequestsCount.incrementAndGet()
+    keyFrameRequestListener?.run()
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+/**
+ * What to do when a frame is sent and the queue of the sender is full.
+ */
+enum class DropPolicy {
+  //discard the new frame (default)
+  DROP_NEWEST,
+  //discard the oldest frames in the queue to keep latency low. Video frames are discarded whole
+  DROP_OLDEST,
+  //discard whole video frames, non reference frames first. If a reference frame is discarded, the rest of the GOP
+  //is discarded too until the next keyframe that is requested to the encoder
+  DROP_GOP
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Frames discarded by a sender grouped by the reason (policy) of the discard.
+ * Counters are increased by audio and video encoder threads at the same time.
+ */
+class DropStats {
+  //new frames discarded with the queue full (DROP_NEWEST or audio with DROP_GOP)
+  internal val newestCount = AtomicLong()
+  //frames removed from the queue to make space (DROP_OLDEST)
+  internal val oldestCount = AtomicLong()
+  //video frames discarded until the next keyframe (DROP_GOP)
+  internal val gopTailCount = AtomicLong()
+  //non reference video frames discarded with the queue near to full (DROP_GOP)
+  internal val nonReferenceCount = AtomicLong()
+  //keyframes requested to the encoder after discard a reference frame (DROP_GOP)
+  internal val keyFrameRequestsCount = AtomicLong()
+
+  val newest: Long
+    get() = newestCount.get()
+  val oldest: Long
+    get() = oldestCount.get()
+  val gopTail: Long
+    get() = gopTailCount.get()
+  val nonReference: Long
+    get() = nonReferenceCount.get()
+  val keyFrameRequests: Long
+    get() = keyFrameRequestsCount.get()
+
+  fun reset() {
+    newestCount.set(0)
+    oldestCount.set(0)
+    gopTailCount.set(0)
+    nonReferenceCount.set(0)
+    keyFrameRequestsCount.set(0)
+  }
+
+  override fun toString(): String {
+    return "DropStats(newest=$newest, oldest=$oldest, gopTail=$gopTail, nonReference=$nonReference, " +
+        "keyFrameRequests=$keyFrameRequests)"
+  }
+}
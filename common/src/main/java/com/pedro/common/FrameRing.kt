@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Bounded lock free queue of frames between encoder threads and the sender coroutine.
+ *
+ * Slots are preallocated so offer doesn't allocate memory. Each slot has a sequence number that says if the slot
+ * is free or contains a frame (bounded ring of D. Vyukov) so audio and video encoders can offer frames at the same time.
+ * The sender thread spins a little before park (only with multiple cores) and it is unparked by the next offer.
+ *
+ * The ring is resized without locks: resize returns a new ring that replaces this one. Offers to this ring after
+ * resize go to the new ring and polls continue with the new ring once all items of this ring were polled, so the
+ * order of the items is kept.
+ *
+ * Items offered together with offerAll are a group: the consumer and dropOldest always take a group whole, so a
+ * producer can't remove part of a frame that the consumer is sending. Only one consumer can poll at the same time.
+ */
+class FrameRing<T: Any>(val capacity: Int) {
+
+  private val items = AtomicReferenceArray<T?>(capacity)
+  private val sequences = AtomicLongArray(capacity)
+  private val tail = AtomicLong(0)
+  private val head = AtomicLong(0)
+  //number of items of the group that starts in each slot, written before the slot is published
+  private val groupSizes = IntArray(capacity)
+  //rest of the group taken by the last poll, only used by the consumer
+  private val polledItems = arrayOfNulls<Any>(capacity)
+  private var polledIndex = 0
+  private var polledCount = 0
+  @Volatile
+  private var waiter: Thread? = null
+  //ring that replaces this ring after resize
+  @Volatile
+  private var next: FrameRing<T>? = null
+
+  companion object {
+    //spin only with multiple cores, in a single core spinning delays the producer
+    private val SPIN_TRIES = if (Runtime.getRuntime().availableProcessors() > 1) 64 else 0
+    //bit of tail set when the ring is resized, producers can't take more slots after that
+    private const val CLOSED = 1L shl 62
+  }
+
+  init {
+    require(capacity > 0) { "capacity must be greater than 0" }
+    for (i in 0 until capacity) sequences.set(i, i.toLong())
+  }
+
+  /**
+   * Items not polled yet, including items of the new ring after resize.
+   */
+  val size: Int
+    get() {
+      val ownSize = ((tail.get() and CLOSED.inv()) - head.get()).coerceIn(0, capacity.toLong()).toInt()
+      return ownSize + (next?.size ?: 0)
+    }
+
+  fun remainingCapacity(): Int {
+    next?.let { return it.remainingCapacity() }
+    return capacity - size
+  }
+
+  fun isEmpty(): Boolean = size == 0
+
+  /**
+   * @return false if the queue is full
+   */
+  fun offer(item: T): Boolean {
+    var position = tail.get()
+    while (true) {
+      if (position and CLOSED != 0L) return next!!.offer(item)
+      val index = (position % capacity).toInt()
+      val difference = sequences.get(index) - position
+      if (difference == 0L) {
+        if (tail.compareAndSet(position, position + 1)) {
+          items.lazySet(index, item)
+          groupSizes[index] = 1
+          //publish the item, it is visible for the consumer after this
+          sequences.set(index, position + 1)
+          waiter?.let { LockSupport.unpark(it) }
+          return true
+        }
+        position = tail.get()
+      } else if (difference < 0) {
+        return false //slot is not consumed yet, queue full
+      } else {
+        position = tail.get() //other producer took the slot
+      }
+    }
+  }
+
+  /**
+   * Offer all items in consecutive slots as a group.
+   *
+   * @return false if there is no space for all items, nothing is added in that case
+   */
+  fun offerAll(items: List<T>): Boolean {
+    val count = items.size
+    if (count == 0) return true
+    var position = tail.get()
+    while (true) {
+      if (position and CLOSED != 0L) return next!!.offerAll(items)
+      if (count > capacity) return false
+      var taken = false
+      for (i in 0 until count) {
+        val difference = sequences.get(((position + i) % capacity).toInt()) - (position + i)
+        if (difference < 0) return false //slot is not consumed yet, queue full
+        if (difference > 0) {
+          taken = true //other producer took the slot
+          break
+        }
+      }
+      if (!taken && tail.compareAndSet(position, position + count)) {
+        for (i in 0 until count) this.items.lazySet(((position + i) % capacity).toInt(), items[i])
+        groupSizes[(position % capacity).toInt()] = count
+        //publish from the last item, the group is complete when the first item is visible for the consumer
+        for (i in count - 1 downTo 0) sequences.set(((position + i) % capacity).toInt(), position + i + 1)
+        waiter?.let { LockSupport.unpark(it) }
+        return true
+      }
+      position = tail.get()
+    }
+  }
+
+  /**
+   * Only one thread can poll at the same time.
+   *
+   * @return the oldest item or null if the queue is empty
+   */
+  fun poll(): T? {
+    if (polledIndex < polledCount) return takePolled()
+    var position = head.get()
+    while (true) {
+      val index = (position % capacity).toInt()
+      val difference = sequences.get(index) - (position + 1)
+      if (difference == 0L) {
+        val count = groupSizes[index]
+        if (head.compareAndSet(position, position + count)) {
+          val item = release(position)
+          if (count > 1) {
+            //the rest of the group is kept until the next polls, dropOldest can't remove it now
+            for (i in 1 until count) polledItems[i - 1] = release(position + i)
+            polledIndex = 0
+            polledCount = count - 1
+          }
+          return item
+        }
+        position = head.get()
+      } else if (difference < 0) {
+        //empty or item not published yet. After resize continue with the new ring once this ring is empty
+        return if (isDrained(position)) next!!.poll() else null
+      } else {
+        position = head.get()
+      }
+    }
+  }
+
+  /**
+   * Remove the oldest group not polled yet. Producers can call it while the consumer polls.
+   *
+   * @param onDrop called with each item removed
+   * @return number of items removed, 0 if there are no items
+   */
+  fun dropOldest(onDrop: (T) -> Unit): Int {
+    var position = head.get()
+    while (true) {
+      val index = (position % capacity).toInt()
+      val difference = sequences.get(index) - (position + 1)
+      if (difference == 0L) {
+        val count = groupSizes[index]
+        if (head.compareAndSet(position, position + count)) {
+          for (i in 0 until count) onDrop(release(position + i))
+          return count
+        }
+        position = head.get()
+      } else if (difference < 0) {
+        return if (isDrained(position)) next!!.dropOldest(onDrop) else 0
+      } else {
+        position = head.get()
+      }
+    }
+  }
+
+  /**
+   * Wait until an item is available or timeout. Only one thread should wait at the same time.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  fun poll(timeout: Long, unit: TimeUnit): T? {
+    for (i in 0 until SPIN_TRIES) {
+      poll()?.let { return it }
+      Thread.yield()
+    }
+    val deadline = System.nanoTime() + unit.toNanos(timeout)
+    waiter = Thread.currentThread()
+    try {
+      while (true) {
+        //check again after publish the waiter to avoid lost wake ups
+        poll()?.let { return it }
+        val remaining = deadline - System.nanoTime()
+        if (remaining <= 0) return null
+        //offers go to the new ring after resize so wait there
+        if (isDrained(head.get())) return next!!.poll(remaining, TimeUnit.NANOSECONDS)
+        LockSupport.parkNanos(this, remaining)
+        if (Thread.interrupted()) throw InterruptedException()
+      }
+    } finally {
+      waiter = null
+    }
+  }
+
+  /**
+   * Move up to maxElements items to collection.
+   *
+   * @return number of items moved
+   */
+  fun drainTo(collection: MutableCollection<T>, maxElements: Int = Int.MAX_VALUE): Int {
+    var count = 0
+    while (count < maxElements) {
+      val item = poll() ?: break
+      collection.add(item)
+      count++
+    }
+    return count
+  }
+
+  /**
+   * Replace this ring with a new ring of capacity. Items of this ring are not moved, they are polled before the
+   * items of the new ring. Must be called only once per ring.
+   *
+   * @return the new ring, producers should offer to it from now
+   */
+  fun resize(capacity: Int): FrameRing<T> {
+    val ring = FrameRing<T>(capacity)
+    //published before close so producers that find the ring closed always have the new ring
+    next = ring
+    while (true) {
+      val position = tail.get()
+      check(position and CLOSED == 0L) { "ring already resized" }
+      if (tail.compareAndSet(position, position or CLOSED)) break
+    }
+    //the consumer could be waiting in this ring, wake up it to wait in the new ring
+    waiter?.let { LockSupport.unpark(it) }
+    return ring
+  }
+
+  /**
+   * @return ring that the consumer should poll, this ring or the new ring if it is resized and empty
+   */
+  fun current(): FrameRing<T> {
+    var ring = this
+    while (ring.polledIndex == ring.polledCount && ring.isDrained(ring.head.get())) ring = ring.next!!
+    return ring
+  }
+
+  private fun release(position: Long): T {
+    val index = (position % capacity).toInt()
+    val item = items.get(index)!!
+    items.lazySet(index, null)
+    //release the slot for producers
+    sequences.set(index, position + capacity)
+    return item
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  private fun takePolled(): T {
+    val item = polledItems[polledIndex] as T
+    polledItems[polledIndex++] = null
+    return item
+  }
+
+  //resized and all slots taken before resize are polled
+  private fun isDrained(position: Long): Boolean {
+    val tail = tail.get()
+    return tail and CLOSED != 0L && position == tail and CLOSED.inv()
+  }
+}
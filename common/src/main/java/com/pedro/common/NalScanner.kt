@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import java.nio.ByteBuffer
+
+/**
+ * Find NAL units of an Annex-B buffer (H264/H265) in a single pass reading the buffer in place.
+ *
+ * Arrays are reused between scans so no memory is allocated per frame after the first ones.
+ * Results are valid until the next call to scan.
+ */
+class NalScanner {
+
+  private var buffer: ByteBuffer? = null
+  //index of the first byte of the start code
+  private var prefixes = IntArray(INITIAL_CAPACITY)
+  //index of the nal header (first byte after the start code)
+  private var starts = IntArray(INITIAL_CAPACITY)
+  //index after the last byte of the nal
+  private var ends = IntArray(INITIAL_CAPACITY)
+  var count = 0
+    private set
+
+  companion object {
+    private const val INITIAL_CAPACITY = 16
+  }
+
+  /**
+   * Scan buffer from start (inclusive) to end (exclusive). Buffer position is not modified.
+   *
+   * @return number of nal units found. 0 if the buffer doesn't contain start codes
+   */
+  fun scan(buffer: ByteBuffer, start: Int = 0, end: Int = buffer.limit()): Int {
+    this.buffer = buffer
+    count = 0
+    if (buffer.hasArray()) {
+      //read the backing array directly, it is faster than ByteBuffer.get
+      val array = buffer.array()
+      val offset = buffer.arrayOffset()
+      scan(start, end) { array[offset + it].toInt() }
+    } else {
+      scan(start, end) { buffer.get(it).toInt() }
+    }
+    return count
+  }
+
+  private inline fun scan(start: Int, end: Int, get: (Int) -> Int) {
+    var prefix = -1
+    var nalStart = -1
+    var i = start
+    val last = end - 3
+    while (i <= last) {
+      val value = get(i + 2) and 0xFF
+      if (value > 1) {
+        //a start code can't be at i, i + 1 or i + 2
+        i += 3
+      } else if (value == 1 && get(i + 1) == 0 && get(i) == 0) {
+        //00 00 01 found, include the previous zero for 00 00 00 01
+        val startCodeIndex = if (i > start && i - 1 >= nalStart && get(i - 1) == 0) i - 1 else i
+        if (nalStart >= 0) add(prefix, nalStart, startCodeIndex)
+        prefix = startCodeIndex
+        nalStart = i + 3
+        i += 3
+      } else {
+        i++
+      }
+    }
+    if (nalStart >= 0) add(prefix, nalStart, end)
+  }
+
+  fun getPrefixStart(index: Int): Int = prefixes[index]
+
+  fun getStart(index: Int): Int = starts[index]
+
+  fun getEnd(index: Int): Int = ends[index]
+
+  fun getSize(index: Int): Int = ends[index] - starts[index]
+
+  fun getH264Type(index: Int): Int = (requireBuffer().get(starts[index]).toInt() and 0x1F)
+
+  fun getH265Type(index: Int): Int = (requireBuffer().get(starts[index]).toInt() shr 1) and 0x3F
+
+  /**
+   * Check if nal at index is equal to bytes (without start code). Compared in place.
+   */
+  fun matches(index: Int, bytes: ByteArray): Boolean {
+    if (getSize(index) != bytes.size) return false
+    val buffer = requireBuffer()
+    val start = starts[index]
+    for (i in bytes.indices) {
+      if (buffer.get(start + i) != bytes[i]) return false
+    }
+    return true
+  }
+
+  /**
+   * Copy nal at index (without start code) in dst. Buffer position is moved to the end of the nal.
+   */
+  fun copyTo(index: Int, dst: ByteArray, offset: Int) {
+    val buffer = requireBuffer()
+    buffer.position(starts[index])
+    buffer.get(dst, offset, getSize(index))
+  }
+
+  fun clear() {
+    buffer = null
+    count = 0
+  }
+
+  private fun add(prefix: Int, start: Int, end: Int) {
+    if (end <= start) return //empty nal
+    if (count == starts.size) {
+      val capacity = starts.size * 2
+      prefixes = prefixes.copyOf(capacity)
+      starts = starts.copyOf(capacity)
+      ends = ends.copyOf(capacity)
+    }
+    prefixes[count] = prefix
+    starts[count] = start
+    ends[count] = end
+    count++
+  }
+
+  private fun requireBuffer(): ByteBuffer = buffer ?: throw IllegalStateException("scan must be called first")
+}
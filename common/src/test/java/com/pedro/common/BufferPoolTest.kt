@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class BufferPoolTest {
+
+  @Test
+  fun `GIVEN a size WHEN obtain buffer THEN get a buffer with the size rounded to the next size class`() {
+    val bufferPool = BufferPool()
+    assertEquals(128, bufferPool.obtain(1).size)
+    assertEquals(128, bufferPool.obtain(128).size)
+    assertEquals(256, bufferPool.obtain(129).size)
+    assertEquals(2048, bufferPool.obtain(1500).size)
+    assertEquals(4, bufferPool.misses)
+    assertEquals(4, bufferPool.liveBuffers)
+    assertEquals(128L + 128 + 256 + 2048, bufferPool.allocatedBytes)
+  }
+
+  @Test
+  fun `GIVEN a released buffer WHEN obtain a buffer of the same size class THEN reuse it`() {
+    val bufferPool = BufferPool()
+    val buffer = bufferPool.obtain(1000)
+    bufferPool.release(buffer)
+    assertEquals(0, bufferPool.liveBuffers)
+    assertEquals(1024, bufferPool.getPooledBytes())
+
+    val reused = bufferPool.obtain(600)
+    assertSame(buffer, reused)
+    assertEquals(1, bufferPool.hits)
+    assertEquals(1, bufferPool.misses)
+    assertEquals(1, bufferPool.liveBuffers)
+    assertEquals(0, bufferPool.getPooledBytes())
+  }
+
+  @Test
+  fun `GIVEN a full pool WHEN release buffer THEN discard it`() {
+    val bufferPool = BufferPool(maxPooledBytes = 1024)
+    val buffer1 = bufferPool.obtain(1024)
+    val buffer2 = bufferPool.obtain(1024)
+    bufferPool.release(buffer1)
+    bufferPool.release(buffer2)
+    assertEquals(1024, bufferPool.getPooledBytes())
+
+    assertSame(buffer1, bufferPool.obtain(1024))
+    assertNotSame(buffer2, bufferPool.obtain(1024))
+  }
+
+  @Test
+  fun `GIVEN a size bigger than max size class WHEN obtain buffer THEN get a not pooled buffer with exact size`() {
+    val bufferPool = BufferPool()
+    val size = 5 * 1024 * 1024
+    val buffer = bufferPool.obtain(size)
+    assertEquals(size, buffer.size)
+    bufferPool.release(buffer)
+    assertEquals(0, bufferPool.getPooledBytes())
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class DropControllerTest {
+
+  private val discarded = mutableListOf<String>()
+  private var keyFrameRequests = 0
+  private val dropController = DropController<String> { discarded.add(it) }.apply {
+    keyFrameRequestListener = Runnable { keyFrameRequests++ }
+  }
+
+  @Test
+  fun `GIVEN DROP_GOP WHEN a frame doesn't fit THEN discard the whole frame and the gop tail until a keyframe`() {
+    dropController.dropPolicy = DropPolicy.DROP_GOP
+    val queue = FrameRing<String>(4)
+    dropController.enqueueVideo(queue, listOf("i1", "i2", "i3"), isKeyFrame = true, isNonReference = false)
+    dropController.enqueueVideo(queue, listOf("p1a", "p1b"), isKeyFrame = false, isNonReference = false)
+    //never a part of the frame in the queue
+    assertEquals(3, queue.size)
+    assertEquals(listOf("p1a", "p1b"), discarded)
+    assertEquals(1, keyFrameRequests)
+    queue.drainTo(mutableListOf())
+    //space available but the frame depends on a discarded frame
+    dropController.enqueueVideo(queue, listOf("p2"), isKeyFrame = false, isNonReference = false)
+    assertEquals(0, queue.size)
+    dropController.enqueueVideo(queue, listOf("i4"), isKeyFrame = true, isNonReference = false)
+    dropController.enqueueVideo(queue, listOf("p3"), isKeyFrame = false, isNonReference = false)
+    assertEquals("i4", queue.poll())
+    assertEquals("p3", queue.poll())
+    assertEquals(listOf("p1a", "p1b", "p2"), discarded)
+    assertEquals(2, dropController.dropStats.gopTail)
+    assertEquals(1, dropController.dropStats.keyFrameRequests)
+  }
+
+  @Test
+  fun `GIVEN DROP_GOP WHEN keyframes are discarded until one fits THEN the keyframe is requested only once`() {
+    dropController.dropPolicy = DropPolicy.DROP_GOP
+    val queue = FrameRing<String>(2)
+    dropController.enqueueVideo(queue, listOf("i1", "i2"), isKeyFrame = true, isNonReference = false)
+    dropController.enqueueVideo(queue, listOf("p1"), isKeyFrame = false, isNonReference = false)
+    //the queue is full so the next keyframe is discarded too
+    dropController.enqueueVideo(queue, listOf("i3"), isKeyFrame = true, isNonReference = false)
+    dropController.enqueueVideo(queue, listOf("p2"), isKeyFrame = false, isNonReference = false)
+    assertEquals(listOf("p1", "i3", "p2"), discarded)
+    assertEquals(1, keyFrameRequests)
+    queue.drainTo(mutableListOf())
+    dropController.enqueueVideo(queue, listOf("i4"), isKeyFrame = true, isNonReference = false)
+    assertEquals(1, keyFrameRequests)
+    //a keyframe was queued so a new drop needs other keyframe
+    dropController.enqueueVideo(queue, listOf("p3a", "p3b"), isKeyFrame = false, isNonReference = false)
+    assertEquals(2, keyFrameRequests)
+    assertEquals(2, dropController.dropStats.keyFrameRequests)
+  }
+
+  @Test
+  fun `GIVEN DROP_GOP WHEN the queue is near to full THEN discard non reference frames first`() {
+    dropController.dropPolicy = DropPolicy.DROP_GOP
+    val queue = FrameRing<String>(4)
+    dropController.enqueueVideo(queue, listOf("i1", "i2"), isKeyFrame = true, isNonReference = false)
+    dropController.enqueueVideo(queue, listOf("b1"), isKeyFrame = false, isNonReference = true)
+    dropController.enqueueVideo(queue, listOf("p1"), isKeyFrame = false, isNonReference = false)
+    assertEquals(3, queue.size)
+    assertEquals(listOf("b1"), discarded)
+    assertEquals(1, dropController.dropStats.nonReference)
+    assertEquals(0, keyFrameRequests)
+  }
+
+  @Test
+  fun `GIVEN DROP_GOP WHEN audio doesn't fit THEN discard only the new audio frame`() {
+    dropController.dropPolicy = DropPolicy.DROP_GOP
+    val queue = FrameRing<String>(2)
+    dropController.enqueueVideo(queue, listOf("i1", "i2"), isKeyFrame = true, isNonReference = false)
+    dropController.enqueue(queue, "a1")
+    dropController.enqueueVideo(queue, listOf("p1"), isKeyFrame = false, isNonReference = false)
+    queue.drainTo(mutableListOf())
+    dropController.enqueue(queue, "a2")
+    assertEquals(listOf("a1", "p1"), discarded)
+    assertEquals(1, dropController.dropStats.newest)
+    assertEquals(1, queue.size)
+  }
+
+  @Test
+  fun `GIVEN DROP_OLDEST WHEN the queue is full THEN discard the oldest frame`() {
+    dropController.dropPolicy = DropPolicy.DROP_OLDEST
+    val queue = FrameRing<String>(2)
+    dropController.enqueue(queue, "a1")
+    dropController.enqueueVideo(queue, listOf("v1", "v2"), isKeyFrame = true, isNonReference = false)
+    assertEquals(listOf("a1"), discarded)
+    assertEquals(1, dropController.dropStats.oldest)
+    assertEquals("v1", queue.poll())
+    assertEquals("v2", queue.poll())
+  }
+
+  @Test
+  fun `GIVEN DROP_OLDEST WHEN the oldest frame is being sent THEN discard the next frame whole`() {
+    dropController.dropPolicy = DropPolicy.DROP_OLDEST
+    val queue = FrameRing<String>(4)
+    dropController.enqueueVideo(queue, listOf("v1a", "v1b", "v1c"), isKeyFrame = true, isNonReference = false)
+    //the sender takes the first packet of the frame
+    assertEquals("v1a", queue.poll())
+    dropController.enqueueVideo(queue, listOf("v2a", "v2b", "v2c"), isKeyFrame = false, isNonReference = false)
+    dropController.enqueue(queue, "a1")
+    dropController.enqueueVideo(queue, listOf("v3a", "v3b"), isKeyFrame = false, isNonReference = false)
+    assertEquals(listOf("v2a", "v2b", "v2c"), discarded)
+    assertEquals(1, dropController.dropStats.oldest)
+    assertEquals(listOf("v1b", "v1c", "a1", "v3a", "v3b"), (0 until 5).map { queue.poll() })
+  }
+
+  @Test
+  fun `GIVEN DROP_OLDEST WHEN a frame is bigger than the queue THEN discard only the new frame`() {
+    dropController.dropPolicy = DropPolicy.DROP_OLDEST
+    val queue = FrameRing<String>(2)
+    dropController.enqueue(queue, "a1")
+    dropController.enqueueVideo(queue, listOf("v1a", "v1b", "v1c"), isKeyFrame = true, isNonReference = false)
+    assertEquals(listOf("v1a", "v1b", "v1c"), discarded)
+    assertEquals(1, dropController.dropStats.newest)
+    assertEquals(0, dropController.dropStats.oldest)
+    assertEquals("a1", queue.poll())
+  }
+
+  @Test
+  fun `GIVEN annex-b frames WHEN check reference THEN use the first slice header`() {
+    //sps, pps and a slice with nal_ref_idc 0
+    val h264NonReference = byteArrayOf(0, 0, 0, 1, 0x67, 1, 2, 0, 0, 0, 1, 0x68, 3, 0, 0, 1, 0x01, 4, 5)
+    val h264Reference = byteArrayOf(0, 0, 0, 1, 0x41, 4, 5)
+    //TRAIL_N and TRAIL_R
+    val h265NonReference = byteArrayOf(0, 0, 0, 1, 0x00, 0x01, 4, 5)
+    val h265Reference = byteArrayOf(0, 0, 0, 1, 0x02, 0x01, 4, 5)
+    assertTrue(DropController.isNonReference(ByteBuffer.wrap(h264NonReference), false))
+    assertFalse(DropController.isNonReference(ByteBuffer.wrap(h264Reference), false))
+    assertTrue(DropController.isNonReference(ByteBuffer.wrap(h265NonReference), true))
+    assertFalse(DropController.isNonReference(ByteBuffer.wrap(h265Reference), true))
+  }
+}
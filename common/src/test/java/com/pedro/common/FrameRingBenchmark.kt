@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+import kotlin.concurrent.thread
+
+/**
+ * Compare LinkedBlockingQueue and FrameRing between a producer thread (encoder) and a consumer thread (sender)
+ * that writes each frame in a loopback UDP socket.
+ * Report p50 and p99 of the time from enqueue to socket write done and bytes allocated per offer in the producer
+ * in the assert message. Ignored in the unit suite because results depend on the machine.
+ */
+@Ignore("benchmark")
+class FrameRingBenchmark {
+
+  private val warmupFrames = 2000
+  private val frames = 10000
+  //time between frames, consumer is parked most of the time like in a real stream
+  private val frameIntervalNs = 100_000L
+  private val packetSize = 1316
+
+  private lateinit var receiver: DatagramChannel
+  private lateinit var sender: DatagramChannel
+
+  private val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+  private class Frame {
+    var enqueueTime = 0L
+  }
+
+  private interface Queue {
+    fun offer(frame: Frame): Boolean
+    fun poll(timeout: Long, unit: TimeUnit): Frame?
+  }
+
+  @Before
+  fun setup() {
+    receiver = DatagramChannel.open().bind(InetSocketAddress("127.0.0.1", 0))
+    sender = DatagramChannel.open().connect(receiver.localAddress)
+    //discard received data
+    thread(isDaemon = true) {
+      val buffer = ByteBuffer.allocateDirect(2048)
+      runCatching {
+        while (receiver.isOpen) {
+          buffer.clear()
+          receiver.receive(buffer)
+        }
+      }
+    }
+  }
+
+  @After
+  fun teardown() {
+    sender.close()
+    receiver.close()
+  }
+
+  @Test
+  fun `GIVEN frames enqueued by a producer WHEN sender writes it in a socket THEN ring allocates less per offer than LinkedBlockingQueue`() {
+    val blockingQueue = LinkedBlockingQueue<Frame>(200)
+    val lbq = object : Queue {
+      override fun offer(frame: Frame): Boolean = blockingQueue.offer(frame)
+      override fun poll(timeout: Long, unit: TimeUnit): Frame? = blockingQueue.poll(timeout, unit)
+    }
+    val frameRing = FrameRing<Frame>(200)
+    val ring = object : Queue {
+      override fun offer(frame: Frame): Boolean = frameRing.offer(frame)
+      override fun poll(timeout: Long, unit: TimeUnit): Frame? = frameRing.poll(timeout, unit)
+    }
+    run(lbq, warmupFrames)
+    run(ring, warmupFrames)
+    val lbqResult = run(lbq, frames)
+    val ringResult = run(ring, frames)
+    assertTrue("LinkedBlockingQueue: $lbqResult, FrameRing: $ringResult",
+      ringResult.bytesPerOffer < lbqResult.bytesPerOffer)
+  }
+
+  private data class Result(val p50: Float, val p99: Float, val bytesPerOffer: Long) {
+    override fun toString(): String = "p50 ${p50}us, p99 ${p99}us, bytes allocated per offer $bytesPerOffer"
+  }
+
+  private fun run(queue: Queue, frames: Int): Result {
+    val latencies = LongArray(frames)
+    val buffer = ByteBuffer.allocateDirect(packetSize)
+    val consumer = thread {
+      for (i in 0 until frames) {
+        val frame = queue.poll(1, TimeUnit.SECONDS) ?: break
+        buffer.clear()
+        sender.write(buffer)
+        latencies[i] = System.nanoTime() - frame.enqueueTime
+      }
+    }
+    val pool = Array(256) { Frame() }
+    val threadId = Thread.currentThread().id
+    var allocated = 0L
+    for (i in 0 until frames) {
+      val frame = pool[i % pool.size]
+      frame.enqueueTime = System.nanoTime()
+      val startBytes = threadMXBean.getThreadAllocatedBytes(threadId)
+      while (!queue.offer(frame)) Thread.yield()
+      allocated += threadMXBean.getThreadAllocatedBytes(threadId) - startBytes
+      LockSupport.parkNanos(frameIntervalNs)
+    }
+    consumer.join()
+    assertEquals(0, latencies.count { it == 0L })
+    val sorted = latencies.sortedArray()
+    val p50 = sorted[sorted.size / 2] / 1000f
+    val p99 = sorted[sorted.size * 99 / 100] / 1000f
+    return Result(p50, p99, allocated / frames)
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class FrameRingTest {
+
+  @Test
+  fun `GIVEN a ring WHEN offer more items than capacity THEN reject items and keep order`() {
+    val ring = FrameRing<Int>(3)
+    assertTrue(ring.offer(1))
+    assertTrue(ring.offer(2))
+    assertTrue(ring.offer(3))
+    assertFalse(ring.offer(4))
+    assertEquals(3, ring.size)
+    assertEquals(0, ring.remainingCapacity())
+    assertEquals(1, ring.poll())
+    assertTrue(ring.offer(5))
+    assertEquals(2, ring.poll())
+    assertEquals(3, ring.poll())
+    assertEquals(5, ring.poll())
+    assertNull(ring.poll())
+    assertTrue(ring.isEmpty())
+  }
+
+  @Test
+  fun `GIVEN a ring WHEN offer and poll many times THEN slots are reused`() {
+    val ring = FrameRing<Int>(4)
+    for (i in 0 until 1000) {
+      assertTrue(ring.offer(i))
+      assertTrue(ring.offer(i + 1))
+      assertEquals(i, ring.poll())
+      assertEquals(i + 1, ring.poll())
+    }
+    assertEquals(0, ring.size)
+  }
+
+  @Test
+  fun `GIVEN an empty ring WHEN poll with timeout THEN return null after timeout`() {
+    val ring = FrameRing<Int>(4)
+    val startTime = System.nanoTime()
+    assertNull(ring.poll(50, TimeUnit.MILLISECONDS))
+    assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(50))
+  }
+
+  @Test
+  fun `GIVEN a waiting consumer WHEN offer from other thread THEN consumer is woken up`() {
+    val ring = FrameRing<Int>(4)
+    val producer = thread {
+      Thread.sleep(50)
+      ring.offer(7)
+    }
+    val startTime = System.nanoTime()
+    assertEquals(7, ring.poll(5, TimeUnit.SECONDS))
+    assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(1))
+    producer.join()
+  }
+
+  @Test(expected = InterruptedException::class)
+  fun `GIVEN a waiting consumer WHEN thread is interrupted THEN throw InterruptedException`() {
+    val ring = FrameRing<Int>(4)
+    val consumer = Thread.currentThread()
+    val interrupter = thread {
+      Thread.sleep(50)
+      consumer.interrupt()
+    }
+    try {
+      ring.poll(5, TimeUnit.SECONDS)
+    } finally {
+      interrupter.join()
+      Thread.interrupted()
+    }
+  }
+
+  @Test
+  fun `GIVEN two producers and a consumer WHEN offer concurrently THEN all items are received in order per producer`() {
+    val ring = FrameRing<Long>(64)
+    val itemsPerProducer = 100_000L
+    val start = CountDownLatch(1)
+    val producers = (0 until 2).map { producer ->
+      thread {
+        start.await()
+        var i = 0L
+        while (i < itemsPerProducer) {
+          //producer id in the high bits
+          if (ring.offer((producer.toLong() shl 32) or i)) i++ else Thread.yield()
+        }
+      }
+    }
+    start.countDown()
+    val last = longArrayOf(-1, -1)
+    var received = 0L
+    while (received < itemsPerProducer * 2) {
+      val item = ring.poll(1, TimeUnit.SECONDS) ?: break
+      val producer = (item shr 32).toInt()
+      val value = item and 0xFFFFFFFFL
+      assertEquals(last[producer] + 1, value)
+      last[producer] = value
+      received++
+    }
+    producers.forEach { it.join() }
+    assertEquals(itemsPerProducer * 2, received)
+  }
+
+  @Test
+  fun `GIVEN a ring with items WHEN drain to a list THEN move up to max elements`() {
+    val ring = FrameRing<Int>(8)
+    for (i in 0 until 5) ring.offer(i)
+    val list = mutableListOf<Int>()
+    assertEquals(2, ring.drainTo(list, 2))
+    assertEquals(listOf(0, 1), list)
+    assertEquals(3, ring.drainTo(list))
+    assertEquals(listOf(0, 1, 2, 3, 4), list)
+  }
+
+  @Test
+  fun `GIVEN a ring WHEN offer a group bigger than the free space THEN reject the whole group`() {
+    val ring = FrameRing<Int>(4)
+    assertTrue(ring.offer(0))
+    assertTrue(ring.offerAll(listOf(1, 2)))
+    assertFalse(ring.offerAll(listOf(3, 4)))
+    assertFalse(ring.offerAll(listOf(3, 4, 5, 6, 7)))
+    assertEquals(3, ring.size)
+    assertTrue(ring.offerAll(listOf(3)))
+    assertEquals(listOf(0, 1, 2, 3), (0 until 4).map { ring.poll() })
+    assertNull(ring.poll())
+  }
+
+  @Test
+  fun `GIVEN a group partially polled WHEN drop oldest THEN drop the next group whole`() {
+    val ring = FrameRing<Int>(8)
+    ring.offerAll(listOf(0, 1, 2))
+    ring.offerAll(listOf(3, 4))
+    ring.offer(5)
+    assertEquals(0, ring.poll())
+    val dropped = mutableListOf<Int>()
+    assertEquals(2, ring.dropOldest { dropped.add(it) })
+    assertEquals(listOf(3, 4), dropped)
+    assertEquals(1, ring.poll())
+    assertEquals(2, ring.poll())
+    assertEquals(5, ring.poll())
+    assertEquals(0, ring.dropOldest { dropped.add(it) })
+    assertNull(ring.poll())
+  }
+
+  @Test
+  fun `GIVEN a producer dropping oldest groups WHEN the consumer polls concurrently THEN groups are never split`() {
+    val ring = FrameRing<Long>(16)
+    val groups = 50_000L
+    val dropped = LongArray(1)
+    val producer = thread {
+      for (group in 0 until groups) {
+        //group id in the high bits, size and index in the low bits
+        val size = (group % 5 + 1).toInt()
+        val items = (0 until size).map { (group shl 16) or (size.toLong() shl 8) or it.toLong() }
+        while (!ring.offerAll(items)) {
+          ring.dropOldest { dropped[0]++ }
+        }
+      }
+    }
+    var expected = 0L
+    var lastGroup = -1L
+    while (true) {
+      val item = ring.poll(1, TimeUnit.SECONDS) ?: break
+      val group = item shr 16
+      val size = (item shr 8) and 0xFF
+      val index = item and 0xFF
+      if (index == 0L) {
+        assertEquals(0L, expected)
+        assertTrue(group > lastGroup)
+        lastGroup = group
+        expected = size - 1
+      } else {
+        assertEquals(lastGroup, group)
+        assertEquals(size - expected, index)
+        expected--
+      }
+    }
+    producer.join()
+    assertEquals(0L, expected)
+  }
+
+  @Test
+  fun `GIVEN a ring with items WHEN resize THEN old items are polled first and offers go to the new ring`() {
+    val ring = FrameRing<Int>(2)
+    ring.offer(0)
+    ring.offer(1)
+    val newRing = ring.resize(4)
+    //a producer with the old ring
+    assertTrue(ring.offer(2))
+    assertTrue(newRing.offer(3))
+    assertEquals(4, ring.size)
+    assertEquals(2, newRing.size)
+    assertEquals(2, ring.remainingCapacity())
+    assertEquals(ring, ring.current())
+    assertEquals(0, ring.poll())
+    assertEquals(1, ring.poll())
+    assertEquals(newRing, ring.current())
+    assertEquals(2, ring.poll())
+    assertEquals(3, newRing.poll())
+    assertNull(ring.poll())
+  }
+
+  @Test
+  fun `GIVEN a consumer waiting in a ring WHEN resize and offer to the new ring THEN consumer is woken up`() {
+    val ring = FrameRing<Int>(4)
+    val producer = thread {
+      Thread.sleep(50)
+      ring.resize(8).offer(7)
+    }
+    val startTime = System.nanoTime()
+    assertEquals(7, ring.poll(5, TimeUnit.SECONDS))
+    assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(1))
+    producer.join()
+  }
+
+  @Test
+  fun `GIVEN producers offering WHEN resize concurrently THEN all items are received in order per producer`() {
+    var ring = FrameRing<Long>(16)
+    val itemsPerProducer = 100_000L
+    val start = CountDownLatch(1)
+    val producers = (0 until 2).map { producer ->
+      thread {
+        start.await()
+        var i = 0L
+        while (i < itemsPerProducer) {
+          if (ring.offer((producer.toLong() shl 32) or i)) i++ else Thread.yield()
+        }
+      }
+    }
+    val resizer = thread {
+      start.await()
+      for (i in 0 until 100) {
+        ring = ring.resize(16 + i)
+        Thread.sleep(1)
+      }
+    }
+    var consumerRing = ring
+    start.countDown()
+    val last = longArrayOf(-1, -1)
+    var received = 0L
+    while (received < itemsPerProducer * 2) {
+      val item = consumerRing.poll(1, TimeUnit.SECONDS) ?: break
+      consumerRing = consumerRing.current()
+      val producer = (item shr 32).toInt()
+      val value = item and 0xFFFFFFFFL
+      assertEquals(last[producer] + 1, value)
+      last[producer] = value
+      received++
+    }
+    producers.forEach { it.join() }
+    resizer.join()
+    assertEquals(itemsPerProducer * 2, received)
+  }
+}
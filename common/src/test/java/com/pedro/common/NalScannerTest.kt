@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class NalScannerTest {
+
+  private val startCode4 = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+  private val startCode3 = byteArrayOf(0x00, 0x00, 0x01)
+
+  @Test
+  fun `GIVEN an access unit with video info and multiple slices WHEN scan THEN find all nal units`() {
+    val sps = byteArrayOf(0x67, 0x64, 0x00, 0x1E)
+    val pps = byteArrayOf(0x68, 0xEE.toByte(), 0x0D)
+    val slice1 = byteArrayOf(0x65).plus(ByteArray(50) { 0x11 })
+    val slice2 = byteArrayOf(0x65).plus(ByteArray(30) { 0x22 })
+    val buffer = ByteBuffer.wrap(startCode4.plus(sps).plus(startCode4).plus(pps).plus(startCode4).plus(slice1).plus(startCode3).plus(slice2))
+    val nalScanner = NalScanner()
+
+    assertEquals(4, nalScanner.scan(buffer))
+    assertEquals(0, buffer.position())
+    assertEquals(7, nalScanner.getH264Type(0))
+    assertEquals(8, nalScanner.getH264Type(1))
+    assertEquals(5, nalScanner.getH264Type(2))
+    assertEquals(5, nalScanner.getH264Type(3))
+    assertTrue(nalScanner.matches(0, sps))
+    assertTrue(nalScanner.matches(1, pps))
+    assertFalse(nalScanner.matches(1, sps))
+    assertEquals(slice1.size, nalScanner.getSize(2))
+    assertEquals(slice2.size, nalScanner.getSize(3))
+    //4 bytes start code of the second nal is not included in the first nal
+    assertEquals(nalScanner.getEnd(0), nalScanner.getPrefixStart(1))
+    assertEquals(nalScanner.getStart(1) - 4, nalScanner.getPrefixStart(1))
+    assertEquals(nalScanner.getStart(3) - 3, nalScanner.getPrefixStart(3))
+    val copy = ByteArray(slice2.size)
+    nalScanner.copyTo(3, copy, 0)
+    assertTrue(copy.contentEquals(slice2))
+  }
+
+  @Test
+  fun `GIVEN a nal with trailing zeros WHEN scan THEN zeros are part of the nal`() {
+    val nal = byteArrayOf(0x65).plus(ByteArray(300) { 0x00 })
+    val nalScanner = NalScanner()
+    assertEquals(1, nalScanner.scan(ByteBuffer.wrap(startCode4.plus(nal))))
+    assertEquals(4, nalScanner.getStart(0))
+    assertEquals(nal.size, nalScanner.getSize(0))
+  }
+
+  @Test
+  fun `GIVEN a buffer without start code WHEN scan THEN no nal units are found`() {
+    val nalScanner = NalScanner()
+    assertEquals(0, nalScanner.scan(ByteBuffer.wrap(ByteArray(100) { 0x01 })))
+    assertEquals(0, nalScanner.scan(ByteBuffer.wrap(byteArrayOf(0x00, 0x00))))
+  }
+
+  @Test
+  fun `GIVEN a range of the buffer WHEN scan THEN only nal units inside the range are found`() {
+    val data = startCode4.plus(byteArrayOf(0x41, 0x01, 0x02)).plus(startCode4).plus(byteArrayOf(0x41, 0x03))
+    val nalScanner = NalScanner()
+    assertEquals(1, nalScanner.scan(ByteBuffer.wrap(data), 0, 7))
+    assertEquals(3, nalScanner.getSize(0))
+    assertEquals(1, nalScanner.scan(ByteBuffer.wrap(data), 7, data.size))
+    assertEquals(11, nalScanner.getStart(0))
+  }
+
+  @Test
+  fun `GIVEN more nal units than initial capacity WHEN scan THEN find all of them`() {
+    var data = byteArrayOf()
+    repeat(100) { data = data.plus(startCode3).plus(byteArrayOf(0x41, it.toByte(), 0x7F)) }
+    val nalScanner = NalScanner()
+    assertEquals(100, nalScanner.scan(ByteBuffer.wrap(data)))
+    for (i in 0 until 100) {
+      assertEquals(3, nalScanner.getSize(i))
+      assertEquals(1, nalScanner.getH264Type(i))
+    }
+  }
+
+  @Test
+  fun `GIVEN a h265 nal WHEN get type THEN get the h265 nal type`() {
+    val nalScanner = NalScanner()
+    nalScanner.scan(ByteBuffer.wrap(startCode4.plus(byteArrayOf(0x40, 0x01, 0x0C))))
+    assertEquals(32, nalScanner.getH265Type(0))
+    nalScanner.scan(ByteBuffer.wrap(startCode4.plus(byteArrayOf(0x26, 0x01, 0x0C))))
+    assertEquals(19, nalScanner.getH265Type(0))
+  }
+}
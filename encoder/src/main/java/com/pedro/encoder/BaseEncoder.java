@@ -41,7 +41,7 @@ public abstract class BaseEncoder implements EncoderCallback {
   protected String TAG = "BaseEncoder";
   private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
   private HandlerThread handlerThread;
-  protected BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(80);
+  protected final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(80);
   protected MediaCodec codec;
   protected static long presentTimeUs;
   protected volatile boolean running = false;
@@ -53,11 +53,41 @@ public abstract class BaseEncoder implements EncoderCallback {
   protected boolean prepared = false;
   private Handler handler;
   private EncoderErrorCallback encoderErrorCallback;
+  private volatile boolean latestFrameOnly = false;
 
   public void setEncoderErrorCallback(EncoderErrorCallback encoderErrorCallback) {
     this.encoderErrorCallback = encoderErrorCallback;
   }
 
+  /**
+   * Latest frame wins. Frames waiting in the queue are discarded when a new frame arrives so the encoder always
+   * get the most recent frame and the latency is limited if the encoder is slower than the source.
+   */
+  public void setLatestFrameOnly(boolean latestFrameOnly) {
+    this.latestFrameOnly = latestFrameOnly;
+  }
+
+  public boolean isLatestFrameOnly() {
+    return latestFrameOnly;
+  }
+
+  /**
+   * Add a frame to the queue. Discarded frames are released.
+   *
+   * @return false if the frame was discarded because the queue is full.
+   */
+  protected boolean enqueueFrame(Frame frame) {
+    if (latestFrameOnly) {
+      Frame oldFrame;
+      while ((oldFrame = queue.poll()) != null) oldFrame.release();
+    }
+    if (!queue.offer(frame)) {
+      frame.release();
+      return false;
+    }
+    return true;
+  }
+
   public void restart() {
     start(false);
     initCodec();
@@ -153,8 +183,8 @@ public abstract class BaseEncoder implements EncoderCallback {
         handlerThread.getLooper().getThread().join(500);
       } catch (Exception ignored) { }
     }
-    queue.clear();
-    queue = new ArrayBlockingQueue<>(80);
+    Frame frame;
+    while ((frame = queue.poll()) != null) frame.release();
     try {
       codec.stop();
       codec.release();
@@ -197,11 +227,16 @@ public abstract class BaseEncoder implements EncoderCallback {
     try {
       Frame frame = getInputFrame();
       while (frame == null) frame = getInputFrame();
-      byteBuffer.clear();
-      int size = Math.max(0, Math.min(frame.getSize(), byteBuffer.remaining()) - frame.getOffset());
-      byteBuffer.put(frame.getBuffer(), frame.getOffset(), size);
-      long pts = calculatePts(frame, presentTimeUs);
-      mediaCodec.queueInputBuffer(inBufferIndex, 0, size, pts, 0);
+      try {
+        byteBuffer.clear();
+        int size = Math.max(0, Math.min(frame.getSize(), byteBuffer.remaining()) - frame.getOffset());
+        byteBuffer.put(frame.getBuffer(), frame.getOffset(), size);
+        long pts = calculatePts(frame, presentTimeUs);
+        mediaCodec.queueInputBuffer(inBufferIndex, 0, size, pts, 0);
+      } finally {
+        //frame is not used after this point, the pool can reuse it
+        frame.release();
+      }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     } catch (NullPointerException | IndexOutOfBoundsException e) {
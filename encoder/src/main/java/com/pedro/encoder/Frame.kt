@@ -28,6 +28,8 @@ class Frame {
   var isFlip = false
   var format = ImageFormat.NV21 //nv21 or yv12 supported
   var timeStamp: Long
+  //not null if the frame was obtained from a pool
+  var framePool: FramePool? = null
 
   /**
    * Used with video frame
@@ -51,4 +53,11 @@ class Frame {
     this.size = size
     this.timeStamp = timeStamp
   }
-}
\ No newline at end of file
+
+  /**
+   * Return the frame to its pool when it is not needed. Do nothing if the frame is not from a pool.
+   */
+  fun release() {
+    framePool?.release(this)
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder;
+
+import android.graphics.ImageFormat;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of frames with their own buffers to avoid allocate a frame and a buffer per frame.
+ * Frames obtained from the pool must be returned using Frame.release when they are not needed.
+ * If all frames are in use, obtain return null and the frame should be discarded.
+ */
+public class FramePool {
+
+  public interface OnFrameReleasedListener {
+    /**
+     * Called after a frame is returned to the pool, in the thread that released it.
+     */
+    void onFrameReleased();
+  }
+
+  private final int maxFrames;
+  private final ArrayDeque<Frame> freeFrames;
+  private int createdFrames = 0;
+  private volatile OnFrameReleasedListener onFrameReleasedListener;
+
+  public FramePool(int maxFrames) {
+    this.maxFrames = maxFrames;
+    this.freeFrames = new ArrayDeque<>(maxFrames);
+  }
+
+  public void setOnFrameReleasedListener(OnFrameReleasedListener onFrameReleasedListener) {
+    this.onFrameReleasedListener = onFrameReleasedListener;
+  }
+
+  /**
+   * @param size bytes needed in the frame buffer.
+   * @return frame with offset 0 and the size indicated or null if all frames are in use.
+   */
+  public synchronized Frame obtain(int size) {
+    Frame frame = freeFrames.poll();
+    //discard frames of other size (resolution changed)
+    while (frame != null && frame.getBuffer().length != size) {
+      createdFrames--;
+      frame = freeFrames.poll();
+    }
+    if (frame == null) {
+      if (createdFrames >= maxFrames) return null;
+      frame = new Frame(new byte[size], 0, false, ImageFormat.NV21, 0);
+      frame.setFramePool(this);
+      createdFrames++;
+    }
+    frame.setOffset(0);
+    frame.setSize(size);
+    return frame;
+  }
+
+  void release(Frame frame) {
+    synchronized (this) {
+      if (freeFrames.size() < maxFrames) freeFrames.offer(frame);
+    }
+    //out of the lock, the listener could obtain frames
+    OnFrameReleasedListener listener = onFrameReleasedListener;
+    if (listener != null) listener.onFrameReleased();
+  }
+
+  /**
+   * Remove free frames to allow garbage collect them.
+   */
+  public synchronized void clear() {
+    createdFrames -= freeFrames.size();
+    freeFrames.clear();
+  }
+}
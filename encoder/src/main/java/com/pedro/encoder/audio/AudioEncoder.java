@@ -19,6 +19,7 @@ package com.pedro.encoder.audio;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -27,6 +28,8 @@ import com.pedro.encoder.BaseEncoder;
 import com.pedro.encoder.Frame;
 import com.pedro.encoder.GetFrame;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
+import com.pedro.encoder.input.audio.GetMicrophoneDirectData;
+import com.pedro.encoder.input.audio.ReadErrorBackoff;
 import com.pedro.encoder.utils.CodecUtil;
 
 import java.nio.ByteBuffer;
@@ -46,12 +49,15 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   private int maxInputSize = 0;
   private boolean isStereo = true;
   private GetFrame getFrame;
+  private GetMicrophoneDirectData getMicrophoneDirectData;
   private long bytesRead = 0;
   private boolean tsModeBuffer = false;
+  private final ReadErrorBackoff readErrorBackoff;
 
   public AudioEncoder(GetAacData getAacData) {
     this.getAacData = getAacData;
     TAG = "AudioEncoder";
+    readErrorBackoff = new ReadErrorBackoff(TAG);
   }
 
   /**
@@ -98,6 +104,14 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
     this.getFrame = getFrame;
   }
 
+  /**
+   * Pull mode. PCM is read directly in the codec input buffer when it is available,
+   * so no frames are created or queued. Only used on Android 5+, other versions use GetFrame or queue.
+   */
+  public void setGetMicrophoneDirectData(GetMicrophoneDirectData getMicrophoneDirectData) {
+    this.getMicrophoneDirectData = getMicrophoneDirectData;
+  }
+
   /**
    * Prepare encoder with default parameters
    */
@@ -131,17 +145,56 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
 
   @Override
   protected long calculatePts(Frame frame, long presentTimeUs) {
+    return calculatePts(frame.getSize(), frame.getTimeStamp(), presentTimeUs);
+  }
+
+  private long calculatePts(int size, long timeStamp, long presentTimeUs) {
     long pts;
     if (tsModeBuffer) {
       int channels = isStereo ? 2 : 1;
       pts = 1000000 * bytesRead / 2 / channels / sampleRate;
-      bytesRead += frame.getSize();
+      bytesRead += size;
     } else {
-      pts = Math.max(0, frame.getTimeStamp() - presentTimeUs);
+      pts = Math.max(0, timeStamp - presentTimeUs);
     }
     return pts;
   }
 
+  @Override
+  public void inputAvailable(@NonNull MediaCodec mediaCodec, int inBufferIndex)
+      throws IllegalStateException {
+    GetMicrophoneDirectData getMicrophoneDirectData = this.getMicrophoneDirectData;
+    if (getMicrophoneDirectData == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+      super.inputAvailable(mediaCodec, inBufferIndex);
+      return;
+    }
+    try {
+      ByteBuffer byteBuffer = mediaCodec.getInputBuffer(inBufferIndex);
+      byteBuffer.clear();
+      int size = readPCMData(getMicrophoneDirectData, byteBuffer);
+      if (size < 0) return;
+      long pts = calculatePts(size, System.nanoTime() / 1000, presentTimeUs);
+      mediaCodec.queueInputBuffer(inBufferIndex, 0, size, pts, 0);
+    } catch (NullPointerException | IndexOutOfBoundsException e) {
+      Log.i(TAG, "Encoding error", e);
+    }
+  }
+
+  /**
+   * Read until a success, waiting more time after each consecutive error. The error is reported once.
+   *
+   * @return bytes read or a negative value if the encoder was stopped before a success.
+   */
+  protected int readPCMData(GetMicrophoneDirectData getMicrophoneDirectData, ByteBuffer byteBuffer) {
+    int size = getMicrophoneDirectData.readPCMData(byteBuffer);
+    while (size < 0 && running) {
+      if (!readErrorBackoff.sleep(size)) return size;
+      size = getMicrophoneDirectData.readPCMData(byteBuffer);
+    }
+    if (size >= 0) readErrorBackoff.onSuccess();
+    return size;
+  }
+
   @Override
   protected void checkBuffer(@NonNull ByteBuffer byteBuffer,
       @NonNull MediaCodec.BufferInfo bufferInfo) {
@@ -161,7 +214,9 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
    */
   @Override
   public void inputPCMData(Frame frame) {
-    if (running && !queue.offer(frame)) {
+    if (!running) {
+      frame.release();
+    } else if (!enqueueFrame(frame)) {
       Log.i(TAG, "frame discarded");
     }
   }
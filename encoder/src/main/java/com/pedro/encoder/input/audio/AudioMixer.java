@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.input.audio;
+
+/**
+ * Mix 16 bits little endian PCM of multiple sources (for example microphone and internal audio).
+ *
+ * Each source writes its PCM in a track with its own sample rate and gain. Samples are converted to the mixer
+ * sample rate with linear interpolation and buffered as float. mix is called with the cadence of the main source
+ * (normally the microphone) reading the same number of samples of each track, tracks without enough samples add
+ * silence. The sum is limited with a soft clipping to avoid hard distortion.
+ *
+ * Buffers are allocated when a track is added or the size of the frames grows, never per frame.
+ * Tracks can be written from different threads than mix.
+ */
+public class AudioMixer {
+
+  //soft clipping starts in this level (1 is full scale)
+  private static final float CLIP_THRESHOLD = 0.8f;
+  private static final int DEFAULT_MAX_BUFFERED_MS = 500;
+
+  private final int sampleRate;
+  private final int channels;
+  private final int maxBufferedMs;
+  private volatile Track[] tracks = new Track[0];
+  private float[] mixBuffer = new float[0];
+
+  public AudioMixer(int sampleRate, int channels) {
+    this(sampleRate, channels, DEFAULT_MAX_BUFFERED_MS);
+  }
+
+  /**
+   * @param maxBufferedMs max audio buffered in each track. The oldest samples are discarded if a track is full.
+   */
+  public AudioMixer(int sampleRate, int channels, int maxBufferedMs) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.maxBufferedMs = maxBufferedMs;
+  }
+
+  /**
+   * @param sampleRate sample rate of the PCM written in the track. Channels must be the same as the mixer.
+   */
+  public synchronized Track addTrack(int sampleRate, float gain) {
+    Track track = new Track(sampleRate, gain);
+    Track[] newTracks = new Track[tracks.length + 1];
+    System.arraycopy(tracks, 0, newTracks, 0, tracks.length);
+    newTracks[tracks.length] = track;
+    tracks = newTracks;
+    return track;
+  }
+
+  public synchronized void removeTrack(Track track) {
+    int count = 0;
+    Track[] newTracks = new Track[tracks.length];
+    for (Track t : tracks) {
+      if (t != track) newTracks[count++] = t;
+    }
+    Track[] result = new Track[count];
+    System.arraycopy(newTracks, 0, result, 0, count);
+    tracks = result;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  /**
+   * Mix size bytes of each track in output.
+   *
+   * @return bytes written in output.
+   */
+  public int mix(byte[] output, int offset, int size) {
+    int samples = size / 2;
+    if (mixBuffer.length < samples) mixBuffer = new float[samples];
+    float[] mixBuffer = this.mixBuffer;
+    for (int i = 0; i < samples; i++) mixBuffer[i] = 0f;
+    Track[] tracks = this.tracks;
+    for (Track track : tracks) track.read(mixBuffer, samples);
+    for (int i = 0; i < samples; i++) {
+      int sample = Math.round(softClip(mixBuffer[i]) * Short.MAX_VALUE);
+      output[offset + i * 2] = (byte) sample;
+      output[offset + i * 2 + 1] = (byte) (sample >> 8);
+    }
+    return samples * 2;
+  }
+
+  /**
+   * Linear until CLIP_THRESHOLD then compress the rest with tanh so the output never exceeds full scale.
+   */
+  public static float softClip(float sample) {
+    float abs = Math.abs(sample);
+    if (abs <= CLIP_THRESHOLD) return sample;
+    float range = 1f - CLIP_THRESHOLD;
+    float clipped = CLIP_THRESHOLD + range * (float) Math.tanh((abs - CLIP_THRESHOLD) / range);
+    return sample < 0 ? -clipped : clipped;
+  }
+
+  /**
+   * PCM source of the mixer.
+   */
+  public class Track {
+
+    //input frames per output frame
+    private final double step;
+    private volatile float gain;
+    //interleaved samples, normalized to [-1, 1]
+    private final float[] ring;
+    private int readPosition = 0;
+    private int available = 0;
+    //resampler state
+    private final float[] previous;
+    private boolean hasPrevious = false;
+    private double phase = 0;
+    //track doesn't add samples until it has enough samples after an underrun
+    private boolean primed = false;
+
+    private Track(int sampleRate, float gain) {
+      this.step = (double) sampleRate / AudioMixer.this.sampleRate;
+      this.gain = gain;
+      int capacity = Math.max(1, AudioMixer.this.sampleRate * maxBufferedMs / 1000) * channels;
+      ring = new float[capacity];
+      previous = new float[channels];
+    }
+
+    public void setGain(float gain) {
+      this.gain = gain;
+    }
+
+    public float getGain() {
+      return gain;
+    }
+
+    /**
+     * @return samples (all channels) ready to mix.
+     */
+    public synchronized int getAvailable() {
+      return available;
+    }
+
+    /**
+     * Add 16 bits little endian PCM to the track.
+     */
+    public synchronized void write(byte[] pcm, int offset, int size) {
+      int frames = size / (2 * channels);
+      if (step == 1.0) {
+        for (int i = 0; i < frames * channels; i++) {
+          put(toFloat(pcm, offset + i * 2));
+        }
+        return;
+      }
+      for (int frame = 0; frame < frames; frame++) {
+        int frameOffset = offset + frame * channels * 2;
+        if (!hasPrevious) {
+          for (int c = 0; c < channels; c++) previous[c] = toFloat(pcm, frameOffset + c * 2);
+          hasPrevious = true;
+          phase = 0;
+          continue;
+        }
+        //output samples between the previous input frame and this one
+        while (phase < 1.0) {
+          float fraction = (float) phase;
+          for (int c = 0; c < channels; c++) {
+            float current = toFloat(pcm, frameOffset + c * 2);
+            put(previous[c] + (current - previous[c]) * fraction);
+          }
+          phase += step;
+        }
+        phase -= 1.0;
+        for (int c = 0; c < channels; c++) previous[c] = toFloat(pcm, frameOffset + c * 2);
+      }
+    }
+
+    public synchronized void clear() {
+      readPosition = 0;
+      available = 0;
+      hasPrevious = false;
+      phase = 0;
+      primed = false;
+    }
+
+    /**
+     * Add samples multiplied by the gain to output. Missing samples are silence.
+     */
+    private synchronized void read(float[] output, int samples) {
+      if (!primed) {
+        if (available < samples) return;
+        primed = true;
+      }
+      int count = Math.min(samples, available);
+      //keep channels aligned
+      count -= count % channels;
+      float gain = this.gain;
+      for (int i = 0; i < count; i++) {
+        output[i] += ring[readPosition] * gain;
+        readPosition++;
+        if (readPosition == ring.length) readPosition = 0;
+      }
+      available -= count;
+      if (count < samples) primed = false;
+    }
+
+    private void put(float sample) {
+      int writePosition = readPosition + available;
+      if (writePosition >= ring.length) writePosition -= ring.length;
+      ring[writePosition] = sample;
+      if (available == ring.length) {
+        //full, discard the oldest sample
+        readPosition++;
+        if (readPosition == ring.length) readPosition = 0;
+      } else {
+        available++;
+      }
+    }
+  }
+
+  private static float toFloat(byte[] pcm, int index) {
+    short sample = (short) ((pcm[index] & 0xFF) | (pcm[index + 1] << 8));
+    return sample / 32768f;
+  }
+}
@@ -15,10 +15,28 @@
  */
 package com.pedro.encoder.input.audio
 
+import java.nio.ByteBuffer
+
 abstract class CustomAudioEffect {
   /**
    * @param pcmBuffer buffer obtained directly from the microphone.
    * @return it must be of same size that pcmBuffer parameter.
    */
   abstract fun process(pcmBuffer: ByteArray): ByteArray
+
+  private var buffer = ByteArray(0)
+
+  /**
+   * Used in pull mode. Process size bytes from the buffer position in place, the position is not modified.
+   * By default the data is copied to call process(ByteArray). Override it to avoid that copy.
+   */
+  open fun process(pcmBuffer: ByteBuffer, size: Int) {
+    if (buffer.size != size) buffer = ByteArray(size)
+    val position = pcmBuffer.position()
+    pcmBuffer.get(buffer, 0, size)
+    val result = process(buffer)
+    pcmBuffer.position(position)
+    pcmBuffer.put(result, 0, size)
+    pcmBuffer.position(position)
+  }
 }
\ No newline at end of file
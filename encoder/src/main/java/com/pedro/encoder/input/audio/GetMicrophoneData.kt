@@ -21,5 +21,8 @@ import com.pedro.encoder.Frame
  * Created by pedro on 19/01/17.
  */
 interface GetMicrophoneData {
+  /**
+   * Frames from MicrophoneManager are reused. Call frame.release() when the data is not needed anymore.
+   */
   fun inputPCMData(frame: Frame)
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.input.audio
+
+import java.nio.ByteBuffer
+
+/**
+ * Pull mode audio source. The encoder call it when a codec input buffer is available
+ * so PCM is read directly in the codec buffer without intermediate copies.
+ */
+interface GetMicrophoneDirectData {
+  /**
+   * Write PCM data in the buffer from the buffer position.
+   *
+   * @return bytes written or a negative value if error.
+   */
+  fun readPCMData(byteBuffer: ByteBuffer): Int
+}
@@ -27,7 +27,13 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 
+import androidx.annotation.RequiresApi;
+
 import com.pedro.encoder.Frame;
+import com.pedro.encoder.FramePool;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Created by pedro on 19/01/17.
@@ -54,6 +60,9 @@ public class MicrophoneManager {
   private AudioPostProcessEffect audioPostProcessEffect;
   protected HandlerThread handlerThread;
   protected CustomAudioEffect customAudioEffect = new NoAudioEffect();
+  //same size that encoder queue. Frames are returned to the pool by the encoder after copy it
+  private final FramePool framePool = new FramePool(80);
+  private final ReadErrorBackoff readErrorBackoff = new ReadErrorBackoff(TAG);
 
   public MicrophoneManager(GetMicrophoneData getMicrophoneData) {
     this.getMicrophoneData = getMicrophoneData;
@@ -198,16 +207,52 @@ public class MicrophoneManager {
   }
 
   /**
-   * @return Object with size and PCM buffer data
+   * Read in a frame of the pool. The frame must be released when it is not needed.
+   * After an error, wait before return so the caller can retry without spin, the error is reported once.
+   *
+   * @return Object with size and PCM buffer data or null if error.
    */
   protected Frame read() {
-    int size = audioRecord.read(pcmBuffer, 0, pcmBuffer.length);
-    if (size < 0){
-      Log.e(TAG, "read error: " + size);
+    Frame frame = framePool.obtain(pcmBuffer.length);
+    //all frames in use, the consumer is not releasing it
+    if (frame == null) frame = new Frame(new byte[pcmBuffer.length], 0, pcmBuffer.length, 0);
+    byte[] buffer = frame.getBuffer();
+    int size = audioRecord.read(buffer, 0, buffer.length);
+    if (size < 0) {
+      frame.release();
+      readErrorBackoff.sleep(size);
       return null;
     }
-    long timeStamp = System.nanoTime() / 1000;
-    return new Frame(muted ? pcmBufferMuted : customAudioEffect.process(pcmBuffer), 0, size, timeStamp);
+    readErrorBackoff.onSuccess();
+    if (muted) {
+      Arrays.fill(buffer, 0, size, (byte) 0);
+    } else {
+      byte[] result = customAudioEffect.process(buffer);
+      if (result != buffer) System.arraycopy(result, 0, buffer, 0, size);
+    }
+    frame.setSize(size);
+    frame.setTimeStamp(System.nanoTime() / 1000);
+    return frame;
+  }
+
+  /**
+   * Read PCM directly in the buffer (normally a codec input buffer) from the buffer position.
+   * Mute and custom audio effect are applied in place. The buffer position is not modified.
+   *
+   * @return bytes written in the buffer or a negative value if error.
+   */
+  @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+  protected int read(ByteBuffer byteBuffer) {
+    int position = byteBuffer.position();
+    int size = audioRecord.read(byteBuffer, Math.min(byteBuffer.remaining(), pcmBuffer.length));
+    if (size < 0) return size;
+    if (muted) {
+      byteBuffer.put(pcmBufferMuted, 0, size);
+      byteBuffer.position(position);
+    } else {
+      customAudioEffect.process(byteBuffer, size);
+    }
+    return size;
   }
 
   /**
@@ -232,6 +277,7 @@ public class MicrophoneManager {
     if (audioPostProcessEffect != null) {
       audioPostProcessEffect.release();
     }
+    framePool.clear();
     Log.i(TAG, "Microphone stopped");
   }
 
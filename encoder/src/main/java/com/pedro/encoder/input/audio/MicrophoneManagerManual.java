@@ -16,9 +16,12 @@
 
 package com.pedro.encoder.input.audio;
 
+import android.os.Build;
 import android.os.HandlerThread;
 import android.util.Log;
 
+import androidx.annotation.RequiresApi;
+
 import com.pedro.encoder.Frame;
 import com.pedro.encoder.GetFrame;
 
@@ -28,7 +31,8 @@ import java.nio.ByteBuffer;
  * Similar to MicrophoneManager but samples are not read automatically.
  * The owner must manually call read(...) as often as samples are needed.
  */
-public class MicrophoneManagerManual extends MicrophoneManager implements GetFrame {
+public class MicrophoneManagerManual extends MicrophoneManager implements GetFrame,
+    GetMicrophoneDirectData {
 
   private final String TAG = "MicMM";
 
@@ -82,4 +86,10 @@ public class MicrophoneManagerManual extends MicrophoneManager implements GetFra
   public Frame getInputFrame() {
     return read();
   }
+
+  @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+  @Override
+  public int readPCMData(ByteBuffer byteBuffer) {
+    return read(byteBuffer);
+  }
 }
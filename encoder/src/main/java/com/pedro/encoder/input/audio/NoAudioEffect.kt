@@ -15,8 +15,12 @@
  */
 package com.pedro.encoder.input.audio
 
+import java.nio.ByteBuffer
+
 class NoAudioEffect : CustomAudioEffect() {
   override fun process(pcmBuffer: ByteArray): ByteArray {
     return pcmBuffer
   }
+
+  override fun process(pcmBuffer: ByteBuffer, size: Int) { }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.input.audio;
+
+import android.util.Log;
+
+/**
+ * Wait time used to retry an audio read after an error.
+ * The time is doubled in each consecutive error up to a max and only the first error is reported
+ * until a read success, so a broken source doesn't spin the thread or flood the log.
+ */
+public class ReadErrorBackoff {
+
+  private static final long MAX_DELAY_MS = 100;
+  private final String tag;
+  private final long maxDelayMs;
+  private long delayMs = 0;
+
+  public ReadErrorBackoff(String tag) {
+    this(tag, MAX_DELAY_MS);
+  }
+
+  public ReadErrorBackoff(String tag, long maxDelayMs) {
+    this.tag = tag;
+    this.maxDelayMs = maxDelayMs;
+  }
+
+  /**
+   * @param error value returned by the read.
+   * @return time in ms to wait before retry the read.
+   */
+  public long onError(int error) {
+    if (delayMs == 0) {
+      Log.e(tag, "read error: " + error + ", retrying");
+      delayMs = 1;
+    } else {
+      delayMs = Math.min(delayMs * 2, maxDelayMs);
+    }
+    return delayMs;
+  }
+
+  public void onSuccess() {
+    if (delayMs != 0) {
+      Log.i(tag, "read recovered");
+      delayMs = 0;
+    }
+  }
+
+  public boolean isFailing() {
+    return delayMs != 0;
+  }
+
+  /**
+   * Wait the time needed after an error.
+   *
+   * @return false if the thread was interrupted.
+   */
+  public boolean sleep(int error) {
+    try {
+      Thread.sleep(onError(error));
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -40,6 +40,7 @@ public class AudioDecoder extends BaseDecoder {
   private int size = 2048;
   private byte[] pcmBuffer = new byte[size];
   private byte[] pcmBufferMuted = new byte[11];
+  private byte[] pcmBufferStereo = new byte[0];
   private boolean muted = false;
 
   public AudioDecoder(GetMicrophoneData getMicrophoneData,
@@ -95,15 +96,18 @@ public class AudioDecoder extends BaseDecoder {
               Math.min(outputBuffer.remaining(), pcmBufferMuted.length));
       getMicrophoneData.inputPCMData(new Frame(pcmBufferMuted, 0, pcmBufferMuted.length, timeStamp));
     } else {
-      if (pcmBuffer.length < outputBuffer.remaining()) {
-        pcmBuffer = new byte[outputBuffer.remaining()];
+      int size = outputBuffer.remaining();
+      if (pcmBuffer.length < size) {
+        pcmBuffer = new byte[size];
       }
-      outputBuffer.get(pcmBuffer, 0, Math.min(outputBuffer.remaining(), pcmBuffer.length));
+      outputBuffer.get(pcmBuffer, 0, size);
       if (channels > 2) { //downgrade to stereo
-        byte[] bufferStereo = PCMUtil.pcmToStereo(pcmBuffer, channels);
-        getMicrophoneData.inputPCMData(new Frame(bufferStereo, 0, bufferStereo.length, timeStamp));
+        int stereoSize = size / channels * 2;
+        if (pcmBufferStereo.length < stereoSize) pcmBufferStereo = new byte[stereoSize];
+        stereoSize = PCMUtil.pcmToStereo(pcmBuffer, size, channels, pcmBufferStereo);
+        getMicrophoneData.inputPCMData(new Frame(pcmBufferStereo, 0, stereoSize, timeStamp));
       } else {
-        getMicrophoneData.inputPCMData(new Frame(pcmBuffer, 0, pcmBuffer.length, timeStamp));
+        getMicrophoneData.inputPCMData(new Frame(pcmBuffer, 0, size, timeStamp));
       }
     }
     return false;
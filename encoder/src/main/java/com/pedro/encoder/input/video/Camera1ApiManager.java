@@ -30,13 +30,16 @@ import android.view.TextureView;
 import android.view.View;
 
 import com.pedro.encoder.Frame;
+import com.pedro.encoder.FramePool;
 import com.pedro.encoder.input.video.facedetector.FaceDetectorCallback;
 import com.pedro.encoder.input.video.facedetector.UtilsKt;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by pedro on 20/01/17.
@@ -54,6 +57,7 @@ import java.util.List;
 public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDetectionListener {
 
   private String TAG = "Camera1ApiManager";
+  private static final int MAX_POOLED_FRAMES = 10;
   private Camera camera = null;
   private SurfaceView surfaceView;
   private TextureView textureView;
@@ -74,7 +78,13 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
   private int fps = 30;
   private int rotation = 0;
   private int imageFormat = ImageFormat.NV21;
-  private byte[] yuvBuffer;
+  private int yuvBufferSize;
+  //pooled frame buffers are the camera callback buffers. Frames go back to the camera when released
+  private final FramePool framePool = new FramePool(MAX_POOLED_FRAMES);
+  //buffers added to the camera and not returned in onPreviewFrame yet. Also used as lock of callbackCamera
+  private final Map<byte[], Frame> cameraFrames = new IdentityHashMap<>();
+  //camera that receive callback buffers, null if the preview callback is not used
+  private Camera callbackCamera;
   private List<Camera.Size> previewSizeBack;
   private List<Camera.Size> previewSizeFront;
   private float distance;
@@ -165,7 +175,7 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
     if (!checkCanOpen()) {
       throw new CameraOpenException("This camera resolution cant be opened");
     }
-    yuvBuffer = new byte[width * height * 3 / 2];
+    yuvBufferSize = width * height * 3 / 2;
     try {
       camera = Camera.open(cameraSelect);
       Camera.CameraInfo info = new Camera.CameraInfo();
@@ -197,12 +207,10 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
       camera.setDisplayOrientation(rotation);
       if (surfaceView != null) {
         camera.setPreviewDisplay(surfaceView.getHolder());
-        camera.addCallbackBuffer(yuvBuffer);
-        camera.setPreviewCallbackWithBuffer(this);
+        startCallbackBuffers();
       } else if (textureView != null) {
         camera.setPreviewTexture(textureView.getSurfaceTexture());
-        camera.addCallbackBuffer(yuvBuffer);
-        camera.setPreviewCallbackWithBuffer(this);
+        startCallbackBuffers();
       } else {
         camera.setPreviewTexture(surfaceTexture);
       }
@@ -357,6 +365,7 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
   }
 
   public void stop() {
+    stopCallbackBuffers();
     if (camera != null) {
       camera.stopPreview();
       camera.setPreviewCallback(null);
@@ -364,6 +373,7 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
       camera.release();
       camera = null;
     }
+    framePool.clear();
     running = false;
   }
 
@@ -392,11 +402,64 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
     return closestRange;
   }
 
+  private void startCallbackBuffers() {
+    synchronized (cameraFrames) {
+      callbackCamera = camera;
+    }
+    framePool.setOnFrameReleasedListener(this::addCallbackBuffers);
+    addCallbackBuffers();
+    camera.setPreviewCallbackWithBuffer(this);
+  }
+
+  private void stopCallbackBuffers() {
+    List<Frame> frames;
+    synchronized (cameraFrames) {
+      callbackCamera = null;
+      frames = new ArrayList<>(cameraFrames.values());
+      cameraFrames.clear();
+    }
+    framePool.setOnFrameReleasedListener(null);
+    //buffers owned by the camera are not returned, put them back in the pool
+    for (Frame frame : frames) frame.release();
+  }
+
+  /**
+   * Give all free frames of the pool to the camera. If the encoder has all frames, the camera receives a
+   * buffer out of the pool so the preview doesn't stall until a frame is released.
+   */
+  private void addCallbackBuffers() {
+    synchronized (cameraFrames) {
+      if (callbackCamera == null) return;
+      Frame frame;
+      while ((frame = framePool.obtain(yuvBufferSize)) != null) {
+        cameraFrames.put(frame.getBuffer(), frame);
+        callbackCamera.addCallbackBuffer(frame.getBuffer());
+      }
+      if (cameraFrames.isEmpty()) {
+        //not pooled, release does nothing and it is garbage collected after use
+        frame = new Frame(new byte[yuvBufferSize], 0, false, imageFormat, 0);
+        cameraFrames.put(frame.getBuffer(), frame);
+        callbackCamera.addCallbackBuffer(frame.getBuffer());
+      }
+    }
+  }
+
   @Override
   public void onPreviewFrame(byte[] data, Camera camera) {
     long timeStamp = System.nanoTime() / 1000;
-    getCameraData.inputYUVData(new Frame(data, rotation, facing == CameraHelper.Facing.FRONT && isPortrait, imageFormat, timeStamp));
-    camera.addCallbackBuffer(yuvBuffer);
+    Frame frame;
+    synchronized (cameraFrames) {
+      frame = cameraFrames.remove(data);
+      //the camera has no buffers left, frames are not released yet
+      if (frame != null && cameraFrames.isEmpty()) addCallbackBuffers();
+    }
+    //buffer of a stopped preview
+    if (frame == null) return;
+    frame.setOrientation(rotation);
+    frame.setFlip(facing == CameraHelper.Facing.FRONT && isPortrait);
+    frame.setFormat(imageFormat);
+    frame.setTimeStamp(timeStamp);
+    getCameraData.inputYUVData(frame);
   }
 
   public Camera.Size getCameraSize(int width, int height) {
@@ -21,5 +21,9 @@ import com.pedro.encoder.Frame
  * Created by pedro on 20/01/17.
  */
 interface GetCameraData {
+  /**
+   * Frames from Camera1ApiManager are reused as camera buffers. Call frame.release() when the data is not needed
+   * anymore. Frames not released are not reused and a new buffer is allocated for each preview frame.
+   */
   fun inputYUVData(frame: Frame)
 }
\ No newline at end of file
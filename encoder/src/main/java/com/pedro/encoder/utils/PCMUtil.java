@@ -16,63 +16,63 @@
 
 package com.pedro.encoder.utils;
 
+import com.pedro.encoder.input.audio.AudioMixer;
+
 /**
  * Created by pedro on 3/07/17.
  */
 public class PCMUtil {
 
-  //no tested
-  //see https://stackoverflow.com/questions/15652432/how-to-mix-overlay-two-mp3-audio-file-into-one-mp3-file-not-concatenate/33255658#33255658
+  /**
+   * Mix 2 buffers of 16 bits little endian PCM with the same sample rate and channels.
+   * For more than 2 sources, different sample rates or gains use AudioMixer.
+   *
+   * @return the longest buffer with the result of the mix.
+   */
   public static byte[] mixPCM(byte[] pcm1, byte[] pcm2) {
-    int len1 = pcm1.length;
-    int len2 = pcm2.length;
-    byte[] pcmL;
-    byte[] pcmS;
-    int lenL; // length of the longest
-    int lenS; // length of the shortest
-    if (len2 > len1) {
-      lenL = len2;
-      pcmL = pcm2;
-      lenS = len1;
-      pcmS = pcm1;
-    } else {
-      lenL = len1;
-      pcmL = pcm1;
-      lenS = len2;
-      pcmS = pcm2;
-    }
-    for (int idx = 0; idx < lenL; idx++) {
-      int sample;
-      if (idx >= lenS) {
-        sample = pcmL[idx];
-      } else {
-        sample = pcmL[idx] + pcmS[idx];
-      }
-      sample = (int) (sample * .71);
-      if (sample > 127) sample = 127;
-      if (sample < -128) sample = -128;
-      pcmL[idx] = (byte) sample;
+    byte[] pcmL = pcm2.length > pcm1.length ? pcm2 : pcm1;
+    byte[] pcmS = pcmL == pcm1 ? pcm2 : pcm1;
+    int samplesS = pcmS.length / 2;
+    for (int i = 0; i < samplesS; i++) {
+      int index = i * 2;
+      float sample = (readSample(pcmL, index) + readSample(pcmS, index)) / 32768f;
+      writeSample(pcmL, index, Math.round(AudioMixer.softClip(sample) * Short.MAX_VALUE));
     }
     return pcmL;
   }
 
-  private static final byte[] pcmBufferStereo = new byte[4096];
+  /**
+   * Downgrade 16 bits pcm with 3 channels or more to stereo keeping the first 2 channels.
+   *
+   * @param output buffer with at least size * 2 / channels bytes.
+   * @return bytes written in output.
+   */
+  public static int pcmToStereo(byte[] pcm, int size, int channels, byte[] output) {
+    int frameSize = channels * 2;
+    int frames = size / frameSize;
+    for (int i = 0; i < frames; i++) {
+      System.arraycopy(pcm, i * frameSize, output, i * 4, 4);
+    }
+    return frames * 4;
+  }
 
   /**
-   * Experimental method to downgrade pcm with 3 channels or more to stereo.
+   * Downgrade 16 bits pcm with 3 channels or more to stereo keeping the first 2 channels.
    *
-   * @return pcm buffer in stereo (2 channels)
+   * @return new pcm buffer in stereo (2 channels)
    */
   public static byte[] pcmToStereo(byte[] pcm, int channels) {
-    int cont = 0;
-    for (int i = 0; i < pcm.length; i += channels) {
-      byte channel1 = pcm[i];
-      byte channel2 = pcm[i + 1];
+    byte[] output = new byte[pcm.length / (channels * 2) * 4];
+    pcmToStereo(pcm, pcm.length, channels, output);
+    return output;
+  }
 
-      pcmBufferStereo[cont] = channel1;
-      pcmBufferStereo[cont + 1] = channel2;
-      cont += 2;
-    }
-    return pcmBufferStereo;
+  private static int readSample(byte[] pcm, int index) {
+    return (short) ((pcm[index] & 0xFF) | (pcm[index + 1] << 8));
+  }
+
+  private static void writeSample(byte[] pcm, int index, int sample) {
+    pcm[index] = (byte) sample;
+    pcm[index + 1] = (byte) (sample >> 8);
   }
 }
@@ -91,11 +91,15 @@ public class NV21Utils {
   }
 
   public static byte[] rotate90(byte[] data, int imageWidth, int imageHeight) {
+    return rotate90(data, imageWidth, imageHeight, preAllocatedBufferRotate);
+  }
+
+  public static byte[] rotate90(byte[] data, int imageWidth, int imageHeight, byte[] output) {
     // Rotate the Y luma
     int i = 0;
     for (int x = 0; x < imageWidth; x++) {
       for (int y = imageHeight - 1; y >= 0; y--) {
-        preAllocatedBufferRotate[i++] = data[y * imageWidth + x];
+        output[i++] = data[y * imageWidth + x];
       }
     }
     // Rotate the U and V color components
@@ -103,32 +107,40 @@ public class NV21Utils {
     i = size * 3 / 2 - 1;
     for (int x = imageWidth - 1; x > 0; x = x - 2) {
       for (int y = 0; y < imageHeight / 2; y++) {
-        preAllocatedBufferRotate[i--] = data[size + (y * imageWidth) + x];
-        preAllocatedBufferRotate[i--] = data[size + (y * imageWidth) + (x - 1)];
+        output[i--] = data[size + (y * imageWidth) + x];
+        output[i--] = data[size + (y * imageWidth) + (x - 1)];
       }
     }
-    return preAllocatedBufferRotate;
+    return output;
   }
 
   public static byte[] rotate180(byte[] data, int imageWidth, int imageHeight) {
+    return rotate180(data, imageWidth, imageHeight, preAllocatedBufferRotate);
+  }
+
+  public static byte[] rotate180(byte[] data, int imageWidth, int imageHeight, byte[] output) {
     int count = 0;
     for (int i = imageWidth * imageHeight - 1; i >= 0; i--) {
-      preAllocatedBufferRotate[count] = data[i];
+      output[count] = data[i];
       count++;
     }
     for (int i = imageWidth * imageHeight * 3 / 2 - 1; i >= imageWidth * imageHeight; i -= 2) {
-      preAllocatedBufferRotate[count++] = data[i - 1];
-      preAllocatedBufferRotate[count++] = data[i];
+      output[count++] = data[i - 1];
+      output[count++] = data[i];
     }
-    return preAllocatedBufferRotate;
+    return output;
   }
 
   public static byte[] rotate270(byte[] data, int imageWidth, int imageHeight) {
+    return rotate270(data, imageWidth, imageHeight, preAllocatedBufferRotate);
+  }
+
+  public static byte[] rotate270(byte[] data, int imageWidth, int imageHeight, byte[] output) {
     // Rotate the Y luma
     int i = 0;
     for (int x = imageWidth - 1; x >= 0; x--) {
       for (int y = 0; y < imageHeight; y++) {
-        preAllocatedBufferRotate[i++] = data[y * imageWidth + x];
+        output[i++] = data[y * imageWidth + x];
       }
     }
 
@@ -137,11 +149,11 @@ public class NV21Utils {
     int uvHeight = imageHeight / 2;
     for (int x = imageWidth - 1; x >= 0; x -= 2) {
       for (int y = imageHeight; y < uvHeight + imageHeight; y++) {
-        preAllocatedBufferRotate[i++] = data[y * imageWidth + x - 1];
-        preAllocatedBufferRotate[i++] = data[y * imageWidth + x];
+        output[i++] = data[y * imageWidth + x - 1];
+        output[i++] = data[y * imageWidth + x];
       }
     }
-    return preAllocatedBufferRotate;
+    return output;
   }
 
   public static byte[] rotatePixels(byte[] input, int width, int height, int rotation) {
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.utils.yuv;
+
+import com.pedro.encoder.video.FormatVideoEncoder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Rotate and convert NV21 or YV12 frames to YUV420 planar (I420) or semi planar (NV12) in one memory pass.
+ *
+ * Output rows are split in bands processed in parallel (the caller thread processes the first band).
+ * With 90 and 270 rotation the source is read by columns so planes are processed in tiles to keep the
+ * source rows of a tile in cache.
+ * The output buffer is reused in the next call so each encoder needs its own instance.
+ *
+ * Not thread safe.
+ */
+public class YUVRotateConverter {
+
+  private static final int TILE_SIZE = 32;
+  //frames smaller than this are processed only in the caller thread
+  private static final int MIN_PARALLEL_SIZE = 640 * 480;
+  private static final int MAX_BANDS = 4;
+
+  private final int bands;
+  private volatile ExecutorService executor;
+  private byte[] output;
+  //frame in process, read by the workers
+  private byte[] input;
+  private int width;
+  private int height;
+  private int rotation;
+  private boolean isYV12;
+  private boolean isI420;
+
+  public YUVRotateConverter() {
+    this(Math.min(Runtime.getRuntime().availableProcessors(), MAX_BANDS));
+  }
+
+  /**
+   * @param bands max number of bands processed in parallel.
+   */
+  public YUVRotateConverter(int bands) {
+    this.bands = Math.max(1, bands);
+  }
+
+  /**
+   * @param input NV21 or YV12 frame of width x height.
+   * @param rotation clockwise rotation. 0, 90, 180 or 270.
+   * @return rotated frame in the format of the encoder or null if rotation or format is not supported.
+   * The buffer is reused in the next call.
+   */
+  public byte[] convert(byte[] input, int width, int height, int rotation, boolean isYV12,
+      FormatVideoEncoder formatVideoEncoder) throws InterruptedException {
+    if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) return null;
+    if (formatVideoEncoder != FormatVideoEncoder.YUV420PLANAR
+        && formatVideoEncoder != FormatVideoEncoder.YUV420SEMIPLANAR) {
+      return null;
+    }
+    int length = width * height * 3 / 2;
+    if (output == null || output.length != length) output = new byte[length];
+    this.input = input;
+    this.width = width;
+    this.height = height;
+    this.rotation = rotation;
+    this.isYV12 = isYV12;
+    this.isI420 = formatVideoEncoder == FormatVideoEncoder.YUV420PLANAR;
+
+    final int usedBands = width * height < MIN_PARALLEL_SIZE ? 1 : bands;
+    if (usedBands == 1) {
+      processBand(0, 1);
+    } else {
+      ExecutorService executor = this.executor;
+      if (executor == null) {
+        executor = Executors.newFixedThreadPool(bands - 1);
+        this.executor = executor;
+      }
+      final CountDownLatch latch = new CountDownLatch(usedBands - 1);
+      for (int i = 1; i < usedBands; i++) {
+        final int band = i;
+        Runnable task = () -> {
+          try {
+            processBand(band, usedBands);
+          } finally {
+            latch.countDown();
+          }
+        };
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          //released while converting
+          task.run();
+        }
+      }
+      processBand(0, usedBands);
+      latch.await();
+    }
+    this.input = null;
+    return output;
+  }
+
+  /**
+   * Stop the workers when the tasks in process are done. Workers are created again in the next call.
+   */
+  public void release() {
+    ExecutorService executor = this.executor;
+    this.executor = null;
+    if (executor != null) executor.shutdown();
+  }
+
+  private void processBand(int band, int bandCount) {
+    boolean swap = rotation == 90 || rotation == 270;
+    int outWidth = swap ? height : width;
+    int outHeight = swap ? width : height;
+    processLuma(outHeight * band / bandCount, outHeight * (band + 1) / bandCount, outWidth);
+    int chromaHeight = outHeight / 2;
+    processChroma(chromaHeight * band / bandCount, chromaHeight * (band + 1) / bandCount,
+        outWidth / 2);
+  }
+
+  private void processLuma(int rowStart, int rowEnd, int outWidth) {
+    byte[] input = this.input;
+    byte[] output = this.output;
+    if (rotation == 0) {
+      System.arraycopy(input, rowStart * outWidth, output, rowStart * outWidth,
+          (rowEnd - rowStart) * outWidth);
+      return;
+    }
+    if (rotation == 180) {
+      //the plane read backwards
+      int last = width * height - 1;
+      int dst = rowStart * outWidth;
+      for (int src = last - dst, end = last - rowEnd * outWidth; src > end; src--) {
+        output[dst++] = input[src];
+      }
+      return;
+    }
+    int step = getSourceStep(width, rotation);
+    for (int tileRow = rowStart; tileRow < rowEnd; tileRow += TILE_SIZE) {
+      int tileRowEnd = Math.min(tileRow + TILE_SIZE, rowEnd);
+      for (int tileCol = 0; tileCol < outWidth; tileCol += TILE_SIZE) {
+        int tileColEnd = Math.min(tileCol + TILE_SIZE, outWidth);
+        for (int row = tileRow; row < tileRowEnd; row++) {
+          int src = getSourceIndex(row, tileCol, width, height, rotation);
+          for (int dst = row * outWidth + tileCol, end = row * outWidth + tileColEnd; dst < end;
+              dst++) {
+            output[dst] = input[src];
+            src += step;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Each chroma sample has an U and V value. Position p of a sample is in bytes for YV12 planes
+   * and in pairs of bytes for NV21 (VU interleaved).
+   */
+  private void processChroma(int rowStart, int rowEnd, int outWidth) {
+    byte[] input = this.input;
+    byte[] output = this.output;
+    int chromaWidth = width / 2;
+    int chromaHeight = height / 2;
+    int frameSize = width * height;
+    int qFrameSize = frameSize / 4;
+    if (rotation == 0 && isYV12 && isI420) {
+      //only swap U and V planes
+      int offset = rowStart * outWidth;
+      int length = (rowEnd - rowStart) * outWidth;
+      System.arraycopy(input, frameSize + qFrameSize + offset, output, frameSize + offset, length); // Cb (U)
+      System.arraycopy(input, frameSize + offset, output, frameSize + qFrameSize + offset, length); // Cr (V)
+      return;
+    }
+    if (rotation == 0 || rotation == 180) {
+      processChromaLinear(rowStart * outWidth, rowEnd * outWidth, rotation == 180);
+      return;
+    }
+    int step = getSourceStep(chromaWidth, rotation);
+    for (int tileRow = rowStart; tileRow < rowEnd; tileRow += TILE_SIZE) {
+      int tileRowEnd = Math.min(tileRow + TILE_SIZE, rowEnd);
+      for (int tileCol = 0; tileCol < outWidth; tileCol += TILE_SIZE) {
+        int count = Math.min(tileCol + TILE_SIZE, outWidth) - tileCol;
+        for (int row = tileRow; row < tileRowEnd; row++) {
+          int p = getSourceIndex(row, tileCol, chromaWidth, chromaHeight, rotation);
+          int o = row * outWidth + tileCol;
+          if (isYV12) {
+            //Y, V, U planes
+            if (isI420) {
+              for (int i = 0; i < count; i++, p += step, o++) {
+                output[frameSize + o] = input[frameSize + qFrameSize + p]; // Cb (U)
+                output[frameSize + qFrameSize + o] = input[frameSize + p]; // Cr (V)
+              }
+            } else {
+              for (int i = 0; i < count; i++, p += step, o++) {
+                output[frameSize + o * 2] = input[frameSize + qFrameSize + p]; // Cb (U)
+                output[frameSize + o * 2 + 1] = input[frameSize + p]; // Cr (V)
+              }
+            }
+          } else {
+            //Y, VU interleaved
+            if (isI420) {
+              for (int i = 0; i < count; i++, p += step, o++) {
+                output[frameSize + o] = input[frameSize + p * 2 + 1]; // Cb (U)
+                output[frameSize + qFrameSize + o] = input[frameSize + p * 2]; // Cr (V)
+              }
+            } else {
+              for (int i = 0; i < count; i++, p += step, o++) {
+                output[frameSize + o * 2] = input[frameSize + p * 2 + 1]; // Cb (U)
+                output[frameSize + o * 2 + 1] = input[frameSize + p * 2]; // Cr (V)
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * With 0 and 180 rotation consecutive output samples are consecutive in the source (backwards with 180)
+   * so the chroma plane is processed as a line. Loops use the source position as variable and constant
+   * steps, that is faster than compute the source position of each output sample.
+   */
+  private void processChromaLinear(int start, int end, boolean reverse) {
+    byte[] input = this.input;
+    byte[] output = this.output;
+    int frameSize = width * height;
+    int qFrameSize = frameSize / 4;
+    //source positions of U and V of the first sample and distance between U and V positions
+    int u;
+    int v;
+    int uvDistance;
+    int step;
+    if (isYV12) {
+      //Y, V, U planes
+      u = frameSize + qFrameSize + (reverse ? qFrameSize - 1 - start : start);
+      v = u - qFrameSize;
+      uvDistance = -qFrameSize;
+      step = reverse ? -1 : 1;
+    } else {
+      //Y, VU interleaved
+      u = frameSize + (reverse ? qFrameSize - 1 - start : start) * 2 + 1;
+      v = u - 1;
+      uvDistance = -1;
+      step = reverse ? -2 : 2;
+    }
+    int count = end - start;
+    if (isI420) {
+      int uOutput = frameSize + start;
+      int vOutput = uOutput + qFrameSize;
+      if (step == 1) {
+        for (int i = 0; i < count; i++) {
+          output[uOutput + i] = input[u + i]; // Cb (U)
+          output[vOutput + i] = input[v + i]; // Cr (V)
+        }
+      } else if (step == 2) {
+        for (int i = 0; i < count; i++) {
+          output[uOutput + i] = input[u + i * 2]; // Cb (U)
+          output[vOutput + i] = input[v + i * 2]; // Cr (V)
+        }
+      } else {
+        for (int p = u, o = uOutput, oEnd = uOutput + count; o < oEnd; p += step, o++) {
+          output[o] = input[p]; // Cb (U)
+          output[o + qFrameSize] = input[p + uvDistance]; // Cr (V)
+        }
+      }
+    } else {
+      int o = frameSize + start * 2;
+      if (step == 1) {
+        for (int i = 0; i < count; i++) {
+          output[o + i * 2] = input[u + i]; // Cb (U)
+          output[o + i * 2 + 1] = input[v + i]; // Cr (V)
+        }
+      } else if (step == 2) {
+        for (int i = 0; i < count; i++) {
+          output[o + i * 2] = input[u + i * 2]; // Cb (U)
+          output[o + i * 2 + 1] = input[v + i * 2]; // Cr (V)
+        }
+      } else {
+        for (int p = u, oEnd = o + count * 2; o < oEnd; p += step, o += 2) {
+          output[o] = input[p]; // Cb (U)
+          output[o + 1] = input[p + uvDistance]; // Cr (V)
+        }
+      }
+    }
+  }
+
+  /**
+   * @return index in a source plane of w x h of the output sample in row and col.
+   */
+  private static int getSourceIndex(int row, int col, int w, int h, int rotation) {
+    switch (rotation) {
+      case 90:
+        return (h - 1 - col) * w + row;
+      case 180:
+        return (h - 1 - row) * w + (w - 1 - col);
+      case 270:
+        return col * w + (w - 1 - row);
+      default:
+        return row * w + col;
+    }
+  }
+
+  /**
+   * @return distance in the source plane between consecutive output samples of a row.
+   */
+  private static int getSourceStep(int w, int rotation) {
+    switch (rotation) {
+      case 90:
+        return -w;
+      case 180:
+        return -1;
+      case 270:
+        return w;
+      default:
+        return 1;
+    }
+  }
+}
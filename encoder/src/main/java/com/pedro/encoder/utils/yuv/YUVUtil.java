@@ -103,6 +103,24 @@ public class YUVUtil {
     }
   }
 
+  /**
+   * Same as rotateNV21 but the rotated frame is written in output instead of the static buffer.
+   */
+  public static byte[] rotateNV21(byte[] data, int width, int height, int rotation, byte[] output) {
+    switch (rotation) {
+      case 0:
+        return data;
+      case 90:
+        return NV21Utils.rotate90(data, width, height, output);
+      case 180:
+        return NV21Utils.rotate180(data, width, height, output);
+      case 270:
+        return NV21Utils.rotate270(data, width, height, output);
+      default:
+        return null;
+    }
+  }
+
   public static byte[] YV12toYUV420byColor(byte[] input, int width, int height,
       FormatVideoEncoder formatVideoEncoder) {
     switch (formatVideoEncoder) {
@@ -133,7 +151,10 @@ public class YUVUtil {
   public static Bitmap frameToBitmap(Frame frame, int width, int height, int orientation) {
     int w = (orientation == 90 || orientation == 270) ? height : width;
     int h = (orientation == 90 || orientation == 270) ? width : height;
-    int[] argb = NV21Utils.toARGB(rotateNV21(frame.getBuffer(), width, height, orientation), w, h);
+    //local buffer, static buffers could be in use by the encoder
+    byte[] data = frame.getBuffer();
+    byte[] rotated = orientation == 0 ? data : new byte[data.length];
+    int[] argb = NV21Utils.toARGB(rotateNV21(data, width, height, orientation, rotated), w, h);
     return Bitmap.createBitmap(argb, w, h, Bitmap.Config.ARGB_8888);
   }
 
@@ -34,7 +34,7 @@ import com.pedro.encoder.Frame;
 import com.pedro.encoder.input.video.FpsLimiter;
 import com.pedro.encoder.input.video.GetCameraData;
 import com.pedro.encoder.utils.CodecUtil;
-import com.pedro.encoder.utils.yuv.YUVUtil;
+import com.pedro.encoder.utils.yuv.YUVRotateConverter;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -64,6 +64,10 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
   private int iFrameInterval = 2;
   //for disable video
   private final FpsLimiter fpsLimiter = new FpsLimiter();
+  //used in buffer mode, rotate and convert color of the frames
+  private final YUVRotateConverter yuvRotateConverter = new YUVRotateConverter();
+  //reused to send converted buffers to the codec
+  private final Frame outputFrame = new Frame(new byte[0], 0, 0, 0);
   private String type = CodecUtil.H264_MIME;
   private FormatVideoEncoder formatVideoEncoder = FormatVideoEncoder.YUV420Dynamical;
   private int avcProfile = -1;
@@ -176,9 +180,6 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     if (resetTs) {
       fpsLimiter.setFPS(fps);
     }
-    if (formatVideoEncoder != FormatVideoEncoder.SURFACE) {
-      YUVUtil.preAllocateBuffers(width * height * 3 / 2);
-    }
     Log.i(TAG, "started");
   }
 
@@ -190,6 +191,7 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     oldSps = null;
     oldPps = null;
     oldVps = null;
+    yuvRotateConverter.release();
     Log.i(TAG, "stopped");
   }
 
@@ -299,7 +301,9 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
 
   @Override
   public void inputYUVData(Frame frame) {
-    if (running && !queue.offer(frame)) {
+    if (!running) {
+      frame.release();
+    } else if (!enqueueFrame(frame)) {
       Log.i(TAG, "frame discarded");
     }
   }
@@ -442,19 +446,28 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
   protected Frame getInputFrame() throws InterruptedException {
     Frame frame = queue.take();
     if (frame == null) return null;
-    if (fpsLimiter.limitFPS()) return getInputFrame();
+    if (fpsLimiter.limitFPS()) {
+      frame.release();
+      return getInputFrame();
+    }
     byte[] buffer = frame.getBuffer();
+    long timeStamp = frame.getTimeStamp();
     boolean isYV12 = frame.getFormat() == ImageFormat.YV12;
 
     int orientation = frame.isFlip() ? frame.getOrientation() + 180 : frame.getOrientation();
     if (orientation >= 360) orientation -= 360;
-    buffer = isYV12 ? YUVUtil.rotateYV12(buffer, width, height, orientation)
-        : YUVUtil.rotateNV21(buffer, width, height, orientation);
-
-    buffer = isYV12 ? YUVUtil.YV12toYUV420byColor(buffer, width, height, formatVideoEncoder)
-        : YUVUtil.NV21toYUV420byColor(buffer, width, height, formatVideoEncoder);
-    frame.setBuffer(buffer);
-    return frame;
+    try {
+      buffer = yuvRotateConverter.convert(buffer, width, height, orientation, isYV12,
+          formatVideoEncoder);
+    } finally {
+      //the converted buffer is owned by the converter so the input frame can be reused
+      frame.release();
+    }
+    if (buffer == null) return null;
+    outputFrame.setBuffer(buffer);
+    outputFrame.setSize(buffer.length);
+    outputFrame.setTimeStamp(timeStamp);
+    return outputFrame;
   }
 
   @Override
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder
+
+import android.media.MediaCodec
+import android.media.MediaCodecInfo
+import android.media.MediaFormat
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.verify
+import java.nio.ByteBuffer
+
+class BaseEncoderTest {
+
+  private class TestEncoder : BaseEncoder() {
+    var onCalculatePts: (Frame) -> Unit = { }
+
+    fun input(frame: Frame): Boolean = enqueueFrame(frame)
+    fun queuedFrames(): List<Frame> = queue.toList()
+
+    override fun reset() { }
+    override fun start(resetTs: Boolean) { }
+    override fun stopImp() { }
+    override fun chooseEncoder(mime: String?): MediaCodecInfo? = null
+    override fun getInputFrame(): Frame? = queue.take()
+    override fun calculatePts(frame: Frame, presentTimeUs: Long): Long {
+      onCalculatePts(frame)
+      return frame.timeStamp
+    }
+    override fun checkBuffer(byteBuffer: ByteBuffer, bufferInfo: MediaCodec.BufferInfo) { }
+    override fun sendBuffer(byteBuffer: ByteBuffer, bufferInfo: MediaCodec.BufferInfo) { }
+    override fun formatChanged(mediaCodec: MediaCodec, mediaFormat: MediaFormat) { }
+  }
+
+  @Test
+  fun `GIVEN default mode WHEN enqueue frames THEN all frames are queued in order`() {
+    val encoder = TestEncoder()
+    val framePool = FramePool(3)
+    val frames = List(3) { framePool.obtain(100)!! }
+    frames.forEach { assertTrue(encoder.input(it)) }
+    assertEquals(frames, encoder.queuedFrames())
+  }
+
+  @Test
+  fun `GIVEN latest frame mode WHEN enqueue frames THEN only the latest frame is queued and the rest released`() {
+    val encoder = TestEncoder()
+    encoder.isLatestFrameOnly = true
+    val framePool = FramePool(3)
+    val frames = List(3) { framePool.obtain(100)!! }
+    frames.forEach { assertTrue(encoder.input(it)) }
+    assertEquals(listOf(frames[2]), encoder.queuedFrames())
+    //discarded frames are back in the pool
+    val reused = listOf(framePool.obtain(100), framePool.obtain(100))
+    assertTrue(reused.containsAll(frames.subList(0, 2)))
+    assertNull(framePool.obtain(100))
+  }
+
+  @Test
+  fun `GIVEN a full queue WHEN enqueue a frame THEN frame is discarded and released`() {
+    val encoder = TestEncoder()
+    repeat(80) { assertTrue(encoder.input(Frame(ByteArray(1), 0, 1, 0))) }
+    val framePool = FramePool(1)
+    val frame = framePool.obtain(100)!!
+    assertFalse(encoder.input(frame))
+    assertSame(frame, framePool.obtain(100))
+  }
+
+  @Test
+  fun `GIVEN a queued frame WHEN input available THEN frame is released after its last use`() {
+    val encoder = TestEncoder()
+    val framePool = FramePool(1)
+    val frame = framePool.obtain(4)!!
+    frame.buffer = byteArrayOf(1, 2, 3, 4)
+    frame.timeStamp = 1000
+    var frameInUse = false
+    encoder.onCalculatePts = {
+      //the pool has no free frames if the frame is not released yet
+      frameInUse = framePool.obtain(4) == null
+    }
+    encoder.input(frame)
+    val byteBuffer = ByteBuffer.allocate(4)
+    val mediaCodec = mock<MediaCodec> {
+      on { getInputBuffer(0) } doReturn byteBuffer
+      on { inputBuffers } doReturn arrayOf(byteBuffer)
+    }
+    encoder.inputAvailable(mediaCodec, 0)
+    assertTrue(frameInUse)
+    verify(mediaCodec).queueInputBuffer(eq(0), eq(0), eq(4), eq(1000L), eq(0))
+    assertSame(frame, framePool.obtain(4))
+    assertEquals(ByteBuffer.wrap(byteArrayOf(1, 2, 3, 4)), byteBuffer.flip())
+  }
+}
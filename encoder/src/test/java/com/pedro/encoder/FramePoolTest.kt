@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class FramePoolTest {
+
+  @Test
+  fun `GIVEN a pool WHEN obtain more frames than max frames THEN return null`() {
+    val framePool = FramePool(2)
+    val frame1 = framePool.obtain(100)
+    val frame2 = framePool.obtain(100)
+    assertNotNull(frame1)
+    assertNotNull(frame2)
+    assertNotSame(frame1, frame2)
+    assertNull(framePool.obtain(100))
+  }
+
+  @Test
+  fun `GIVEN a released frame WHEN obtain THEN reuse the frame with offset 0 and the size indicated`() {
+    val framePool = FramePool(1)
+    val frame = framePool.obtain(100)!!
+    frame.offset = 10
+    frame.size = 20
+    frame.release()
+    val reusedFrame = framePool.obtain(100)
+    assertSame(frame, reusedFrame)
+    assertEquals(0, reusedFrame!!.offset)
+    assertEquals(100, reusedFrame.size)
+    assertEquals(100, reusedFrame.buffer.size)
+  }
+
+  @Test
+  fun `GIVEN a released frame of other size WHEN obtain THEN discard it and create a new frame`() {
+    val framePool = FramePool(1)
+    val frame = framePool.obtain(100)!!
+    frame.release()
+    val newFrame = framePool.obtain(200)
+    assertNotNull(newFrame)
+    assertNotSame(frame, newFrame)
+    assertEquals(200, newFrame!!.buffer.size)
+  }
+
+  @Test
+  fun `GIVEN a cleared pool WHEN obtain THEN create new frames`() {
+    val framePool = FramePool(1)
+    val frame = framePool.obtain(100)!!
+    frame.release()
+    framePool.clear()
+    val newFrame = framePool.obtain(100)
+    assertNotNull(newFrame)
+    assertNotSame(frame, newFrame)
+  }
+
+  @Test
+  fun `GIVEN a listener WHEN release a frame THEN listener is called with the frame back in the pool`() {
+    val framePool = FramePool(1)
+    val frame = framePool.obtain(100)!!
+    var obtainedFrame: Frame? = null
+    framePool.setOnFrameReleasedListener { obtainedFrame = framePool.obtain(100) }
+    frame.release()
+    assertSame(frame, obtainedFrame)
+  }
+
+  @Test
+  fun `GIVEN a frame without pool WHEN release THEN nothing happens`() {
+    val frame = Frame(ByteArray(100), 0, 100, 0)
+    frame.release()
+    assertNull(frame.framePool)
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.audio
+
+import android.media.MediaCodec
+import android.media.MediaFormat
+import com.pedro.encoder.FramePool
+import com.pedro.encoder.input.audio.GetMicrophoneDirectData
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class AudioEncoderTest {
+
+  private class TestAudioEncoder : AudioEncoder(object : GetAacData {
+    override fun getAacData(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) { }
+    override fun onAudioFormat(mediaFormat: MediaFormat) { }
+  }) {
+    fun setRunning(running: Boolean) {
+      this.running = running
+    }
+  }
+
+  @Test
+  fun `GIVEN a source with read errors WHEN read PCM data THEN retry with back-off until a success`() {
+    val audioEncoder = TestAudioEncoder()
+    audioEncoder.setRunning(true)
+    var reads = 0
+    val source = object : GetMicrophoneDirectData {
+      override fun readPCMData(byteBuffer: ByteBuffer): Int = if (++reads <= 3) -3 else 1024
+    }
+    val startTime = System.nanoTime()
+    assertEquals(1024, audioEncoder.readPCMData(source, ByteBuffer.allocate(1024)))
+    val elapsedMs = (System.nanoTime() - startTime) / 1_000_000
+    assertEquals(4, reads)
+    //1ms + 2ms + 4ms of back-off
+    assertTrue("elapsed $elapsedMs", elapsedMs >= 7)
+  }
+
+  @Test
+  fun `GIVEN encoder stopped while reads fail WHEN read PCM data THEN stop retrying and return the error`() {
+    val audioEncoder = TestAudioEncoder()
+    audioEncoder.setRunning(true)
+    var reads = 0
+    val source = object : GetMicrophoneDirectData {
+      override fun readPCMData(byteBuffer: ByteBuffer): Int {
+        if (++reads == 2) audioEncoder.setRunning(false)
+        return -3
+      }
+    }
+    assertEquals(-3, audioEncoder.readPCMData(source, ByteBuffer.allocate(1024)))
+    assertEquals(2, reads)
+  }
+
+  @Test
+  fun `GIVEN a pooled frame WHEN input PCM data with the encoder stopped THEN frame is returned to the pool`() {
+    val audioEncoder = TestAudioEncoder()
+    val framePool = FramePool(1)
+    val frame = framePool.obtain(1024)!!
+    audioEncoder.inputPCMData(frame)
+    assertSame(frame, framePool.obtain(1024))
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.input.audio
+
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Mix microphone and internal audio like AudioManager MIXED source, with the internal audio resampled.
+ * Report samples mixed per second in the assert message.
+ * Ignored in the unit suite, remove @Ignore to run it.
+ */
+@Ignore("benchmark")
+class AudioMixerBenchmark {
+
+  private val warmupFrames = 2000
+  private val frames = 20000
+  private val frameSize = 4096
+
+  @Test
+  fun `GIVEN microphone and resampled internal audio WHEN mix THEN report samples mixed per second`() {
+    val mixer = AudioMixer(48000, 2)
+    val microphone = mixer.addTrack(48000, 1f)
+    val internal = mixer.addTrack(44100, 0.8f)
+    val pcm = ByteArray(frameSize) { (it * 31).toByte() }
+    val output = ByteArray(frameSize)
+    run(mixer, microphone, internal, pcm, output, warmupFrames)
+    val startTime = System.nanoTime()
+    run(mixer, microphone, internal, pcm, output, frames)
+    val elapsed = (System.nanoTime() - startTime).coerceAtLeast(1)
+    val samplesPerSecond = frames.toLong() * frameSize / 2 * 1_000_000_000L / elapsed
+    assertTrue("samples/s $samplesPerSecond", samplesPerSecond > 0)
+  }
+
+  private fun run(mixer: AudioMixer, microphone: AudioMixer.Track, internal: AudioMixer.Track,
+    pcm: ByteArray, output: ByteArray, frames: Int) {
+    for (i in 0 until frames) {
+      internal.write(pcm, 0, pcm.size)
+      microphone.write(pcm, 0, pcm.size)
+      mixer.mix(output, 0, pcm.size)
+    }
+  }
+}
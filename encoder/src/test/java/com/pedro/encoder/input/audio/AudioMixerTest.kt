@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.input.audio
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AudioMixerTest {
+
+  @Test
+  fun `GIVEN samples under the clip threshold WHEN soft clip THEN samples are not modified`() {
+    assertEquals(0.5f, AudioMixer.softClip(0.5f), 0f)
+    assertEquals(-0.8f, AudioMixer.softClip(-0.8f), 0f)
+    assertEquals(0f, AudioMixer.softClip(0f), 0f)
+  }
+
+  @Test
+  fun `GIVEN samples over the clip threshold WHEN soft clip THEN never exceed full scale and keep the sign`() {
+    var previous = 0.8f
+    for (sample in listOf(0.9f, 1f, 1.5f, 2f, 10f)) {
+      val clipped = AudioMixer.softClip(sample)
+      assertTrue(clipped > previous)
+      assertTrue(clipped <= 1f)
+      assertEquals(-clipped, AudioMixer.softClip(-sample), 0f)
+      previous = clipped
+    }
+  }
+
+  @Test
+  fun `GIVEN two tracks near full scale WHEN mix THEN output is soft clipped`() {
+    val mixer = AudioMixer(32000, 1)
+    val first = mixer.addTrack(32000, 1f)
+    val second = mixer.addTrack(32000, 1f)
+    first.write(pcm(30000, -30000), 0, 4)
+    second.write(pcm(30000, -30000), 0, 4)
+    val output = ByteArray(4)
+    assertEquals(4, mixer.mix(output, 0, 4))
+    val result = samples(output)
+    assertTrue(result[0].toInt() in 26214..32767)
+    assertEquals(-result[0], result[1].toInt())
+  }
+
+  @Test
+  fun `GIVEN tracks with gain WHEN mix THEN samples are multiplied by the gain`() {
+    val mixer = AudioMixer(32000, 1)
+    val first = mixer.addTrack(32000, 0.5f)
+    val second = mixer.addTrack(32000, 0.25f)
+    first.write(pcm(8000, -8000), 0, 4)
+    second.write(pcm(8000, 8000), 0, 4)
+    val output = ByteArray(4)
+    mixer.mix(output, 0, 4)
+    assertSamples(shortArrayOf(6000, -2000), samples(output))
+
+    second.gain = 0f
+    first.write(pcm(8000, -8000), 0, 4)
+    second.write(pcm(8000, 8000), 0, 4)
+    mixer.mix(output, 0, 4)
+    assertSamples(shortArrayOf(4000, -4000), samples(output))
+  }
+
+  @Test
+  fun `GIVEN a track with less samples than the frame WHEN mix THEN add silence and keep the samples for the next mix`() {
+    val mixer = AudioMixer(32000, 1)
+    val microphone = mixer.addTrack(32000, 1f)
+    val internal = mixer.addTrack(32000, 1f)
+    microphone.write(pcm(1000, 2000, 3000, 4000), 0, 8)
+    internal.write(pcm(100, 200), 0, 4)
+    val output = ByteArray(8)
+    mixer.mix(output, 0, 8)
+    assertSamples(shortArrayOf(1000, 2000, 3000, 4000), samples(output))
+    assertEquals(2, internal.available)
+
+    microphone.write(pcm(1000, 2000, 3000, 4000), 0, 8)
+    internal.write(pcm(300, 400), 0, 4)
+    mixer.mix(output, 0, 8)
+    assertSamples(shortArrayOf(1100, 2200, 3300, 4400), samples(output))
+    assertEquals(0, internal.available)
+  }
+
+  @Test
+  fun `GIVEN a frame bigger than the previous ones WHEN mix THEN mix all samples`() {
+    val mixer = AudioMixer(32000, 1)
+    val track = mixer.addTrack(32000, 1f)
+    val output = ByteArray(16)
+    track.write(pcm(1000, 2000), 0, 4)
+    assertEquals(4, mixer.mix(output, 0, 4))
+    track.write(pcm(1, 2, 3, 4, 5, 6, 7, 8), 0, 16)
+    assertEquals(16, mixer.mix(output, 0, 16))
+    assertSamples(shortArrayOf(1, 2, 3, 4, 5, 6, 7, 8), samples(output))
+  }
+
+  @Test
+  fun `GIVEN stereo tracks WHEN mix THEN channels are kept separated`() {
+    val mixer = AudioMixer(32000, 2)
+    val first = mixer.addTrack(32000, 1f)
+    val second = mixer.addTrack(32000, 1f)
+    //left, right
+    first.write(pcm(4000, -4000, 4000, -4000), 0, 8)
+    second.write(pcm(1000, 2000, 1000, 2000), 0, 8)
+    val output = ByteArray(8)
+    mixer.mix(output, 0, 8)
+    assertSamples(shortArrayOf(5000, -2000, 5000, -2000), samples(output))
+  }
+
+  @Test
+  fun `GIVEN a stereo write with an odd number of samples WHEN write THEN incomplete frame is ignored`() {
+    val mixer = AudioMixer(32000, 2)
+    val track = mixer.addTrack(32000, 1f)
+    track.write(pcm(1000, 2000, 3000), 0, 6)
+    assertEquals(2, track.available)
+  }
+
+  @Test
+  fun `GIVEN a mono track with half sample rate WHEN write THEN samples are resampled to the mixer sample rate`() {
+    val mixer = AudioMixer(32000, 1)
+    val track = mixer.addTrack(16000, 1f)
+    //first sample is used as start of the interpolation
+    track.write(pcm(0, 2000, 4000, 6000, 8000), 0, 10)
+    assertEquals(8, track.available)
+    val output = ByteArray(16)
+    mixer.mix(output, 0, 16)
+    assertSamples(shortArrayOf(0, 1000, 2000, 3000, 4000, 5000, 6000, 7000), samples(output))
+  }
+
+  @Test
+  fun `GIVEN a stereo track with double sample rate WHEN write THEN channels are resampled separately`() {
+    val mixer = AudioMixer(16000, 2)
+    val track = mixer.addTrack(32000, 1f)
+    track.write(pcm(0, 0, 1000, -1000, 2000, -2000, 3000, -3000, 4000, -4000), 0, 20)
+    assertEquals(4, track.available)
+    val output = ByteArray(8)
+    mixer.mix(output, 0, 8)
+    assertSamples(shortArrayOf(0, 0, 2000, -2000), samples(output))
+  }
+
+  @Test
+  fun `GIVEN a full track WHEN write THEN discard the oldest samples`() {
+    //10ms of mono audio at 1000hz, 10 samples
+    val mixer = AudioMixer(1000, 1, 10)
+    val track = mixer.addTrack(1000, 1f)
+    track.write(pcm(*ShortArray(12) { (it * 100).toShort() }), 0, 24)
+    assertEquals(10, track.available)
+    val output = ByteArray(20)
+    mixer.mix(output, 0, 20)
+    assertSamples(ShortArray(10) { ((it + 2) * 100).toShort() }, samples(output))
+  }
+
+  @Test
+  fun `GIVEN mixed mode WHEN internal audio has no samples THEN output is the microphone`() {
+    //same usage that AudioManager MIXED source, microphone is the clock of the mix
+    val mixer = AudioMixer(32000, 2)
+    val microphone = mixer.addTrack(32000, 1f)
+    val internal = mixer.addTrack(32000, 1f)
+    val frame = pcm(*ShortArray(1024) { (it % 100 * 10).toShort() })
+    val output = ByteArray(frame.size)
+    microphone.write(frame, 0, frame.size)
+    mixer.mix(output, 0, frame.size)
+    assertArrayEquals(frame, output)
+
+    internal.write(frame, 0, frame.size)
+    microphone.write(frame, 0, frame.size)
+    mixer.mix(output, 0, frame.size)
+    assertSamples(ShortArray(1024) { (it % 100 * 20).toShort() }, samples(output))
+  }
+
+  @Test
+  fun `GIVEN a removed track WHEN mix THEN its samples are not added`() {
+    val mixer = AudioMixer(32000, 1)
+    val first = mixer.addTrack(32000, 1f)
+    val second = mixer.addTrack(32000, 1f)
+    first.write(pcm(1000), 0, 2)
+    second.write(pcm(2000), 0, 2)
+    mixer.removeTrack(second)
+    val output = ByteArray(2)
+    mixer.mix(output, 0, 2)
+    assertSamples(shortArrayOf(1000), samples(output))
+  }
+
+  private fun pcm(vararg samples: Short): ByteArray {
+    val pcm = ByteArray(samples.size * 2)
+    samples.forEachIndexed { i, sample ->
+      pcm[i * 2] = sample.toByte()
+      pcm[i * 2 + 1] = (sample.toInt() shr 8).toByte()
+    }
+    return pcm
+  }
+
+  private fun pcm(vararg samples: Int): ByteArray = pcm(*ShortArray(samples.size) { samples[it].toShort() })
+
+  private fun samples(pcm: ByteArray): ShortArray {
+    return ShortArray(pcm.size / 2) { ((pcm[it * 2].toInt() and 0xFF) or (pcm[it * 2 + 1].toInt() shl 8)).toShort() }
+  }
+
+  //float conversion could change the value in 1
+  private fun assertSamples(expected: ShortArray, actual: ShortArray) {
+    assertEquals(expected.size, actual.size)
+    expected.forEachIndexed { i, sample ->
+      assertEquals("sample $i", sample.toFloat(), actual[i].toFloat(), 1f)
+    }
+  }
+}
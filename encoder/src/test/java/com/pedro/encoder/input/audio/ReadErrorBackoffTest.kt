@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.input.audio
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ReadErrorBackoffTest {
+
+  @Test
+  fun `GIVEN consecutive read errors WHEN on error THEN delay is doubled up to the max`() {
+    val readErrorBackoff = ReadErrorBackoff("test")
+    val delays = List(9) { readErrorBackoff.onError(-3) }
+    assertEquals(listOf(1L, 2L, 4L, 8L, 16L, 32L, 64L, 100L, 100L), delays)
+    assertTrue(readErrorBackoff.isFailing)
+  }
+
+  @Test
+  fun `GIVEN a custom max delay WHEN on error THEN delay never exceed it`() {
+    val readErrorBackoff = ReadErrorBackoff("test", 5)
+    val delays = List(5) { readErrorBackoff.onError(-3) }
+    assertEquals(listOf(1L, 2L, 4L, 5L, 5L), delays)
+  }
+
+  @Test
+  fun `GIVEN a read success after errors WHEN on error THEN start again with the min delay`() {
+    val readErrorBackoff = ReadErrorBackoff("test")
+    readErrorBackoff.onError(-3)
+    readErrorBackoff.onError(-3)
+    readErrorBackoff.onSuccess()
+    assertFalse(readErrorBackoff.isFailing)
+    assertEquals(1L, readErrorBackoff.onError(-3))
+  }
+
+  @Test
+  fun `GIVEN an interrupted thread WHEN sleep THEN return false and keep the interrupted status`() {
+    val readErrorBackoff = ReadErrorBackoff("test")
+    Thread.currentThread().interrupt()
+    assertFalse(readErrorBackoff.sleep(-3))
+    assertTrue(Thread.interrupted())
+  }
+}
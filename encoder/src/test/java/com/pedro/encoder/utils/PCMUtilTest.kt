@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.utils
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PCMUtilTest {
+
+  @Test
+  fun `GIVEN two buffers WHEN mix THEN samples are added as 16 bits little endian`() {
+    val result = PCMUtil.mixPCM(pcm(1000, -1000, 300), pcm(2000, 500, -300))
+    assertSamples(shortArrayOf(3000, -500, 0), samples(result))
+  }
+
+  @Test
+  fun `GIVEN samples that overflow full scale WHEN mix THEN result is soft clipped`() {
+    val result = samples(PCMUtil.mixPCM(pcm(30000, -30000), pcm(30000, -30000)))
+    assertTrue(result[0].toInt() in 26214..32767)
+    assertEquals(-result[0], result[1].toInt())
+  }
+
+  @Test
+  fun `GIVEN buffers with different length WHEN mix THEN return the longest buffer with the tail unmodified`() {
+    val short = pcm(1000)
+    val long = pcm(1000, 2000, 3000)
+    val result = PCMUtil.mixPCM(short, long)
+    assertSame(long, result)
+    assertSamples(shortArrayOf(2000, 2000, 3000), samples(result))
+
+    val short2 = pcm(1000)
+    val long2 = pcm(1000, 2000, 3000)
+    assertSame(long2, PCMUtil.mixPCM(long2, short2))
+    assertSamples(shortArrayOf(2000, 2000, 3000), samples(long2))
+  }
+
+  @Test
+  fun `GIVEN pcm with 3 channels WHEN convert to stereo THEN keep the first 2 channels`() {
+    val pcm = pcm(1, 2, 3, 4, 5, 6, -7, -8, -9)
+    val output = ByteArray(12)
+    assertEquals(12, PCMUtil.pcmToStereo(pcm, pcm.size, 3, output))
+    assertArrayEquals(shortArrayOf(1, 2, 4, 5, -7, -8), samples(output))
+    assertArrayEquals(shortArrayOf(1, 2, 4, 5, -7, -8), samples(PCMUtil.pcmToStereo(pcm, 3)))
+  }
+
+  @Test
+  fun `GIVEN pcm with 6 channels and a partial frame WHEN convert to stereo THEN partial frame is ignored`() {
+    val pcm = pcm(1000, -1000, 3, 4, 5, 6, 2000, -2000, 9)
+    val output = ByteArray(8)
+    assertEquals(4, PCMUtil.pcmToStereo(pcm, pcm.size, 6, output))
+    assertArrayEquals(shortArrayOf(1000, -1000), samples(output.copyOf(4)))
+  }
+
+  private fun pcm(vararg samples: Int): ByteArray {
+    val pcm = ByteArray(samples.size * 2)
+    samples.forEachIndexed { i, sample ->
+      pcm[i * 2] = sample.toByte()
+      pcm[i * 2 + 1] = (sample shr 8).toByte()
+    }
+    return pcm
+  }
+
+  private fun samples(pcm: ByteArray): ShortArray {
+    return ShortArray(pcm.size / 2) { ((pcm[it * 2].toInt() and 0xFF) or (pcm[it * 2 + 1].toInt() shl 8)).toShort() }
+  }
+
+  //float conversion could change the value in 1
+  private fun assertSamples(expected: ShortArray, actual: ShortArray) {
+    assertEquals(expected.size, actual.size)
+    expected.forEachIndexed { i, sample ->
+      assertEquals("sample $i", sample.toFloat(), actual[i].toFloat(), 1f)
+    }
+  }
+}
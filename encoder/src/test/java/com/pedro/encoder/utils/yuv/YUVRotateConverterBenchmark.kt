@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.utils.yuv
+
+import com.pedro.encoder.video.FormatVideoEncoder
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compare YUVRotateConverter with rotate and convert color in 2 passes (YUVUtil) for each rotation,
+ * input format (NV21, YV12) and output format (I420, NV12) with a 1080p frame.
+ * Report ns per frame of both in the assert message. Ignored in the unit suite, remove @Ignore to run it.
+ *
+ * Only 90 and 270 rotation are asserted, the 2 passes copy the whole frame twice there. With 0 and 180
+ * both do the same work per byte and the difference is noise.
+ */
+@Ignore("benchmark")
+class YUVRotateConverterBenchmark {
+
+  private val width = 1920
+  private val height = 1080
+  private val warmupFrames = 100
+  private val frames = 300
+
+  @Test
+  fun `GIVEN 1080p frames WHEN rotate and convert THEN converter is faster than rotate and convert color with 90 and 270 rotation`() {
+    val frame = YUVRotateConverterTest.createFrame(width, height, 1)
+    val results = mutableListOf<Result>()
+    for (rotation in listOf(0, 90, 180, 270)) {
+      for (isYV12 in listOf(false, true)) {
+        for (format in listOf(FormatVideoEncoder.YUV420PLANAR, FormatVideoEncoder.YUV420SEMIPLANAR)) {
+          results.add(run(frame, rotation, isYV12, format))
+        }
+      }
+    }
+    val report = results.joinToString("\n")
+    results.filter { it.rotation == 90 || it.rotation == 270 }
+      .forEach { assertTrue(report, it.converterNs < it.legacyNs) }
+  }
+
+  private fun run(frame: ByteArray, rotation: Int, isYV12: Boolean, format: FormatVideoEncoder): Result {
+    YUVUtil.preAllocateBuffers(frame.size)
+    val legacy = measure {
+      val rotated = if (isYV12) YUVUtil.rotateYV12(frame, width, height, rotation)
+      else YUVUtil.rotateNV21(frame, width, height, rotation)
+      if (isYV12) YUVUtil.YV12toYUV420byColor(rotated, width, height, format)
+      else YUVUtil.NV21toYUV420byColor(rotated, width, height, format)
+    }
+    val yuvRotateConverter = YUVRotateConverter()
+    val converter = measure { yuvRotateConverter.convert(frame, width, height, rotation, isYV12, format) }
+    yuvRotateConverter.release()
+    return Result(rotation, if (isYV12) "YV12" else "NV21", format, legacy, converter)
+  }
+
+  private fun measure(convert: () -> Unit): Long {
+    repeat(warmupFrames) { convert() }
+    val startTime = System.nanoTime()
+    repeat(frames) { convert() }
+    return (System.nanoTime() - startTime) / frames
+  }
+
+  private data class Result(val rotation: Int, val input: String, val format: FormatVideoEncoder,
+    val legacyNs: Long, val converterNs: Long) {
+    override fun toString(): String {
+      return "rotation $rotation, $input to $format: rotate and convert $legacyNs ns, converter $converterNs ns"
+    }
+  }
+}
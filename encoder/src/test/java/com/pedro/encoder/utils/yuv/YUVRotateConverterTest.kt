@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.encoder.utils.yuv
+
+import com.pedro.encoder.video.FormatVideoEncoder
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.Random
+
+/**
+ * Output of YUVRotateConverter must be the same that rotate and convert color in 2 passes with YUVUtil.
+ */
+class YUVRotateConverterTest {
+
+  private val rotations = listOf(0, 90, 180, 270)
+  private val formats = listOf(FormatVideoEncoder.YUV420PLANAR, FormatVideoEncoder.YUV420SEMIPLANAR)
+  //force parallel bands in machines with less cores
+  private val yuvRotateConverter = YUVRotateConverter(4)
+
+  @After
+  fun tearDown() {
+    yuvRotateConverter.release()
+  }
+
+  @Test
+  fun `GIVEN a small frame WHEN convert THEN output is the same that rotate and convert color`() {
+    //processed only in the caller thread and smaller than a tile
+    checkAll(48, 16)
+    checkAll(64, 48)
+  }
+
+  @Test
+  fun `GIVEN a frame processed in parallel bands WHEN convert THEN output is the same that rotate and convert color`() {
+    //width and height not multiple of the tile size
+    checkAll(1280, 720)
+    checkAll(648, 488)
+  }
+
+  @Test
+  fun `GIVEN a frame of the same size WHEN convert THEN reuse the output buffer`() {
+    val frame = createFrame(64, 48, 1)
+    val output = yuvRotateConverter.convert(frame, 64, 48, 90, false, FormatVideoEncoder.YUV420PLANAR)
+    assertSame(output, yuvRotateConverter.convert(frame, 64, 48, 270, true, FormatVideoEncoder.YUV420SEMIPLANAR))
+  }
+
+  @Test
+  fun `GIVEN converter released WHEN convert THEN output is still valid`() {
+    val frame = createFrame(1280, 720, 2)
+    yuvRotateConverter.convert(frame, 1280, 720, 90, false, FormatVideoEncoder.YUV420PLANAR)
+    yuvRotateConverter.release()
+    val expected = legacyConvert(frame, 1280, 720, 90, false, FormatVideoEncoder.YUV420PLANAR)
+    val output = yuvRotateConverter.convert(frame, 1280, 720, 90, false, FormatVideoEncoder.YUV420PLANAR)
+    assertArrayEquals(expected, output)
+  }
+
+  @Test
+  fun `GIVEN an unsupported rotation or color format WHEN convert THEN return null`() {
+    val frame = createFrame(64, 48, 3)
+    assertNull(yuvRotateConverter.convert(frame, 64, 48, 45, false, FormatVideoEncoder.YUV420PLANAR))
+    assertNull(yuvRotateConverter.convert(frame, 64, 48, 90, false, FormatVideoEncoder.YUV422PLANAR))
+    assertNull(yuvRotateConverter.convert(frame, 64, 48, 90, false, FormatVideoEncoder.SURFACE))
+  }
+
+  private fun checkAll(width: Int, height: Int) {
+    val frame = createFrame(width, height, width.toLong() * height)
+    for (rotation in rotations) {
+      for (isYV12 in listOf(false, true)) {
+        for (format in formats) {
+          val expected = legacyConvert(frame, width, height, rotation, isYV12, format)
+          val output = yuvRotateConverter.convert(frame, width, height, rotation, isYV12, format)
+          assertArrayEquals("${width}x$height rotation $rotation, yv12 $isYV12, $format", expected, output)
+        }
+      }
+    }
+  }
+
+  companion object {
+
+    fun createFrame(width: Int, height: Int, seed: Long): ByteArray {
+      val frame = ByteArray(width * height * 3 / 2)
+      Random(seed).nextBytes(frame)
+      return frame
+    }
+
+    /**
+     * Rotate and convert color like VideoEncoder did before YUVRotateConverter.
+     */
+    fun legacyConvert(frame: ByteArray, width: Int, height: Int, rotation: Int, isYV12: Boolean,
+      format: FormatVideoEncoder): ByteArray {
+      YUVUtil.preAllocateBuffers(frame.size)
+      val rotated = if (isYV12) YUVUtil.rotateYV12(frame, width, height, rotation)
+      else YUVUtil.rotateNV21(frame, width, height, rotation)
+      val output = if (isYV12) YUVUtil.YV12toYUV420byColor(rotated, width, height, format)
+      else YUVUtil.NV21toYUV420byColor(rotated, width, height, format)
+      //static buffers are reused in the next call
+      return output.copyOf()
+    }
+  }
+}
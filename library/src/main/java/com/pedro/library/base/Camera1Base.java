@@ -147,6 +147,7 @@ public abstract class Camera1Base {
    *
    * @param microphoneMode mode to work accord to audioEncoder. By default ASYNC:
    * SYNC using same thread. This mode could solve choppy audio or audio frame discarded.
+   * PCM is read directly in the encoder input buffer (Android 5+).
    * ASYNC using other thread.
    */
   public void setMicrophoneMode(MicrophoneMode microphoneMode) {
@@ -155,6 +156,7 @@ public abstract class Camera1Base {
         microphoneManager = new MicrophoneManagerManual();
         audioEncoder = new AudioEncoder(getAacData);
         audioEncoder.setGetFrame(((MicrophoneManagerManual) microphoneManager).getGetFrame());
+        audioEncoder.setGetMicrophoneDirectData((MicrophoneManagerManual) microphoneManager);
         audioEncoder.setTsModeBuffer(false);
         break;
       case ASYNC:
@@ -381,6 +383,14 @@ public abstract class Camera1Base {
     audioEncoder.setForce(forceAudio);
   }
 
+  /**
+   * Encode only the most recent camera frame, discarding frames waiting to be encoded.
+   * Keep latency limited if the encoder is slower than the camera. Disabled by default.
+   */
+  public void setVideoLatestFrameOnly(boolean latestFrameOnly) {
+    videoEncoder.setLatestFrameOnly(latestFrameOnly);
+  }
+
   /**
    * Starts recording a MP4 video.
    *
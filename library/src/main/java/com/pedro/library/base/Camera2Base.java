@@ -158,6 +158,7 @@ public abstract class Camera2Base {
    *
    * @param microphoneMode mode to work accord to audioEncoder. By default ASYNC:
    * SYNC using same thread. This mode could solve choppy audio or AudioEncoder frame discarded.
+   * PCM is read directly in the encoder input buffer (Android 5+).
    * ASYNC using other thread.
    */
   public void setMicrophoneMode(MicrophoneMode microphoneMode) {
@@ -166,6 +167,7 @@ public abstract class Camera2Base {
         microphoneManager = new MicrophoneManagerManual();
         audioEncoder = new AudioEncoder(getAacData);
         audioEncoder.setGetFrame(((MicrophoneManagerManual) microphoneManager).getGetFrame());
+        audioEncoder.setGetMicrophoneDirectData((MicrophoneManagerManual) microphoneManager);
         audioEncoder.setTsModeBuffer(false);
         break;
       case ASYNC:
@@ -108,6 +108,7 @@ public abstract class DisplayBase {
    *
    * @param microphoneMode mode to work accord to audioEncoder. By default SYNC:
    * SYNC using same thread. This mode could solve choppy audio or audio frame discarded.
+   * PCM is read directly in the encoder input buffer (Android 5+).
    * ASYNC using other thread.
    */
   public void setMicrophoneMode(MicrophoneMode microphoneMode) {
@@ -116,6 +117,7 @@ public abstract class DisplayBase {
         microphoneManager = new MicrophoneManagerManual();
         audioEncoder = new AudioEncoder(getAacData);
         audioEncoder.setGetFrame(((MicrophoneManagerManual) microphoneManager).getGetFrame());
+        audioEncoder.setGetMicrophoneDirectData((MicrophoneManagerManual) microphoneManager);
         break;
       case ASYNC:
         microphoneManager = new MicrophoneManager(getMicrophoneData);
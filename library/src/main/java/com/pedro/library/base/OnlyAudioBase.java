@@ -64,6 +64,7 @@ public abstract class OnlyAudioBase {
    *
    * @param microphoneMode mode to work accord to audioEncoder. By default ASYNC:
    * SYNC using same thread. This mode could solve choppy audio or audio frame discarded.
+   * PCM is read directly in the encoder input buffer (Android 5+).
    * ASYNC using other thread.
    */
   public void setMicrophoneMode(MicrophoneMode microphoneMode) {
@@ -72,6 +73,7 @@ public abstract class OnlyAudioBase {
         microphoneManager = new MicrophoneManagerManual();
         audioEncoder = new AudioEncoder(getAacData);
         audioEncoder.setGetFrame(((MicrophoneManagerManual) microphoneManager).getGetFrame());
+        audioEncoder.setGetMicrophoneDirectData((MicrophoneManagerManual) microphoneManager);
         audioEncoder.setTsModeBuffer(false);
         break;
       case ASYNC:
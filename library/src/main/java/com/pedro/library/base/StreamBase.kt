@@ -257,6 +257,25 @@ abstract class StreamBase(
     audioManager.changeSourceInternal(mediaProjection)
   }
 
+  /**
+   * Change audio source to Microphone and Internal mixed.
+   * Must be called after prepareAudio.
+   */
+  @RequiresApi(Build.VERSION_CODES.Q)
+  fun changeAudioSourceMixed(mediaProjection: MediaProjection) {
+    audioManager.changeSourceMixed(mediaProjection)
+  }
+
+  /**
+   * Set volume of each source when audio source is Microphone and Internal mixed.
+   *
+   * @param microphoneGain gain of microphone. 1 is the original volume.
+   * @param internalGain gain of internal audio. 1 is the original volume.
+   */
+  fun setAudioMixerGain(microphoneGain: Float, internalGain: Float) {
+    audioManager.setMixerGain(microphoneGain, internalGain)
+  }
+
   /**
    * Disable audio stopping process audio frames from audio source.
    * You can return to microphone/internal audio using changeAudioSourceMicrophone/changeAudioSourceInternal
@@ -443,6 +462,22 @@ abstract class StreamBase(
     glInterface.setCameraOrientation(orientation)
   }
 
+  /**
+   * Force the video encoder to produce a keyframe as soon as possible.
+   */
+  fun requestKeyFrame() {
+    videoEncoder.requestKeyframe()
+  }
+
+  /**
+   * Change the video bitrate while streaming.
+   *
+   * @param bitrate in bits per second.
+   */
+  fun setVideoBitrateOnFly(bitrate: Int) {
+    videoEncoder.setVideoBitrateOnFly(bitrate)
+  }
+
   /**
    * Retries to connect with the given delay. You can pass an optional backupUrl
    * if you'd like to connect to your backup server instead of the original one.
@@ -25,14 +25,20 @@ import android.view.TextureView;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import com.pedro.common.DropPolicy;
 import com.pedro.library.base.Camera2Base;
 import com.pedro.library.view.LightOpenGlView;
 import com.pedro.library.view.OpenGlView;
 import com.pedro.rtmp.flv.video.ProfileIop;
 import com.pedro.rtmp.rtmp.RtmpClient;
+import com.pedro.rtmp.rtmp.RtmpFanOut;
 import com.pedro.rtmp.utils.ConnectCheckerRtmp;
 import com.pedro.rtsp.rtsp.RtspClient;
+import com.pedro.rtsp.rtsp.RtspFanOut;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
+import com.pedro.srt.srt.SrtClient;
+import com.pedro.srt.srt.SrtFanOut;
+import com.pedro.srt.utils.ConnectCheckerSrt;
 
 import java.nio.ByteBuffer;
 
@@ -41,7 +47,7 @@ import java.nio.ByteBuffer;
  *
  * Experiment class.
  *
- * Support multiple streams in rtmp and rtsp at same time.
+ * Support multiple streams in rtmp, rtsp and srt at same time.
  * You must set the same number of ConnectChecker that you want use.
  *
  * For example. 2 RTMP and 1 RTSP:
@@ -68,6 +74,10 @@ import java.nio.ByteBuffer;
  * multiRtpCamera2.stopStream();
  * multiRtpCamera2.retry(delay, reason, backUpUrl);
  *
+ * Frames are packetized once per protocol and shared by all streams of that protocol.
+ * Each stream has its own queue and drop policy (see setDropPolicy) so a slow stream doesn't affect the rest.
+ * Use the constructors with ConnectCheckerSrt to stream with srt too (RtpType.SRT).
+ *
  * The rest of methods without RtpType and index means that you will execute that command in all streams.
  * Read class code if you need info about any method.
  */
@@ -76,10 +86,20 @@ public class MultiRtpCamera2 extends Camera2Base {
 
   private final RtmpClient[] rtmpClients;
   private final RtspClient[] rtspClients;
+  private final SrtClient[] srtClients;
+  private final RtmpFanOut rtmpFanOut;
+  private final RtspFanOut rtspFanOut;
+  private final SrtFanOut srtFanOut;
 
   @Deprecated
   public MultiRtpCamera2(SurfaceView surfaceView, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(surfaceView, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  @Deprecated
+  public MultiRtpCamera2(SurfaceView surfaceView, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(surfaceView);
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -91,11 +111,25 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (int i = 0; i < rtspClients.length; i++) {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+    }
+    rtmpFanOut = new RtmpFanOut(rtmpClients);
+    rtspFanOut = new RtspFanOut(rtspClients);
+    srtFanOut = new SrtFanOut(srtClients);
   }
 
   @Deprecated
   public MultiRtpCamera2(TextureView textureView, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(textureView, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  @Deprecated
+  public MultiRtpCamera2(TextureView textureView, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(textureView);
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -107,10 +141,23 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (int i = 0; i < rtspClients.length; i++) {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+    }
+    rtmpFanOut = new RtmpFanOut(rtmpClients);
+    rtspFanOut = new RtspFanOut(rtspClients);
+    srtFanOut = new SrtFanOut(srtClients);
   }
 
   public MultiRtpCamera2(OpenGlView openGlView, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(openGlView, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpCamera2(OpenGlView openGlView, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(openGlView);
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -122,10 +169,23 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (int i = 0; i < rtspClients.length; i++) {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+    }
+    rtmpFanOut = new RtmpFanOut(rtmpClients);
+    rtspFanOut = new RtspFanOut(rtspClients);
+    srtFanOut = new SrtFanOut(srtClients);
   }
 
   public MultiRtpCamera2(LightOpenGlView lightOpenGlView, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(lightOpenGlView, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpCamera2(LightOpenGlView lightOpenGlView, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(lightOpenGlView);
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -137,10 +197,23 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (int i = 0; i < rtspClients.length; i++) {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+    }
+    rtmpFanOut = new RtmpFanOut(rtmpClients);
+    rtspFanOut = new RtspFanOut(rtspClients);
+    srtFanOut = new SrtFanOut(srtClients);
   }
 
   public MultiRtpCamera2(Context context, boolean useOpengl, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(context, useOpengl, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpCamera2(Context context, boolean useOpengl, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(context, useOpengl);
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -152,30 +225,42 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (int i = 0; i < rtspClients.length; i++) {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+    }
+    rtmpFanOut = new RtmpFanOut(rtmpClients);
+    rtspFanOut = new RtspFanOut(rtspClients);
+    srtFanOut = new SrtFanOut(srtClients);
   }
 
   public boolean isStreaming(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].isStreaming();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].isStreaming();
+    } else {
+      return srtClients[index].isStreaming();
     }
   }
 
   /**
-   * H264 profile.
+   * H264 profile. Video config is shared by all rtmp streams so the value is used in all of them.
    *
    * @param profileIop Could be ProfileIop.BASELINE or ProfileIop.CONSTRAINED
    */
   public void setProfileIop(ProfileIop profileIop, int index) {
-    rtmpClients[index].setProfileIop(profileIop);
+    rtmpFanOut.setProfileIop(profileIop);
   }
 
   public void resizeCache(RtpType rtpType, int index, int newSize) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].resizeCache(newSize);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].resizeCache(newSize);
+    } else {
+      srtClients[index].resizeCache(newSize);
     }
   }
 
@@ -187,13 +272,18 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resizeCache(newSize);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resizeCache(newSize);
+    }
   }
 
   public int getCacheSize(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].getCacheSize();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].getCacheSize();
+    } else {
+      return srtClients[index].getCacheSize();
     }
   }
 
@@ -211,6 +301,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getSentAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getSentAudioFrames();
+    }
     return number;
   }
 
@@ -223,6 +316,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getSentVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getSentVideoFrames();
+    }
     return number;
   }
 
@@ -235,6 +331,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getDroppedAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getDroppedAudioFrames();
+    }
     return number;
   }
 
@@ -247,6 +346,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getDroppedVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getDroppedVideoFrames();
+    }
     return number;
   }
 
@@ -258,6 +360,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetSentAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetSentAudioFrames();
+    }
   }
 
   @Override
@@ -268,6 +373,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetSentVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetSentVideoFrames();
+    }
   }
 
   @Override
@@ -278,6 +386,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetDroppedAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetDroppedAudioFrames();
+    }
   }
 
   @Override
@@ -288,12 +399,15 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetDroppedVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetDroppedVideoFrames();
+    }
   }
 
   public void setAuthorization(RtpType rtpType, int index, String user, String password) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].setAuthorization(user, password);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].setAuthorization(user, password);
     }
   }
@@ -323,12 +437,9 @@ public class MultiRtpCamera2 extends Camera2Base {
 
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.setAudioInfo(sampleRate, isStereo);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.setAudioInfo(sampleRate, isStereo);
-    }
+    rtmpFanOut.setAudioInfo(sampleRate, isStereo);
+    rtspFanOut.setAudioInfo(sampleRate, isStereo);
+    srtFanOut.setAudioInfo(sampleRate, isStereo);
   }
 
   public void startStream(RtpType rtpType, int index, String url) {
@@ -346,8 +457,19 @@ public class MultiRtpCamera2 extends Camera2Base {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStarEncoder = false;
+          break;
+        }
+      }
+    }
+    if (shouldStarEncoder) {
+      rtmpFanOut.reset();
+      rtspFanOut.reset();
+      srtFanOut.reset();
+      super.startStream("");
     }
-    if (shouldStarEncoder) super.startStream("");
     if (rtpType == RtpType.RTMP) {
       if (videoEncoder.getRotation() == 90 || videoEncoder.getRotation() == 270) {
         rtmpClients[index].setVideoResolution(videoEncoder.getHeight(), videoEncoder.getWidth());
@@ -355,9 +477,17 @@ public class MultiRtpCamera2 extends Camera2Base {
         rtmpClients[index].setVideoResolution(videoEncoder.getWidth(), videoEncoder.getHeight());
       }
       rtmpClients[index].setFps(videoEncoder.getFps());
+      rtmpClients[index].setKeyFrameRequestListener(this::requestKeyFrame);
+      rtmpFanOut.setKeyFrameRequestListener(this::requestKeyFrame);
       rtmpClients[index].connect(url);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
+      rtspClients[index].setKeyFrameRequestListener(this::requestKeyFrame);
+      rtspFanOut.setKeyFrameRequestListener(this::requestKeyFrame);
       rtspClients[index].connect(url);
+    } else {
+      srtClients[index].setKeyFrameRequestListener(this::requestKeyFrame);
+      srtFanOut.setKeyFrameRequestListener(this::requestKeyFrame);
+      srtClients[index].connect(url);
     }
   }
 
@@ -369,8 +499,10 @@ public class MultiRtpCamera2 extends Camera2Base {
     boolean shouldStopEncoder = true;
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].disconnect();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].disconnect();
+    } else {
+      srtClients[index].disconnect();
     }
     for (RtmpClient rtmpClient: rtmpClients) {
       if (rtmpClient.isStreaming()) {
@@ -385,6 +517,12 @@ public class MultiRtpCamera2 extends Camera2Base {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStopEncoder = false;
+          break;
+        }
+      }
     }
     if (shouldStopEncoder) super.stopStream();
   }
@@ -401,6 +539,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setReTries(reTries);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setReTries(reTries);
+    }
   }
 
   public boolean reTry(RtpType rtpType, int index, long delay, String reason, @Nullable String backupUrl) {
@@ -411,11 +552,17 @@ public class MultiRtpCamera2 extends Camera2Base {
         requestKeyFrame();
         rtmpClients[index].reConnect(delay, backupUrl);
       }
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       result = rtspClients[index].shouldRetry(reason);
       if (result) {
         requestKeyFrame();
-        rtmpClients[index].reConnect(delay, backupUrl);
+        rtspClients[index].reConnect(delay, backupUrl);
+      }
+    } else {
+      result = srtClients[index].shouldRetry(reason);
+      if (result) {
+        requestKeyFrame();
+        srtClients[index].reConnect(delay, backupUrl);
       }
     }
     return result;
@@ -434,8 +581,23 @@ public class MultiRtpCamera2 extends Camera2Base {
   public boolean hasCongestion(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].hasCongestion();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].hasCongestion();
+    } else {
+      return srtClients[index].hasCongestion();
+    }
+  }
+
+  /**
+   * What to do with new frames when the queue of the stream is full. DROP_NEWEST by default.
+   */
+  public void setDropPolicy(RtpType rtpType, int index, DropPolicy dropPolicy) {
+    if (rtpType == RtpType.RTMP) {
+      rtmpClients[index].setDropPolicy(dropPolicy);
+    } else if (rtpType == RtpType.RTSP) {
+      rtspClients[index].setDropPolicy(dropPolicy);
+    } else {
+      srtClients[index].setDropPolicy(dropPolicy);
     }
   }
 
@@ -446,32 +608,23 @@ public class MultiRtpCamera2 extends Camera2Base {
 
   @Override
   protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.sendAudio(aacBuffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.sendAudio(aacBuffer.duplicate(), info);
-    }
+    rtmpFanOut.sendAudio(aacBuffer.duplicate(), info);
+    rtspFanOut.sendAudio(aacBuffer.duplicate(), info);
+    srtFanOut.sendAudio(aacBuffer.duplicate(), info);
   }
 
   @Override
   protected void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
+    rtmpFanOut.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
+    rtspFanOut.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
+    srtFanOut.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
   }
 
   @Override
   protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.sendVideo(h264Buffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.sendVideo(h264Buffer.duplicate(), info);
-    }
+    rtmpFanOut.sendVideo(h264Buffer.duplicate(), info);
+    rtspFanOut.sendVideo(h264Buffer.duplicate(), info);
+    srtFanOut.sendVideo(h264Buffer.duplicate(), info);
   }
 
   @Override
@@ -482,6 +635,9 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setLogs(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setLogs(enable);
+    }
   }
 
   @Override
@@ -492,5 +648,8 @@ public class MultiRtpCamera2 extends Camera2Base {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setCheckServerAlive(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setCheckServerAlive(enable);
+    }
   }
 }
@@ -23,12 +23,18 @@ import android.os.Build;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import com.pedro.common.DropPolicy;
 import com.pedro.library.base.DisplayBase;
 import com.pedro.rtmp.flv.video.ProfileIop;
 import com.pedro.rtmp.rtmp.RtmpClient;
+import com.pedro.rtmp.rtmp.RtmpFanOut;
 import com.pedro.rtmp.utils.ConnectCheckerRtmp;
 import com.pedro.rtsp.rtsp.RtspClient;
+import com.pedro.rtsp.rtsp.RtspFanOut;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
+import com.pedro.srt.srt.SrtClient;
+import com.pedro.srt.srt.SrtFanOut;
+import com.pedro.srt.utils.ConnectCheckerSrt;
 
 import java.nio.ByteBuffer;
 
@@ -37,7 +43,7 @@ import java.nio.ByteBuffer;
  *
  * Experimental Class.
  *
- * It supports multiple streams of rtmp and rtsp at same time.
+ * It supports multiple streams of rtmp, rtsp and srt at same time.
  * You must set the same number of ConnectChecker that you want use.
  *
  * For example. 2 RTMP and 1 RTSP:
@@ -64,6 +70,10 @@ import java.nio.ByteBuffer;
  * multiRtpDisplay.stopStream();
  * multiRtpDisplay.retry(delay, reason, backUpUrl);
  *
+ * Frames are packetized once per protocol and shared by all streams of that protocol.
+ * Each stream has its own queue and drop policy (see setDropPolicy) so a slow stream doesn't affect the rest.
+ * Use the constructors with ConnectCheckerSrt to stream with srt too (RtpType.SRT).
+ *
  * The rest of methods without RtpType and index means that you will execute that command in all streams.
  * Read class code if you need info about any method.
  */
@@ -72,9 +82,18 @@ public class MultiRtpDisplay extends DisplayBase {
 
   private final RtmpClient[] rtmpClients;
   private final RtspClient[] rtspClients;
+  private final SrtClient[] srtClients;
+  private final RtmpFanOut rtmpFanOut;
+  private final RtspFanOut rtspFanOut;
+  private final SrtFanOut srtFanOut;
 
   public MultiRtpDisplay(Context context, boolean useOpenGL, ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(context, useOpenGL, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpDisplay(Context context, boolean useOpenGL, ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super(context, useOpenGL);
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -86,23 +105,33 @@ public class MultiRtpDisplay extends DisplayBase {
     for (int i = 0; i < rtspClients.length; i++) {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+    }
+    rtmpFanOut = new RtmpFanOut(rtmpClients);
+    rtspFanOut = new RtspFanOut(rtspClients);
+    srtFanOut = new SrtFanOut(srtClients);
   }
 
   public boolean isStreaming(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].isStreaming();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].isStreaming();
+    } else {
+      return srtClients[index].isStreaming();
     }
   }
 
   /**
-   * H264 profile.
+   * H264 profile. Video config is shared by all rtmp streams so the value is used in all of them.
    *
    * @param profileIop Could be ProfileIop.BASELINE or ProfileIop.CONSTRAINED
    */
   public void setProfileIop(ProfileIop profileIop, int index) {
-    rtmpClients[index].setProfileIop(profileIop);
+    rtmpFanOut.setProfileIop(profileIop);
   }
 
   /**
@@ -121,7 +150,7 @@ public class MultiRtpDisplay extends DisplayBase {
   public void setAuthorization(RtpType rtpType, int index, String user, String password) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].setAuthorization(user, password);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].setAuthorization(user, password);
     }
   }
@@ -138,12 +167,9 @@ public class MultiRtpDisplay extends DisplayBase {
 
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.setAudioInfo(sampleRate, isStereo);
-    }
-    for (RtspClient rtspClient : rtspClients) {
-      rtspClient.setAudioInfo(sampleRate, isStereo);
-    }
+    rtmpFanOut.setAudioInfo(sampleRate, isStereo);
+    rtspFanOut.setAudioInfo(sampleRate, isStereo);
+    srtFanOut.setAudioInfo(sampleRate, isStereo);
   }
 
   public void startStream(RtpType rtpType, int index, String url) {
@@ -161,8 +187,19 @@ public class MultiRtpDisplay extends DisplayBase {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStarEncoder = false;
+          break;
+        }
+      }
+    }
+    if (shouldStarEncoder) {
+      rtmpFanOut.reset();
+      rtspFanOut.reset();
+      srtFanOut.reset();
+      super.startStream("");
     }
-    if (shouldStarEncoder) super.startStream("");
     if (rtpType == RtpType.RTMP) {
       if (videoEncoder.getRotation() == 90 || videoEncoder.getRotation() == 270) {
         rtmpClients[index].setVideoResolution(videoEncoder.getHeight(), videoEncoder.getWidth());
@@ -170,9 +207,17 @@ public class MultiRtpDisplay extends DisplayBase {
         rtmpClients[index].setVideoResolution(videoEncoder.getWidth(), videoEncoder.getHeight());
       }
       rtmpClients[index].setFps(videoEncoder.getFps());
+      rtmpClients[index].setKeyFrameRequestListener(this::requestKeyFrame);
+      rtmpFanOut.setKeyFrameRequestListener(this::requestKeyFrame);
       rtmpClients[index].connect(url);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
+      rtspClients[index].setKeyFrameRequestListener(this::requestKeyFrame);
+      rtspFanOut.setKeyFrameRequestListener(this::requestKeyFrame);
       rtspClients[index].connect(url);
+    } else {
+      srtClients[index].setKeyFrameRequestListener(this::requestKeyFrame);
+      srtFanOut.setKeyFrameRequestListener(this::requestKeyFrame);
+      srtClients[index].connect(url);
     }
   }
 
@@ -180,8 +225,10 @@ public class MultiRtpDisplay extends DisplayBase {
     boolean shouldStopEncoder = true;
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].disconnect();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].disconnect();
+    } else {
+      srtClients[index].disconnect();
     }
     for (RtmpClient rtmpClient : rtmpClients) {
       if (rtmpClient.isStreaming()) {
@@ -196,6 +243,12 @@ public class MultiRtpDisplay extends DisplayBase {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStopEncoder = false;
+          break;
+        }
+      }
     }
     if (shouldStopEncoder) super.stopStream();
   }
@@ -216,11 +269,17 @@ public class MultiRtpDisplay extends DisplayBase {
         requestKeyFrame();
         rtmpClients[index].reConnect(delay, backupUrl);
       }
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       result = rtspClients[index].shouldRetry(reason);
       if (result) {
         requestKeyFrame();
-        rtmpClients[index].reConnect(delay, backupUrl);
+        rtspClients[index].reConnect(delay, backupUrl);
+      }
+    } else {
+      result = srtClients[index].shouldRetry(reason);
+      if (result) {
+        requestKeyFrame();
+        srtClients[index].reConnect(delay, backupUrl);
       }
     }
     return result;
@@ -239,6 +298,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.setReTries(reTries);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.setReTries(reTries);
+    }
   }
 
   @Override
@@ -249,8 +311,23 @@ public class MultiRtpDisplay extends DisplayBase {
   public boolean hasCongestion(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].hasCongestion();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].hasCongestion();
+    } else {
+      return srtClients[index].hasCongestion();
+    }
+  }
+
+  /**
+   * What to do with new frames when the queue of the stream is full. DROP_NEWEST by default.
+   */
+  public void setDropPolicy(RtpType rtpType, int index, DropPolicy dropPolicy) {
+    if (rtpType == RtpType.RTMP) {
+      rtmpClients[index].setDropPolicy(dropPolicy);
+    } else if (rtpType == RtpType.RTSP) {
+      rtspClients[index].setDropPolicy(dropPolicy);
+    } else {
+      srtClients[index].setDropPolicy(dropPolicy);
     }
   }
 
@@ -262,8 +339,10 @@ public class MultiRtpDisplay extends DisplayBase {
   public void resizeCache(RtpType rtpType, int index, int newSize) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].resizeCache(newSize);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].resizeCache(newSize);
+    } else {
+      srtClients[index].resizeCache(newSize);
     }
   }
 
@@ -275,8 +354,10 @@ public class MultiRtpDisplay extends DisplayBase {
   public int getCacheSize(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].getCacheSize();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].getCacheSize();
+    } else {
+      return srtClients[index].getCacheSize();
     }
   }
 
@@ -294,6 +375,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getSentAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getSentAudioFrames();
+    }
     return number;
   }
 
@@ -306,6 +390,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getSentVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getSentVideoFrames();
+    }
     return number;
   }
 
@@ -318,6 +405,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getDroppedAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getDroppedAudioFrames();
+    }
     return number;
   }
 
@@ -330,6 +420,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getDroppedVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getDroppedVideoFrames();
+    }
     return number;
   }
 
@@ -341,6 +434,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetSentAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetSentAudioFrames();
+    }
   }
 
   @Override
@@ -351,6 +447,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetSentVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetSentVideoFrames();
+    }
   }
 
   @Override
@@ -361,6 +460,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetDroppedAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetDroppedAudioFrames();
+    }
   }
 
   @Override
@@ -371,36 +473,30 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetDroppedVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetDroppedVideoFrames();
+    }
   }
 
   @Override
   protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.sendAudio(aacBuffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient : rtspClients) {
-      rtspClient.sendAudio(aacBuffer.duplicate(), info);
-    }
+    rtmpFanOut.sendAudio(aacBuffer.duplicate(), info);
+    rtspFanOut.sendAudio(aacBuffer.duplicate(), info);
+    srtFanOut.sendAudio(aacBuffer.duplicate(), info);
   }
 
   @Override
   protected void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
-    for (RtspClient rtspClient : rtspClients) {
-      rtspClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
+    rtmpFanOut.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
+    rtspFanOut.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
+    srtFanOut.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
   }
 
   @Override
   protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.sendVideo(h264Buffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient : rtspClients) {
-      rtspClient.sendVideo(h264Buffer.duplicate(), info);
-    }
+    rtmpFanOut.sendVideo(h264Buffer.duplicate(), info);
+    rtspFanOut.sendVideo(h264Buffer.duplicate(), info);
+    srtFanOut.sendVideo(h264Buffer.duplicate(), info);
   }
 
   @Override
@@ -411,6 +507,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.setLogs(enable);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.setLogs(enable);
+    }
   }
 
   @Override
@@ -421,5 +520,8 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setCheckServerAlive(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setCheckServerAlive(enable);
+    }
   }
 }
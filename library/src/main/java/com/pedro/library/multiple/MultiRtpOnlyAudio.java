@@ -20,19 +20,25 @@ import android.media.MediaCodec;
 
 import androidx.annotation.Nullable;
 
+import com.pedro.common.DropPolicy;
 import com.pedro.library.base.OnlyAudioBase;
 import com.pedro.rtmp.flv.video.ProfileIop;
 import com.pedro.rtmp.rtmp.RtmpClient;
+import com.pedro.rtmp.rtmp.RtmpFanOut;
 import com.pedro.rtmp.utils.ConnectCheckerRtmp;
 import com.pedro.rtsp.rtsp.RtspClient;
+import com.pedro.rtsp.rtsp.RtspFanOut;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
+import com.pedro.srt.srt.SrtClient;
+import com.pedro.srt.srt.SrtFanOut;
+import com.pedro.srt.utils.ConnectCheckerSrt;
 
 import java.nio.ByteBuffer;
 
 /**
  * Created by pedro on 30/5/21.
  *
- * Support multiple streams in rtmp and rtsp at same time.
+ * Support multiple streams in rtmp, rtsp and srt at same time.
  * You must set the same number of ConnectChecker that you want use.
  *
  * For example. 2 RTMP and 1 RTSP:
@@ -59,6 +65,10 @@ import java.nio.ByteBuffer;
  * multiRtpOnlyAudio.stopStream();
  * multiRtpOnlyAudio.retry(delay, reason, backUpUrl);
  *
+ * Frames are packetized once per protocol and shared by all streams of that protocol.
+ * Each stream has its own queue and drop policy (see setDropPolicy) so a slow stream doesn't affect the rest.
+ * Use the constructors with ConnectCheckerSrt to stream with srt too (RtpType.SRT).
+ *
  * The rest of methods without RtpType and index means that you will execute that command in all streams.
  * Read class code if you need info about any method.
  */
@@ -66,9 +76,18 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
 
   private final RtmpClient[] rtmpClients;
   private final RtspClient[] rtspClients;
+  private final SrtClient[] srtClients;
+  private final RtmpFanOut rtmpFanOut;
+  private final RtspFanOut rtspFanOut;
+  private final SrtFanOut srtFanOut;
 
   public MultiRtpOnlyAudio(ConnectCheckerRtmp[] connectCheckerRtmpList,
       ConnectCheckerRtsp[] connectCheckerRtspList) {
+    this(connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpOnlyAudio(ConnectCheckerRtmp[] connectCheckerRtmpList,
+      ConnectCheckerRtsp[] connectCheckerRtspList, ConnectCheckerSrt[] connectCheckerSrtList) {
     super();
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -82,30 +101,44 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
       rtspClients[i].setOnlyAudio(true);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+      srtClients[i].setOnlyAudio(true);
+    }
+    rtmpFanOut = new RtmpFanOut(rtmpClients);
+    rtspFanOut = new RtspFanOut(rtspClients);
+    srtFanOut = new SrtFanOut(srtClients);
+    srtFanOut.setTrackConfig(false, true);
   }
 
   public boolean isStreaming(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].isStreaming();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].isStreaming();
+    } else {
+      return srtClients[index].isStreaming();
     }
   }
 
   /**
-   * H264 profile.
+   * H264 profile. Video config is shared by all rtmp streams so the value is used in all of them.
    *
    * @param profileIop Could be ProfileIop.BASELINE or ProfileIop.CONSTRAINED
    */
   public void setProfileIop(ProfileIop profileIop, int index) {
-    rtmpClients[index].setProfileIop(profileIop);
+    rtmpFanOut.setProfileIop(profileIop);
   }
 
   public void resizeCache(RtpType rtpType, int index, int newSize) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].resizeCache(newSize);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].resizeCache(newSize);
+    } else {
+      srtClients[index].resizeCache(newSize);
     }
   }
 
@@ -117,13 +150,18 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resizeCache(newSize);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resizeCache(newSize);
+    }
   }
 
   public int getCacheSize(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].getCacheSize();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].getCacheSize();
+    } else {
+      return srtClients[index].getCacheSize();
     }
   }
 
@@ -141,6 +179,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getSentAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getSentAudioFrames();
+    }
     return number;
   }
 
@@ -153,6 +194,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getSentVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getSentVideoFrames();
+    }
     return number;
   }
 
@@ -165,6 +209,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getDroppedAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getDroppedAudioFrames();
+    }
     return number;
   }
 
@@ -177,6 +224,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getDroppedVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getDroppedVideoFrames();
+    }
     return number;
   }
 
@@ -188,6 +238,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetSentAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetSentAudioFrames();
+    }
   }
 
   @Override
@@ -198,6 +251,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetSentVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetSentVideoFrames();
+    }
   }
 
   @Override
@@ -208,6 +264,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetDroppedAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetDroppedAudioFrames();
+    }
   }
 
   @Override
@@ -218,12 +277,15 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetDroppedVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetDroppedVideoFrames();
+    }
   }
 
   public void setAuthorization(RtpType rtpType, int index, String user, String password) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].setAuthorization(user, password);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].setAuthorization(user, password);
     }
   }
@@ -253,12 +315,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
 
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.setAudioInfo(sampleRate, isStereo);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.setAudioInfo(sampleRate, isStereo);
-    }
+    rtmpFanOut.setAudioInfo(sampleRate, isStereo);
+    rtspFanOut.setAudioInfo(sampleRate, isStereo);
+    srtFanOut.setAudioInfo(sampleRate, isStereo);
   }
 
   public void startStream(RtpType rtpType, int index, String url) {
@@ -276,12 +335,25 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStarEncoder = false;
+          break;
+        }
+      }
+    }
+    if (shouldStarEncoder) {
+      rtmpFanOut.reset();
+      rtspFanOut.reset();
+      srtFanOut.reset();
+      super.startStream("");
     }
-    if (shouldStarEncoder) super.startStream("");
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].connect(url);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].connect(url);
+    } else {
+      srtClients[index].connect(url);
     }
   }
 
@@ -293,8 +365,10 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     boolean shouldStopEncoder = true;
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].disconnect();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].disconnect();
+    } else {
+      srtClients[index].disconnect();
     }
     for (RtmpClient rtmpClient: rtmpClients) {
       if (rtmpClient.isStreaming()) {
@@ -309,6 +383,12 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStopEncoder = false;
+          break;
+        }
+      }
     }
     if (shouldStopEncoder) super.stopStream();
   }
@@ -325,6 +405,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setReTries(reTries);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setReTries(reTries);
+    }
   }
 
   public boolean reTry(RtpType rtpType, int index, long delay, String reason, @Nullable String backupUrl) {
@@ -334,10 +417,15 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
       if (result) {
         rtmpClients[index].reConnect(delay, backupUrl);
       }
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       result = rtspClients[index].shouldRetry(reason);
       if (result) {
-        rtmpClients[index].reConnect(delay, backupUrl);
+        rtspClients[index].reConnect(delay, backupUrl);
+      }
+    } else {
+      result = srtClients[index].shouldRetry(reason);
+      if (result) {
+        srtClients[index].reConnect(delay, backupUrl);
       }
     }
     return result;
@@ -356,8 +444,23 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
   public boolean hasCongestion(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].hasCongestion();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].hasCongestion();
+    } else {
+      return srtClients[index].hasCongestion();
+    }
+  }
+
+  /**
+   * What to do with new frames when the queue of the stream is full. DROP_NEWEST by default.
+   */
+  public void setDropPolicy(RtpType rtpType, int index, DropPolicy dropPolicy) {
+    if (rtpType == RtpType.RTMP) {
+      rtmpClients[index].setDropPolicy(dropPolicy);
+    } else if (rtpType == RtpType.RTSP) {
+      rtspClients[index].setDropPolicy(dropPolicy);
+    } else {
+      srtClients[index].setDropPolicy(dropPolicy);
     }
   }
 
@@ -368,12 +471,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
 
   @Override
   protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.sendAudio(aacBuffer.duplicate(), info);
-    }
-    for (RtspClient rtspClient: rtspClients) {
-      rtspClient.sendAudio(aacBuffer.duplicate(), info);
-    }
+    rtmpFanOut.sendAudio(aacBuffer.duplicate(), info);
+    rtspFanOut.sendAudio(aacBuffer.duplicate(), info);
+    srtFanOut.sendAudio(aacBuffer.duplicate(), info);
   }
 
   @Override
@@ -384,6 +484,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setLogs(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setLogs(enable);
+    }
   }
 
   @Override
@@ -394,5 +497,8 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setCheckServerAlive(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setCheckServerAlive(enable);
+    }
   }
 }
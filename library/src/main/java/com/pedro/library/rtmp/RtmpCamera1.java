@@ -187,6 +187,7 @@ public class RtmpCamera1 extends Camera1Base {
     }
     rtmpClient.setFps(videoEncoder.getFps());
     rtmpClient.setOnlyVideo(!audioInitialized);
+    rtmpClient.setKeyFrameRequestListener(this::requestKeyFrame);
     rtmpClient.connect(url);
   }
 
@@ -196,6 +196,7 @@ public class RtmpCamera2 extends Camera2Base {
     }
     rtmpClient.setFps(videoEncoder.getFps());
     rtmpClient.setOnlyVideo(!audioInitialized);
+    rtmpClient.setKeyFrameRequestListener(this::requestKeyFrame);
     rtmpClient.connect(url);
   }
 
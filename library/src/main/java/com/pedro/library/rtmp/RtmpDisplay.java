@@ -159,6 +159,7 @@ public class RtmpDisplay extends DisplayBase {
       rtmpClient.setVideoResolution(videoEncoder.getWidth(), videoEncoder.getHeight());
     }
     rtmpClient.setFps(videoEncoder.getFps());
+    rtmpClient.setKeyFrameRequestListener(this::requestKeyFrame);
     rtmpClient.connect(url);
   }
 
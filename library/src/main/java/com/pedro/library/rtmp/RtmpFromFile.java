@@ -182,6 +182,7 @@ public class RtmpFromFile extends FromFileBase {
       rtmpClient.setVideoResolution(videoEncoder.getWidth(), videoEncoder.getHeight());
     }
     rtmpClient.setFps(videoEncoder.getFps());
+    rtmpClient.setKeyFrameRequestListener(this::requestKeyFrame);
     rtmpClient.connect(url);
   }
 
@@ -80,6 +80,7 @@ class RtmpStream(context: Context, connectCheckerRtmp: ConnectCheckerRtmp, video
     val resolution = super.getVideoResolution()
     rtmpClient.setVideoResolution(resolution.width, resolution.height)
     rtmpClient.setFps(super.getVideoFps())
+    rtmpClient.setKeyFrameRequestListener { requestKeyFrame() }
     rtmpClient.connect(endPoint)
   }
 
@@ -32,6 +32,7 @@ import com.pedro.library.view.OpenGlView;
 import com.pedro.rtsp.rtsp.Protocol;
 import com.pedro.rtsp.rtsp.RtspClient;
 import com.pedro.rtsp.rtsp.VideoCodec;
+import com.pedro.rtsp.utils.AbrController;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
 
 import java.nio.ByteBuffer;
@@ -80,6 +81,31 @@ public class RtspFromFile extends FromFileBase {
     rtspClient.setProtocol(protocol);
   }
 
+  /**
+   * Pack multiple aac frames in each rtp packet to reduce the number of packets. Must be called before startStream.
+   *
+   * @param maxDelayMs max time that a frame waits to be sent. 0 (default) to send each aac frame in a rtp packet.
+   */
+  public void setAudioAggregation(long maxDelayMs) {
+    rtspClient.setAudioAggregation(maxDelayMs);
+  }
+
+  /**
+   * Adapt the video bitrate with the receiver reports of the server (packets lost and remb).
+   * Only works using UDP protocol.
+   *
+   * @param minBitrate lowest video bitrate allowed in bits per second.
+   * @param maxBitrate highest video bitrate allowed in bits per second, normally the bitrate used in prepareVideo.
+   */
+  @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+  public void enableAdaptiveBitrate(int minBitrate, int maxBitrate) {
+    rtspClient.setAbrController(new AbrController(minBitrate, maxBitrate, this::setVideoBitrateOnFly));
+  }
+
+  public void disableAdaptiveBitrate() {
+    rtspClient.setAbrController(null);
+  }
+
   @Override
   public void resizeCache(int newSize) throws RuntimeException {
     rtspClient.resizeCache(newSize);
@@ -149,6 +175,7 @@ public class RtspFromFile extends FromFileBase {
   @Override
   protected void startStreamRtp(String url) {
     rtspClient.setOnlyAudio(!videoEnabled);
+    rtspClient.setKeyFrameRequestListener(this::requestKeyFrame);
     rtspClient.connect(url);
   }
 
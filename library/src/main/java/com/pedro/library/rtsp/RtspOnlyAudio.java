@@ -52,6 +52,15 @@ public class RtspOnlyAudio extends OnlyAudioBase {
     rtspClient.setProtocol(protocol);
   }
 
+  /**
+   * Pack multiple aac frames in each rtp packet to reduce the number of packets. Must be called before startStream.
+   *
+   * @param maxDelayMs max time that a frame waits to be sent. 0 (default) to send each aac frame in a rtp packet.
+   */
+  public void setAudioAggregation(long maxDelayMs) {
+    rtspClient.setAudioAggregation(maxDelayMs);
+  }
+
   @Override
   public void resizeCache(int newSize) throws RuntimeException {
     rtspClient.resizeCache(newSize);
@@ -11,6 +11,7 @@ import com.pedro.library.util.sources.VideoManager
 import com.pedro.rtsp.rtsp.Protocol
 import com.pedro.rtsp.rtsp.RtspClient
 import com.pedro.rtsp.rtsp.VideoCodec
+import com.pedro.rtsp.utils.AbrController
 import com.pedro.rtsp.utils.ConnectCheckerRtsp
 import java.nio.ByteBuffer
 
@@ -39,16 +40,45 @@ class RtspStream(context: Context, connectCheckerRtsp: ConnectCheckerRtsp, video
     rtspClient.setProtocol(protocol!!)
   }
 
+  /**
+   * Pack multiple aac frames in each rtp packet to reduce the number of packets. Must be called before startStream.
+   *
+   * @param maxDelayMs max time that a frame waits to be sent. 0 (default) to send each aac frame in a rtp packet.
+   */
+  fun setAudioAggregation(maxDelayMs: Long) {
+    rtspClient.setAudioAggregation(maxDelayMs)
+  }
+
   fun setVideoCodec(videoCodec: VideoCodec) {
     val mime = if (videoCodec === VideoCodec.H265) CodecUtil.H265_MIME else CodecUtil.H264_MIME
     super.setVideoMime(mime)
   }
 
+  /**
+   * Adapt the video bitrate with the receiver reports of the server (packets lost and remb).
+   * Only works using UDP protocol.
+   *
+   * @param minBitrate lowest video bitrate allowed in bits per second.
+   * @param maxBitrate highest video bitrate allowed in bits per second, normally the bitrate used in prepareVideo.
+   */
+  fun enableAdaptiveBitrate(minBitrate: Int, maxBitrate: Int) {
+    rtspClient.setAbrController(AbrController(minBitrate, maxBitrate, object : AbrController.Listener {
+      override fun onBitrateAdapted(bitrate: Int) {
+        setVideoBitrateOnFly(bitrate)
+      }
+    }))
+  }
+
+  fun disableAdaptiveBitrate() {
+    rtspClient.setAbrController(null)
+  }
+
   override fun audioInfo(sampleRate: Int, isStereo: Boolean) {
     rtspClient.setAudioInfo(sampleRate, isStereo)
   }
 
   override fun rtpStartStream(endPoint: String) {
+    rtspClient.setKeyFrameRequestListener { requestKeyFrame() }
     rtspClient.connect(endPoint)
   }
 
@@ -31,6 +31,7 @@ import com.pedro.library.view.LightOpenGlView;
 import com.pedro.library.view.OpenGlView;
 import com.pedro.srt.srt.SrtClient;
 import com.pedro.srt.srt.VideoCodec;
+import com.pedro.srt.utils.AbrController;
 import com.pedro.srt.utils.ConnectCheckerSrt;
 
 import java.nio.ByteBuffer;
@@ -81,6 +82,21 @@ public class SrtCamera1 extends Camera1Base {
     srtClient.setVideoCodec(videoCodec);
   }
 
+  /**
+   * Adapt the video bitrate with the feedback of the server (rtt, link capacity and packets lost).
+   *
+   * @param minBitrate lowest video bitrate allowed in bits per second.
+   * @param maxBitrate highest video bitrate allowed in bits per second, normally the bitrate used in prepareVideo.
+   */
+  @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+  public void enableAdaptiveBitrate(int minBitrate, int maxBitrate) {
+    srtClient.setAbrController(new AbrController(minBitrate, maxBitrate, this::setVideoBitrateOnFly));
+  }
+
+  public void disableAdaptiveBitrate() {
+    srtClient.setAbrController(null);
+  }
+
   @Override
   public void resizeCache(int newSize) throws RuntimeException {
     srtClient.resizeCache(newSize);
@@ -144,6 +160,7 @@ public class SrtCamera1 extends Camera1Base {
   @Override
   protected void startStreamRtp(String url) {
     srtClient.setOnlyVideo(!audioInitialized);
+    srtClient.setKeyFrameRequestListener(this::requestKeyFrame);
     srtClient.connect(url);
   }
 
@@ -27,6 +27,7 @@ import com.pedro.encoder.utils.CodecUtil;
 import com.pedro.library.base.DisplayBase;
 import com.pedro.srt.srt.SrtClient;
 import com.pedro.srt.srt.VideoCodec;
+import com.pedro.srt.utils.AbrController;
 import com.pedro.srt.utils.ConnectCheckerSrt;
 
 import java.nio.ByteBuffer;
@@ -54,6 +55,21 @@ public class SrtDisplay extends DisplayBase {
     rtmpClient.setVideoCodec(videoCodec);
   }
 
+  /**
+   * Adapt the video bitrate with the feedback of the server (rtt, link capacity and packets lost).
+   *
+   * @param minBitrate lowest video bitrate allowed in bits per second.
+   * @param maxBitrate highest video bitrate allowed in bits per second, normally the bitrate used in prepareVideo.
+   */
+  @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+  public void enableAdaptiveBitrate(int minBitrate, int maxBitrate) {
+    rtmpClient.setAbrController(new AbrController(minBitrate, maxBitrate, this::setVideoBitrateOnFly));
+  }
+
+  public void disableAdaptiveBitrate() {
+    rtmpClient.setAbrController(null);
+  }
+
   @Override
   public void resizeCache(int newSize) throws RuntimeException {
     rtmpClient.resizeCache(newSize);
@@ -116,6 +132,7 @@ public class SrtDisplay extends DisplayBase {
 
   @Override
   protected void startStreamRtp(String url) {
+    rtmpClient.setKeyFrameRequestListener(this::requestKeyFrame);
     rtmpClient.connect(url);
   }
 
@@ -26,6 +26,7 @@ import com.pedro.library.util.sources.AudioManager
 import com.pedro.library.util.sources.VideoManager
 import com.pedro.srt.srt.SrtClient
 import com.pedro.srt.srt.VideoCodec
+import com.pedro.srt.utils.AbrController
 import com.pedro.srt.utils.ConnectCheckerSrt
 import java.nio.ByteBuffer
 
@@ -51,11 +52,30 @@ class SrtStream(context: Context, connectCheckerRtmp: ConnectCheckerSrt, videoSo
     srtClient.setVideoCodec(videoCodec)
   }
 
+  /**
+   * Adapt the video bitrate with the feedback of the server (rtt, link capacity and packets lost).
+   *
+   * @param minBitrate lowest video bitrate allowed in bits per second.
+   * @param maxBitrate highest video bitrate allowed in bits per second, normally the bitrate used in prepareVideo.
+   */
+  fun enableAdaptiveBitrate(minBitrate: Int, maxBitrate: Int) {
+    srtClient.setAbrController(AbrController(minBitrate, maxBitrate, object : AbrController.Listener {
+      override fun onBitrateAdapted(bitrate: Int) {
+        setVideoBitrateOnFly(bitrate)
+      }
+    }))
+  }
+
+  fun disableAdaptiveBitrate() {
+    srtClient.setAbrController(null)
+  }
+
   override fun audioInfo(sampleRate: Int, isStereo: Boolean) {
     srtClient.setAudioInfo(sampleRate, isStereo)
   }
 
   override fun rtpStartStream(endPoint: String) {
+    srtClient.setKeyFrameRequestListener { requestKeyFrame() }
     srtClient.connect(endPoint)
   }
 
@@ -5,6 +5,9 @@ import android.media.AudioPlaybackCaptureConfiguration
 import android.media.projection.MediaProjection
 import android.os.Build
 import androidx.annotation.RequiresApi
+import com.pedro.encoder.Frame
+import com.pedro.encoder.FramePool
+import com.pedro.encoder.input.audio.AudioMixer
 import com.pedro.encoder.input.audio.GetMicrophoneData
 import com.pedro.encoder.input.audio.MicrophoneManager
 
@@ -12,15 +15,36 @@ import com.pedro.encoder.input.audio.MicrophoneManager
  * Created by pedro on 29/3/22.
  */
 @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
-class AudioManager(getMicrophoneData: GetMicrophoneData, var source: Source) {
+class AudioManager(private val getMicrophoneData: GetMicrophoneData, var source: Source) {
 
   enum class Source {
     MICROPHONE, DISABLED,
     @RequiresApi(Build.VERSION_CODES.Q)
     INTERNAL,
+    //microphone and internal audio mixed
+    @RequiresApi(Build.VERSION_CODES.Q)
+    MIXED,
   }
 
-  private val microphone = MicrophoneManager(getMicrophoneData)
+  private val microphone = MicrophoneManager(object: GetMicrophoneData {
+    override fun inputPCMData(frame: Frame) {
+      if (source == Source.MIXED) mixFrame(frame) else getMicrophoneData.inputPCMData(frame)
+    }
+  })
+  //only used in mixed mode, microphone is the clock of the mix
+  private val internalMicrophone = MicrophoneManager(object: GetMicrophoneData {
+    override fun inputPCMData(frame: Frame) {
+      internalTrack?.write(frame.buffer, frame.offset, frame.size)
+      frame.release()
+    }
+  })
+  private var mixer: AudioMixer? = null
+  private var microphoneTrack: AudioMixer.Track? = null
+  private var internalTrack: AudioMixer.Track? = null
+  //mixed frames are released by the encoder after copy it
+  private val mixFramePool = FramePool(80)
+  private var microphoneGain = 1f
+  private var internalGain = 1f
   private val noSource = NoSource()
   private var mediaProjection: MediaProjection? = null
   private var sampleRate = 0
@@ -54,23 +78,28 @@ class AudioManager(getMicrophoneData: GetMicrophoneData, var source: Source) {
         }
         Source.INTERNAL -> {
           if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            val mediaProjectionCallback = object : MediaProjection.Callback() {}
-            mediaProjection?.registerCallback(mediaProjectionCallback, null)
-            mediaProjection?.let {
-              val config = AudioPlaybackCaptureConfiguration.Builder(it)
-                .addMatchingUsage(AudioAttributes.USAGE_MEDIA)
-                .addMatchingUsage(AudioAttributes.USAGE_GAME)
-                .addMatchingUsage(AudioAttributes.USAGE_UNKNOWN).build()
-              microphone.maxInputSize = maxInputSize
-              val result = microphone.createInternalMicrophone(config, sampleRate, isStereo,
-                echoCanceler, noiseSuppressor)
-              if (!result) {
-                throw IllegalArgumentException("Failed to create internal audio source")
-              }
+            createInternalMicrophone(microphone)
+          } else {
+            throw IllegalStateException("Using internal audio in a invalid Android version. Android 10+ is necessary")
+          }
+          microphone.start()
+        }
+        Source.MIXED -> {
+          if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            microphone.maxInputSize = maxInputSize
+            val result = microphone.createMicrophone(sampleRate, isStereo, echoCanceler, noiseSuppressor)
+            if (!result) {
+              throw IllegalArgumentException("Failed to create microphone audio source")
             }
+            createInternalMicrophone(internalMicrophone)
           } else {
             throw IllegalStateException("Using internal audio in a invalid Android version. Android 10+ is necessary")
           }
+          val mixer = AudioMixer(sampleRate, if (isStereo) 2 else 1)
+          microphoneTrack = mixer.addTrack(sampleRate, microphoneGain)
+          internalTrack = mixer.addTrack(sampleRate, internalGain)
+          this.mixer = mixer
+          internalMicrophone.start()
           microphone.start()
         }
         Source.DISABLED -> noSource.start()
@@ -82,11 +111,53 @@ class AudioManager(getMicrophoneData: GetMicrophoneData, var source: Source) {
     if (isRunning()) {
       when (source) {
         Source.MICROPHONE, Source.INTERNAL -> microphone.stop()
+        Source.MIXED -> {
+          microphone.stop()
+          internalMicrophone.stop()
+          mixer = null
+          microphoneTrack = null
+          internalTrack = null
+          mixFramePool.clear()
+        }
         Source.DISABLED -> noSource.stop()
       }
     }
   }
 
+  @RequiresApi(Build.VERSION_CODES.Q)
+  private fun createInternalMicrophone(microphoneManager: MicrophoneManager) {
+    val mediaProjectionCallback = object : MediaProjection.Callback() {}
+    mediaProjection?.registerCallback(mediaProjectionCallback, null)
+    mediaProjection?.let {
+      val config = AudioPlaybackCaptureConfiguration.Builder(it)
+        .addMatchingUsage(AudioAttributes.USAGE_MEDIA)
+        .addMatchingUsage(AudioAttributes.USAGE_GAME)
+        .addMatchingUsage(AudioAttributes.USAGE_UNKNOWN).build()
+      microphoneManager.maxInputSize = maxInputSize
+      val result = microphoneManager.createInternalMicrophone(config, sampleRate, isStereo,
+        echoCanceler, noiseSuppressor)
+      if (!result) {
+        throw IllegalArgumentException("Failed to create internal audio source")
+      }
+    }
+  }
+
+  private fun mixFrame(frame: Frame) {
+    val mixer = mixer
+    if (mixer == null) {
+      frame.release()
+      return
+    }
+    microphoneTrack?.write(frame.buffer, frame.offset, frame.size)
+    val size = frame.size
+    val timeStamp = frame.timeStamp
+    frame.release()
+    val mixFrame = mixFramePool.obtain(size) ?: Frame(ByteArray(size), 0, size, 0)
+    mixFrame.size = mixer.mix(mixFrame.buffer, 0, size)
+    mixFrame.timeStamp = timeStamp
+    getMicrophoneData.inputPCMData(mixFrame)
+  }
+
   @RequiresApi(Build.VERSION_CODES.Q)
   fun changeSourceInternal(mediaProjection: MediaProjection) {
     if (this.source != Source.INTERNAL || this.mediaProjection == null) {
@@ -98,6 +169,27 @@ class AudioManager(getMicrophoneData: GetMicrophoneData, var source: Source) {
     }
   }
 
+  @RequiresApi(Build.VERSION_CODES.Q)
+  fun changeSourceMixed(mediaProjection: MediaProjection) {
+    if (this.source != Source.MIXED || this.mediaProjection == null) {
+      this.mediaProjection = mediaProjection
+      val wasRunning = isRunning()
+      stop()
+      this.source = Source.MIXED
+      if (wasRunning) start()
+    }
+  }
+
+  /**
+   * Gain applied to each source in mixed mode. 1 is the original volume.
+   */
+  fun setMixerGain(microphoneGain: Float, internalGain: Float) {
+    this.microphoneGain = microphoneGain
+    this.internalGain = internalGain
+    microphoneTrack?.gain = microphoneGain
+    internalTrack?.gain = internalGain
+  }
+
   fun changeSourceMicrophone() {
     if (this.source != Source.MICROPHONE) {
       val wasRunning = isRunning()
@@ -123,11 +215,13 @@ class AudioManager(getMicrophoneData: GetMicrophoneData, var source: Source) {
   fun mute() {
     if (source == Source.DISABLED) return
     microphone.mute()
+    internalMicrophone.mute()
   }
 
   fun unMute() {
     if (source == Source.DISABLED) return
     microphone.unMute()
+    internalMicrophone.unMute()
   }
 
   fun isMuted(): Boolean {
@@ -137,7 +231,7 @@ class AudioManager(getMicrophoneData: GetMicrophoneData, var source: Source) {
 
   fun isRunning(): Boolean {
     return when (source) {
-      Source.MICROPHONE, Source.INTERNAL -> microphone.isRunning
+      Source.MICROPHONE, Source.INTERNAL, Source.MIXED -> microphone.isRunning
       Source.DISABLED -> noSource.isRunning()
     }
   }
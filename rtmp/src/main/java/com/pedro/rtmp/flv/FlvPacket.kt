@@ -16,8 +16,33 @@
 
 package com.pedro.rtmp.flv
 
+import com.pedro.common.BufferPool
+import java.util.concurrent.atomic.AtomicInteger
+
 /**
  * Created by pedro on 8/04/21.
+ *
+ * @param pool pool that provided buffer. If not null, buffer is returned to the pool when all references are released.
+ * buffer could be bigger than length when pooled.
  */
-data class FlvPacket(val buffer: ByteArray = byteArrayOf(), var timeStamp: Long = 0,
-                     val length: Int = 0, val type: FlvType = FlvType.AUDIO)
\ No newline at end of file
+class FlvPacket(val buffer: ByteArray = byteArrayOf(), var timeStamp: Long = 0,
+                     val length: Int = 0, val type: FlvType = FlvType.AUDIO,
+                     val pool: BufferPool? = null) {
+
+  private val references = AtomicInteger(1)
+
+  /**
+   * Add a reference to the packet. Each call must be followed by a release call.
+   */
+  fun retain(): FlvPacket {
+    references.incrementAndGet()
+    return this
+  }
+
+  /**
+   * Remove a reference to the packet. The buffer is returned to the pool when all references are released.
+   */
+  fun release() {
+    if (references.decrementAndGet() == 0) pool?.release(buffer)
+  }
+}
\ No newline at end of file
@@ -17,6 +17,7 @@
 package com.pedro.rtmp.flv.audio
 
 import android.media.MediaCodec
+import com.pedro.common.BufferPool
 import com.pedro.rtmp.flv.FlvPacket
 import com.pedro.rtmp.flv.FlvType
 import java.nio.ByteBuffer
@@ -37,6 +38,8 @@ class AacPacket() {
   private var audioSize = AudioSize.SND_16_BIT
   //In encoder we are using always AAC LC. Change me if needed
   private val objectType = AudioObjectType.AAC_LC
+  //if not null, frame buffers are obtained from the pool and must be released after send it
+  var bufferPool: BufferPool? = null
 
   enum class Type(val mark: Byte) {
     SEQUENCE(0x00), RAW(0x01)
@@ -68,21 +71,26 @@ class AacPacket() {
     header[0] = header[0] or (soundRate.value shl 2).toByte()
     header[0] = header[0] or (AudioFormat.AAC.value shl 4).toByte()
     val buffer: ByteArray
+    val length: Int
+    var pool: BufferPool? = null
     if (!configSend) {
       val config = AudioSpecificConfig(objectType.value, sampleRate, if (isStereo) 2 else 1)
-      buffer = ByteArray(config.size + header.size)
+      length = config.size + header.size
+      buffer = ByteArray(length)
       header[1] = Type.SEQUENCE.mark
       config.write(buffer, header.size)
       configSend = true
     } else {
       header[1] = Type.RAW.mark
-      buffer = ByteArray(info.size - info.offset + header.size)
+      length = info.size - info.offset + header.size
+      pool = bufferPool
+      buffer = pool?.obtain(length) ?: ByteArray(length)
 
       byteBuffer.get(buffer, header.size, info.size - info.offset)
     }
     System.arraycopy(header, 0, buffer, 0, header.size)
     val ts = info.presentationTimeUs / 1000
-    callback(FlvPacket(buffer, ts, buffer.size, FlvType.AUDIO))
+    callback(FlvPacket(buffer, ts, length, FlvType.AUDIO, pool))
   }
 
   fun reset() {
@@ -18,6 +18,8 @@ package com.pedro.rtmp.flv.video
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.BufferPool
+import com.pedro.common.NalScanner
 import com.pedro.rtmp.flv.FlvPacket
 import com.pedro.rtmp.flv.FlvType
 import java.nio.ByteBuffer
@@ -39,6 +41,9 @@ class H265Packet {
   private var pps: ByteArray? = null
   private var vps: ByteArray? = null
   var profileIop = ProfileIop.BASELINE
+  //if not null, frame buffers are obtained from the pool and must be released after send it
+  var bufferPool: BufferPool? = null
+  private val nalScanner = NalScanner()
 
   fun sendVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer) {
     val mSps = removeHeader(sps)
@@ -100,27 +105,37 @@ class H265Packet {
       callback(FlvPacket(buffer, ts, buffer.size, FlvType.VIDEO))
       configSend = true
     }
-    val headerSize = getHeaderSize(byteBuffer)
-    if (headerSize == 0) return //invalid buffer or waiting for sps/pps
     byteBuffer.rewind()
-    val validBuffer = removeHeader(byteBuffer, headerSize)
-    val size = validBuffer.remaining()
-    buffer = ByteArray(header.size + size + naluSize)
-
-    val type: Int = validBuffer.get(0).toInt().shr(1 and 0x3f)
-    var nalType = VideoDataType.INTER_FRAME.value
-    if (type == VideoNalType.IDR_N_LP.value || type == VideoNalType.IDR_W_DLP.value || info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
-      nalType = VideoDataType.KEYFRAME.value
-    } else if (type == VideoNalType.HEVC_VPS.value || type == VideoNalType.HEVC_SPS.value || type == VideoNalType.HEVC_PPS.value) {
-      // we don't need send it because we already do it in video config
-      return
+    if (sps == null || pps == null || vps == null) return //waiting for sps/pps/vps
+    val nalCount = nalScanner.scan(byteBuffer)
+    if (nalCount == 0) return //invalid buffer
+
+    var nalType = if (info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) VideoDataType.KEYFRAME.value else VideoDataType.INTER_FRAME.value
+    var size = 0
+    for (i in 0 until nalCount) {
+      val type = nalScanner.getH265Type(i)
+      // we don't need send vps, sps and pps because we already do it in video config
+      if (isVideoInfo(type)) continue
+      if (type == VideoNalType.IDR_N_LP.value || type == VideoNalType.IDR_W_DLP.value) nalType = VideoDataType.KEYFRAME.value
+      size += naluSize + nalScanner.getSize(i)
     }
+    if (size == 0) return //only video info
+    //all nal units of the frame (multiple slices) are sent in the same packet
+    val length = header.size + size
+    val pool = bufferPool
+    buffer = pool?.obtain(length) ?: ByteArray(length)
     header[0] = (0b10000000 or (nalType shl 4) or FourCCPacketType.CODED_FRAMES.value).toByte()
-    writeNaluSize(buffer, header.size, size)
-    validBuffer.get(buffer, header.size + naluSize, size)
+    var offset = header.size
+    for (i in 0 until nalCount) {
+      if (isVideoInfo(nalScanner.getH265Type(i))) continue
+      val nalSize = nalScanner.getSize(i)
+      writeNaluSize(buffer, offset, nalSize)
+      nalScanner.copyTo(i, buffer, offset + naluSize)
+      offset += naluSize + nalSize
+    }
 
     System.arraycopy(header, 0, buffer, 0, header.size)
-    callback(FlvPacket(buffer, ts, buffer.size, FlvType.VIDEO))
+    callback(FlvPacket(buffer, ts, length, FlvType.VIDEO, pool))
   }
 
   //naluSize = UInt32
@@ -131,35 +146,13 @@ class H265Packet {
     buffer[offset + 3] = size.toByte()
   }
 
-  private fun removeHeader(byteBuffer: ByteBuffer, size: Int = -1): ByteBuffer {
-    val position = if (size == -1) getStartCodeSize(byteBuffer) else size
-    byteBuffer.position(position)
-    return byteBuffer.slice()
+  private fun isVideoInfo(type: Int): Boolean {
+    return type == VideoNalType.HEVC_VPS.value || type == VideoNalType.HEVC_SPS.value || type == VideoNalType.HEVC_PPS.value
   }
 
-  private fun getHeaderSize(byteBuffer: ByteBuffer): Int {
-    if (byteBuffer.remaining() < 4) return 0
-
-    val sps = this.sps
-    val pps = this.pps
-    val vps = this.vps
-    if (sps != null && pps != null && vps != null) {
-      val startCodeSize = getStartCodeSize(byteBuffer)
-      if (startCodeSize == 0) return 0
-      val startCode = ByteArray(startCodeSize) { 0x00 }
-      startCode[startCodeSize - 1] = 0x01
-      val avcHeader = startCode.plus(vps).plus(startCode).plus(sps).plus(startCode).plus(pps).plus(startCode)
-      if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
-
-      val possibleAvcHeader = ByteArray(avcHeader.size)
-      byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
-      return if (avcHeader.contentEquals(possibleAvcHeader)) {
-        avcHeader.size
-      } else {
-        startCodeSize
-      }
-    }
-    return 0
+  private fun removeHeader(byteBuffer: ByteBuffer): ByteBuffer {
+    byteBuffer.position(getStartCodeSize(byteBuffer))
+    return byteBuffer.slice()
   }
 
   private fun getStartCodeSize(byteBuffer: ByteBuffer): Int {
@@ -19,6 +19,7 @@ package com.pedro.rtmp.rtmp
 import android.util.Log
 import com.pedro.rtmp.amf.v0.*
 import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.rtmp.chunk.ChunkDemuxer
 import com.pedro.rtmp.rtmp.message.*
 import com.pedro.rtmp.rtmp.message.control.Event
 import com.pedro.rtmp.rtmp.message.control.Type
@@ -39,6 +40,7 @@ abstract class CommandsManager {
   protected val TAG = "CommandsManager"
 
   val sessionHistory = CommandSessionHistory()
+  private val chunkDemuxer = ChunkDemuxer()
   var timestamp = 0
   protected var commandId = 0
   var streamId = 0
@@ -123,7 +125,7 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   fun readMessageResponse(socket: RtmpSocket): RtmpMessage {
     val input = socket.getInputStream()
-    val message = RtmpMessage.getRtmpMessage(input, readChunkSize, sessionHistory)
+    val message = chunkDemuxer.readMessage(input, readChunkSize, sessionHistory)
     sessionHistory.setReadHeader(message.header)
     Log.i(TAG, "read $message")
     return message
@@ -182,12 +184,15 @@ abstract class CommandsManager {
   suspend fun sendVideoPacket(flvPacket: FlvPacket, socket: RtmpSocket): Int {
     writeSync.withLock {
       val output = socket.getOutStream()
+      val video = Video(flvPacket, streamId)
+      //the packet could be shared with other clients so the timestamp is changed only in the header
       if (akamaiTs) {
-        flvPacket.timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000)
+        video.header.timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000).toInt()
       }
-      val video = Video(flvPacket, streamId)
+      video.header.compressWith(sessionHistory.getLastWriteHeader(video.header.basicHeader.chunkStreamId))
       video.writeHeader(output)
       video.writeBody(output)
+      sessionHistory.setWriteHeader(video.header)
       socket.flush(true)
       return video.header.getPacketLength() //get packet size with header included to calculate bps
     }
@@ -197,12 +202,15 @@ abstract class CommandsManager {
   suspend fun sendAudioPacket(flvPacket: FlvPacket, socket: RtmpSocket): Int {
     writeSync.withLock {
       val output = socket.getOutStream()
+      val audio = Audio(flvPacket, streamId)
+      //the packet could be shared with other clients so the timestamp is changed only in the header
       if (akamaiTs) {
-        flvPacket.timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000)
+        audio.header.timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000).toInt()
       }
-      val audio = Audio(flvPacket, streamId)
+      audio.header.compressWith(sessionHistory.getLastWriteHeader(audio.header.basicHeader.chunkStreamId))
       audio.writeHeader(output)
       audio.writeBody(output)
+      sessionHistory.setWriteHeader(audio.header)
       socket.flush(true)
       return audio.header.getPacketLength() //get packet size with header included to calculate bps
     }
@@ -221,5 +229,6 @@ abstract class CommandsManager {
     commandId = 0
     readChunkSize = RtmpConfig.DEFAULT_CHUNK_SIZE
     sessionHistory.reset()
+    chunkDemuxer.reset()
   }
 }
@@ -18,7 +18,11 @@ package com.pedro.rtmp.rtmp
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.BufferPool
+import com.pedro.common.DropPolicy
+import com.pedro.common.DropStats
 import com.pedro.rtmp.amf.AmfVersion
+import com.pedro.rtmp.flv.FlvPacket
 import com.pedro.rtmp.flv.video.ProfileIop
 import com.pedro.rtmp.rtmp.message.*
 import com.pedro.rtmp.rtmp.message.command.Command
@@ -86,6 +90,13 @@ class RtmpClient(private val connectCheckerRtmp: ConnectCheckerRtmp) {
     get() = rtmpSender.getSentAudioFrames()
   val sentVideoFrames: Long
     get() = rtmpSender.getSentVideoFrames()
+  val allocatedBytesPerFrame: Long
+    get() = rtmpSender.getAllocatedBytesPerFrame()
+  /**
+   * Pool used to reuse packet buffers. Check hits, misses and liveBuffers to know the pool status.
+   */
+  val bufferPool: BufferPool
+    get() = rtmpSender.getBufferPool()
 
   fun setVideoCodec(videoCodec: VideoCodec) {
     if (!isStreaming) {
@@ -94,6 +105,13 @@ class RtmpClient(private val connectCheckerRtmp: ConnectCheckerRtmp) {
     }
   }
 
+  /**
+   * What to do with new frames when the queue is full.
+   */
+  fun setDropPolicy(dropPolicy: DropPolicy) {
+    rtmpSender.dropPolicy = dropPolicy
+  }
+
   fun setAmfVersion(amfVersion: AmfVersion) {
     if (!isStreaming) {
       commandsManager = when (amfVersion) {
@@ -539,6 +557,40 @@ class RtmpClient(private val connectCheckerRtmp: ConnectCheckerRtmp) {
     }
   }
 
+  /**
+   * Send an audio packet created outside of the client. The client owns a reference of the packet after this call.
+   */
+  internal fun sendAudioPacket(flvPacket: FlvPacket) {
+    if (commandsManager.audioDisabled) flvPacket.release() else rtmpSender.sendPacket(flvPacket)
+  }
+
+  /**
+   * Send packets of a video frame created outside of the client. The client owns a reference of each packet after this call.
+   */
+  internal fun sendVideoPackets(flvPackets: List<FlvPacket>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    if (commandsManager.videoDisabled) {
+      flvPackets.forEach { it.release() }
+    } else {
+      rtmpSender.sendVideoPackets(flvPackets, isKeyFrame, isNonReference)
+    }
+  }
+
+  /**
+   * Called when a keyframe is needed to recover the stream after discard frames with DropPolicy.DROP_GOP.
+   * Normally you want to call requestKeyframe of the video encoder.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    rtmpSender.setKeyFrameRequestListener(listener)
+  }
+
+  /**
+   * @return frames discarded by reason. Values are reset when the stream is stopped.
+   */
+  fun getDropStats(): DropStats = rtmpSender.getDropStats()
+
+  internal val sessionId: Int
+    get() = rtmpSender.sessionId
+
   fun hasCongestion(): Boolean {
     return rtmpSender.hasCongestion()
   }
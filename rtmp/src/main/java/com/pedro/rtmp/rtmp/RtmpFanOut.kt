@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp
+
+import android.media.MediaCodec
+import com.pedro.common.BufferPool
+import com.pedro.common.DropController
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.audio.AacPacket
+import com.pedro.rtmp.flv.video.H264Packet
+import com.pedro.rtmp.flv.video.H265Packet
+import com.pedro.rtmp.flv.video.ProfileIop
+import java.nio.ByteBuffer
+
+/**
+ * Packetize audio and video frames once and share the flv packets with multiple RtmpClient.
+ *
+ * Packets are reference counted so the buffer is reused only when all clients sent it.
+ * Each client keeps its own queue and drop policy so a slow client doesn't affect the rest.
+ * All packets of a video frame are given together so DropPolicy.DROP_GOP never splits a frame.
+ * Video and audio config is sent only to a client that starts a new session.
+ * Video is sent to a new session after the next keyframe, requested with the keyframe request listener.
+ */
+class RtmpFanOut(private val clients: Array<RtmpClient>) {
+
+  private val bufferPool = BufferPool()
+  private val aacPacket = AacPacket().apply { bufferPool = this@RtmpFanOut.bufferPool }
+  private val h264Packet = H264Packet().apply { bufferPool = this@RtmpFanOut.bufferPool }
+  private val h265Packet = H265Packet().apply { bufferPool = this@RtmpFanOut.bufferPool }
+  private var videoCodec = VideoCodec.H264
+  //last session of each client that received video config and a keyframe
+  private val videoSessions = IntArray(clients.size)
+  //last session of each client that received audio config
+  private val audioSessions = IntArray(clients.size)
+  //last session of each client that requested a keyframe
+  private val requestedSessions = IntArray(clients.size)
+  //packets of the video frame in process (config and frame)
+  private val videoPackets = ArrayList<FlvPacket>(2)
+  //packets given to sessions that start with this frame
+  private val startPackets = ArrayList<FlvPacket>(2)
+  private var keyFrameRequestListener: Runnable? = null
+
+  fun setVideoCodec(videoCodec: VideoCodec) {
+    this.videoCodec = videoCodec
+    clients.forEach { it.setVideoCodec(videoCodec) }
+  }
+
+  fun setProfileIop(profileIop: ProfileIop) {
+    h264Packet.profileIop = profileIop
+  }
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    if (videoCodec == VideoCodec.H265) {
+      if (vps == null) throw IllegalArgumentException("vps can't be null with h265")
+      h265Packet.sendVideoInfo(sps, pps, vps)
+    } else {
+      h264Packet.sendVideoInfo(sps, pps)
+    }
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    aacPacket.sendAudioInfo(sampleRate, isStereo)
+    //needed by clients to send metadata
+    clients.forEach { it.setAudioInfo(sampleRate, isStereo) }
+  }
+
+  fun sendVideo(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (!isAnyStreaming()) return
+    val isKeyFrame = info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+    val hasNewSession = hasNewVideoSession(isKeyFrame)
+    //config is created again only for new sessions
+    val withConfig = isKeyFrame && hasNewSession
+    if (withConfig) {
+      h264Packet.reset(false)
+      h265Packet.reset(false)
+    }
+    val isNonReference = DropController.isNonReference(h264Buffer, videoCodec == VideoCodec.H265)
+    if (videoCodec == VideoCodec.H265) {
+      h265Packet.createFlvVideoPacket(h264Buffer, info) { videoPackets.add(it) }
+    } else {
+      h264Packet.createFlvVideoPacket(h264Buffer, info) { videoPackets.add(it) }
+    }
+    //config without frame, new sessions wait the next keyframe
+    if (withConfig && videoPackets.size < 2) {
+      videoPackets.forEach { it.release() }
+      videoPackets.clear()
+      return
+    }
+    if (videoPackets.isEmpty()) return
+    //config is only given to new sessions
+    if (withConfig) {
+      startPackets.addAll(videoPackets)
+      videoPackets.removeAt(0)
+    }
+    //packets are queued one by one so the lists can be reused
+    clients.forEachIndexed { index, client ->
+      if (!client.isStreaming) return@forEachIndexed
+      val sessionId = client.sessionId
+      if (videoSessions[index] == sessionId) {
+        videoPackets.forEach { it.retain() }
+        client.sendVideoPackets(videoPackets, isKeyFrame, isNonReference)
+      } else if (withConfig) {
+        videoSessions[index] = sessionId
+        startPackets.forEach { it.retain() }
+        client.sendVideoPackets(startPackets, isKeyFrame, isNonReference)
+      }
+    }
+    if (withConfig) startPackets[0].release()
+    videoPackets.forEach { it.release() }
+    videoPackets.clear()
+    startPackets.clear()
+  }
+
+  fun sendAudio(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (!isAnyStreaming()) return
+    if (hasNewAudioSession()) {
+      //config only, the frame is not read
+      aacPacket.reset()
+      aacPacket.createFlvAudioPacket(aacBuffer, info) { config ->
+        clients.forEachIndexed { index, client ->
+          val sessionId = client.sessionId
+          if (client.isStreaming && audioSessions[index] != sessionId) {
+            audioSessions[index] = sessionId
+            client.sendAudioPacket(config.retain())
+          }
+        }
+        config.release()
+      }
+    }
+    aacPacket.createFlvAudioPacket(aacBuffer, info) { flvPacket ->
+      clients.forEachIndexed { index, client ->
+        if (client.isStreaming && audioSessions[index] == client.sessionId) client.sendAudioPacket(flvPacket.retain())
+      }
+      flvPacket.release()
+    }
+  }
+
+  /**
+   * Called when a client starts a new session and needs a keyframe to start.
+   * Normally you want to call requestKeyframe of the video encoder.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    keyFrameRequestListener = listener
+  }
+
+  fun getBufferPool(): BufferPool = bufferPool
+
+  fun reset() {
+    aacPacket.reset()
+    h264Packet.reset(false)
+    h265Packet.reset(false)
+    videoSessions.fill(0)
+    audioSessions.fill(0)
+    requestedSessions.fill(0)
+  }
+
+  private fun isAnyStreaming(): Boolean {
+    return clients.any { it.isStreaming }
+  }
+
+  /**
+   * @return true if a client started a session that didn't receive a keyframe yet.
+   * If the frame is not a keyframe, a keyframe is requested once for each new session.
+   */
+  private fun hasNewVideoSession(isKeyFrame: Boolean): Boolean {
+    var newSession = false
+    var request = false
+    clients.forEachIndexed { index, client ->
+      val sessionId = client.sessionId
+      if (client.isStreaming && videoSessions[index] != sessionId) {
+        newSession = true
+        if (!isKeyFrame && requestedSessions[index] != sessionId) {
+          requestedSessions[index] = sessionId
+          request = true
+        }
+      }
+    }
+    if (request) keyFrameRequestListener?.run()
+    return newSession
+  }
+
+  private fun hasNewAudioSession(): Boolean {
+    return clients.indices.any { clients[it].isStreaming && audioSessions[it] != clients[it].sessionId }
+  }
+}
@@ -18,17 +18,22 @@ package com.pedro.rtmp.rtmp
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.BufferPool
+import com.pedro.common.DropController
+import com.pedro.common.DropPolicy
+import com.pedro.common.DropStats
+import com.pedro.common.FrameRing
 import com.pedro.rtmp.flv.FlvPacket
 import com.pedro.rtmp.flv.FlvType
 import com.pedro.rtmp.flv.audio.AacPacket
 import com.pedro.rtmp.flv.video.H264Packet
 import com.pedro.rtmp.flv.video.H265Packet
 import com.pedro.rtmp.flv.video.ProfileIop
+import com.pedro.rtmp.utils.AllocationCounter
 import com.pedro.rtmp.utils.BitrateManager
 import com.pedro.rtmp.utils.ConnectCheckerRtmp
 import com.pedro.rtmp.utils.onMainThread
 import com.pedro.rtmp.utils.socket.RtmpSocket
-import com.pedro.rtmp.utils.trySend
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -37,8 +42,6 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
 import java.nio.ByteBuffer
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 
 /**
@@ -49,17 +52,21 @@ class RtmpSender(
   private val commandsManager: CommandsManager
 ) {
 
-  private var aacPacket = AacPacket()
-  private var h264Packet = H264Packet()
-  private var h265Packet = H265Packet()
+  private val bufferPool = BufferPool()
+  private var aacPacket = AacPacket().apply { bufferPool = this@RtmpSender.bufferPool }
+  private var h264Packet = H264Packet().apply { bufferPool = this@RtmpSender.bufferPool }
+  private var h265Packet = H265Packet().apply { bufferPool = this@RtmpSender.bufferPool }
   @Volatile
   private var running = false
   private var cacheSize = 200
 
   private var job: Job? = null
   private val scope = CoroutineScope(Dispatchers.IO)
+  //queue used by producers, replaced by a new queue on resize
   @Volatile
-  private var queue: BlockingQueue<FlvPacket> = LinkedBlockingQueue(cacheSize)
+  private var queue = FrameRing<FlvPacket>(cacheSize)
+  //queue used by the sender, it continues with the new queue after send all packets of a resized queue
+  private var sendQueue = queue
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
   var socket: RtmpSocket? = null
@@ -69,7 +76,20 @@ class RtmpSender(
     private set
   var videoCodec = VideoCodec.H264
   private val bitrateManager: BitrateManager = BitrateManager(connectCheckerRtmp)
+  private val allocationCounter = AllocationCounter(bufferPool)
   private var isEnableLogs = true
+  private val dropController = DropController<FlvPacket> { discard(it) }
+  var dropPolicy: DropPolicy
+    get() = dropController.dropPolicy
+    set(value) {
+      dropController.dropPolicy = value
+    }
+  //packets of the video frame in process (config and frame), only used by the video encoder thread
+  private val videoPackets = ArrayList<FlvPacket>(2)
+  //increased each start, used to know when a new session needs the video and audio config
+  @Volatile
+  var sessionId = 0
+    private set
 
   companion object {
     private const val TAG = "RtmpSender"
@@ -92,69 +112,113 @@ class RtmpSender(
     aacPacket.sendAudioInfo(sampleRate, isStereo)
   }
 
-  private fun enqueueVideoFrame(flvPacket: FlvPacket) {
-    val result = queue.trySend(flvPacket)
-    if (!result) {
+  private fun discard(flvPacket: FlvPacket) {
+    if (flvPacket.type == FlvType.VIDEO) {
       Log.i(TAG, "Video frame discarded")
       droppedVideoFrames++
+    } else {
+      Log.i(TAG, "Audio frame discarded")
+      droppedAudioFrames++
+    }
+    flvPacket.release()
+  }
+
+  /**
+   * Send an audio packet created outside of the sender (shared by multiple senders).
+   * The sender owns a reference of the packet after this call.
+   */
+  fun sendPacket(flvPacket: FlvPacket) {
+    if (running) enqueue(flvPacket) else flvPacket.release()
+  }
+
+  /**
+   * Send packets of a video frame created outside of the sender (shared by multiple senders).
+   * The sender owns a reference of each packet after this call.
+   */
+  fun sendVideoPackets(flvPackets: List<FlvPacket>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    if (running) {
+      enqueueVideo(flvPackets, isKeyFrame, isNonReference)
+    } else {
+      flvPackets.forEach { it.release() }
     }
   }
 
   fun sendVideoFrame(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
+      val isKeyFrame = info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+      //only needed to discard frames with DROP_GOP, avoid read the buffer with other policies
+      val isNonReference = dropPolicy == DropPolicy.DROP_GOP &&
+          DropController.isNonReference(h264Buffer, videoCodec == VideoCodec.H265)
       if (videoCodec == VideoCodec.H265) {
         h265Packet.createFlvVideoPacket(h264Buffer, info) { flvPacket ->
-          enqueueVideoFrame(flvPacket)
+          videoPackets.add(flvPacket)
         }
       } else {
         h264Packet.createFlvVideoPacket(h264Buffer, info) { flvPacket ->
-          enqueueVideoFrame(flvPacket)
+          videoPackets.add(flvPacket)
         }
       }
+      if (videoPackets.isNotEmpty()) enqueueVideo(videoPackets, isKeyFrame, isNonReference)
+      videoPackets.clear()
+      allocationCounter.onFrame()
     }
   }
 
   fun sendAudioFrame(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       aacPacket.createFlvAudioPacket(aacBuffer, info) { flvPacket ->
-        val result = queue.trySend(flvPacket)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
-        }
+        enqueue(flvPacket)
       }
+      allocationCounter.onFrame()
     }
   }
 
+  /**
+   * Called when a keyframe is needed to recover the stream after discard frames with DropPolicy.DROP_GOP.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    dropController.keyFrameRequestListener = listener
+  }
+
+  fun getDropStats(): DropStats = dropController.dropStats
+
   fun start() {
-    queue.clear()
+    clearQueue()
     running = true
+    //after running so packets of the new session are accepted
+    sessionId++
     job = scope.launch {
       while (scope.isActive && running) {
         val error = runCatching {
           val flvPacket = runInterruptible {
-            queue.poll(1, TimeUnit.SECONDS)
+            sendQueue.poll(1, TimeUnit.SECONDS)
           }
+          sendQueue = sendQueue.current()
           if (flvPacket == null) {
             Log.i(TAG, "Skipping iteration, frame null")
           } else {
             var size = 0
-            if (flvPacket.type == FlvType.VIDEO) {
-              videoFramesSent++
-              socket?.let { socket ->
-                size = commandsManager.sendVideoPacket(flvPacket, socket)
-                if (isEnableLogs) {
-                  Log.i(TAG, "wrote Video packet, size $size")
+            try {
+              if (flvPacket.type == FlvType.VIDEO) {
+                videoFramesSent++
+                socket?.let { socket ->
+                  size = commandsManager.sendVideoPacket(flvPacket, socket)
+                  if (isEnableLogs) {
+                    Log.i(TAG, "wrote Video packet, size $size")
+                  }
                 }
-              }
-            } else {
-              audioFramesSent++
-              socket?.let { socket ->
-                size = commandsManager.sendAudioPacket(flvPacket, socket)
-                if (isEnableLogs) {
-                  Log.i(TAG, "wrote Audio packet, size $size")
+              } else {
+                audioFramesSent++
+                socket?.let { socket ->
+                  size = commandsManager.sendAudioPacket(flvPacket, socket)
+                  if (isEnableLogs) {
+                    Log.i(TAG, "wrote Audio packet, size $size")
+                  }
                 }
               }
+            } finally {
+              //the packet is already written in the socket (or failed), the buffer can be reused
+              flvPacket.release()
             }
             //bytes to bits
             bitrateManager.calculateBitrate(size * 8L)
@@ -180,9 +244,20 @@ class RtmpSender(
     resetSentVideoFrames()
     resetDroppedAudioFrames()
     resetDroppedVideoFrames()
+    dropController.reset()
+    dropController.dropStats.reset()
+    allocationCounter.reset()
     job?.cancelAndJoin()
     job = null
-    queue.clear()
+    clearQueue()
+  }
+
+  private fun clearQueue() {
+    while (true) {
+      val flvPacket = sendQueue.poll() ?: break
+      flvPacket.release()
+    }
+    sendQueue = sendQueue.current()
   }
 
   fun hasCongestion(): Boolean {
@@ -192,13 +267,21 @@ class RtmpSender(
     return size >= capacity * 0.2f //more than 20% queue used. You could have congestion
   }
 
+  @Synchronized
   fun resizeCache(newSize: Int) {
-    if (newSize < queue.size - queue.remainingCapacity()) {
+    if (newSize < queue.size) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<FlvPacket> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    //without locks, packets of the old queue are sent before packets of the new queue
+    queue = queue.resize(newSize)
+  }
+
+  private fun enqueue(packet: FlvPacket) {
+    dropController.enqueue(queue, packet)
+  }
+
+  private fun enqueueVideo(packets: List<FlvPacket>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    dropController.enqueueVideo(queue, packets, isKeyFrame, isNonReference)
   }
 
   fun getCacheSize(): Int {
@@ -213,6 +296,17 @@ class RtmpSender(
     return videoFramesSent
   }
 
+  /**
+   * @return average bytes allocated by packetizers per audio/video frame sent
+   */
+  fun getAllocatedBytesPerFrame(): Long {
+    return allocationCounter.getBytesPerFrame()
+  }
+
+  fun getBufferPool(): BufferPool {
+    return bufferPool
+  }
+
   fun resetSentAudioFrames() {
     audioFramesSent = 0
   }
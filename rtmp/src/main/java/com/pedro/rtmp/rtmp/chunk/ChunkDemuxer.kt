@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp.chunk
+
+import com.pedro.rtmp.rtmp.message.Abort
+import com.pedro.rtmp.rtmp.message.RtmpHeader
+import com.pedro.rtmp.rtmp.message.RtmpMessage
+import com.pedro.rtmp.utils.CommandSessionHistory
+import com.pedro.rtmp.utils.readUntil
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import kotlin.math.min
+
+/**
+ * Reassemble inbound messages chunk by chunk.
+ *
+ * Each chunk stream has its own buffer reused between messages, so chunks of different chunk streams
+ * can be interleaved and message bodies are parsed from that buffer without intermediate copies.
+ */
+class ChunkDemuxer {
+
+  private class ChunkStream {
+    var header: RtmpHeader? = null
+    var buffer = ByteArray(0)
+    var bytesRead = 0
+
+    fun isIncomplete(): Boolean {
+      val header = header ?: return false
+      return bytesRead < header.messageLength
+    }
+  }
+
+  //read the body of completed messages from the chunk stream buffer
+  private class BodyInputStream: ByteArrayInputStream(ByteArray(0)) {
+    fun reset(buffer: ByteArray, length: Int) {
+      buf = buffer
+      pos = 0
+      mark = 0
+      count = length
+    }
+  }
+
+  private val chunkStreams = HashMap<Int, ChunkStream>()
+  private val bodyInput = BodyInputStream()
+
+  /**
+   * Read chunks until a message is completed
+   */
+  @Throws(IOException::class)
+  fun readMessage(input: InputStream, chunkSize: Int, commandSessionHistory: CommandSessionHistory): RtmpMessage {
+    while (true) {
+      return readChunk(input, chunkSize, commandSessionHistory) ?: continue
+    }
+  }
+
+  /**
+   * Read a chunk
+   * @return the message if the chunk completes it, null otherwise
+   */
+  @Throws(IOException::class)
+  fun readChunk(input: InputStream, chunkSize: Int, commandSessionHistory: CommandSessionHistory): RtmpMessage? {
+    val chunkHeader = RtmpHeader.readHeader(input, commandSessionHistory)
+    val chunkStreamId = chunkHeader.basicHeader.chunkStreamId
+    val chunkStream = chunkStreams.getOrPut(chunkStreamId) { ChunkStream() }
+    //type 3 chunks continue the message in progress, other chunks start a new message
+    if (chunkHeader.basicHeader.chunkType != ChunkType.TYPE_3 || !chunkStream.isIncomplete()) {
+      chunkStream.header = chunkHeader
+      chunkStream.bytesRead = 0
+      if (chunkStream.buffer.size < chunkHeader.messageLength) {
+        chunkStream.buffer = ByteArray(chunkHeader.messageLength)
+      }
+      //continuation chunks of this message are relative to this header
+      commandSessionHistory.setReadHeader(chunkHeader)
+    }
+    val header = chunkStream.header ?: throw IOException("Missing header in chunk stream $chunkStreamId")
+    val size = min(chunkSize, header.messageLength - chunkStream.bytesRead)
+    input.readUntil(chunkStream.buffer, chunkStream.bytesRead, size)
+    chunkStream.bytesRead += size
+    if (chunkStream.isIncomplete()) return null
+
+    val message = RtmpMessage.createRtmpMessage(header)
+    bodyInput.reset(chunkStream.buffer, header.messageLength)
+    message.readBody(bodyInput)
+    //discard the partial message of the aborted chunk stream
+    if (message is Abort) chunkStreams[message.chunkStreamId]?.header = null
+    return message
+  }
+
+  fun reset() {
+    chunkStreams.clear()
+  }
+}
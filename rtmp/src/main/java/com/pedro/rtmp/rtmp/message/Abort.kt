@@ -26,7 +26,7 @@ import java.io.InputStream
 /**
  * Created by pedro on 21/04/21.
  */
-class Abort(private var chunkStreamId: Int = 0):
+class Abort(var chunkStreamId: Int = 0):
     RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.PROTOCOL_CONTROL.mark)) {
 
   override fun readBody(input: InputStream) {
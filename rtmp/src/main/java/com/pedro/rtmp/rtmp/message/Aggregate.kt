@@ -25,8 +25,8 @@ import java.io.InputStream
  */
 class Aggregate: RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.PROTOCOL_CONTROL.mark)) {
 
+  //aggregate messages contain media of played streams, not used so the body is discarded
   override fun readBody(input: InputStream) {
-    TODO("Not yet implemented")
   }
 
   override fun storeBody(): ByteArray {
@@ -32,6 +32,9 @@ class RtmpHeader(var basicHeader: BasicHeader) {
   var messageLength: Int = 0
   var messageType: MessageType? = null
   var messageStreamId: Int = 0
+  //timestamp delta with the previous message in the same chunk stream, written in type 1 and 2 headers.
+  //With type 0 headers, delta is the timestamp (used if a type 3 header start the next message)
+  var timeStampDelta: Int = 0
 
   companion object {
 
@@ -45,6 +48,7 @@ class RtmpHeader(var basicHeader: BasicHeader) {
       timestamp: Int = 0): RtmpHeader {
       val basicHeader = BasicHeader.parseBasicHeader(input)
       var timeStamp = timestamp
+      var timeStampDelta = 0
       var messageLength = 0
       var messageType: MessageType? = null
       var messageStreamId = 0
@@ -59,18 +63,20 @@ class RtmpHeader(var basicHeader: BasicHeader) {
           if (timeStamp >= 0xffffff) {
             timeStamp = input.readUInt32()
           }
+          timeStampDelta = timeStamp
         }
         ChunkType.TYPE_1 -> {
           if (lastHeader != null) {
             messageStreamId = lastHeader.messageStreamId
           }
-          timeStamp = input.readUInt24()
+          timeStampDelta = input.readUInt24()
           messageLength = input.readUInt24()
           messageType = RtmpMessage.getMarkType(input.read())
           //extended timestamp
-          if (timeStamp >= 0xffffff) {
-            timeStamp = input.readUInt32()
+          if (timeStampDelta >= 0xffffff) {
+            timeStampDelta = input.readUInt32()
           }
+          timeStamp = (lastHeader?.timeStamp ?: 0) + timeStampDelta
         }
         ChunkType.TYPE_2 -> {
           if (lastHeader != null) {
@@ -78,21 +84,26 @@ class RtmpHeader(var basicHeader: BasicHeader) {
             messageType = lastHeader.messageType
             messageStreamId = lastHeader.messageStreamId
           }
-          timeStamp = input.readUInt24()
+          timeStampDelta = input.readUInt24()
           //extended timestamp
-          if (timeStamp >= 0xffffff) {
-            timeStamp = input.readUInt32()
+          if (timeStampDelta >= 0xffffff) {
+            timeStampDelta = input.readUInt32()
           }
+          timeStamp = (lastHeader?.timeStamp ?: 0) + timeStampDelta
         }
         ChunkType.TYPE_3 -> {
           if (lastHeader != null) {
-            timeStamp = lastHeader.timeStamp
+            timeStampDelta = lastHeader.timeStampDelta
             messageLength = lastHeader.messageLength
             messageType = lastHeader.messageType
             messageStreamId = lastHeader.messageStreamId
-          }
-          //extended timestamp
-          if (timeStamp >= 0xffffff) {
+            //extended timestamp, same value that the last header
+            if (timeStampDelta >= 0xffffff) {
+              timeStampDelta = input.readUInt32()
+            }
+            //new message with the same delta, a chunk of the same message discard this header
+            timeStamp = lastHeader.timeStamp + timeStampDelta
+          } else if (timeStamp >= 0xffffff) { //extended timestamp
             timeStamp = input.readUInt32()
           }
           //No header to read
@@ -100,6 +111,7 @@ class RtmpHeader(var basicHeader: BasicHeader) {
       }
       val rtmpHeader = RtmpHeader(basicHeader)
       rtmpHeader.timeStamp = timeStamp
+      rtmpHeader.timeStampDelta = timeStampDelta
       rtmpHeader.messageLength = messageLength
       rtmpHeader.messageType = messageType
       rtmpHeader.messageStreamId = messageStreamId
@@ -107,59 +119,88 @@ class RtmpHeader(var basicHeader: BasicHeader) {
     }
   }
 
+  /**
+   * Select the smallest chunk type that can describe this header using the last header written in the same chunk stream.
+   * Type 3 is only used after type 1 or 2 headers because some servers don't handle the delta of type 0 headers.
+   */
+  fun compressWith(lastHeader: RtmpHeader?) {
+    val chunkStreamId = basicHeader.chunkStreamId
+    val chunkType = if (lastHeader == null || lastHeader.messageStreamId != messageStreamId
+      || timeStamp < lastHeader.timeStamp) {
+      //start of chunk stream or timestamp going backward
+      ChunkType.TYPE_0
+    } else if (lastHeader.messageLength != messageLength || lastHeader.messageType != messageType) {
+      ChunkType.TYPE_1
+    } else if (lastHeader.basicHeader.chunkType == ChunkType.TYPE_0
+      || lastHeader.timeStampDelta != timeStamp - lastHeader.timeStamp) {
+      ChunkType.TYPE_2
+    } else {
+      ChunkType.TYPE_3
+    }
+    timeStampDelta = if (chunkType == ChunkType.TYPE_0) timeStamp else timeStamp - lastHeader!!.timeStamp
+    if (chunkType != basicHeader.chunkType) basicHeader = BasicHeader(chunkType, chunkStreamId)
+  }
+
   @Throws(IOException::class)
   fun writeHeader(output: OutputStream) {
     writeHeader(basicHeader, output)
   }
 
   /**
-   * Check ChunkType class to know header structure
+   * Check ChunkType class to know header structure.
+   * Type 1 and 2 headers write timeStampDelta instead of timeStamp
    */
   @Throws(IOException::class)
   fun writeHeader(basicHeader: BasicHeader, output: OutputStream) {
     // Write basic header byte
     output.write((basicHeader.chunkType.mark.toInt() shl 6) or basicHeader.chunkStreamId)
+    val timeStampField = getTimeStampField(basicHeader.chunkType)
     when (basicHeader.chunkType) {
       ChunkType.TYPE_0 -> {
-        output.writeUInt24(min(timeStamp, 0xffffff))
+        output.writeUInt24(min(timeStampField, 0xffffff))
         output.writeUInt24(messageLength)
         messageType?.let { messageType ->
           output.write(messageType.mark.toInt())
         }
         output.writeUInt32LittleEndian(messageStreamId)
-        //extended timestamp
-        if (timeStamp > 0xffffff) {
-          output.writeUInt32(timeStamp)
-        }
       }
       ChunkType.TYPE_1 -> {
-        output.writeUInt24(min(timeStamp, 0xffffff))
+        output.writeUInt24(min(timeStampField, 0xffffff))
         output.writeUInt24(messageLength)
         messageType?.let { messageType ->
           output.write(messageType.mark.toInt())
         }
-        //extended timestamp
-        if (timeStamp > 0xffffff) {
-          output.writeUInt32(timeStamp)
-        }
       }
       ChunkType.TYPE_2 -> {
-        output.writeUInt24(min(timeStamp, 0xffffff))
-        //extended timestamp
-        if (timeStamp > 0xffffff) {
-          output.writeUInt32(timeStamp)
-        }
-      }
-      ChunkType.TYPE_3 -> {
-        //extended timestamp
-        if (timeStamp > 0xffffff) {
-          output.writeUInt32(timeStamp)
-        }
+        output.writeUInt24(min(timeStampField, 0xffffff))
       }
+      ChunkType.TYPE_3 -> {}
+    }
+    //extended timestamp
+    if (timeStampField >= 0xffffff) {
+      output.writeUInt32(timeStampField)
+    }
+  }
+
+  /**
+   * Write a type 3 header used to continue a message split in multiple chunks.
+   * Same result that writeHeader(BasicHeader(ChunkType.TYPE_3, chunkStreamId), output) without allocate a BasicHeader per chunk
+   */
+  @Throws(IOException::class)
+  fun writeContinuationHeader(output: OutputStream) {
+    output.write((ChunkType.TYPE_3.mark.toInt() shl 6) or basicHeader.chunkStreamId)
+    //extended timestamp, repeat the value of the first chunk
+    val timeStampField = getTimeStampField(basicHeader.chunkType)
+    if (timeStampField >= 0xffffff) {
+      output.writeUInt32(timeStampField)
     }
   }
 
-  fun getPacketLength(): Int = messageLength + basicHeader.getHeaderSize(timeStamp)
+  private fun getTimeStampField(chunkType: ChunkType): Int {
+    return if (chunkType == ChunkType.TYPE_0) timeStamp else timeStampDelta
+  }
+
+  fun getPacketLength(): Int = messageLength + basicHeader.getHeaderSize(getTimeStampField(basicHeader.chunkType))
 
   override fun toString(): String {
     return "RtmpHeader(timeStamp=$timeStamp, messageLength=$messageLength, messageType=$messageType, messageStreamId=$messageStreamId, basicHeader=$basicHeader)"
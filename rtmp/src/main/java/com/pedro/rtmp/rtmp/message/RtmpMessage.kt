@@ -16,7 +16,7 @@
 
 package com.pedro.rtmp.rtmp.message
 
-import com.pedro.rtmp.rtmp.chunk.ChunkType
+import com.pedro.rtmp.rtmp.chunk.ChunkDemuxer
 import com.pedro.rtmp.rtmp.message.command.CommandAmf0
 import com.pedro.rtmp.rtmp.message.command.CommandAmf3
 import com.pedro.rtmp.rtmp.message.control.UserControl
@@ -26,7 +26,6 @@ import com.pedro.rtmp.rtmp.message.shared.SharedObjectAmf0
 import com.pedro.rtmp.rtmp.message.shared.SharedObjectAmf3
 import com.pedro.rtmp.utils.CommandSessionHistory
 import com.pedro.rtmp.utils.RtmpConfig
-import com.pedro.rtmp.utils.readUntil
 import java.io.*
 
 /**
@@ -45,10 +44,21 @@ abstract class RtmpMessage(basicHeader: BasicHeader) {
 
     private const val TAG = "RtmpMessage"
 
+    /**
+     * Read a message from a stream without interleaved chunk streams.
+     * Use ChunkDemuxer to keep the state of chunk streams between messages
+     */
     @Throws(IOException::class)
     fun getRtmpMessage(input: InputStream, chunkSize: Int,
       commandSessionHistory: CommandSessionHistory): RtmpMessage {
-      val header = RtmpHeader.readHeader(input, commandSessionHistory)
+      return ChunkDemuxer().readMessage(input, chunkSize, commandSessionHistory)
+    }
+
+    /**
+     * Create the message of the header type with the header values, the body is not read
+     */
+    @Throws(IOException::class)
+    fun createRtmpMessage(header: RtmpHeader): RtmpMessage {
       val rtmpMessage = when (header.messageType) {
         MessageType.SET_CHUNK_SIZE -> SetChunkSize()
         MessageType.ABORT -> Abort()
@@ -68,41 +78,12 @@ abstract class RtmpMessage(basicHeader: BasicHeader) {
         else -> throw IOException("Unimplemented message type: ${header.messageType}")
       }
       rtmpMessage.updateHeader(header)
-      //we have multiple chunk wait until we have full body on stream and discard chunk header
-      val bodyInput = if (header.messageLength > chunkSize) {
-        getInputWithoutChunks(input, header, chunkSize, commandSessionHistory)
-      } else {
-        input
-      }
-      rtmpMessage.readBody(bodyInput)
       return rtmpMessage
     }
 
     fun getMarkType(type: Int): MessageType {
       return MessageType.values().find { it.mark.toInt() == type } ?: throw IOException("Unknown rtmp message type: $type")
     }
-
-    private fun getInputWithoutChunks(input: InputStream, header: RtmpHeader, chunkSize: Int,
-      commandSessionHistory: CommandSessionHistory): InputStream {
-      val packetStore = ByteArrayOutputStream()
-      var bytesRead = 0
-      while (bytesRead < header.messageLength) {
-        var chunk: ByteArray
-        if (header.messageLength - bytesRead < chunkSize) {
-          //last chunk
-          chunk = ByteArray(header.messageLength - bytesRead)
-          input.readUntil(chunk)
-        } else {
-          chunk = ByteArray(chunkSize)
-          input.readUntil(chunk)
-          //skip chunk header to discard it, set packet ts to indicate if you need read extended ts
-          RtmpHeader.readHeader(input, commandSessionHistory, header.timeStamp)
-        }
-        bytesRead += chunk.size
-        packetStore.write(chunk)
-      }
-      return ByteArrayInputStream(packetStore.toByteArray())
-    }
   }
 
   fun updateHeader(rtmpHeader: RtmpHeader) {
@@ -119,11 +100,19 @@ abstract class RtmpMessage(basicHeader: BasicHeader) {
   }
 
   @Throws(IOException::class)
-  fun writeBody(output: OutputStream) {
+  open fun writeBody(output: OutputStream) {
+    writeChunks(output, storeBody(), 0, getSize())
+  }
+
+  /**
+   * Split body in chunks of RtmpConfig.writeChunkSize and write it directly to output.
+   * No intermediate array is created so media packets can be written from the original buffer.
+   */
+  @Throws(IOException::class)
+  protected fun writeChunks(output: OutputStream, bytes: ByteArray, offset: Int, size: Int) {
     val chunkSize = RtmpConfig.writeChunkSize
-    val bytes = storeBody()
-    var pos = 0
-    var length = getSize()
+    var pos = offset
+    var length = size
 
     while (length > chunkSize) {
       // Write packet for chunk
@@ -131,7 +120,7 @@ abstract class RtmpMessage(basicHeader: BasicHeader) {
       length -= chunkSize
       pos += chunkSize
       // Write header for remain chunk
-      header.writeHeader(BasicHeader(ChunkType.TYPE_3, header.basicHeader.chunkStreamId), output)
+      header.writeContinuationHeader(output)
     }
     output.write(bytes, pos, length)
   }
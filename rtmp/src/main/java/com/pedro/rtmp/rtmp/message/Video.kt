@@ -19,7 +19,9 @@ package com.pedro.rtmp.rtmp.message
 import com.pedro.rtmp.flv.FlvPacket
 import com.pedro.rtmp.rtmp.chunk.ChunkStreamId
 import com.pedro.rtmp.rtmp.chunk.ChunkType
+import java.io.IOException
 import java.io.InputStream
+import java.io.OutputStream
 
 /**
  * Created by pedro on 21/04/21.
@@ -37,6 +39,14 @@ class Video(private val flvPacket: FlvPacket = FlvPacket(), streamId: Int = 0):
 
   override fun storeBody(): ByteArray = flvPacket.buffer
 
+  /**
+   * Chunk flv buffer directly to output avoiding copy it
+   */
+  @Throws(IOException::class)
+  override fun writeBody(output: OutputStream) {
+    writeChunks(output, flvPacket.buffer, 0, flvPacket.length)
+  }
+
   override fun getType(): MessageType = MessageType.VIDEO
 
   override fun getSize(): Int = flvPacket.length
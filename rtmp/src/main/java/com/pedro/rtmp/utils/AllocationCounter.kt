@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.utils
+
+import com.pedro.common.BufferPool
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Count bytes allocated by the buffer pool to produce each frame.
+ * Useful to check GC pressure produced by the send path.
+ *
+ * @param bufferPool pool used by packetizers, bytes allocated by the pool misses are counted.
+ */
+class AllocationCounter(private val bufferPool: BufferPool? = null) {
+
+  @Volatile
+  private var poolBaseline: Long = bufferPool?.allocatedBytes ?: 0
+  //incremented from audio and video threads
+  private val frameCount = AtomicLong(0)
+
+  val frames: Long
+    get() = frameCount.get()
+
+  val allocatedBytes: Long
+    get() = (bufferPool?.allocatedBytes ?: 0) - poolBaseline
+
+  fun onFrame() {
+    frameCount.incrementAndGet()
+  }
+
+  fun getBytesPerFrame(): Long {
+    val frames = this.frames
+    return if (frames == 0L) 0 else allocatedBytes / frames
+  }
+
+  fun reset() {
+    poolBaseline = bufferPool?.allocatedBytes ?: 0
+    frameCount.set(0)
+  }
+}
@@ -21,21 +21,54 @@ import com.pedro.rtmp.rtmp.message.RtmpHeader
 /**
  * Created by pedro on 22/04/21.
  */
-class CommandSessionHistory(private val commandHistory: HashMap<Int, String> = HashMap(),
-    private val headerHistory: MutableList<RtmpHeader> = ArrayList()) {
+class CommandSessionHistory(private val commandHistory: HashMap<Int, String> = HashMap()) {
+
+  companion object {
+    //chunk stream ids of 1 byte basic header (0-63)
+    private const val HEADER_TABLE_SIZE = 64
+  }
+
+  //last header read per chunk stream id, only one header is kept per id so memory is constant
+  private val headerTable = arrayOfNulls<RtmpHeader>(HEADER_TABLE_SIZE)
+  //ids of 2 and 3 bytes basic header, rarely used
+  private val extendedHeaderTable = HashMap<Int, RtmpHeader>()
+  //last header written per chunk stream id, used to compress chunk headers of media packets
+  private val writeHeaderTable = arrayOfNulls<RtmpHeader>(HEADER_TABLE_SIZE)
 
   fun setReadHeader(header: RtmpHeader) {
-    headerHistory.add(header)
+    val chunkStreamId = header.basicHeader.chunkStreamId
+    if (chunkStreamId in 0 until HEADER_TABLE_SIZE) {
+      headerTable[chunkStreamId] = header
+    } else {
+      extendedHeaderTable[chunkStreamId] = header
+    }
   }
 
   fun getLastReadHeader(chunkStreamId: Int): RtmpHeader? {
-    val reverseList = headerHistory
-    reverseList.reversed().forEach {
-      if (it.basicHeader.chunkStreamId == chunkStreamId) {
-        return it
-      }
+    return if (chunkStreamId in 0 until HEADER_TABLE_SIZE) {
+      headerTable[chunkStreamId]
+    } else {
+      extendedHeaderTable[chunkStreamId]
+    }
+  }
+
+  fun setWriteHeader(header: RtmpHeader) {
+    val chunkStreamId = header.basicHeader.chunkStreamId
+    if (chunkStreamId in 0 until HEADER_TABLE_SIZE) {
+      writeHeaderTable[chunkStreamId] = header
+    }
+  }
+
+  /**
+   * @return null if no header was written in this chunk stream id or the id is not in 1 byte basic header range,
+   * in both cases a type 0 header should be written.
+   */
+  fun getLastWriteHeader(chunkStreamId: Int): RtmpHeader? {
+    return if (chunkStreamId in 0 until HEADER_TABLE_SIZE) {
+      writeHeaderTable[chunkStreamId]
+    } else {
+      null
     }
-    return null
   }
 
   fun getName(id: Int): String? {
@@ -48,6 +81,8 @@ class CommandSessionHistory(private val commandHistory: HashMap<Int, String> = H
 
   fun reset() {
     commandHistory.clear()
-    headerHistory.clear()
+    headerTable.fill(null)
+    extendedHeaderTable.clear()
+    writeHeaderTable.fill(null)
   }
 }
\ No newline at end of file
@@ -18,6 +18,8 @@ package com.pedro.rtmp.utils
 
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
+import java.io.EOFException
+import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
 import java.nio.ByteBuffer
@@ -43,10 +45,16 @@ suspend fun onMainThread(code: () -> Unit) {
 }
 
 fun InputStream.readUntil(byteArray: ByteArray) {
+  readUntil(byteArray, 0, byteArray.size)
+}
+
+@Throws(IOException::class)
+fun InputStream.readUntil(byteArray: ByteArray, offset: Int, length: Int) {
   var bytesRead = 0
-  while (bytesRead < byteArray.size) {
-    val result = read(byteArray, bytesRead, byteArray.size - bytesRead)
-    if (result != -1) bytesRead += result
+  while (bytesRead < length) {
+    val result = read(byteArray, offset + bytesRead, length - bytesRead)
+    if (result == -1) throw EOFException("End of stream reading $length bytes")
+    bytesRead += result
   }
 }
 
@@ -147,4 +155,4 @@ fun ByteBuffer.put(buffer: ByteBuffer, offset: Int, length: Int) {
   buffer.limit(offset + length)
   this.put(buffer)
   buffer.limit(limit)
-}
\ No newline at end of file
+}
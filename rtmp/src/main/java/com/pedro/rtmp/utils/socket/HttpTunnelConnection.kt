@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.utils.socket
+
+import com.pedro.rtmp.utils.TLSSocketFactory
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.security.GeneralSecurityException
+
+/**
+ * Minimal HTTP/1.1 client used by RTMPT.
+ *
+ * All requests are POST sent in the same keep-alive connection, one request waiting the response of the previous.
+ * The connection is opened again if the server or a proxy closes it.
+ */
+class HttpTunnelConnection(
+  private val host: String,
+  private val port: Int,
+  private val secured: Boolean,
+  private val timeout: Int
+) {
+
+  private var socket: Socket? = null
+  private var input: InputStream? = null
+  private var output: OutputStream? = null
+  //requests done with the current socket, used to know if a failed request can be retried
+  private var socketRequests = 0
+  //the server started to response the current request so it can't be retried
+  private var responseStarted = false
+  private val line = StringBuilder()
+  //total connections opened, one while the server keep the connection alive
+  var connections = 0
+    private set
+
+  /**
+   * Send a POST request and wait the response.
+   * @param canRetry false if the server can't receive the request twice (requests with rtmp data). A request that
+   * can be retried is sent again with a new connection if the kept alive connection was closed.
+   * @param onResponse called with the response body and the body size, the body must be read completely.
+   * @throws IOException if the connection fails or the response is not 200 OK.
+   */
+  @Throws(IOException::class)
+  fun post(path: String, body: ByteArray, offset: Int, length: Int, canRetry: Boolean = true,
+           onResponse: (InputStream, Int) -> Unit) {
+    val reused = socket != null && socketRequests > 0
+    var status: Int
+    try {
+      status = request(path, body, offset, length, onResponse)
+    } catch (e: IOException) {
+      close()
+      //a kept alive connection can be closed by the server without notify it, retry with a new connection.
+      //the server could have received the request so data requests are never retried to avoid duplicate it
+      if (!canRetry || !reused || responseStarted) throw e
+      status = request(path, body, offset, length, onResponse)
+    }
+    if (status != 200) throw IOException("request $path failed with status $status")
+  }
+
+  @Throws(IOException::class)
+  private fun request(path: String, body: ByteArray, offset: Int, length: Int, onResponse: (InputStream, Int) -> Unit): Int {
+    if (socket == null) open()
+    val output = output ?: throw IOException("Invalid socket")
+    val input = input ?: throw IOException("Invalid socket")
+    val header = "POST /$path HTTP/1.1\r\n" +
+        "Host: $host:$port\r\n" +
+        "Content-Type: application/x-fcs\r\n" +
+        "User-Agent: Shockwave Flash\r\n" +
+        "Connection: Keep-Alive\r\n" +
+        "Cache-Control: no-cache\r\n" +
+        "Content-Length: $length\r\n\r\n"
+    output.write(header.toByteArray(Charsets.US_ASCII))
+    output.write(body, offset, length)
+    output.flush()
+    socketRequests++
+    responseStarted = false
+
+    val statusLine = readLine(input)
+    responseStarted = true
+    val status = statusLine.split(" ").getOrNull(1)?.toIntOrNull() ?: throw IOException("Invalid status line: $statusLine")
+    var contentLength = 0
+    var chunked = false
+    var keepAlive = !statusLine.startsWith("HTTP/1.0")
+    while (true) {
+      val headerLine = readLine(input)
+      if (headerLine.isEmpty()) break
+      val separator = headerLine.indexOf(':')
+      if (separator == -1) continue
+      val name = headerLine.substring(0, separator).trim()
+      val value = headerLine.substring(separator + 1).trim()
+      when {
+        name.equals("Content-Length", true) -> contentLength = value.toIntOrNull() ?: 0
+        name.equals("Transfer-Encoding", true) -> chunked = value.equals("chunked", true)
+        name.equals("Connection", true) -> keepAlive = value.equals("keep-alive", true)
+      }
+    }
+    if (chunked) {
+      val dechunked = readChunkedBody(input)
+      if (status == 200) onResponse(ByteArrayInputStream(dechunked), dechunked.size)
+    } else if (status == 200) {
+      onResponse(input, contentLength)
+    } else {
+      input.skipFully(contentLength)
+    }
+    if (!keepAlive) close()
+    return status
+  }
+
+  @Throws(IOException::class)
+  private fun open() {
+    val socket = Socket()
+    socket.connect(InetSocketAddress(host, port), timeout)
+    socket.soTimeout = timeout
+    socket.tcpNoDelay = true
+    this.socket = if (secured) {
+      try {
+        TLSSocketFactory().createSocket(socket, host, port, true)
+      } catch (e: GeneralSecurityException) {
+        socket.close()
+        throw IOException("Create SSL socket failed: ${e.message}")
+      }
+    } else {
+      socket
+    }
+    input = this.socket?.getInputStream()?.buffered()
+    output = this.socket?.getOutputStream()?.buffered()
+    socketRequests = 0
+    connections++
+  }
+
+  fun close() {
+    try {
+      socket?.close()
+    } catch (ignored: IOException) { }
+    socket = null
+    input = null
+    output = null
+  }
+
+  @Throws(IOException::class)
+  private fun readLine(input: InputStream): String {
+    line.setLength(0)
+    while (true) {
+      val byte = input.read()
+      if (byte == -1) throw EOFException("Connection closed reading response")
+      if (byte == '\n'.code) break
+      if (byte != '\r'.code) line.append(byte.toChar())
+    }
+    return line.toString()
+  }
+
+  @Throws(IOException::class)
+  private fun readChunkedBody(input: InputStream): ByteArray {
+    val body = ByteArrayOutputStream()
+    while (true) {
+      val size = readLine(input).substringBefore(';').trim().toInt(16)
+      if (size == 0) break
+      val chunk = ByteArray(size)
+      var read = 0
+      while (read < size) {
+        val result = input.read(chunk, read, size - read)
+        if (result == -1) throw EOFException("Connection closed reading response")
+        read += result
+      }
+      body.write(chunk)
+      readLine(input)
+    }
+    //trailers
+    while (readLine(input).isNotEmpty()) { }
+    return body.toByteArray()
+  }
+
+  @Throws(IOException::class)
+  private fun InputStream.skipFully(length: Int) {
+    var remaining = length.toLong()
+    while (remaining > 0) {
+      val skipped = skip(remaining)
+      if (skipped <= 0) {
+        if (read() == -1) throw EOFException("Connection closed reading response")
+        remaining--
+      } else {
+        remaining -= skipped
+      }
+    }
+  }
+}
@@ -18,63 +18,157 @@ package com.pedro.rtmp.utils.socket
 
 import android.util.Log
 import com.pedro.rtmp.utils.TimeUtils
-import java.io.*
-import java.net.HttpURLConnection
+import com.pedro.rtmp.utils.readUntil
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
 import java.net.SocketTimeoutException
-import java.net.URL
 import java.util.concurrent.atomic.AtomicLong
-import javax.net.ssl.HttpsURLConnection
 
 /**
  * Created by pedro on 5/4/22.
+ *
+ * RTMPT using a keep-alive HTTP connection for all requests.
+ * Video/audio packets are sent in batches, a batch is sent when it reach maxBatchSize bytes or the first packet
+ * stored is older than maxBatchDelay ms. The delay is checked in each flush and with a timer, so the last batch is
+ * sent even if no more packets are flushed.
  */
-class TcpTunneledSocket(private val host: String, private val port: Int, private val secured: Boolean): RtmpSocket() {
+class TcpTunneledSocket(
+  private val host: String,
+  private val port: Int,
+  private val secured: Boolean,
+  private val maxBatchSize: Int = 64 * 1024,
+  private val maxBatchDelay: Long = 50
+): RtmpSocket() {
 
   private val TAG = "TcpTunneledSocket"
 
-  private val headers = mapOf(
-    "Content-Type" to "application/x-fcs",
-    "User-Agent" to "Shockwave Flash"
-  )
+  private class BatchOutputStream: ByteArrayOutputStream() {
+    fun buffer(): ByteArray = buf
+  }
+
+  /**
+   * Data received in responses. Read request idle data to the server until data is received or timeout.
+   */
+  private inner class TunnelInputStream: InputStream() {
+    var buffer = ByteArray(4096)
+    var position = 0
+    var limit = 0
+
+    override fun read(): Int {
+      val byte = ByteArray(1)
+      return if (read(byte, 0, 1) == -1) -1 else byte[0].toInt() and 0xff
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+      if (len == 0) return 0
+      val start = TimeUtils.getCurrentTimeMillis()
+      while (true) {
+        synchronized(sync) {
+          val available = limit - position
+          if (available > 0) {
+            val size = minOf(available, len)
+            System.arraycopy(buffer, position, b, off, size)
+            position += size
+            return size
+          }
+          if (!connected) return -1
+          //send stored packets if any, the response include data as idle
+          if (output.size() > 0) send() else idle()
+        }
+        if (TimeUtils.getCurrentTimeMillis() - start >= timeout) {
+          throw SocketTimeoutException("couldn't receive a valid packet")
+        }
+      }
+    }
+
+    override fun available(): Int = synchronized(sync) { limit - position }
+
+    fun append(input: InputStream, length: Int) {
+      if (limit - position + length > maxInputSize) {
+        //nobody is reading (tunneled connections don't read server packets while streaming)
+        Log.e(TAG, "discarding ${limit - position} bytes received")
+        position = 0
+        limit = 0
+      }
+      if (position > 0) {
+        System.arraycopy(buffer, position, buffer, 0, limit - position)
+        limit -= position
+        position = 0
+      }
+      if (buffer.size < limit + length) buffer = buffer.copyOf(maxOf(buffer.size * 2, limit + length))
+      input.readUntil(buffer, limit, length)
+      limit += length
+    }
+
+    fun clear() {
+      position = 0
+      limit = 0
+    }
+  }
+
   private var connectionId: String = ""
+  @Volatile
   private var connected = false
   private var index = AtomicLong(0)
-  private var output = ByteArrayOutputStream()
-  private var input = ByteArrayInputStream(byteArrayOf())
+  private val output = BatchOutputStream()
+  private val input = TunnelInputStream()
   private val sync = Any()
-  private var storedPackets = 0
-  //send video/audio packets in packs of 10 on each HTTP request.
-  private val maxStoredPackets = 10
+  private val connection = HttpTunnelConnection(host, port, secured, timeout)
+  private val zero = byteArrayOf(0x00)
+  //time of the first packet stored waiting to be sent
+  private var batchStartTime = 0L
+  private val maxInputSize = 256 * 1024
+  private val scope = CoroutineScope(Dispatchers.IO)
+  //send the batch when maxBatchDelay is reached without more flush calls
+  private var flushJob: Job? = null
+  //error sending a batch with the timer, thrown in the next flush
+  private var flushError: IOException? = null
 
   override fun getOutStream(): OutputStream = output
 
-  override fun getInputStream(): InputStream {
+  override fun getInputStream(): InputStream = input
+
+  override fun flush(isPacket: Boolean) {
     synchronized(sync) {
-      val start = TimeUtils.getCurrentTimeMillis()
-      while (input.available() <= 1 && connected) {
-        val i = index.addAndGet(1)
-        val bytes = requestRead("idle/$connectionId/$i", secured)
-        input = ByteArrayInputStream(bytes, 1, bytes.size)
-        if (TimeUtils.getCurrentTimeMillis() - start >= timeout) {
-          throw SocketTimeoutException("couldn't receive a valid packet")
+      flushError?.let {
+        flushError = null
+        throw it
+      }
+      if (!connected || output.size() == 0) return
+      if (isPacket) {
+        val now = TimeUtils.getCurrentTimeMillis()
+        if (batchStartTime == 0L) {
+          batchStartTime = now
+          scheduleFlush()
         }
+        if (output.size() < maxBatchSize && now - batchStartTime < maxBatchDelay) return
       }
+      send()
     }
-    return input
   }
 
-  override fun flush(isPacket: Boolean) {
-    synchronized(sync) {
-      if (isPacket && storedPackets < maxStoredPackets) {
-        storedPackets++
-        return
+  //must be called with sync locked
+  private fun scheduleFlush() {
+    flushJob?.cancel()
+    flushJob = scope.launch {
+      delay(maxBatchDelay)
+      synchronized(sync) {
+        //the batch was sent by a flush call
+        if (!connected || batchStartTime == 0L || output.size() == 0) return@synchronized
+        try {
+          send()
+        } catch (e: IOException) {
+          Log.e(TAG, "send batch failed: ${e.message}")
+          flushError = e
+        }
       }
-      if (!connected) return
-      val i = index.addAndGet(1)
-      val bytes = output.toByteArray()
-      output.reset()
-      requestWrite("send/$connectionId/$i", secured, bytes)
-      storedPackets = 0
     }
   }
 
@@ -82,17 +176,23 @@ class TcpTunneledSocket(private val host: String, private val port: Int, private
     synchronized(sync) {
       try {
         //optional in few servers
-        requestWrite("fcs/ident2", secured, byteArrayOf(0x00))
+        connection.post("fcs/ident2", zero, 0, zero.size) { response, length -> response.readUntil(ByteArray(length)) }
       } catch (ignored: IOException) { }
       try {
-        val openResult = requestRead("open/1", secured)
-        connectionId = String(openResult).trimIndent()
-        requestWrite("idle/$connectionId/${index.get()}", secured, byteArrayOf(0x00))
+        var openResult = ""
+        connection.post("open/1", zero, 0, zero.size) { response, length ->
+          val bytes = ByteArray(length)
+          response.readUntil(bytes)
+          openResult = String(bytes)
+        }
+        connectionId = openResult.trim()
+        idle(index.get())
         connected = true
         Log.i(TAG, "Connection success")
       } catch (e: IOException) {
         Log.e(TAG, "Connection failed: ${e.message}")
         connected = false
+        connection.close()
       }
     }
   }
@@ -100,70 +200,53 @@ class TcpTunneledSocket(private val host: String, private val port: Int, private
   override fun close() {
     Log.i(TAG, "closing tunneled socket...")
     connected = false
-    synchronized(sync) {
-      Thread {
+    flushJob?.cancel()
+    flushJob = null
+    Thread {
+      synchronized(sync) {
         try {
-          requestWrite("close/$connectionId", secured, byteArrayOf(0x00))
+          connection.post("close/$connectionId", zero, 0, zero.size) { response, length -> response.readUntil(ByteArray(length)) }
           Log.i(TAG, "Close success")
         } catch (e: IOException) {
           Log.e(TAG, "Close request failed: ${e.message}")
         } finally {
+          connection.close()
           index.set(0)
           connectionId = ""
+          output.reset()
+          input.clear()
+          batchStartTime = 0
+          flushError = null
         }
-      }.start()
-    }
+      }
+    }.start()
   }
 
   override fun isConnected(): Boolean = connected
 
   override fun isReachable(): Boolean = connected
 
+  //must be called with sync locked
   @Throws(IOException::class)
-  private fun requestWrite(path: String, secured: Boolean, data: ByteArray) {
-    val socket = configureSocket(path, secured)
-    try {
-      socket.connect()
-      socket.outputStream.write(data)
-      val bytes = socket.inputStream.readBytes()
-      if (bytes.size > 1) input = ByteArrayInputStream(bytes, 1, bytes.size)
-      val success = socket.responseCode == HttpURLConnection.HTTP_OK
-      if (!success) throw IOException("send packet failed: ${socket.responseMessage}")
-    } finally {
-      socket.disconnect()
+  private fun send() {
+    //avoid writes while the batch is sent
+    synchronized(output) {
+      connection.post("send/$connectionId/${index.incrementAndGet()}", output.buffer(), 0, output.size(), false, ::onResponse)
+      output.reset()
     }
+    batchStartTime = 0
   }
 
+  //must be called with sync locked
   @Throws(IOException::class)
-  private fun requestRead(path: String, secured: Boolean): ByteArray {
-    val socket = configureSocket(path, secured)
-    try {
-      socket.connect()
-      val data = socket.inputStream.readBytes()
-      val success = socket.responseCode == HttpURLConnection.HTTP_OK
-      if (!success) throw IOException("receive packet failed: ${socket.responseMessage}")
-      return data
-    } finally {
-      socket.disconnect()
-    }
+  private fun idle(i: Long = index.incrementAndGet()) {
+    connection.post("idle/$connectionId/$i", zero, 0, zero.size, onResponse = ::onResponse)
   }
 
-  private fun configureSocket(path: String, secured: Boolean): HttpURLConnection {
-    val schema = if (secured) "https" else "http"
-    val url = URL("$schema://$host:$port/$path")
-    val socket = if (secured) {
-      url.openConnection() as HttpsURLConnection
-    } else {
-      url.openConnection() as HttpURLConnection
-    }
-    Log.i(TAG, "open: $url")
-    socket.requestMethod = "POST"
-    headers.forEach { (key, value) ->
-      socket.addRequestProperty(key, value)
-    }
-    socket.doOutput = true
-    socket.connectTimeout = timeout
-    socket.readTimeout = timeout
-    return socket
+  //first byte is the polling interval, the rest is rtmp data
+  private fun onResponse(response: InputStream, length: Int) {
+    if (length <= 0) return
+    if (response.read() == -1) throw IOException("Connection closed reading response")
+    if (length > 1) input.append(response, length - 1)
   }
-}
\ No newline at end of file
+}
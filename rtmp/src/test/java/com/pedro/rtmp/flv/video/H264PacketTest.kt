@@ -41,4 +41,59 @@ class H264PacketTest {
     assertArrayEquals(expectedConfig, frames[0].buffer)
     assertArrayEquals(expectedFlvPacket, frames[1].buffer)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `GIVEN a h264 keyframe with sps and pps prefix WHEN create a h264 packet THEN video info is removed from the packet`() {
+    val sps = byteArrayOf(103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+    val pps = byteArrayOf(104, -18, 13, -117)
+    val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+    val idr = byteArrayOf(0x05).plus(ByteArray(100) { 0x01 })
+    val fakeH264 = startCode.plus(sps).plus(startCode).plus(pps).plus(startCode).plus(idr)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 0
+    info.offset = 0
+    info.size = fakeH264.size
+    info.flags = 1
+    val h264Packet = H264Packet()
+    h264Packet.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps))
+    val frames = mutableListOf<FlvPacket>()
+    h264Packet.createFlvVideoPacket(ByteBuffer.wrap(fakeH264), info) { flvPacket ->
+      frames.add(flvPacket)
+    }
+
+    assertEquals(2, frames.size)
+    //5 bytes flv header + 4 bytes nalu size + nalu
+    assertEquals(5 + 4 + idr.size, frames[1].length)
+    assertArrayEquals(idr, frames[1].buffer.sliceArray(9 until frames[1].length))
+  }
+
+  @Test
+  fun `GIVEN a h264 frame with multiple slices WHEN create a h264 packet THEN all slices are in the packet with nalu size`() {
+    val sps = byteArrayOf(103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+    val pps = byteArrayOf(104, -18, 13, -117)
+    val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+    val slice1 = byteArrayOf(0x41).plus(ByteArray(100) { 0x01 })
+    val slice2 = byteArrayOf(0x41).plus(ByteArray(50) { 0x02 })
+    val fakeH264 = startCode.plus(slice1).plus(byteArrayOf(0x00, 0x00, 0x01)).plus(slice2)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 0
+    info.offset = 0
+    info.size = fakeH264.size
+    info.flags = 0
+    val h264Packet = H264Packet()
+    h264Packet.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps))
+    val frames = mutableListOf<FlvPacket>()
+    h264Packet.createFlvVideoPacket(ByteBuffer.wrap(fakeH264), info) { flvPacket ->
+      frames.add(flvPacket)
+    }
+
+    assertEquals(2, frames.size)
+    val expected = byteArrayOf(0, 0, 0, slice1.size.toByte()).plus(slice1).plus(byteArrayOf(0, 0, 0, slice2.size.toByte())).plus(slice2)
+    assertEquals(5 + expected.size, frames[1].length)
+    //inter frame
+    assertEquals(0x27.toByte(), frames[1].buffer[0])
+    assertArrayEquals(expected, frames[1].buffer.sliceArray(5 until frames[1].length))
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp
+
+import android.media.MediaCodec
+import com.pedro.rtmp.flv.FlvPacket
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.whenever
+import java.nio.ByteBuffer
+
+class RtmpFanOutTest {
+
+  private val sps = byteArrayOf(103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+  private val pps = byteArrayOf(104, -18, 13, -117)
+  private val clients = Array(3) { Mockito.mock(RtmpClient::class.java) }
+  private val streaming = BooleanArray(clients.size) { true }
+  private val sessions = IntArray(clients.size) { 1 }
+  //video packets received by each client, one list for each frame
+  private val received = Array(clients.size) { mutableListOf<List<FlvPacket>>() }
+  private val receivedAudio = Array(clients.size) { mutableListOf<FlvPacket>() }
+  private var keyFrameRequests = 0
+  private lateinit var fanOut: RtmpFanOut
+
+  @Before
+  fun setup() {
+    clients.forEachIndexed { index, client ->
+      whenever(client.isStreaming).then { streaming[index] }
+      whenever(client.sessionId).then { sessions[index] }
+      doAnswer { received[index].add(ArrayList(it.getArgument<List<FlvPacket>>(0))) }
+        .whenever(client).sendVideoPackets(any(), any(), any())
+      doAnswer { receivedAudio[index].add(it.getArgument(0)) }.whenever(client).sendAudioPacket(any())
+    }
+    fanOut = RtmpFanOut(clients)
+    fanOut.setKeyFrameRequestListener { keyFrameRequests++ }
+    fanOut.setVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+  }
+
+  private fun sendVideo(isKeyFrame: Boolean) {
+    val frame = byteArrayOf(0x00, 0x00, 0x00, 0x01, if (isKeyFrame) 0x65 else 0x41).plus(ByteArray(1000) { 0x01 })
+    val info = MediaCodec.BufferInfo()
+    info.set(0, frame.size, 0, if (isKeyFrame) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0)
+    fanOut.sendVideo(ByteBuffer.wrap(frame), info)
+  }
+
+  private fun isConfig(flvPacket: FlvPacket): Boolean = flvPacket.buffer[1] == 0.toByte()
+
+  @Test
+  fun `GIVEN multiple clients WHEN send a frame THEN the packet is shared and returned to the pool after the last release`() {
+    sendVideo(true)
+    val frames = received.map { it.single() }
+    frames.forEach { assertEquals(2, it.size) }
+    val packet = frames[0][1]
+    frames.forEach { assertSame(packet, it[1]) }
+    val pool = fanOut.getBufferPool()
+    val pooledBytes = pool.getPooledBytes()
+    frames[0].forEach { it.release() }
+    frames[1].forEach { it.release() }
+    assertEquals(pooledBytes, pool.getPooledBytes())
+    frames[2].forEach { it.release() }
+    assertTrue(pool.getPooledBytes() > pooledBytes)
+  }
+
+  @Test
+  fun `GIVEN a client that drops a frame WHEN other clients send it THEN the buffer is not reused`() {
+    sendVideo(true)
+    received.forEach { frames -> frames.single().forEach { it.release() } }
+    sendVideo(false)
+    val frames = received.map { it.last() }
+    //client 0 discard the frame
+    frames[0].forEach { it.release() }
+    val pool = fanOut.getBufferPool()
+    val buffer = pool.obtain(frames[1][0].buffer.size)
+    assertNotSame(frames[1][0].buffer, buffer)
+    assertTrue(frames[1][0].buffer.sliceArray(10 until frames[1][0].length).all { it == 0x01.toByte() })
+    pool.release(buffer)
+    sendVideo(false)
+    received.forEach { assertEquals(3, it.size) }
+  }
+
+  @Test
+  fun `GIVEN a client that starts in the middle of the stream WHEN send frames THEN only that client receives config and starts in a keyframe`() {
+    streaming[2] = false
+    sendVideo(true)
+    sendVideo(false)
+    assertEquals(0, received[2].size)
+    //a new session is started
+    streaming[2] = true
+    sessions[2]++
+    sendVideo(false)
+    sendVideo(false)
+    //no frames until the next keyframe and the keyframe is requested only once
+    assertEquals(0, received[2].size)
+    assertEquals(1, keyFrameRequests)
+    assertEquals(4, received[0].size)
+    sendVideo(true)
+    val newClientFrames = received[2].single()
+    assertEquals(2, newClientFrames.size)
+    assertTrue(isConfig(newClientFrames[0]))
+    assertEquals(0x17.toByte(), newClientFrames[1].buffer[0])
+    //clients already streaming don't receive the config again
+    val frames = received[0].last()
+    assertEquals(1, frames.size)
+    assertSame(newClientFrames[1], frames[0])
+    assertEquals(1, received[0].flatten().count { isConfig(it) })
+    sendVideo(false)
+    assertEquals(2, received[2].size)
+    assertEquals(1, keyFrameRequests)
+  }
+
+  @Test
+  fun `GIVEN a client that starts in the middle of the stream WHEN send audio THEN only that client receives audio config`() {
+    fanOut.setAudioInfo(44100, true)
+    val info = MediaCodec.BufferInfo()
+    info.set(0, 100, 0, 0)
+    streaming[2] = false
+    fanOut.sendAudio(ByteBuffer.wrap(ByteArray(100)), info)
+    streaming[2] = true
+    fanOut.sendAudio(ByteBuffer.wrap(ByteArray(100)), info)
+    //config and 2 frames
+    assertEquals(3, receivedAudio[0].size)
+    assertEquals(1, receivedAudio[0].count { isConfig(it) })
+    //config and 1 frame
+    assertEquals(2, receivedAudio[2].size)
+    assertTrue(isConfig(receivedAudio[2][0]))
+    assertEquals(false, isConfig(receivedAudio[2][1]))
+  }
+}
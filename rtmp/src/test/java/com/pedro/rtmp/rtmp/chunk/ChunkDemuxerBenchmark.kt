@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp.chunk
+
+import com.pedro.rtmp.amf.v0.AmfEcmaArray
+import com.pedro.rtmp.amf.v0.AmfNull
+import com.pedro.rtmp.amf.v0.AmfNumber
+import com.pedro.rtmp.amf.v0.AmfObject
+import com.pedro.rtmp.rtmp.message.BasicHeader
+import com.pedro.rtmp.rtmp.message.RtmpHeader
+import com.pedro.rtmp.rtmp.message.RtmpMessage
+import com.pedro.rtmp.rtmp.message.SetChunkSize
+import com.pedro.rtmp.rtmp.message.SetPeerBandwidth
+import com.pedro.rtmp.rtmp.message.WindowAcknowledgementSize
+import com.pedro.rtmp.rtmp.message.command.CommandAmf0
+import com.pedro.rtmp.rtmp.message.control.Type
+import com.pedro.rtmp.rtmp.message.control.UserControl
+import com.pedro.rtmp.rtmp.message.data.DataAmf0
+import com.pedro.rtmp.utils.CommandSessionHistory
+import com.pedro.rtmp.utils.RtmpConfig
+import com.pedro.rtmp.utils.readUntil
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.InputStream
+import java.lang.management.ManagementFactory
+
+/**
+ * Compare ChunkDemuxer with the message reader used before (chunks copied in new arrays, accumulated in
+ * a ByteArrayOutputStream and copied again to a ByteArrayInputStream before read the body).
+ * Report MB/s and bytes allocated per message in the assert message, AMF parsing allocations are included in both.
+ * The benchmark is ignored in the unit suite, the messages read are compared in a normal test.
+ *
+ * The server to client stream is generated with connect and publish responses and a big onMetaData.
+ * A capture of the stream received after handshake can be used instead with -Drtmp.benchmark.file=path
+ */
+class ChunkDemuxerBenchmark {
+
+  private val iterations = 200
+  private val metadataProperties = 300
+
+  private val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+  @Ignore("benchmark")
+  @Test
+  fun `GIVEN a server to client stream WHEN read messages THEN demuxer allocates less per message than legacy reader`() {
+    val file = System.getProperty("rtmp.benchmark.file")
+    val stream = if (file != null) File(file).readBytes() else generate()
+    val chunkDemuxer = ChunkDemuxer()
+    val demuxer: (InputStream, Int, CommandSessionHistory) -> RtmpMessage = { input, chunkSize, history ->
+      chunkDemuxer.readMessage(input, chunkSize, history)
+    }
+    //warmup
+    run(stream, ::readLegacy)
+    run(stream, demuxer)
+    val legacy = run(stream, ::readLegacy)
+    chunkDemuxer.reset()
+    val result = run(stream, demuxer)
+    assertEquals(legacy.messages, result.messages)
+    assertTrue("legacy reader: $legacy, chunk demuxer: $result", result.bytesPerMessage < legacy.bytesPerMessage)
+  }
+
+  @Test
+  fun `GIVEN a generated server to client stream WHEN read messages THEN demuxer and legacy reader read the same messages`() {
+    val stream = generate()
+    val chunkDemuxer = ChunkDemuxer()
+    val legacy = readAll(stream, ::readLegacy)
+    val result = readAll(stream) { input, chunkSize, history -> chunkDemuxer.readMessage(input, chunkSize, history) }
+    assertEquals(legacy.size, result.size)
+    assertEquals(legacy.map { it.toString() }, result.map { it.toString() })
+  }
+
+  private fun readAll(stream: ByteArray, read: (InputStream, Int, CommandSessionHistory) -> RtmpMessage): List<RtmpMessage> {
+    val messages = mutableListOf<RtmpMessage>()
+    val input = ByteArrayInputStream(stream)
+    val commandSessionHistory = CommandSessionHistory()
+    var chunkSize = RtmpConfig.DEFAULT_CHUNK_SIZE
+    while (input.available() > 0) {
+      val message = read(input, chunkSize, commandSessionHistory)
+      if (message is SetChunkSize) chunkSize = message.chunkSize
+      messages.add(message)
+    }
+    return messages
+  }
+
+  private fun run(stream: ByteArray, read: (InputStream, Int, CommandSessionHistory) -> RtmpMessage): Result {
+    val threadId = Thread.currentThread().id
+    var messages = 0L
+    val startBytes = threadMXBean.getThreadAllocatedBytes(threadId)
+    val startTime = System.nanoTime()
+    for (i in 0 until iterations) {
+      val input = ByteArrayInputStream(stream)
+      val commandSessionHistory = CommandSessionHistory()
+      var chunkSize = RtmpConfig.DEFAULT_CHUNK_SIZE
+      while (input.available() > 0) {
+        val message = read(input, chunkSize, commandSessionHistory)
+        if (message is SetChunkSize) chunkSize = message.chunkSize
+        messages++
+      }
+    }
+    val elapsed = (System.nanoTime() - startTime).coerceAtLeast(1)
+    val allocated = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes
+    return Result(messages, stream.size.toLong() * iterations * 1000 / elapsed, allocated / messages)
+  }
+
+  private data class Result(val messages: Long, val mbPerSecond: Long, val bytesPerMessage: Long) {
+    override fun toString(): String = "messages $messages, MB/s $mbPerSecond, bytes allocated per message $bytesPerMessage"
+  }
+
+  //message reader used before ChunkDemuxer
+  private fun readLegacy(input: InputStream, chunkSize: Int, commandSessionHistory: CommandSessionHistory): RtmpMessage {
+    val header = RtmpHeader.readHeader(input, commandSessionHistory)
+    val rtmpMessage = RtmpMessage.createRtmpMessage(header)
+    commandSessionHistory.setReadHeader(header)
+    val bodyInput = if (header.messageLength > chunkSize) {
+      val packetStore = ByteArrayOutputStream()
+      var bytesRead = 0
+      while (bytesRead < header.messageLength) {
+        val chunk: ByteArray
+        if (header.messageLength - bytesRead < chunkSize) {
+          chunk = ByteArray(header.messageLength - bytesRead)
+          input.readUntil(chunk)
+        } else {
+          chunk = ByteArray(chunkSize)
+          input.readUntil(chunk)
+          RtmpHeader.readHeader(input, commandSessionHistory, header.timeStamp)
+        }
+        bytesRead += chunk.size
+        packetStore.write(chunk)
+      }
+      ByteArrayInputStream(packetStore.toByteArray())
+    } else {
+      input
+    }
+    rtmpMessage.readBody(bodyInput)
+    return rtmpMessage
+  }
+
+  private fun generate(): ByteArray {
+    val output = ByteArrayOutputStream()
+    val messages = mutableListOf<RtmpMessage>()
+    messages.add(WindowAcknowledgementSize(5000000))
+    messages.add(SetPeerBandwidth(5000000))
+    messages.add(UserControl(Type.STREAM_BEGIN))
+    val connectResult = CommandAmf0("_result", 1)
+    connectResult.addData(AmfObject().apply {
+      setProperty("fmsVer", "FMS/3,0,1,123")
+      setProperty("capabilities", 31.0)
+    })
+    connectResult.addData(AmfObject().apply {
+      setProperty("level", "status")
+      setProperty("code", "NetConnection.Connect.Success")
+      setProperty("description", "Connection succeeded.")
+      setProperty("objectEncoding", 0.0)
+    })
+    messages.add(connectResult)
+    val bwDone = CommandAmf0("onBWDone")
+    bwDone.addData(AmfNull())
+    bwDone.addData(AmfNumber(8192.0))
+    messages.add(bwDone)
+    val createStreamResult = CommandAmf0("_result", 4)
+    createStreamResult.addData(AmfNull())
+    createStreamResult.addData(AmfNumber(1.0))
+    messages.add(createStreamResult)
+    val onStatus = CommandAmf0("onStatus", 0, 0, 1, BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_STREAM.mark))
+    onStatus.addData(AmfNull())
+    onStatus.addData(AmfObject().apply {
+      setProperty("level", "status")
+      setProperty("code", "NetStream.Publish.Start")
+      setProperty("description", "Start publishing")
+    })
+    messages.add(onStatus)
+    //servers like wowza send big metadata with encoder and stream info
+    val metadata = DataAmf0("onMetaData", 0, 1, BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_STREAM.mark))
+    metadata.addData(AmfEcmaArray().apply {
+      for (i in 0 until metadataProperties) setProperty("property$i", i.toDouble())
+    })
+    messages.add(metadata)
+    messages.forEach {
+      it.writeHeader(output)
+      it.writeBody(output)
+    }
+    return output.toByteArray()
+  }
+}
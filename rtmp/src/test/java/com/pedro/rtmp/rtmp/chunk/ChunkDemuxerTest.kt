@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp.chunk
+
+import com.pedro.rtmp.amf.v0.AmfNumber
+import com.pedro.rtmp.amf.v0.AmfString
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvType
+import com.pedro.rtmp.rtmp.message.Abort
+import com.pedro.rtmp.rtmp.message.BasicHeader
+import com.pedro.rtmp.rtmp.message.RtmpMessage
+import com.pedro.rtmp.rtmp.message.Video
+import com.pedro.rtmp.rtmp.message.command.CommandAmf0
+import com.pedro.rtmp.rtmp.message.data.DataAmf0
+import com.pedro.rtmp.utils.CommandSessionHistory
+import com.pedro.rtmp.utils.RtmpConfig
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+
+class ChunkDemuxerTest {
+
+  private val chunkSize = RtmpConfig.DEFAULT_CHUNK_SIZE
+
+  private fun createCommand(name: String, chunkStreamId: Int, values: Int): CommandAmf0 {
+    val command = CommandAmf0(name, 1, basicHeader = BasicHeader(ChunkType.TYPE_0, chunkStreamId))
+    for (i in 0 until values) command.addData(AmfString("value$i"))
+    return command
+  }
+
+  /**
+   * Write chunks of messages alternating chunk streams
+   */
+  private fun writeInterleaved(messages: List<RtmpMessage>): ByteArray {
+    val output = ByteArrayOutputStream()
+    val bodies = messages.map { it.storeBody() }
+    val offsets = IntArray(messages.size)
+    while (messages.indices.any { offsets[it] < bodies[it].size }) {
+      messages.forEachIndexed { i, message ->
+        if (offsets[i] >= bodies[i].size) return@forEachIndexed
+        if (offsets[i] == 0) message.writeHeader(output) else message.header.writeContinuationHeader(output)
+        val size = minOf(chunkSize, bodies[i].size - offsets[i])
+        output.write(bodies[i], offsets[i], size)
+        offsets[i] += size
+      }
+    }
+    return output.toByteArray()
+  }
+
+  @Test
+  fun `GIVEN interleaved chunk streams WHEN read messages THEN get each message complete`() {
+    val first = createCommand("first", ChunkStreamId.OVER_CONNECTION.mark, 40)
+    val second = createCommand("second", ChunkStreamId.OVER_STREAM.mark, 60)
+    val input = ByteArrayInputStream(writeInterleaved(listOf(first, second)))
+    val chunkDemuxer = ChunkDemuxer()
+    val commandSessionHistory = CommandSessionHistory()
+
+    val firstRead = chunkDemuxer.readMessage(input, chunkSize, commandSessionHistory)
+    val secondRead = chunkDemuxer.readMessage(input, chunkSize, commandSessionHistory)
+
+    assertTrue(firstRead is CommandAmf0)
+    assertTrue(secondRead is CommandAmf0)
+    assertEquals(first.toString(), firstRead.toString())
+    assertEquals(second.toString(), secondRead.toString())
+    assertEquals(ChunkStreamId.OVER_STREAM.mark, secondRead.header.basicHeader.chunkStreamId)
+    assertEquals(0, input.available())
+  }
+
+  @Test
+  fun `GIVEN a media message smaller than chunk size WHEN read messages THEN body is consumed`() {
+    val output = ByteArrayOutputStream()
+    val video = Video(FlvPacket(ByteArray(50) { 0x01 }, 10, 50, FlvType.VIDEO))
+    video.writeHeader(output)
+    video.writeBody(output)
+    val data = DataAmf0("onMetaData")
+    data.addData(AmfNumber(30.0))
+    data.writeHeader(output)
+    data.writeBody(output)
+    val input = ByteArrayInputStream(output.toByteArray())
+    val chunkDemuxer = ChunkDemuxer()
+    val commandSessionHistory = CommandSessionHistory()
+
+    assertTrue(chunkDemuxer.readMessage(input, chunkSize, commandSessionHistory) is Video)
+    val dataRead = chunkDemuxer.readMessage(input, chunkSize, commandSessionHistory)
+    assertEquals(data.toString(), dataRead.toString())
+  }
+
+  @Test
+  fun `GIVEN a type 3 chunk after a complete message WHEN read chunk THEN start a new message with last header`() {
+    val command = createCommand("first", ChunkStreamId.OVER_CONNECTION.mark, 1)
+    val output = ByteArrayOutputStream()
+    command.writeHeader(output)
+    command.writeBody(output)
+    command.header.writeContinuationHeader(output)
+    command.writeBody(output)
+    val input = ByteArrayInputStream(output.toByteArray())
+    val chunkDemuxer = ChunkDemuxer()
+    val commandSessionHistory = CommandSessionHistory()
+
+    val first = chunkDemuxer.readMessage(input, chunkSize, commandSessionHistory)
+    val second = chunkDemuxer.readMessage(input, chunkSize, commandSessionHistory)
+    assertEquals(command.toString(), first.toString())
+    assertEquals(command.toString(), second.toString())
+    assertEquals(ChunkType.TYPE_3, second.header.basicHeader.chunkType)
+  }
+
+  @Test
+  fun `GIVEN an abort message WHEN read chunks THEN discard partial message of aborted chunk stream`() {
+    val aborted = createCommand("aborted", ChunkStreamId.OVER_STREAM.mark, 40)
+    val output = ByteArrayOutputStream()
+    //first chunk of aborted message only
+    aborted.writeHeader(output)
+    output.write(aborted.storeBody(), 0, chunkSize)
+    val abort = Abort(ChunkStreamId.OVER_STREAM.mark)
+    abort.writeHeader(output)
+    abort.writeBody(output)
+    //type 3 chunk start a new message with the last header after abort
+    aborted.header.writeContinuationHeader(output)
+    aborted.writeBody(output)
+    val input = ByteArrayInputStream(output.toByteArray())
+    val chunkDemuxer = ChunkDemuxer()
+    val commandSessionHistory = CommandSessionHistory()
+
+    assertNull(chunkDemuxer.readChunk(input, chunkSize, commandSessionHistory))
+    assertTrue(chunkDemuxer.readChunk(input, chunkSize, commandSessionHistory) is Abort)
+    val read = chunkDemuxer.readMessage(input, chunkSize, commandSessionHistory)
+    assertEquals(aborted.toString(), read.toString())
+    assertEquals(0, input.available())
+  }
+
+  @Test(expected = EOFException::class)
+  fun `GIVEN a truncated message WHEN read message THEN throw end of stream`() {
+    val command = createCommand("command", ChunkStreamId.OVER_CONNECTION.mark, 40)
+    val output = ByteArrayOutputStream()
+    command.writeHeader(output)
+    command.writeBody(output)
+    val bytes = output.toByteArray()
+    ChunkDemuxer().readMessage(ByteArrayInputStream(bytes, 0, bytes.size - 10), chunkSize, CommandSessionHistory())
+  }
+}
@@ -2,6 +2,9 @@ package com.pedro.rtmp.rtmp.message
 
 import com.pedro.rtmp.flv.FlvPacket
 import com.pedro.rtmp.flv.FlvType
+import com.pedro.rtmp.rtmp.chunk.ChunkStreamId
+import com.pedro.rtmp.rtmp.chunk.ChunkType
+import com.pedro.rtmp.utils.RtmpConfig
 import org.junit.Assert.assertArrayEquals
 import org.junit.Test
 import java.io.ByteArrayOutputStream
@@ -46,4 +49,27 @@ class AudioVideoTest {
 
     assertArrayEquals(expectedBuffer, output.toByteArray())
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `GIVEN a video packet bigger than chunk size WHEN write into a buffer THEN get body split in chunks with type 3 headers`() {
+    val output = ByteArrayOutputStream()
+    val body = ByteArray(300) { it.toByte() }
+    val fakePacket = FlvPacket(
+      buffer = body,
+      timeStamp = 1234567,
+      length = body.size,
+      type = FlvType.VIDEO
+    )
+    val video = Video(fakePacket)
+    video.writeHeader(output)
+    video.writeBody(output)
+
+    val chunkSize = RtmpConfig.writeChunkSize
+    val type3Header = ((ChunkType.TYPE_3.mark.toInt() shl 6) or ChunkStreamId.VIDEO.mark).toByte()
+    val expectedBody = body.sliceArray(0 until chunkSize)
+      .plus(type3Header).plus(body.sliceArray(chunkSize until chunkSize * 2))
+      .plus(type3Header).plus(body.sliceArray(chunkSize * 2 until body.size))
+    val result = output.toByteArray()
+    assertArrayEquals(expectedBody, result.sliceArray(12 until result.size))
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp.message
+
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvType
+import com.pedro.rtmp.rtmp.chunk.ChunkStreamId
+import com.pedro.rtmp.rtmp.chunk.ChunkType
+import com.pedro.rtmp.utils.CommandSessionHistory
+import com.pedro.rtmp.utils.RtmpConfig
+import com.pedro.rtmp.utils.readUntil
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+
+class RtmpHeaderTest {
+
+  private val streamId = 1
+
+  /**
+   * Write media messages like CommandsManager does on publish
+   */
+  private fun writeMessages(messages: List<RtmpMessage>): ByteArray {
+    val output = ByteArrayOutputStream()
+    val sessionHistory = CommandSessionHistory()
+    messages.forEach { message ->
+      message.header.compressWith(sessionHistory.getLastWriteHeader(message.header.basicHeader.chunkStreamId))
+      message.writeHeader(output)
+      message.writeBody(output)
+      sessionHistory.setWriteHeader(message.header)
+    }
+    return output.toByteArray()
+  }
+
+  /**
+   * Read headers and skip bodies, continuation chunk headers are read and discarded
+   */
+  private fun readHeaders(input: InputStream, count: Int): List<RtmpHeader> {
+    val sessionHistory = CommandSessionHistory()
+    val chunkSize = RtmpConfig.writeChunkSize
+    return List(count) {
+      val header = RtmpHeader.readHeader(input, sessionHistory)
+      sessionHistory.setReadHeader(header)
+      var remaining = header.messageLength
+      while (remaining > 0) {
+        val size = minOf(chunkSize, remaining)
+        input.readUntil(ByteArray(size))
+        remaining -= size
+        if (remaining > 0) RtmpHeader.readHeader(input, sessionHistory, header.timeStamp)
+      }
+      header
+    }
+  }
+
+  private fun video(timeStamp: Long, length: Int) =
+    Video(FlvPacket(ByteArray(length) { it.toByte() }, timeStamp, length, FlvType.VIDEO), streamId)
+
+  private fun audio(timeStamp: Long, length: Int) =
+    Audio(FlvPacket(ByteArray(length) { it.toByte() }, timeStamp, length, FlvType.AUDIO), streamId)
+
+  @Test
+  fun `GIVEN video messages WHEN compress headers THEN use smallest chunk type and decode same values`() {
+    val messages = listOf(
+      video(0, 100), //first message in chunk stream
+      video(33, 50), //different length
+      video(66, 50), //same length and delta
+      video(99, 50),
+      video(132, 50),
+      video(170, 50), //new delta
+      video(150, 50) //timestamp going backward
+    )
+    val expectedTypes = listOf(ChunkType.TYPE_0, ChunkType.TYPE_1, ChunkType.TYPE_3, ChunkType.TYPE_3,
+      ChunkType.TYPE_3, ChunkType.TYPE_2, ChunkType.TYPE_0)
+    val bytes = writeMessages(messages)
+
+    val headers = readHeaders(ByteArrayInputStream(bytes), messages.size)
+    headers.forEachIndexed { i, header ->
+      val expected = messages[i].header
+      assertEquals(expectedTypes[i], header.basicHeader.chunkType)
+      assertEquals(ChunkStreamId.VIDEO.mark, header.basicHeader.chunkStreamId)
+      assertEquals(expected.timeStamp, header.timeStamp)
+      assertEquals(expected.messageLength, header.messageLength)
+      assertEquals(MessageType.VIDEO, header.messageType)
+      assertEquals(streamId, header.messageStreamId)
+    }
+    val headersSize = 12 + 8 + 1 + 1 + 1 + 4 + 12
+    assertEquals(headersSize + messages.sumOf { it.header.messageLength }, bytes.size)
+    assertEquals(bytes.size, messages.sumOf { it.header.getPacketLength() })
+  }
+
+  @Test
+  fun `GIVEN interleaved audio and video messages split in chunks WHEN compress headers THEN decode each chunk stream`() {
+    val messages = mutableListOf<RtmpMessage>()
+    var videoTs = 0L
+    var audioTs = 0L
+    for (i in 0 until 60) {
+      if (audioTs <= videoTs) {
+        messages.add(audio(audioTs, 10))
+        audioTs += 23
+      } else {
+        messages.add(video(videoTs, 100 + (i % 3) * 200)) //some messages bigger than chunk size
+        videoTs += 33
+      }
+    }
+    val bytes = writeMessages(messages)
+
+    val headers = readHeaders(ByteArrayInputStream(bytes), messages.size)
+    headers.forEachIndexed { i, header ->
+      val expected = messages[i].header
+      assertEquals(expected.basicHeader.chunkStreamId, header.basicHeader.chunkStreamId)
+      assertEquals(expected.timeStamp, header.timeStamp)
+      assertEquals(expected.messageLength, header.messageLength)
+      assertEquals(expected.messageType, header.messageType)
+      assertEquals(streamId, header.messageStreamId)
+    }
+    //audio with constant size and delta only need the basic header
+    val audioHeaders = headers.filter { it.messageType == MessageType.AUDIO }
+    assertTrue(audioHeaders.drop(2).all { it.basicHeader.chunkType == ChunkType.TYPE_3 })
+  }
+
+  @Test
+  fun `GIVEN extended timestamps WHEN compress headers THEN decode extended timestamp and delta`() {
+    val messages = listOf(
+      video(0xfffff0L, 300), //extended in type 0 with continuation chunks
+      video(0x1000010L, 300), //small delta in type 2 with big timestamp
+      video(0x2000020L, 10) //extended delta in type 1
+    )
+    val bytes = writeMessages(messages)
+
+    val headers = readHeaders(ByteArrayInputStream(bytes), messages.size)
+    assertEquals(ChunkType.TYPE_0, headers[0].basicHeader.chunkType)
+    assertEquals(ChunkType.TYPE_2, headers[1].basicHeader.chunkType)
+    assertEquals(ChunkType.TYPE_1, headers[2].basicHeader.chunkType)
+    headers.forEachIndexed { i, header ->
+      assertEquals(messages[i].header.timeStamp, header.timeStamp)
+    }
+  }
+
+  @Test
+  fun `GIVEN a reset session WHEN write a message THEN use type 0 header`() {
+    val sessionHistory = CommandSessionHistory()
+    val first = video(0, 50)
+    first.header.compressWith(sessionHistory.getLastWriteHeader(ChunkStreamId.VIDEO.mark))
+    sessionHistory.setWriteHeader(first.header)
+    sessionHistory.reset()
+    val second = video(33, 50)
+    second.header.compressWith(sessionHistory.getLastWriteHeader(ChunkStreamId.VIDEO.mark))
+    assertEquals(ChunkType.TYPE_0, second.header.basicHeader.chunkType)
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.utils
+
+import com.pedro.rtmp.rtmp.chunk.ChunkType
+import com.pedro.rtmp.rtmp.message.BasicHeader
+import com.pedro.rtmp.rtmp.message.MessageType
+import com.pedro.rtmp.rtmp.message.RtmpHeader
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class CommandSessionHistoryTest {
+
+  private fun createHeader(chunkStreamId: Int, timestamp: Int): RtmpHeader {
+    val header = RtmpHeader(BasicHeader(ChunkType.TYPE_0, chunkStreamId))
+    header.timeStamp = timestamp
+    header.messageType = MessageType.ACKNOWLEDGEMENT
+    return header
+  }
+
+  @Test
+  fun `GIVEN headers of multiple chunk stream ids WHEN get last read header THEN get the last header of each id`() {
+    val commandSessionHistory = CommandSessionHistory()
+    val header2 = createHeader(2, 0)
+    val header3 = createHeader(3, 0)
+    val lastHeader2 = createHeader(2, 10)
+    val extendedHeader = createHeader(300, 0)
+    commandSessionHistory.setReadHeader(header2)
+    commandSessionHistory.setReadHeader(header3)
+    commandSessionHistory.setReadHeader(lastHeader2)
+    commandSessionHistory.setReadHeader(extendedHeader)
+
+    assertSame(lastHeader2, commandSessionHistory.getLastReadHeader(2))
+    assertSame(header3, commandSessionHistory.getLastReadHeader(3))
+    assertSame(extendedHeader, commandSessionHistory.getLastReadHeader(300))
+    assertNull(commandSessionHistory.getLastReadHeader(4))
+
+    commandSessionHistory.reset()
+    assertNull(commandSessionHistory.getLastReadHeader(2))
+    assertNull(commandSessionHistory.getLastReadHeader(300))
+  }
+
+  @Test
+  fun `GIVEN millions of headers WHEN set and get headers THEN memory is constant`() {
+    val commandSessionHistory = CommandSessionHistory()
+    //ids used by servers for control, commands, audio, video and some extended ids
+    val chunkStreamIds = intArrayOf(2, 3, 4, 5, 6, 8, 64, 300, 65599)
+    val headers = 5_000_000
+    var timestamp = 0
+
+    fun feed(count: Int) {
+      for (i in 0 until count) {
+        val chunkStreamId = chunkStreamIds[i % chunkStreamIds.size]
+        commandSessionHistory.setReadHeader(createHeader(chunkStreamId, timestamp++))
+        //continuation chunks read the last header many times
+        repeat(3) { commandSessionHistory.getLastReadHeader(chunkStreamId) }
+      }
+    }
+
+    feed(100_000)
+    val initialMemory = getUsedMemory()
+    feed(headers)
+    val finalMemory = getUsedMemory()
+    //5M headers retained would be hundreds of MB
+    assertTrue("memory grew ${finalMemory - initialMemory} bytes", finalMemory - initialMemory < 4 * 1024 * 1024)
+    val last = chunkStreamIds[(headers - 1) % chunkStreamIds.size]
+    assertEquals(timestamp - 1, commandSessionHistory.getLastReadHeader(last)?.timeStamp)
+
+    //lookups of 1 byte basic header ids don't allocate
+    val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    val threadId = Thread.currentThread().id
+    val startBytes = threadMXBean.getThreadAllocatedBytes(threadId)
+    var found = 0
+    for (i in 0 until 1_000_000) {
+      if (commandSessionHistory.getLastReadHeader(2 + i % 7) != null) found++
+    }
+    val allocated = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes
+    assertTrue(found > 0)
+    assertTrue("allocated $allocated bytes", allocated < 1024)
+  }
+
+  private fun getUsedMemory(): Long {
+    val runtime = Runtime.getRuntime()
+    repeat(3) {
+      System.gc()
+      Thread.sleep(50)
+    }
+    return runtime.totalMemory() - runtime.freeMemory()
+  }
+}
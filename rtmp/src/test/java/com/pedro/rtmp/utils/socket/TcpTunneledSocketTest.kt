@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.utils.socket
+
+import com.pedro.rtmp.utils.TimeUtils
+import com.pedro.rtmp.utils.readUntil
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.Collections
+import kotlin.concurrent.thread
+
+class TcpTunneledSocketTest {
+
+  /**
+   * RTMPT server that echo data received in send requests as response of next send or idle requests
+   */
+  private class FakeRtmptServer(
+    private val keepAlive: Boolean = true,
+    //close the connection after a send response without notify it, like a keep alive timeout
+    private val closeAfterSend: Boolean = false
+  ) {
+    private val serverSocket = ServerSocket(0)
+    val port = serverSocket.localPort
+    @Volatile
+    var connections = 0
+    val paths: MutableList<String> = Collections.synchronizedList(mutableListOf())
+    val received = ByteArrayOutputStream()
+    private val pending = ByteArrayOutputStream()
+
+    init {
+      thread(isDaemon = true) {
+        try {
+          while (true) {
+            val socket = serverSocket.accept()
+            connections++
+            thread(isDaemon = true) { handle(socket) }
+          }
+        } catch (ignored: Exception) { }
+      }
+    }
+
+    private fun handle(socket: Socket) {
+      socket.use {
+        val input = socket.getInputStream().buffered()
+        val output = socket.getOutputStream()
+        while (true) {
+          val requestLine = readLine(input) ?: return
+          var length = 0
+          while (true) {
+            val line = readLine(input) ?: return
+            if (line.isEmpty()) break
+            if (line.startsWith("Content-Length:", true)) length = line.substringAfter(":").trim().toInt()
+          }
+          val body = ByteArray(length)
+          input.readUntil(body)
+          val path = requestLine.split(" ")[1]
+          paths.add(path)
+          val (status, response) = synchronized(this) {
+            when {
+              path.startsWith("/fcs/ident2") -> 404 to ByteArray(0)
+              path.startsWith("/open/") -> 200 to "session1\n".toByteArray()
+              path.startsWith("/send/") -> {
+                received.write(body)
+                pending.write(body)
+                200 to pendingResponse()
+              }
+              path.startsWith("/idle/") -> 200 to pendingResponse()
+              else -> 200 to byteArrayOf(0x00)
+            }
+          }
+          val header = "HTTP/1.1 $status ${if (status == 200) "OK" else "Not Found"}\r\n" +
+              "Content-Type: application/x-fcs\r\n" +
+              (if (keepAlive) "" else "Connection: close\r\n") +
+              "Content-Length: ${response.size}\r\n\r\n"
+          output.write(header.toByteArray())
+          output.write(response)
+          output.flush()
+          if (!keepAlive || (closeAfterSend && path.startsWith("/send/"))) return
+        }
+      }
+    }
+
+    private fun pendingResponse(): ByteArray {
+      val response = byteArrayOf(0x01).plus(pending.toByteArray())
+      pending.reset()
+      return response
+    }
+
+    private fun readLine(input: InputStream): String? {
+      val line = StringBuilder()
+      while (true) {
+        val byte = input.read()
+        if (byte == -1) return null
+        if (byte == '\n'.code) return line.toString()
+        if (byte != '\r'.code) line.append(byte.toChar())
+      }
+    }
+
+    fun close() {
+      serverSocket.close()
+    }
+  }
+
+  private val servers = mutableListOf<FakeRtmptServer>()
+
+  @After
+  fun tearDown() {
+    servers.forEach { it.close() }
+  }
+
+  private fun createServer(keepAlive: Boolean = true, closeAfterSend: Boolean = false) =
+    FakeRtmptServer(keepAlive, closeAfterSend).also { servers.add(it) }
+
+  private fun createPacket(index: Int, size: Int) = ByteArray(size) { (index + it).toByte() }
+
+  @Test
+  fun `GIVEN a keep alive server WHEN send packets THEN use one connection and batch by size`() {
+    val server = createServer()
+    val socket = TcpTunneledSocket("127.0.0.1", server.port, false, maxBatchSize = 10_000, maxBatchDelay = 60_000)
+    socket.connect()
+    assertTrue(socket.isConnected())
+
+    val expected = ByteArrayOutputStream()
+    for (i in 0 until 100) {
+      val packet = createPacket(i, 1000)
+      socket.getOutStream().write(packet)
+      expected.write(packet)
+      socket.flush(true)
+    }
+    //commands are sent without wait
+    socket.getOutStream().write(createPacket(100, 10))
+    expected.write(createPacket(100, 10))
+    socket.flush()
+
+    assertArrayEquals(expected.toByteArray(), server.received.toByteArray())
+    assertEquals(1, server.connections)
+    val sendRequests = server.paths.filter { it.startsWith("/send/") }
+    assertEquals(11, sendRequests.size)
+    //request index increase on each request
+    val indexes = server.paths.filter { it.startsWith("/send/") || it.startsWith("/idle/") }.map { it.substringAfterLast("/").toLong() }
+    assertEquals(indexes.sorted(), indexes)
+    assertEquals(indexes.distinct(), indexes)
+  }
+
+  @Test
+  fun `GIVEN packets older than max batch delay WHEN flush packet THEN send stored packets`() {
+    val server = createServer()
+    val socket = TcpTunneledSocket("127.0.0.1", server.port, false, maxBatchSize = 1_000_000, maxBatchDelay = 10_000)
+    socket.connect()
+
+    //time is only mocked in this thread so the batch timer is not reached
+    var fakeTime = 1000L
+    Mockito.mockStatic(TimeUtils::class.java).use { timeUtilsMocked ->
+      timeUtilsMocked.`when`<Long>(TimeUtils::getCurrentTimeMillis).then { fakeTime }
+      socket.getOutStream().write(createPacket(0, 100))
+      socket.flush(true)
+      assertEquals(0, server.received.size())
+      fakeTime += 10_000
+      socket.getOutStream().write(createPacket(1, 100))
+      socket.flush(true)
+      assertEquals(200, server.received.size())
+    }
+  }
+
+  @Test
+  fun `GIVEN packets stored WHEN max batch delay is reached without more flush THEN send stored packets`() {
+    val server = createServer()
+    val socket = TcpTunneledSocket("127.0.0.1", server.port, false, maxBatchSize = 1_000_000, maxBatchDelay = 20)
+    socket.connect()
+
+    socket.getOutStream().write(createPacket(0, 100))
+    socket.flush(true)
+    assertEquals(0, server.received.size())
+    val start = System.currentTimeMillis()
+    while (server.received.size() == 0 && System.currentTimeMillis() - start < 2000) Thread.sleep(5)
+    assertEquals(100, server.received.size())
+  }
+
+  @Test
+  fun `GIVEN a kept alive connection closed by the server WHEN send packets THEN send request is not retried`() {
+    val server = createServer(closeAfterSend = true)
+    val socket = TcpTunneledSocket("127.0.0.1", server.port, false)
+    socket.connect()
+    socket.getOutStream().write(createPacket(0, 100))
+    socket.flush()
+    assertEquals(100, server.received.size())
+
+    socket.getOutStream().write(createPacket(1, 100))
+    assertThrows(IOException::class.java) { socket.flush() }
+    assertEquals(1, server.paths.count { it.startsWith("/send/") })
+    assertEquals(100, server.received.size())
+  }
+
+  @Test
+  fun `GIVEN a kept alive connection closed by the server WHEN read input THEN idle request is retried`() {
+    val server = createServer(closeAfterSend = true)
+    val socket = TcpTunneledSocket("127.0.0.1", server.port, false)
+    socket.connect()
+    val packet = createPacket(0, 100)
+    socket.getOutStream().write(packet)
+    socket.flush()
+
+    //the echo of the send is in the send response
+    val result = ByteArray(packet.size)
+    socket.getInputStream().readUntil(result)
+    assertArrayEquals(packet, result)
+    //no data pending, idle request in a new connection
+    assertEquals(0, socket.getInputStream().available())
+    val connections = server.connections
+    val idleRequests = server.paths.count { it.startsWith("/idle/") }
+    Thread {
+      runCatching { socket.getInputStream().read() }
+    }.apply { isDaemon = true }.start()
+    val start = System.currentTimeMillis()
+    while (server.paths.count { it.startsWith("/idle/") } == idleRequests && System.currentTimeMillis() - start < 2000) {
+      Thread.sleep(5)
+    }
+    assertTrue(server.paths.count { it.startsWith("/idle/") } > idleRequests)
+    assertTrue(server.connections > connections)
+  }
+
+  @Test
+  fun `GIVEN data received in responses WHEN read input THEN get data in order across responses`() {
+    val server = createServer()
+    val socket = TcpTunneledSocket("127.0.0.1", server.port, false)
+    socket.connect()
+
+    val expected = ByteArrayOutputStream()
+    for (i in 0 until 5) {
+      val packet = createPacket(i, 3000)
+      socket.getOutStream().write(packet)
+      expected.write(packet)
+      socket.flush()
+    }
+    //read more than a response, the rest is requested with idle
+    val result = ByteArray(expected.size())
+    socket.getInputStream().readUntil(result)
+
+    assertArrayEquals(expected.toByteArray(), result)
+    assertEquals(1, server.connections)
+  }
+
+  @Test
+  fun `GIVEN a server closing connections WHEN send packets THEN reconnect and keep data`() {
+    val server = createServer(keepAlive = false)
+    val socket = TcpTunneledSocket("127.0.0.1", server.port, false, maxBatchSize = 1000)
+    socket.connect()
+    assertTrue(socket.isConnected())
+
+    val expected = ByteArrayOutputStream()
+    for (i in 0 until 20) {
+      val packet = createPacket(i, 500)
+      socket.getOutStream().write(packet)
+      expected.write(packet)
+      socket.flush(true)
+    }
+    socket.getOutStream().write(createPacket(20, 10))
+    expected.write(createPacket(20, 10))
+    socket.flush()
+
+    assertArrayEquals(expected.toByteArray(), server.received.toByteArray())
+    assertEquals(server.paths.size, server.connections)
+  }
+}
@@ -23,6 +23,7 @@ import com.pedro.rtsp.utils.TimeUtils
 import com.pedro.rtsp.utils.setLong
 import java.io.IOException
 import java.io.OutputStream
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Created by pedro on 7/11/18.
@@ -40,6 +41,20 @@ abstract class BaseSenderReport internal constructor() {
   private var audioOctetCount = 0L
   val PACKET_LENGTH = 28
   protected val TAG = "BaseSenderReport"
+  private var ssrcVideo = 0L
+  private var ssrcAudio = 0L
+  //last report of each stream
+  private val receiverStats = ConcurrentHashMap<Long, ReceiverStats>()
+  @Volatile
+  var receiverReportListener: ReceiverReportListener? = null
+
+  interface ReceiverReportListener {
+    /**
+     * @param stats streams included in the report
+     * @param rembBitrate max bitrate estimated by the server, 0 if not reported
+     */
+    fun onReceiverReport(stats: List<ReceiverStats>, rembBitrate: Long)
+  }
 
   companion object {
     @JvmStatic
@@ -79,10 +94,38 @@ abstract class BaseSenderReport internal constructor() {
   }
 
   fun setSSRC(ssrcVideo: Long, ssrcAudio: Long) {
+    //only 32 bits are written in the packets
+    this.ssrcVideo = ssrcVideo and 0xFFFFFFFFL
+    this.ssrcAudio = ssrcAudio and 0xFFFFFFFFL
     videoBuffer.setLong(ssrcVideo, 4, 8)
     audioBuffer.setLong(ssrcAudio, 4, 8)
   }
 
+  /**
+   * Read a RTCP packet sent by the server. Report blocks of other streams are ignored.
+   */
+  fun handleReport(buffer: ByteArray, length: Int) {
+    val report = ReceiverReport.parse(buffer, length) ?: return
+    val now = getNtpMiddle(TimeUtils.getCurrentTimeNano())
+    val stats = report.reportBlocks.filter { it.ssrc == ssrcVideo || it.ssrc == ssrcAudio }.map { block ->
+      //rtt = arrival time - last sender report time - delay since last sender report (RFC 3550 6.4.1)
+      var rtt = -1L
+      if (block.lastSr != 0L) {
+        val value = (now - block.lastSr - block.delaySinceLastSr) and 0xFFFFFFFFL
+        //a negative value is not valid
+        if (value < 0x80000000L) rtt = value * 1000 / 65536
+      }
+      ReceiverStats(block.ssrc, block.ssrc == ssrcVideo, block.fractionLost / 256f, block.cumulativeLost,
+        block.jitter, rtt)
+    }
+    stats.forEach { receiverStats[it.ssrc] = it }
+    if (stats.isNotEmpty() || report.rembBitrate > 0) {
+      receiverReportListener?.onReceiverReport(stats, report.rembBitrate)
+    }
+  }
+
+  fun getReceiverStats(): List<ReceiverStats> = receiverStats.values.toList()
+
   @Throws(IOException::class)
   abstract fun setDataStream(outputStream: OutputStream, host: String)
 
@@ -139,6 +182,7 @@ abstract class BaseSenderReport internal constructor() {
     videoBuffer.setLong(videoOctetCount, 24, 28)
     audioBuffer.setLong(audioPacketCount, 20, 24)
     audioBuffer.setLong(audioOctetCount, 24, 28)
+    receiverStats.clear()
   }
 
   abstract fun close()
@@ -150,4 +194,11 @@ abstract class BaseSenderReport internal constructor() {
     buffer.setLong(lb, 12, 16)
     buffer.setLong(rtpts, 16, 20)
   }
+
+  //value used as last sender report time by the server, 16 bits of seconds and 16 bits of fraction
+  private fun getNtpMiddle(ntpts: Long): Long {
+    val hb = ntpts / 1000000000
+    val lb = (ntpts - hb * 1000000000) * 4294967296L / 1000000000
+    return ((hb and 0xFFFF) shl 16) or (lb ushr 16)
+  }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+import com.pedro.rtsp.utils.getLong
+
+/**
+ * Feedback of the server in a compound RTCP packet.
+ *
+ * Report blocks are read from RR and SR packets (RFC 3550 6.4). Estimated max bitrate is read from REMB packets
+ * (draft-alvestrand-rmcat-remb), 0 if not received. Other packets are ignored.
+ */
+class ReceiverReport(
+  val reportBlocks: List<ReportBlock>,
+  val rembBitrate: Long
+) {
+
+  companion object {
+    private const val SR = 200
+    private const val RR = 201
+    private const val PSFB = 206
+    private const val REMB_FMT = 15
+    private const val HEADER_SIZE = 8
+    private const val SENDER_INFO_SIZE = 20
+    private const val BLOCK_SIZE = 24
+
+    /**
+     * @return null if the buffer is not a valid RTCP packet
+     */
+    fun parse(buffer: ByteArray, length: Int): ReceiverReport? {
+      val reportBlocks = mutableListOf<ReportBlock>()
+      var rembBitrate = 0L
+      var offset = 0
+      while (offset + HEADER_SIZE <= length) {
+        val version = (buffer[offset].toInt() ushr 6) and 0x03
+        if (version != 2) return null
+        val count = buffer[offset].toInt() and 0x1F
+        val type = buffer[offset + 1].toInt() and 0xFF
+        val size = (buffer.getLong(offset + 2, offset + 4).toInt() + 1) * 4
+        if (offset + size > length) return null
+        when (type) {
+          SR, RR -> {
+            var blockOffset = offset + HEADER_SIZE + if (type == SR) SENDER_INFO_SIZE else 0
+            for (i in 0 until count) {
+              if (blockOffset + BLOCK_SIZE > offset + size) break
+              reportBlocks.add(readBlock(buffer, blockOffset))
+              blockOffset += BLOCK_SIZE
+            }
+          }
+          PSFB -> {
+            //header, sender ssrc, media ssrc (0), "REMB", num ssrc, exponent and mantissa
+            val isRemb = count == REMB_FMT && size >= 20 && buffer[offset + 12] == 'R'.code.toByte() &&
+                buffer[offset + 13] == 'E'.code.toByte() && buffer[offset + 14] == 'M'.code.toByte() &&
+                buffer[offset + 15] == 'B'.code.toByte()
+            if (isRemb) {
+              val exponent = (buffer[offset + 17].toInt() ushr 2) and 0x3F
+              val mantissa = buffer.getLong(offset + 17, offset + 20) and 0x3FFFF
+              rembBitrate = mantissa shl exponent
+            }
+          }
+        }
+        offset += size
+      }
+      if (offset == 0) return null
+      return ReceiverReport(reportBlocks, rembBitrate)
+    }
+
+    private fun readBlock(buffer: ByteArray, offset: Int): ReportBlock {
+      //cumulative lost is a signed 24 bits value
+      val cumulativeLost = (buffer.getLong(offset + 5, offset + 8).toInt() shl 8) shr 8
+      return ReportBlock(
+        ssrc = buffer.getLong(offset, offset + 4),
+        fractionLost = buffer[offset + 4].toInt() and 0xFF,
+        cumulativeLost = cumulativeLost,
+        highestSequence = buffer.getLong(offset + 8, offset + 12),
+        jitter = buffer.getLong(offset + 12, offset + 16),
+        lastSr = buffer.getLong(offset + 16, offset + 20),
+        delaySinceLastSr = buffer.getLong(offset + 20, offset + 24)
+      )
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+/**
+ * Last state of a stream reported by the server.
+ *
+ * @param lossRate packets lost since the previous report (0 to 1)
+ * @param jitter interarrival jitter in rtp timestamp units (90000 per second in video, sample rate in audio)
+ * @param rtt round trip time in milliseconds, -1 if the server doesn't report it
+ */
+data class ReceiverStats(
+  val ssrc: Long,
+  val isVideo: Boolean,
+  val lossRate: Float,
+  val cumulativeLost: Int,
+  val jitter: Long,
+  val rtt: Long
+)
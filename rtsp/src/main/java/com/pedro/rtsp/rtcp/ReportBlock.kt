@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+/**
+ * Reception report of a source (RFC 3550 6.4.1).
+ *
+ * @param fractionLost packets lost since the previous report, fixed point number (value / 256)
+ * @param jitter interarrival jitter in rtp timestamp units
+ * @param lastSr middle 32 bits of the ntp timestamp of the last sender report received, 0 if not received
+ * @param delaySinceLastSr time between the last sender report received and this report in units of 1/65536 seconds
+ */
+data class ReportBlock(
+  val ssrc: Long,
+  val fractionLost: Int,
+  val cumulativeLost: Int,
+  val highestSequence: Long,
+  val jitter: Long,
+  val lastSr: Long,
+  val delaySinceLastSr: Long
+)
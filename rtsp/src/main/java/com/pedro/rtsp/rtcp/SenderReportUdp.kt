@@ -19,6 +19,11 @@ package com.pedro.rtsp.rtcp
 import android.util.Log
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
 import java.io.IOException
 import java.io.OutputStream
 import java.net.DatagramPacket
@@ -35,6 +40,10 @@ class SenderReportUdp(
 ) : BaseSenderReport() {
 
   private val datagramPacket = DatagramPacket(byteArrayOf(0), 1)
+  //destination ports of each track. If not set, the port of each frame is used
+  private var videoPort = 0
+  private var audioPort = 0
+  private var scope = CoroutineScope(Dispatchers.IO)
 
   init {
     if (multicastSocketVideo == null) multicastSocketVideo = MulticastSocket(videoSourcePort)
@@ -50,14 +59,47 @@ class SenderReportUdp(
 
   @Throws(IOException::class)
   override suspend fun sendReport(buffer: ByteArray, rtpFrame: RtpFrame, type: String, packetCount: Long, octetCount: Long, isEnableLogs: Boolean) {
-    sendReportUDP(buffer, rtpFrame.rtcpPort, type, packetCount, octetCount, isEnableLogs)
+    val port = if (rtpFrame.isVideoFrame()) videoPort else audioPort
+    sendReportUDP(buffer, if (port > 0) port else rtpFrame.rtcpPort, type, packetCount, octetCount, isEnableLogs)
+  }
+
+  fun setVideoPort(port: Int) {
+    videoPort = port
+  }
+
+  fun setAudioPort(port: Int) {
+    audioPort = port
+  }
+
+  /**
+   * Read the reports sent by the server to the rtcp ports until close.
+   */
+  fun startReceiving() {
+    val videoSocket = multicastSocketVideo
+    val audioSocket = multicastSocketAudio
+    videoSocket?.let { socket -> scope.launch { receive(socket) } }
+    if (audioSocket != null && audioSocket !== videoSocket) scope.launch { receive(audioSocket) }
   }
 
   override fun close() {
+    scope.cancel()
+    scope = CoroutineScope(Dispatchers.IO)
     multicastSocketVideo?.close()
     multicastSocketAudio?.close()
   }
 
+  private fun receive(socket: MulticastSocket) {
+    val buffer = ByteArray(RtpConstants.MTU)
+    val packet = DatagramPacket(buffer, buffer.size)
+    while (scope.isActive && !socket.isClosed) {
+      //fails when the socket is closed
+      val error = runCatching { socket.receive(packet) }.exceptionOrNull()
+      if (error != null) break
+      handleReport(buffer, packet.length)
+      packet.length = buffer.size
+    }
+  }
+
   @Throws(IOException::class)
   private fun sendReportUDP(buffer: ByteArray, port: Int, type: String, packet: Long, octet: Long, isEnableLogs: Boolean) {
     synchronized(RtpConstants.lock) {
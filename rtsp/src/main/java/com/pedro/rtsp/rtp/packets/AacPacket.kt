@@ -27,14 +27,42 @@ import kotlin.experimental.or
  * Created by pedro on 27/11/18.
  *
  * RFC 3640.
+ *
+ * By default each rtp packet contains one AU. If maxAggregationDelayMs is more than the duration of an AU, multiple
+ * consecutive AUs are packed in the same rtp packet until the MTU, holding the first AU maxAggregationDelayMs max.
+ * The rtp timestamp is the timestamp of the first AU and the AU-Index-delta of the rest is 0 (consecutive AUs).
  */
 class AacPacket(
-  sampleRate: Int
+  sampleRate: Int,
+  maxAggregationDelayMs: Long = 0
 ): BasePacket(
   sampleRate.toLong(),
   RtpConstants.payloadType + RtpConstants.trackAudio
 ) {
 
+  companion object {
+    //AAC LC
+    const val SAMPLES_PER_AU = 1024
+    private const val AU_HEADER_SIZE = 2
+
+    /**
+     * @return max number of AUs in a rtp packet to hold the first AU maxAggregationDelayMs max
+     */
+    fun getMaxAusPerPacket(sampleRate: Int, maxAggregationDelayMs: Long): Int {
+      if (maxAggregationDelayMs <= 0 || sampleRate <= 0) return 1
+      return (maxAggregationDelayMs * sampleRate / (1000L * SAMPLES_PER_AU)).toInt() + 1
+    }
+  }
+
+  private val maxAus = getMaxAusPerPacket(sampleRate, maxAggregationDelayMs)
+  private val auDuration = SAMPLES_PER_AU * 1000000000L / sampleRate
+  //AUs waiting to be sent, only used in aggregation mode
+  private val pendingData = ByteArray(if (maxAus > 1) maxPacketSize else 0)
+  private val pendingSizes = IntArray(maxAus)
+  private var pendingCount = 0
+  private var pendingDataSize = 0
+  private var pendingTs = 0L
+
   init {
     channelIdentifier = RtpConstants.trackAudio
   }
@@ -44,6 +72,10 @@ class AacPacket(
     bufferInfo: MediaCodec.BufferInfo,
     callback: (RtpFrame) -> Unit
   ) {
+    if (maxAus > 1) {
+      aggregateAndSendPacket(byteBuffer, bufferInfo, callback)
+      return
+    }
     val length = bufferInfo.size - byteBuffer.position()
     if (length > 0) {
       val buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 4)
@@ -66,8 +98,84 @@ class AacPacket(
       buffer[RtpConstants.RTP_HEADER_LENGTH + 3] = buffer[RtpConstants.RTP_HEADER_LENGTH + 3] and 0xF8.toByte()
       buffer[RtpConstants.RTP_HEADER_LENGTH + 3] = buffer[RtpConstants.RTP_HEADER_LENGTH + 3] or 0x00
       updateSeq(buffer)
-      val rtpFrame = RtpFrame(buffer, rtpTs, RtpConstants.RTP_HEADER_LENGTH + length + 4, rtpPort, rtcpPort, channelIdentifier)
+      val rtpFrame = RtpFrame(buffer, rtpTs, RtpConstants.RTP_HEADER_LENGTH + length + 4, rtpPort, rtcpPort, channelIdentifier, bufferPool)
       callback(rtpFrame)
     }
   }
-}
\ No newline at end of file
+
+  private fun aggregateAndSendPacket(
+    byteBuffer: ByteBuffer,
+    bufferInfo: MediaCodec.BufferInfo,
+    callback: (RtpFrame) -> Unit
+  ) {
+    val length = bufferInfo.size - byteBuffer.position()
+    if (length <= 0) return
+    val ts = bufferInfo.presentationTimeUs * 1000
+    if (pendingCount > 0) {
+      //AUs must be consecutive (timestamps with jitter) and fit in the MTU with the AU-headers
+      val expectedTs = pendingTs + pendingCount * auDuration
+      val size = RtpConstants.RTP_HEADER_LENGTH + AU_HEADER_SIZE + (pendingCount + 1) * AU_HEADER_SIZE +
+          pendingDataSize + length
+      if (size > maxPacketSize || ts - expectedTs >= auDuration || ts < pendingTs) flush(callback)
+    }
+    if (pendingCount == 0) {
+      if (RtpConstants.RTP_HEADER_LENGTH + 2 * AU_HEADER_SIZE + length > maxPacketSize) {
+        //too big to aggregate, send it alone
+        val buffer = createPacket(length, 1)
+        byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2 * AU_HEADER_SIZE, length)
+        writeAuHeader(buffer, 0, length)
+        sendPacket(buffer, ts, RtpConstants.RTP_HEADER_LENGTH + 2 * AU_HEADER_SIZE + length, callback)
+        return
+      }
+      pendingTs = ts
+    }
+    byteBuffer.get(pendingData, pendingDataSize, length)
+    pendingSizes[pendingCount++] = length
+    pendingDataSize += length
+    if (pendingCount == maxAus) flush(callback)
+  }
+
+  private fun flush(callback: (RtpFrame) -> Unit) {
+    if (pendingCount == 0) return
+    val headersSize = AU_HEADER_SIZE + pendingCount * AU_HEADER_SIZE
+    val buffer = createPacket(pendingDataSize, pendingCount)
+    for (i in 0 until pendingCount) writeAuHeader(buffer, i, pendingSizes[i])
+    System.arraycopy(pendingData, 0, buffer, RtpConstants.RTP_HEADER_LENGTH + headersSize, pendingDataSize)
+    sendPacket(buffer, pendingTs, RtpConstants.RTP_HEADER_LENGTH + headersSize + pendingDataSize, callback)
+    pendingCount = 0
+    pendingDataSize = 0
+  }
+
+  private fun createPacket(dataSize: Int, auCount: Int): ByteArray {
+    val buffer = getBuffer(RtpConstants.RTP_HEADER_LENGTH + AU_HEADER_SIZE + auCount * AU_HEADER_SIZE + dataSize)
+    // AU-headers-length field: size in bits of all AU-headers, 16 bits each one
+    val headersLength = auCount * AU_HEADER_SIZE * 8
+    buffer[RtpConstants.RTP_HEADER_LENGTH] = (headersLength shr 8).toByte()
+    buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = headersLength.toByte()
+    return buffer
+  }
+
+  /**
+   * AU-header: 13 bits of AU-size and 3 bits of AU-Index (first AU) or AU-Index-delta (rest), always 0.
+   */
+  private fun writeAuHeader(buffer: ByteArray, index: Int, size: Int) {
+    val offset = RtpConstants.RTP_HEADER_LENGTH + AU_HEADER_SIZE + index * AU_HEADER_SIZE
+    buffer[offset] = (size shr 5).toByte()
+    buffer[offset + 1] = ((size shl 3) and 0xF8).toByte()
+  }
+
+  private fun sendPacket(buffer: ByteArray, ts: Long, length: Int, callback: (RtpFrame) -> Unit) {
+    //all packets contain complete AUs
+    markPacket(buffer)
+    val rtpTs = updateTimeStamp(buffer, ts)
+    updateSeq(buffer)
+    callback(RtpFrame(buffer, rtpTs, length, rtpPort, rtcpPort, channelIdentifier, bufferPool))
+  }
+
+  override fun reset() {
+    super.reset()
+    //pending AUs are discarded
+    pendingCount = 0
+    pendingDataSize = 0
+  }
+}
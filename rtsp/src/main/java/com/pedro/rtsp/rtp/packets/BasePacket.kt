@@ -17,6 +17,7 @@
 package com.pedro.rtsp.rtp.packets
 
 import android.media.MediaCodec
+import com.pedro.common.BufferPool
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
 import com.pedro.rtsp.utils.setLong
@@ -36,6 +37,8 @@ abstract class BasePacket(private val clock: Long, private val payloadType: Int)
   private var ssrc = 0L
   protected val maxPacketSize = RtpConstants.MTU - 28
   protected val TAG = "BasePacket"
+  //if not null, buffers are obtained from the pool and must be released after send it
+  var bufferPool: BufferPool? = null
 
   abstract fun createAndSendPacket(
     byteBuffer: ByteBuffer,
@@ -58,7 +61,7 @@ abstract class BasePacket(private val clock: Long, private val payloadType: Int)
   }
 
   protected fun getBuffer(size: Int): ByteArray {
-    val buffer = ByteArray(size)
+    val buffer = bufferPool?.obtain(size) ?: ByteArray(size)
     buffer[0] = 0x80.toByte()
     buffer[1] = payloadType.toByte()
     setLongSSRC(buffer, ssrc)
@@ -18,9 +18,9 @@ package com.pedro.rtsp.rtp.packets
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.NalScanner
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
-import com.pedro.rtsp.utils.getVideoStartCodeSize
 import java.nio.ByteBuffer
 import kotlin.experimental.and
 
@@ -40,6 +40,7 @@ class H264Packet(
   private var sendKeyFrame = false
   private var sps: ByteArray? = null
   private var pps: ByteArray? = null
+  private val nalScanner = NalScanner()
 
   init {
     channelIdentifier = RtpConstants.trackVideo
@@ -51,24 +52,30 @@ class H264Packet(
     bufferInfo: MediaCodec.BufferInfo,
     callback: (RtpFrame) -> Unit
   ) {
-    // We read a NAL units from ByteBuffer and we send them
+    // We read all NAL units from ByteBuffer and we send them
     // NAL units are preceded with 0x00000001
     byteBuffer.rewind()
-    val header = ByteArray(getHeaderSize(byteBuffer) + 1)
-    if (header.size == 1) return //invalid buffer or waiting for sps/pps
-    byteBuffer.rewind()
-    byteBuffer.get(header, 0, header.size)
+    if (sps == null || pps == null) return //waiting for sps/pps
+    val nalCount = nalScanner.scan(byteBuffer, 0, bufferInfo.size)
+    if (nalCount == 0) return //invalid buffer
     val ts = bufferInfo.presentationTimeUs * 1000L
-    val naluLength = bufferInfo.size - byteBuffer.position()
-    val type: Int = (header[header.size - 1] and 0x1F).toInt()
-    if (type == RtpConstants.IDR || bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
+    var isKeyFrame = bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+    //last nal of the frame is marked as end frame
+    var lastNal = -1
+    for (i in 0 until nalCount) {
+      val type = nalScanner.getH264Type(i)
+      if (isVideoInfo(i)) continue
+      if (type == RtpConstants.IDR) isKeyFrame = true
+      lastNal = i
+    }
+    if (isKeyFrame) {
       stapA?.let {
         val buffer = getBuffer(it.size + RtpConstants.RTP_HEADER_LENGTH)
         val rtpTs = updateTimeStamp(buffer, ts)
-        markPacket(buffer) //mark end frame
+        //not marked, the frame continues with the slices
         System.arraycopy(it, 0, buffer, RtpConstants.RTP_HEADER_LENGTH, it.size)
         updateSeq(buffer)
-        val rtpFrame = RtpFrame(buffer, rtpTs, it.size + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort, channelIdentifier)
+        val rtpFrame = RtpFrame(buffer, rtpTs, it.size + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort, channelIdentifier, bufferPool)
         callback(rtpFrame)
         sendKeyFrame = true
       } ?: run {
@@ -76,47 +83,31 @@ class H264Packet(
       }
     }
     if (sendKeyFrame) {
-      // Small NAL unit => Single NAL unit
-      if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 1) {
-        val buffer = getBuffer(naluLength + RtpConstants.RTP_HEADER_LENGTH + 1)
-        buffer[RtpConstants.RTP_HEADER_LENGTH] = header[header.size - 1]
-        byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 1, naluLength)
-        val rtpTs = updateTimeStamp(buffer, ts)
-        markPacket(buffer) //mark end frame
-        updateSeq(buffer)
-        val rtpFrame = RtpFrame(buffer, rtpTs, buffer.size, rtpPort, rtcpPort, channelIdentifier)
-        callback(rtpFrame)
-      } else {
-        // Set FU-A header
-        header[1] = header[header.size - 1] and 0x1F // FU header type
-        header[1] = header[1].plus(0x80).toByte()  // set start bit to 1
-        // Set FU-A indicator
-        header[0] = header[header.size - 1] and 0x60 and 0xFF.toByte() // FU indicator NRI
-        header[0] = header[0].plus(28).toByte()
-        var sum = 0
-        while (sum < naluLength) {
-          val length = if (naluLength - sum > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2) {
-            maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2
-          } else {
-            bufferInfo.size - byteBuffer.position()
-          }
-          val buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 2)
-          buffer[RtpConstants.RTP_HEADER_LENGTH] = header[0]
-          buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[1]
-          val rtpTs = updateTimeStamp(buffer, ts)
-          byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, length)
-          sum += length
-          // Last packet before next NAL
-          if (sum >= naluLength) {
-            // End bit on
-            buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = buffer[RtpConstants.RTP_HEADER_LENGTH + 1].plus(0x40).toByte()
-            markPacket(buffer) //mark end frame
+      var i = 0
+      while (i <= lastNal) {
+        if (isVideoInfo(i)) {
+          i++
+          continue
+        }
+        //consecutive small nal units (SEI, AUD, small slices) are sent in the same STAP-A packet
+        var aggregatedSize = 1 //STAP-A nal header
+        var aggregatedCount = 0
+        var end = i
+        while (end <= lastNal) {
+          if (!isVideoInfo(end)) {
+            val size = 2 + nalScanner.getSize(end)
+            if (aggregatedSize + size > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH) break
+            aggregatedSize += size
+            aggregatedCount++
           }
-          updateSeq(buffer)
-          val rtpFrame = RtpFrame(buffer, rtpTs, buffer.size, rtpPort, rtcpPort, channelIdentifier)
-          callback(rtpFrame)
-          // Switch start bit
-          header[1] = header[1] and 0x7F
+          end++
+        }
+        if (aggregatedCount > 1) {
+          sendStapA(i, end, aggregatedSize, ts, end > lastNal, callback)
+          i = end
+        } else {
+          sendNal(byteBuffer, i, ts, i == lastNal, callback)
+          i++
         }
       }
     } else {
@@ -124,6 +115,89 @@ class H264Packet(
     }
   }
 
+  private fun isVideoInfo(index: Int): Boolean {
+    // sps and pps are sent in the STAP-A of keyframes so we don't need send it
+    val type = nalScanner.getH264Type(index)
+    return type == RtpConstants.SPS || type == RtpConstants.PPS
+  }
+
+  /**
+   * RFC 6184 STAP-A with nal units from start (inclusive) to end (exclusive).
+   */
+  private fun sendStapA(start: Int, end: Int, aggregatedSize: Int, ts: Long, isLast: Boolean, callback: (RtpFrame) -> Unit) {
+    val buffer = getBuffer(aggregatedSize + RtpConstants.RTP_HEADER_LENGTH)
+    var forbiddenBit = 0
+    var nri = 0
+    var offset = RtpConstants.RTP_HEADER_LENGTH + 1
+    for (i in start until end) {
+      if (isVideoInfo(i)) continue
+      val size = nalScanner.getSize(i)
+      buffer[offset] = (size shr 8).toByte()
+      buffer[offset + 1] = (size and 0xFF).toByte()
+      nalScanner.copyTo(i, buffer, offset + 2)
+      val nalHeader = buffer[offset + 2].toInt()
+      forbiddenBit = forbiddenBit or (nalHeader and 0x80)
+      nri = maxOf(nri, nalHeader and 0x60)
+      offset += 2 + size
+    }
+    // STAP-A NAL header is 24 with the max NRI of the aggregated units
+    buffer[RtpConstants.RTP_HEADER_LENGTH] = (forbiddenBit or nri or 24).toByte()
+    val rtpTs = updateTimeStamp(buffer, ts)
+    if (isLast) markPacket(buffer) //mark end frame
+    updateSeq(buffer)
+    val rtpFrame = RtpFrame(buffer, rtpTs, aggregatedSize + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort, channelIdentifier, bufferPool)
+    callback(rtpFrame)
+  }
+
+  private fun sendNal(byteBuffer: ByteBuffer, index: Int, ts: Long, isLast: Boolean, callback: (RtpFrame) -> Unit) {
+    val nalHeader = byteBuffer.get(nalScanner.getStart(index))
+    val naluLength = nalScanner.getSize(index) - 1
+    byteBuffer.position(nalScanner.getStart(index) + 1)
+    // Small NAL unit => Single NAL unit
+    if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 1) {
+      val buffer = getBuffer(naluLength + RtpConstants.RTP_HEADER_LENGTH + 1)
+      buffer[RtpConstants.RTP_HEADER_LENGTH] = nalHeader
+      byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 1, naluLength)
+      val rtpTs = updateTimeStamp(buffer, ts)
+      if (isLast) markPacket(buffer) //mark end frame
+      updateSeq(buffer)
+      val rtpFrame = RtpFrame(buffer, rtpTs, naluLength + RtpConstants.RTP_HEADER_LENGTH + 1, rtpPort, rtcpPort, channelIdentifier, bufferPool)
+      callback(rtpFrame)
+    } else {
+      // Set FU-A header
+      var fuHeader = nalHeader and 0x1F // FU header type
+      fuHeader = fuHeader.plus(0x80).toByte()  // set start bit to 1
+      // Set FU-A indicator
+      var fuIndicator = nalHeader and 0x60 and 0xFF.toByte() // FU indicator NRI
+      fuIndicator = fuIndicator.plus(28).toByte()
+      var sum = 0
+      while (sum < naluLength) {
+        val length = if (naluLength - sum > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2) {
+          maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2
+        } else {
+          naluLength - sum
+        }
+        val buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 2)
+        buffer[RtpConstants.RTP_HEADER_LENGTH] = fuIndicator
+        buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = fuHeader
+        val rtpTs = updateTimeStamp(buffer, ts)
+        byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, length)
+        sum += length
+        // Last packet before next NAL
+        if (sum >= naluLength) {
+          // End bit on
+          buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = buffer[RtpConstants.RTP_HEADER_LENGTH + 1].plus(0x40).toByte()
+          if (isLast) markPacket(buffer) //mark end frame
+        }
+        updateSeq(buffer)
+        val rtpFrame = RtpFrame(buffer, rtpTs, length + RtpConstants.RTP_HEADER_LENGTH + 2, rtpPort, rtcpPort, channelIdentifier, bufferPool)
+        callback(rtpFrame)
+        // Switch start bit
+        fuHeader = fuHeader and 0x7F
+      }
+    }
+  }
+
   private fun setSpsPps(sps: ByteArray, pps: ByteArray) {
     this.sps = sps
     this.pps = pps
@@ -146,30 +220,6 @@ class H264Packet(
     }
   }
 
-  private fun getHeaderSize(byteBuffer: ByteBuffer): Int {
-    if (byteBuffer.remaining() < 4) return 0
-
-    val sps = this.sps
-    val pps = this.pps
-    if (sps != null && pps != null) {
-      val startCodeSize = byteBuffer.getVideoStartCodeSize()
-      if (startCodeSize == 0) return 0
-      val startCode = ByteArray(startCodeSize) { 0x00 }
-      startCode[startCodeSize - 1] = 0x01
-      val avcHeader = startCode.plus(sps).plus(startCode).plus(pps).plus(startCode)
-      if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
-
-      val possibleAvcHeader = ByteArray(avcHeader.size)
-      byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
-      return if (avcHeader.contentEquals(possibleAvcHeader)) {
-        avcHeader.size
-      } else {
-        startCodeSize
-      }
-    }
-    return 0
-  }
-
   override fun reset() {
     super.reset()
     sendKeyFrame = false
@@ -18,6 +18,7 @@ package com.pedro.rtsp.rtp.packets
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.NalScanner
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
 import java.nio.ByteBuffer
@@ -37,9 +38,10 @@ class H265Packet(
   RtpConstants.payloadType + RtpConstants.trackVideo
 ) {
 
-  private val header = ByteArray(6)
+  private val header = ByteArray(3)
   private var stapA: ByteArray? = null
   private var sendKeyFrame = false
+  private val nalScanner = NalScanner()
 
   init {
     channelIdentifier = RtpConstants.trackVideo
@@ -51,21 +53,29 @@ class H265Packet(
     bufferInfo: MediaCodec.BufferInfo,
     callback: (RtpFrame) -> Unit
   ) {
-    // We read a NAL units from ByteBuffer and we send them
+    // We read all NAL units from ByteBuffer and we send them
     // NAL units are preceded with 0x00000001
     byteBuffer.rewind()
-    byteBuffer.get(header, 0, 6)
+    val nalCount = nalScanner.scan(byteBuffer, 0, bufferInfo.size)
+    if (nalCount == 0) return //invalid buffer
     val ts = bufferInfo.presentationTimeUs * 1000L
-    val naluLength = bufferInfo.size - byteBuffer.position()
-    val type: Int = header[4].toInt().shr(1 and 0x3f)
-    if (type == RtpConstants.IDR_N_LP || type == RtpConstants.IDR_W_DLP || bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
+    var isKeyFrame = bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+    //last nal of the frame is marked as end frame
+    var lastNal = -1
+    for (i in 0 until nalCount) {
+      if (isSkipped(i)) continue
+      val type = nalScanner.getH265Type(i)
+      if (type == RtpConstants.IDR_N_LP || type == RtpConstants.IDR_W_DLP) isKeyFrame = true
+      lastNal = i
+    }
+    if (isKeyFrame) {
       stapA?.let {
         val buffer = getBuffer(it.size + RtpConstants.RTP_HEADER_LENGTH)
         val rtpTs = updateTimeStamp(buffer, ts)
-        markPacket(buffer) //mark end frame
+        //not marked, the frame continues with the slices
         System.arraycopy(it, 0, buffer, RtpConstants.RTP_HEADER_LENGTH, it.size)
         updateSeq(buffer)
-        val rtpFrame = RtpFrame(buffer, rtpTs, it.size + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort, channelIdentifier)
+        val rtpFrame = RtpFrame(buffer, rtpTs, it.size + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort, channelIdentifier, bufferPool)
         callback(rtpFrame)
         sendKeyFrame = true
       } ?: run {
@@ -73,77 +83,160 @@ class H265Packet(
       }
     }
     if (sendKeyFrame) {
-      // Small NAL unit => Single NAL unit
-      if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2) {
-        val buffer = getBuffer(naluLength + RtpConstants.RTP_HEADER_LENGTH + 2)
-        //Set PayloadHdr (exact copy of nal unit header)
-        buffer[RtpConstants.RTP_HEADER_LENGTH] = header[4]
-        buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[5]
-        byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, naluLength)
+      var i = 0
+      while (i <= lastNal) {
+        if (isSkipped(i)) {
+          i++
+          continue
+        }
+        //consecutive small nal units (SEI, AUD, small slices) are sent in the same AP packet
+        var aggregatedSize = 2 //AP payload header
+        var aggregatedCount = 0
+        var end = i
+        while (end <= lastNal) {
+          if (!isSkipped(end)) {
+            val size = 2 + nalScanner.getSize(end)
+            if (aggregatedSize + size > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH) break
+            aggregatedSize += size
+            aggregatedCount++
+          }
+          end++
+        }
+        if (aggregatedCount > 1) {
+          sendAp(i, end, aggregatedSize, ts, end > lastNal, callback)
+          i = end
+        } else {
+          sendNal(byteBuffer, i, ts, i == lastNal, callback)
+          i++
+        }
+      }
+    } else {
+      Log.i(TAG, "waiting for keyframe")
+    }
+  }
+
+  private fun isSkipped(index: Int): Boolean {
+    //nal units without a complete header are invalid
+    if (nalScanner.getSize(index) < 2) return true
+    // vps, sps and pps are sent in the AP of keyframes so we don't need send it
+    val type = nalScanner.getH265Type(index)
+    return type == RtpConstants.VPS || type == RtpConstants.H265_SPS || type == RtpConstants.H265_PPS
+  }
+
+  /**
+   * RFC 7798 AP with nal units from start (inclusive) to end (exclusive).
+   */
+  private fun sendAp(start: Int, end: Int, aggregatedSize: Int, ts: Long, isLast: Boolean, callback: (RtpFrame) -> Unit) {
+    val buffer = getBuffer(aggregatedSize + RtpConstants.RTP_HEADER_LENGTH)
+    var forbiddenBit = 0
+    var layerId = 0x3F
+    var tid = 0x07
+    var offset = RtpConstants.RTP_HEADER_LENGTH + 2
+    for (i in start until end) {
+      if (isSkipped(i)) continue
+      val size = nalScanner.getSize(i)
+      buffer[offset] = (size shr 8).toByte()
+      buffer[offset + 1] = (size and 0xFF).toByte()
+      nalScanner.copyTo(i, buffer, offset + 2)
+      val nalHeader0 = buffer[offset + 2].toInt() and 0xFF
+      val nalHeader1 = buffer[offset + 3].toInt() and 0xFF
+      forbiddenBit = forbiddenBit or (nalHeader0 and 0x80)
+      layerId = minOf(layerId, ((nalHeader0 and 0x01) shl 5) or (nalHeader1 shr 3))
+      tid = minOf(tid, nalHeader1 and 0x07)
+      offset += 2 + size
+    }
+    //Set PayloadHdr (16bit type=48) with the lowest LayerId and TID of the aggregated units
+    buffer[RtpConstants.RTP_HEADER_LENGTH] = (forbiddenBit or (48 shl 1) or (layerId shr 5)).toByte()
+    buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = (((layerId and 0x1F) shl 3) or tid).toByte()
+    val rtpTs = updateTimeStamp(buffer, ts)
+    if (isLast) markPacket(buffer) //mark end frame
+    updateSeq(buffer)
+    val rtpFrame = RtpFrame(buffer, rtpTs, aggregatedSize + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort, channelIdentifier, bufferPool)
+    callback(rtpFrame)
+  }
+
+  private fun sendNal(byteBuffer: ByteBuffer, index: Int, ts: Long, isLast: Boolean, callback: (RtpFrame) -> Unit) {
+    val start = nalScanner.getStart(index)
+    val naluLength = nalScanner.getSize(index) - 2
+    val nalHeader0 = byteBuffer.get(start)
+    val nalHeader1 = byteBuffer.get(start + 1)
+    byteBuffer.position(start + 2)
+    // Small NAL unit => Single NAL unit
+    if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2) {
+      val buffer = getBuffer(naluLength + RtpConstants.RTP_HEADER_LENGTH + 2)
+      //Set PayloadHdr (exact copy of nal unit header)
+      buffer[RtpConstants.RTP_HEADER_LENGTH] = nalHeader0
+      buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = nalHeader1
+      byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, naluLength)
+      val rtpTs = updateTimeStamp(buffer, ts)
+      if (isLast) markPacket(buffer) //mark end frame
+      updateSeq(buffer)
+      val rtpFrame = RtpFrame(buffer, rtpTs, naluLength + RtpConstants.RTP_HEADER_LENGTH + 2, rtpPort, rtcpPort, channelIdentifier, bufferPool)
+      callback(rtpFrame)
+    } else {
+      val type = nalScanner.getH265Type(index)
+      //Set PayloadHdr (16bit type=49)
+      header[0] = (49 shl 1).toByte()
+      header[1] = 1
+      // Set FU header
+      //   +---------------+
+      //   |0|1|2|3|4|5|6|7|
+      //   +-+-+-+-+-+-+-+-+
+      //   |S|E|  FuType   |
+      //   +---------------+
+      header[2] = type.toByte() // FU header type
+      header[2] = header[2].plus(0x80).toByte() // Start bit
+      var sum = 0
+      while (sum < naluLength) {
+        val length = if (naluLength - sum > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3) {
+          maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3
+        } else {
+          naluLength - sum
+        }
+        val buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 3)
+        buffer[RtpConstants.RTP_HEADER_LENGTH] = header[0]
+        buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[1]
+        buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = header[2]
         val rtpTs = updateTimeStamp(buffer, ts)
-        markPacket(buffer) //mark end frame
+        byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 3, length)
+        sum += length
+        // Last packet before next NAL
+        if (sum >= naluLength) {
+          // End bit on
+          buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = buffer[RtpConstants.RTP_HEADER_LENGTH + 2].plus(0x40).toByte()
+          if (isLast) markPacket(buffer) //mark end frame
+        }
         updateSeq(buffer)
-        val rtpFrame = RtpFrame(buffer, rtpTs, buffer.size, rtpPort, rtcpPort, channelIdentifier)
+        val rtpFrame = RtpFrame(buffer, rtpTs, length + RtpConstants.RTP_HEADER_LENGTH + 3, rtpPort, rtcpPort, channelIdentifier, bufferPool)
         callback(rtpFrame)
-      } else {
-        //Set PayloadHdr (16bit type=49)
-        header[0] = (49 shl 1).toByte()
-        header[1] = 1
-        // Set FU header
-        //   +---------------+
-        //   |0|1|2|3|4|5|6|7|
-        //   +-+-+-+-+-+-+-+-+
-        //   |S|E|  FuType   |
-        //   +---------------+
-        header[2] = type.toByte() // FU header type
-        header[2] = header[2].plus(0x80).toByte() // Start bit
-        var sum = 0
-        while (sum < naluLength) {
-          val length = if (naluLength - sum > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3) {
-            maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3
-          } else {
-            bufferInfo.size - byteBuffer.position()
-          }
-          val buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 3)
-          buffer[RtpConstants.RTP_HEADER_LENGTH] = header[0]
-          buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[1]
-          buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = header[2]
-          val rtpTs = updateTimeStamp(buffer, ts)
-          byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 3, length)
-          sum += length
-          // Last packet before next NAL
-          if (sum >= naluLength) {
-            // End bit on
-            buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = buffer[RtpConstants.RTP_HEADER_LENGTH + 2].plus(0x40).toByte()
-            markPacket(buffer) //mark end frame
-          }
-          updateSeq(buffer)
-          val rtpFrame = RtpFrame(buffer, rtpTs, buffer.size, rtpPort, rtcpPort, channelIdentifier)
-          callback(rtpFrame)
-          // Switch start bit
-          header[2] = header[2] and 0x7F
-        }
+        // Switch start bit
+        header[2] = header[2] and 0x7F
       }
     }
   }
 
   private fun setSpsPpsVps(sps: ByteArray, pps: ByteArray, vps: ByteArray) {
-    stapA = ByteArray(sps.size + pps.size + 6)
+    stapA = ByteArray(vps.size + sps.size + pps.size + 8)
     stapA?.let {
       it[0] = (48 shl 1).toByte()
       it[1] = 1
 
-      // Write NALU 1 size into the array (NALU 1 is the SPS).
-      it[2] = (sps.size shr 8).toByte()
-      it[3] = (sps.size and 0xFF).toByte()
+      // Write NALU 1 size into the array (NALU 1 is the VPS).
+      it[2] = (vps.size shr 8).toByte()
+      it[3] = (vps.size and 0xFF).toByte()
+
+      // Write NALU 2 size into the array (NALU 2 is the SPS).
+      it[vps.size + 4] = (sps.size shr 8).toByte()
+      it[vps.size + 5] = (sps.size and 0xFF).toByte()
 
-      // Write NALU 2 size into the array (NALU 2 is the PPS).
-      it[sps.size + 4] = (pps.size shr 8).toByte()
-      it[sps.size + 5] = (pps.size and 0xFF).toByte()
+      // Write NALU 3 size into the array (NALU 3 is the PPS).
+      it[vps.size + sps.size + 6] = (pps.size shr 8).toByte()
+      it[vps.size + sps.size + 7] = (pps.size and 0xFF).toByte()
 
-      // Write NALU 1 into the array, then write NALU 2 into the array.
-      System.arraycopy(sps, 0, it, 4, sps.size)
-      System.arraycopy(pps, 0, it, 6 + sps.size, pps.size)
+      // Write NALU 1, NALU 2 and NALU 3 into the array (RFC 7798 order).
+      System.arraycopy(vps, 0, it, 4, vps.size)
+      System.arraycopy(sps, 0, it, 6 + vps.size, sps.size)
+      System.arraycopy(pps, 0, it, 8 + vps.size + sps.size, pps.size)
     }
   }
 
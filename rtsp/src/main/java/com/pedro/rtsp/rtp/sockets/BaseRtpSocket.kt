@@ -45,5 +45,13 @@ abstract class BaseRtpSocket {
   @Throws(IOException::class)
   abstract suspend fun sendFrame(rtpFrame: RtpFrame, isEnableLogs: Boolean)
 
+  /**
+   * Send multiple frames in order. By default, frames are sent one by one.
+   */
+  @Throws(IOException::class)
+  open suspend fun sendFrames(rtpFrames: List<RtpFrame>, isEnableLogs: Boolean) {
+    rtpFrames.forEach { sendFrame(it, isEnableLogs) }
+  }
+
   abstract fun close()
 }
\ No newline at end of file
@@ -19,28 +19,87 @@ package com.pedro.rtsp.rtp.sockets
 import android.util.Log
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
+import com.pedro.rtsp.utils.TimeUtils
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
 import java.io.IOException
 import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
 
 /**
  * Created by pedro on 7/11/18.
+ *
+ * If a channel is provided, packets are queued and written with a single gathering write per access unit
+ * (RTP marker bit), when maxBatchBytes is reached or maxBatchDelayMs after the first queued packet, even if no more
+ * packets are sent. Otherwise, each packet is written in the stream.
  */
-class RtpSocketTcp : BaseRtpSocket() {
+class RtpSocketTcp(
+  private val maxBatchBytes: Int = DEFAULT_MAX_BATCH_BYTES,
+  private val maxBatchDelayMs: Long = DEFAULT_MAX_BATCH_DELAY_MS
+) : BaseRtpSocket() {
+
+  companion object {
+    const val DEFAULT_MAX_BATCH_BYTES = 64 * 1024
+    const val DEFAULT_MAX_BATCH_DELAY_MS = 20L
+    private const val MAX_BATCH_PACKETS = 256
+  }
 
   private var outputStream: OutputStream? = null
   private val tcpHeader: ByteArray = byteArrayOf('$'.code.toByte(), 0, 0, 0)
+  private var channel: GatheringByteChannel? = null
+  //header and payload of each pending packet
+  private val tcpHeaders = Array(MAX_BATCH_PACKETS) { ByteBuffer.allocate(4) }
+  private val pendingBuffers = Array<ByteBuffer>(MAX_BATCH_PACKETS * 2) { tcpHeaders[0] }
+  private val pendingFrames = arrayOfNulls<RtpFrame>(MAX_BATCH_PACKETS)
+  private var pendingPackets = 0
+  private var pendingBytes = 0
+  private var firstPendingTs = 0L
+  private val scope = CoroutineScope(Dispatchers.IO)
+  //write the batch when maxBatchDelayMs is reached without more packets
+  private var flushJob: Job? = null
+  //error writing a batch with the timer, thrown in the next sendFrame
+  private var flushError: IOException? = null
+  /**
+   * Number of write calls done in the channel or stream. Useful to know the syscalls per frame
+   */
+  var writeCalls: Long = 0
+    private set
 
   @Throws(IOException::class)
   override fun setDataStream(outputStream: OutputStream, host: String) {
     this.outputStream = outputStream
   }
 
+  /**
+   * Use gathering writes in the channel instead of the stream. The channel must be in blocking mode.
+   */
+  fun setDataChannel(channel: GatheringByteChannel) {
+    this.channel = channel
+  }
+
   @Throws(IOException::class)
   override suspend fun sendFrame(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
-    sendFrameTCP(rtpFrame, isEnableLogs)
+    val channel = this.channel
+    if (channel != null) {
+      queueFrameTCP(channel, rtpFrame, isEnableLogs)
+    } else {
+      sendFrameTCP(rtpFrame, isEnableLogs)
+    }
   }
 
-  override fun close() {}
+  override fun close() {
+    synchronized(RtpConstants.lock) {
+      flushJob?.cancel()
+      flushJob = null
+      flushError = null
+      discardPending()
+    }
+  }
 
   @Throws(IOException::class)
   private fun sendFrameTCP(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
@@ -52,9 +111,88 @@ class RtpSocketTcp : BaseRtpSocket() {
       outputStream?.write(tcpHeader)
       outputStream?.write(rtpFrame.buffer, 0, len)
       outputStream?.flush()
+      writeCalls += 2
       if (isEnableLogs) {
         Log.i(TAG, "wrote packet: ${(if (rtpFrame.isVideoFrame()) "Video" else "Audio")}, size: ${len + tcpHeader.size}")
       }
     }
   }
-}
\ No newline at end of file
+
+  @Throws(IOException::class)
+  private fun queueFrameTCP(channel: GatheringByteChannel, rtpFrame: RtpFrame, isEnableLogs: Boolean) {
+    synchronized(RtpConstants.lock) {
+      flushError?.let {
+        flushError = null
+        throw it
+      }
+      val len = rtpFrame.length
+      val header = tcpHeaders[pendingPackets]
+      header.clear()
+      header.put('$'.code.toByte())
+      header.put((2 * rtpFrame.channelIdentifier).toByte())
+      header.put((len shr 8).toByte())
+      header.put((len and 0xFF).toByte())
+      header.flip()
+      pendingBuffers[pendingPackets * 2] = header
+      pendingBuffers[pendingPackets * 2 + 1] = ByteBuffer.wrap(rtpFrame.buffer, 0, len)
+      //the frame is released by the sender after this call so keep it until written
+      pendingFrames[pendingPackets] = rtpFrame.retain()
+      val currentTs = TimeUtils.getCurrentTimeMillis()
+      if (pendingPackets == 0) {
+        firstPendingTs = currentTs
+        scheduleFlush(channel, isEnableLogs)
+      }
+      pendingPackets++
+      pendingBytes += len + header.limit()
+
+      val endOfAccessUnit = (rtpFrame.buffer[1].toInt() and 0x80) != 0
+      if (endOfAccessUnit || pendingBytes >= maxBatchBytes || pendingPackets == MAX_BATCH_PACKETS
+        || currentTs - firstPendingTs >= maxBatchDelayMs) {
+        writePending(channel, isEnableLogs)
+      }
+    }
+  }
+
+  //must be called with RtpConstants.lock locked
+  private fun scheduleFlush(channel: GatheringByteChannel, isEnableLogs: Boolean) {
+    flushJob?.cancel()
+    flushJob = scope.launch {
+      delay(maxBatchDelayMs)
+      synchronized(RtpConstants.lock) {
+        //the batch was written by sendFrame or a new batch started
+        if (!isActive || pendingPackets == 0) return@synchronized
+        try {
+          writePending(channel, isEnableLogs)
+        } catch (e: IOException) {
+          Log.e(TAG, "write batch failed: ${e.message}")
+          flushError = e
+        }
+      }
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun writePending(channel: GatheringByteChannel, isEnableLogs: Boolean) {
+    val count = pendingPackets * 2
+    var index = 0
+    while (index < count) {
+      channel.write(pendingBuffers, index, count - index)
+      writeCalls++
+      while (index < count && !pendingBuffers[index].hasRemaining()) index++
+    }
+    if (isEnableLogs) {
+      Log.i(TAG, "wrote packets: $pendingPackets, size: $pendingBytes")
+    }
+    discardPending()
+  }
+
+  private fun discardPending() {
+    for (i in 0 until pendingPackets) {
+      pendingFrames[i]?.release()
+      pendingFrames[i] = null
+      pendingBuffers[i * 2 + 1] = tcpHeaders[0]
+    }
+    pendingPackets = 0
+    pendingBytes = 0
+  }
+}
@@ -17,16 +17,21 @@
 package com.pedro.rtsp.rtp.sockets
 
 import android.util.Log
+import com.pedro.common.DatagramBatchWriter
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
 import java.io.IOException
 import java.io.OutputStream
 import java.net.DatagramPacket
 import java.net.InetAddress
+import java.net.InetSocketAddress
 import java.net.MulticastSocket
+import java.nio.channels.DatagramChannel
 
 /**
  * Created by pedro on 7/11/18.
+ *
+ * If no multicast sockets are provided, frames are sent using a DatagramChannel per track in batches.
  */
 class RtpSocketUdp(
   videoSourcePort: Int, audioSourcePort: Int,
@@ -35,34 +40,89 @@ class RtpSocketUdp(
 ) : BaseRtpSocket() {
 
   private val datagramPacket = DatagramPacket(byteArrayOf(0), 1)
+  private var channelVideo: DatagramChannel? = null
+  private var channelAudio: DatagramChannel? = null
+  private val batchVideo = DatagramBatchWriter(RtpConstants.MTU)
+  private val batchAudio = DatagramBatchWriter(RtpConstants.MTU)
+  private var address: InetAddress? = null
+  //destinations by port, avoid create an address per frame
+  private val destinations = HashMap<Int, InetSocketAddress>()
+  //destination ports of each track. If not set, the port of each frame is used
+  private var videoPort = 0
+  private var audioPort = 0
 
   init {
-    if (multicastSocketVideo == null) multicastSocketVideo = MulticastSocket(videoSourcePort)
-    multicastSocketVideo?.timeToLive = 64
-    if (multicastSocketAudio == null) multicastSocketAudio = MulticastSocket(audioSourcePort)
-    multicastSocketAudio?.timeToLive = 64
+    if (multicastSocketVideo == null && multicastSocketAudio == null) {
+      channelVideo = openChannel(videoSourcePort)
+      channelAudio = openChannel(audioSourcePort)
+    } else {
+      if (multicastSocketVideo == null) multicastSocketVideo = MulticastSocket(videoSourcePort)
+      multicastSocketVideo?.timeToLive = 64
+      if (multicastSocketAudio == null) multicastSocketAudio = MulticastSocket(audioSourcePort)
+      multicastSocketAudio?.timeToLive = 64
+    }
   }
 
   @Throws(IOException::class)
   override fun setDataStream(outputStream: OutputStream, host: String) {
-    datagramPacket.address = InetAddress.getByName(host)
+    val address = InetAddress.getByName(host)
+    this.address = address
+    datagramPacket.address = address
+    destinations.clear()
+  }
+
+  /**
+   * Frames shared by multiple senders have not the ports of this destination.
+   */
+  fun setVideoPort(port: Int) {
+    videoPort = port
+  }
+
+  fun setAudioPort(port: Int) {
+    audioPort = port
+  }
+
+  private fun getPort(rtpFrame: RtpFrame): Int {
+    val port = if (rtpFrame.isVideoFrame()) videoPort else audioPort
+    return if (port > 0) port else rtpFrame.rtpPort
   }
 
   @Throws(IOException::class)
   override suspend fun sendFrame(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
-    sendFrameUDP(rtpFrame, isEnableLogs)
+    if (channelVideo != null && channelAudio != null) {
+      sendFrameChannelUDP(rtpFrame, isEnableLogs)
+    } else {
+      sendFrameUDP(rtpFrame, isEnableLogs)
+    }
+  }
+
+  @Throws(IOException::class)
+  override suspend fun sendFrames(rtpFrames: List<RtpFrame>, isEnableLogs: Boolean) {
+    if (channelVideo != null && channelAudio != null) {
+      sendFramesUDP(rtpFrames, isEnableLogs)
+    } else {
+      rtpFrames.forEach { sendFrameUDP(it, isEnableLogs) }
+    }
   }
 
   override fun close() {
     multicastSocketVideo?.close()
     multicastSocketAudio?.close()
+    channelVideo?.close()
+    channelAudio?.close()
+  }
+
+  private fun openChannel(port: Int): DatagramChannel {
+    val channel = DatagramChannel.open()
+    channel.socket().bind(InetSocketAddress(port))
+    return channel
   }
 
   @Throws(IOException::class)
   private fun sendFrameUDP(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
     synchronized(RtpConstants.lock) {
       datagramPacket.data = rtpFrame.buffer
-      datagramPacket.port = rtpFrame.rtpPort
+      datagramPacket.port = getPort(rtpFrame)
       datagramPacket.length = rtpFrame.length
       if (rtpFrame.isVideoFrame()) {
         multicastSocketVideo?.send(datagramPacket)
@@ -70,8 +130,49 @@ class RtpSocketUdp(
         multicastSocketAudio?.send(datagramPacket)
       }
       if (isEnableLogs) {
-        Log.i(TAG, "wrote packet: ${(if (rtpFrame.isVideoFrame()) "Video" else "Audio")}, size: ${rtpFrame.length}, port: ${rtpFrame.rtpPort}")
+        Log.i(TAG, "wrote packet: ${(if (rtpFrame.isVideoFrame()) "Video" else "Audio")}, size: ${rtpFrame.length}, port: ${datagramPacket.port}")
+      }
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun sendFrameChannelUDP(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
+    val channelVideo = this.channelVideo ?: return
+    val channelAudio = this.channelAudio ?: return
+    synchronized(RtpConstants.lock) {
+      addToBatch(rtpFrame, channelVideo, channelAudio, isEnableLogs)
+      if (rtpFrame.isVideoFrame()) batchVideo.flush(channelVideo) else batchAudio.flush(channelAudio)
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun sendFramesUDP(rtpFrames: List<RtpFrame>, isEnableLogs: Boolean) {
+    val channelVideo = this.channelVideo ?: return
+    val channelAudio = this.channelAudio ?: return
+    synchronized(RtpConstants.lock) {
+      for (i in rtpFrames.indices) {
+        addToBatch(rtpFrames[i], channelVideo, channelAudio, isEnableLogs)
       }
+      batchVideo.flush(channelVideo)
+      batchAudio.flush(channelAudio)
+    }
+  }
+
+  //must be called with RtpConstants.lock locked
+  @Throws(IOException::class)
+  private fun addToBatch(rtpFrame: RtpFrame, channelVideo: DatagramChannel, channelAudio: DatagramChannel,
+    isEnableLogs: Boolean) {
+    val isVideo = rtpFrame.isVideoFrame()
+    val batch = if (isVideo) batchVideo else batchAudio
+    if (batch.isFull()) batch.flush(if (isVideo) channelVideo else channelAudio)
+    val port = getPort(rtpFrame)
+    batch.add(rtpFrame.buffer, 0, rtpFrame.length, getDestination(port))
+    if (isEnableLogs) {
+      Log.i(TAG, "wrote packet: ${(if (isVideo) "Video" else "Audio")}, size: ${rtpFrame.length}, port: $port")
     }
   }
-}
\ No newline at end of file
+
+  private fun getDestination(port: Int): InetSocketAddress {
+    return destinations.getOrPut(port) { InetSocketAddress(address, port) }
+  }
+}
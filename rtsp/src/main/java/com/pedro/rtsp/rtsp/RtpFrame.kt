@@ -16,16 +16,39 @@
 
 package com.pedro.rtsp.rtsp
 
+import com.pedro.common.BufferPool
 import com.pedro.rtsp.utils.RtpConstants
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Created by pedro on 7/11/18.
+ *
+ * @param pool pool that provided buffer. If not null, buffer is returned to the pool when all references are released.
+ * buffer could be bigger than length when pooled.
  */
-data class RtpFrame(val buffer: ByteArray, val timeStamp: Long, val length: Int,
-                    val rtpPort: Int, val rtcpPort: Int, val channelIdentifier: Int) {
+class RtpFrame(val buffer: ByteArray, val timeStamp: Long, val length: Int,
+                    val rtpPort: Int, val rtcpPort: Int, val channelIdentifier: Int,
+                    val pool: BufferPool? = null) {
+
+  private val references = AtomicInteger(1)
 
   fun isVideoFrame(): Boolean = channelIdentifier == RtpConstants.trackVideo
 
+  /**
+   * Add a reference to the frame. Each call must be followed by a release call.
+   */
+  fun retain(): RtpFrame {
+    references.incrementAndGet()
+    return this
+  }
+
+  /**
+   * Remove a reference to the frame. The buffer is returned to the pool when all references are released.
+   */
+  fun release() {
+    if (references.decrementAndGet() == 0) pool?.release(buffer)
+  }
+
   override fun equals(other: Any?): Boolean {
     if (this === other) return true
     if (javaClass != other?.javaClass) return false
@@ -18,8 +18,14 @@ package com.pedro.rtsp.rtsp
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.BufferPool
+import com.pedro.common.DropPolicy
+import com.pedro.common.DropStats
+import com.pedro.rtsp.rtcp.BaseSenderReport
+import com.pedro.rtsp.rtcp.ReceiverStats
 import com.pedro.rtsp.rtsp.commands.CommandsManager
 import com.pedro.rtsp.rtsp.commands.Method
+import com.pedro.rtsp.utils.AbrController
 import com.pedro.rtsp.utils.ConnectCheckerRtsp
 import com.pedro.rtsp.utils.CreateSSLSocket.createSSlSocket
 import com.pedro.rtsp.utils.RtpConstants
@@ -40,6 +46,7 @@ import java.net.Socket
 import java.net.SocketAddress
 import java.net.SocketTimeoutException
 import java.nio.ByteBuffer
+import java.nio.channels.SocketChannel
 import java.util.regex.Pattern
 
 /**
@@ -73,6 +80,9 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
   private var numRetry = 0
   private var reTries = 0
   private var checkServerAlive = false
+  private var gatheringWrites = false
+  @Volatile
+  private var abrController: AbrController? = null
 
   val droppedAudioFrames: Long
     get() = rtspSender.droppedAudioFrames
@@ -85,6 +95,20 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     get() = rtspSender.getSentAudioFrames()
   val sentVideoFrames: Long
     get() = rtspSender.getSentVideoFrames()
+  /**
+   * Pool used to reuse packet buffers. Check hits, misses and liveBuffers to know the pool status.
+   */
+  val bufferPool: BufferPool
+    get() = rtspSender.getBufferPool()
+
+  init {
+    rtspSender.setReceiverReportListener(object : BaseSenderReport.ReceiverReportListener {
+      override fun onReceiverReport(stats: List<ReceiverStats>, rembBitrate: Long) {
+        //remb is used even without report block of the video stream
+        abrController?.update(stats, rembBitrate)
+      }
+    })
+  }
 
   /**
    * Check periodically if server is alive using Echo protocol.
@@ -93,6 +117,14 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     checkServerAlive = enabled
   }
 
+  /**
+   * Write rtp packets with gathering writes in a SocketChannel flushing per access unit.
+   * Only used with TCP protocol without TLS. Disabled by default. Must be called before connect
+   */
+  fun setGatheringWrites(enabled: Boolean) {
+    gatheringWrites = enabled
+  }
+
   /**
    * Must be called before connect
    */
@@ -126,6 +158,27 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     commandsManager.setAuth(user, password)
   }
 
+  /**
+   * Pack multiple aac AUs in each rtp packet (RFC 3640) until the MTU, holding the first AU maxDelayMs max.
+   * 0 (default) to send one AU per rtp packet. Must be called before connect
+   */
+  fun setAudioAggregation(maxDelayMs: Long) {
+    commandsManager.audioAggregationDelayMs = maxDelayMs
+  }
+
+  /**
+   * Adapt the video bitrate with the packets lost reported by the server in RTCP receiver reports.
+   * Only UDP protocol. Null to disable it.
+   */
+  fun setAbrController(abrController: AbrController?) {
+    this.abrController = abrController
+  }
+
+  /**
+   * @return last loss, jitter and rtt reported by the server of each stream. Only UDP protocol.
+   */
+  fun getReceiverStats(): List<ReceiverStats> = rtspSender.getReceiverStats()
+
   fun setReTries(reTries: Int) {
     numRetry = reTries
     this.reTries = reTries
@@ -185,7 +238,7 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
             commandsManager.videoClientPorts,
             commandsManager.audioClientPorts)
           if (!commandsManager.audioDisabled) {
-            rtspSender.setAudioInfo(commandsManager.sampleRate)
+            rtspSender.setAudioInfo(commandsManager.sampleRate, commandsManager.audioAggregationDelayMs)
           }
           if (!commandsManager.videoDisabled) {
             if (commandsManager.sps == null || commandsManager.pps == null) {
@@ -203,7 +256,7 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
             rtspSender.setVideoInfo(commandsManager.sps!!, commandsManager.pps!!, commandsManager.vps)
           }
           if (!tlsEnabled) {
-            connectionSocket = Socket()
+            connectionSocket = if (gatheringWrites) SocketChannel.open().socket() else Socket()
             val socketAddress: SocketAddress = InetSocketAddress(host, port)
             connectionSocket?.connect(socketAddress, 5000)
           } else {
@@ -303,8 +356,11 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
             return@launch
           }
           outputStream?.let { out ->
-            rtspSender.setDataStream(out, host)
+            rtspSender.setDataStream(out, host, connectionSocket?.channel)
           }
+          //a timed read switches the channel to non blocking mode while reading so packets, reports and
+          //commands written at the same time could fail. Server commands are only read when ready.
+          if (connectionSocket?.channel != null) connectionSocket?.soTimeout = 0
           val videoPorts = commandsManager.videoServerPorts
           val audioPorts = commandsManager.audioServerPorts
           if (!commandsManager.videoDisabled) {
@@ -423,6 +479,51 @@ class RtspClient(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     }
   }
 
+  /**
+   * What to do with new frames when the queue is full.
+   */
+  fun setDropPolicy(dropPolicy: DropPolicy) {
+    rtspSender.dropPolicy = dropPolicy
+  }
+
+  /**
+   * Send an audio rtp frame created outside of the client. The client owns a reference of the frame after this call.
+   */
+  internal fun sendAudioFrame(rtpFrame: RtpFrame) {
+    if (commandsManager.audioDisabled) rtpFrame.release() else rtspSender.sendFrame(rtpFrame)
+  }
+
+  /**
+   * Send rtp packets of a video frame created outside of the client. The client owns a reference of each packet after this call.
+   */
+  internal fun sendVideoFrames(rtpFrames: List<RtpFrame>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    if (commandsManager.videoDisabled) {
+      rtpFrames.forEach { it.release() }
+    } else {
+      rtspSender.sendVideoFrames(rtpFrames, isKeyFrame, isNonReference)
+    }
+  }
+
+  /**
+   * Called when a keyframe is needed to recover the stream after discard frames with DropPolicy.DROP_GOP.
+   * Normally you want to call requestKeyframe of the video encoder.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    rtspSender.setKeyFrameRequestListener(listener)
+  }
+
+  /**
+   * @return frames discarded by reason. Values are reset when the stream is stopped.
+   */
+  fun getDropStats(): DropStats = rtspSender.getDropStats()
+
+  internal fun setSSRC(ssrcVideo: Long, ssrcAudio: Long) {
+    rtspSender.setSSRC(ssrcVideo, ssrcAudio)
+  }
+
+  internal val sessionId: Int
+    get() = rtspSender.sessionId
+
   fun hasCongestion(): Boolean {
     return rtspSender.hasCongestion()
   }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtsp
+
+import android.media.MediaCodec
+import com.pedro.common.BufferPool
+import com.pedro.common.DropController
+import com.pedro.rtsp.rtp.packets.AacPacket
+import com.pedro.rtsp.rtp.packets.BasePacket
+import com.pedro.rtsp.rtp.packets.H264Packet
+import com.pedro.rtsp.rtp.packets.H265Packet
+import com.pedro.rtsp.utils.getData
+import java.nio.ByteBuffer
+import java.util.Random
+
+/**
+ * Packetize audio and video frames once and share the rtp frames with multiple RtspClient.
+ *
+ * Frames are reference counted so the buffer is reused only when all clients sent it.
+ * Each client keeps its own queue, drop policy and destination ports.
+ * All rtp packets of a video frame are given together so DropPolicy.DROP_GOP never splits a frame.
+ * All clients use the same ssrc. Video is sent to a new session after the next keyframe,
+ * requested with the keyframe request listener.
+ */
+class RtspFanOut(private val clients: Array<RtspClient>) {
+
+  private val bufferPool = BufferPool()
+  private var videoPacket: BasePacket? = null
+  private var aacPacket: AacPacket? = null
+  private var audioAggregationDelayMs = 0L
+  private val ssrcVideo = Random().nextInt().toLong()
+  private val ssrcAudio = Random().nextInt().toLong()
+  //session of each client that received a keyframe
+  private val videoSessions = IntArray(clients.size)
+  //last session of each client that requested a keyframe
+  private val requestedSessions = IntArray(clients.size)
+  private var keyFrameRequestListener: Runnable? = null
+  //rtp packets of the video frame in process
+  private val videoFrames = ArrayList<RtpFrame>()
+
+  init {
+    clients.forEach { it.setSSRC(ssrcVideo, ssrcAudio) }
+  }
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    //needed by clients to create the sdp
+    clients.forEach { it.setVideoInfo(sps, pps, vps) }
+    val packet = if (vps == null) H264Packet(sps.getData(), pps.getData())
+    else H265Packet(sps.getData(), pps.getData(), vps.getData())
+    packet.bufferPool = bufferPool
+    packet.setSSRC(ssrcVideo)
+    videoPacket = packet
+  }
+
+  /**
+   * Pack multiple aac AUs in each rtp packet. Must be called before setAudioInfo.
+   */
+  fun setAudioAggregation(maxDelayMs: Long) {
+    audioAggregationDelayMs = maxDelayMs
+    clients.forEach { it.setAudioAggregation(maxDelayMs) }
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    clients.forEach { it.setAudioInfo(sampleRate, isStereo) }
+    val packet = AacPacket(sampleRate, audioAggregationDelayMs)
+    packet.bufferPool = bufferPool
+    packet.setSSRC(ssrcAudio)
+    aacPacket = packet
+  }
+
+  fun sendVideo(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    val packet = videoPacket ?: return
+    if (!isAnyStreaming()) return
+    val isKeyFrame = info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+    if (isKeyFrame) {
+      clients.forEachIndexed { index, client ->
+        if (client.isStreaming) videoSessions[index] = client.sessionId
+      }
+    } else {
+      checkNewSessions()
+    }
+    val isNonReference = DropController.isNonReference(h264Buffer, packet is H265Packet)
+    packet.createAndSendPacket(h264Buffer, info) { videoFrames.add(it) }
+    if (videoFrames.isEmpty()) return
+    //packets are queued one by one so the list can be reused
+    clients.forEachIndexed { index, client ->
+      if (client.isStreaming && videoSessions[index] == client.sessionId) {
+        videoFrames.forEach { it.retain() }
+        client.sendVideoFrames(videoFrames, isKeyFrame, isNonReference)
+      }
+    }
+    videoFrames.forEach { it.release() }
+    videoFrames.clear()
+  }
+
+  fun sendAudio(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    val packet = aacPacket ?: return
+    if (!isAnyStreaming()) return
+    packet.createAndSendPacket(aacBuffer, info) { rtpFrame ->
+      clients.forEach { client ->
+        if (client.isStreaming) client.sendAudioFrame(rtpFrame.retain())
+      }
+      rtpFrame.release()
+    }
+  }
+
+  /**
+   * Called when a client starts a new session and needs a keyframe to start.
+   * Normally you want to call requestKeyframe of the video encoder.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    keyFrameRequestListener = listener
+  }
+
+  fun getBufferPool(): BufferPool = bufferPool
+
+  fun reset() {
+    videoSessions.fill(0)
+    requestedSessions.fill(0)
+  }
+
+  /**
+   * Request a keyframe once for each session waiting for it.
+   */
+  private fun checkNewSessions() {
+    var request = false
+    clients.forEachIndexed { index, client ->
+      val sessionId = client.sessionId
+      if (client.isStreaming && videoSessions[index] != sessionId && requestedSessions[index] != sessionId) {
+        requestedSessions[index] = sessionId
+        request = true
+      }
+    }
+    if (request) keyFrameRequestListener?.run()
+  }
+
+  private fun isAnyStreaming(): Boolean {
+    return clients.any { it.isStreaming }
+  }
+}
@@ -18,15 +18,22 @@ package com.pedro.rtsp.rtsp
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.BufferPool
+import com.pedro.common.DropController
+import com.pedro.common.DropPolicy
+import com.pedro.common.DropStats
+import com.pedro.common.FrameRing
 import com.pedro.rtsp.rtcp.BaseSenderReport
+import com.pedro.rtsp.rtcp.ReceiverStats
+import com.pedro.rtsp.rtcp.SenderReportUdp
 import com.pedro.rtsp.rtp.packets.*
 import com.pedro.rtsp.rtp.sockets.BaseRtpSocket
 import com.pedro.rtsp.rtp.sockets.RtpSocketTcp
+import com.pedro.rtsp.rtp.sockets.RtpSocketUdp
 import com.pedro.rtsp.utils.BitrateManager
 import com.pedro.rtsp.utils.ConnectCheckerRtsp
 import com.pedro.rtsp.utils.RtpConstants
 import com.pedro.rtsp.utils.onMainThread
-import com.pedro.rtsp.utils.trySend
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -39,6 +46,7 @@ import kotlinx.coroutines.runInterruptible
 import java.io.IOException
 import java.io.OutputStream
 import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
 import java.util.*
 import java.util.concurrent.*
 
@@ -51,6 +59,7 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
   private var aacPacket: AacPacket? = null
   private var rtpSocket: BaseRtpSocket? = null
   private var baseSenderReport: BaseSenderReport? = null
+  private val bufferPool = BufferPool()
 
   private val defaultCacheSize: Int
     get() = 10 * 1024 * 1024 / RtpConstants.MTU
@@ -60,8 +69,13 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
 
   private var job: Job? = null
   private val scope = CoroutineScope(Dispatchers.IO)
+  //queue used by producers, replaced by a new queue on resize
   @Volatile
-  private var queue: BlockingQueue<RtpFrame> = LinkedBlockingQueue(cacheSize)
+  private var queue = FrameRing<RtpFrame>(cacheSize)
+  //queue used by the sender, it continues with the new queue after send all packets of a resized queue
+  private var sendQueue = queue
+  //frames sent together in the socket, only used in the send loop
+  private val batch = ArrayList<RtpFrame>()
 
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
@@ -71,9 +85,27 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     private set
   private val bitrateManager: BitrateManager = BitrateManager(connectCheckerRtsp)
   private var isEnableLogs = true
+  private val dropController = DropController<RtpFrame> { discard(it) }
+  var dropPolicy: DropPolicy
+    get() = dropController.dropPolicy
+    set(value) {
+      dropController.dropPolicy = value
+    }
+  //rtp packets of the video frame in process, only used by the video encoder thread
+  private val videoFrames = ArrayList<RtpFrame>()
+  //ssrc used in the next start, random if null
+  private var ssrcVideo: Long? = null
+  private var ssrcAudio: Long? = null
+  @Volatile
+  private var receiverReportListener: BaseSenderReport.ReceiverReportListener? = null
+  //increased each start, used to know when a new session needs to wait for a keyframe
+  @Volatile
+  var sessionId = 0
+    private set
 
   companion object {
     private const val TAG = "RtspSender"
+    private const val MAX_BATCH_SIZE = 32
   }
 
   @Throws(IOException::class)
@@ -84,79 +116,163 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
 
   fun setVideoInfo(sps: ByteArray, pps: ByteArray, vps: ByteArray?) {
     videoPacket = if (vps == null) H264Packet(sps, pps) else H265Packet(sps, pps, vps)
+    videoPacket?.bufferPool = bufferPool
   }
 
-  fun setAudioInfo(sampleRate: Int) {
-    aacPacket = AacPacket(sampleRate)
+  fun setAudioInfo(sampleRate: Int, maxAggregationDelayMs: Long = 0) {
+    aacPacket = AacPacket(sampleRate, maxAggregationDelayMs)
+    aacPacket?.bufferPool = bufferPool
   }
 
   @Throws(IOException::class)
-  fun setDataStream(outputStream: OutputStream, host: String) {
+  fun setDataStream(outputStream: OutputStream, host: String, channel: GatheringByteChannel? = null) {
     rtpSocket?.setDataStream(outputStream, host)
     baseSenderReport?.setDataStream(outputStream, host)
+    //only tcp without tls can use the channel
+    val rtpSocket = this.rtpSocket
+    if (channel != null && rtpSocket is RtpSocketTcp) rtpSocket.setDataChannel(channel)
   }
 
   fun setVideoPorts(rtpPort: Int, rtcpPort: Int) {
     videoPacket?.setPorts(rtpPort, rtcpPort)
+    (rtpSocket as? RtpSocketUdp)?.setVideoPort(rtpPort)
+    (baseSenderReport as? SenderReportUdp)?.setVideoPort(rtcpPort)
   }
 
   fun setAudioPorts(rtpPort: Int, rtcpPort: Int) {
     aacPacket?.setPorts(rtpPort, rtcpPort)
+    (rtpSocket as? RtpSocketUdp)?.setAudioPort(rtpPort)
+    (baseSenderReport as? SenderReportUdp)?.setAudioPort(rtcpPort)
+  }
+
+  /**
+   * Use the same ssrc that frames created outside of the sender.
+   */
+  fun setSSRC(ssrcVideo: Long, ssrcAudio: Long) {
+    this.ssrcVideo = ssrcVideo
+    this.ssrcAudio = ssrcAudio
+  }
+
+  private fun discard(rtpFrame: RtpFrame) {
+    if (rtpFrame.isVideoFrame()) {
+      Log.i(TAG, "Video frame discarded")
+      droppedVideoFrames++
+    } else {
+      Log.i(TAG, "Audio frame discarded")
+      droppedAudioFrames++
+    }
+    rtpFrame.release()
+  }
+
+  /**
+   * Send an audio frame created outside of the sender (shared by multiple senders).
+   * The sender owns a reference of the frame after this call.
+   */
+  fun sendFrame(rtpFrame: RtpFrame) {
+    if (running) enqueue(rtpFrame) else rtpFrame.release()
+  }
+
+  /**
+   * Send rtp packets of a video frame created outside of the sender (shared by multiple senders).
+   * The sender owns a reference of each packet after this call.
+   */
+  fun sendVideoFrames(rtpFrames: List<RtpFrame>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    if (running) {
+      enqueueVideo(rtpFrames, isKeyFrame, isNonReference)
+    } else {
+      rtpFrames.forEach { it.release() }
+    }
   }
 
   fun sendVideoFrame(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
-      videoPacket?.createAndSendPacket(h264Buffer, info) { rtpFrame ->
-        val result = queue.trySend(rtpFrame)
-        if (!result) {
-          Log.i(TAG, "Video frame discarded")
-          droppedVideoFrames++
-        }
+      val videoPacket = this.videoPacket ?: return
+      val isKeyFrame = info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+      //only needed to discard frames with DROP_GOP, avoid read the buffer with other policies
+      val isNonReference = dropPolicy == DropPolicy.DROP_GOP &&
+          DropController.isNonReference(h264Buffer, videoPacket is H265Packet)
+      //all fragments of the frame are queued together so a frame is never sent partially with DROP_GOP
+      videoPacket.createAndSendPacket(h264Buffer, info) { rtpFrame ->
+        videoFrames.add(rtpFrame)
       }
+      if (videoFrames.isNotEmpty()) enqueueVideo(videoFrames, isKeyFrame, isNonReference)
+      videoFrames.clear()
     }
   }
 
   fun sendAudioFrame(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       aacPacket?.createAndSendPacket(aacBuffer, info) { rtpFrame ->
-        val result = queue.trySend(rtpFrame)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
-        }
+        enqueue(rtpFrame)
       }
     }
   }
 
+  /**
+   * Called when a keyframe is needed to recover the stream after discard frames with DropPolicy.DROP_GOP.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    dropController.keyFrameRequestListener = listener
+  }
+
+  fun getDropStats(): DropStats = dropController.dropStats
+
+  /**
+   * Called with each RTCP receiver report sent by the server. Only UDP protocol.
+   */
+  fun setReceiverReportListener(listener: BaseSenderReport.ReceiverReportListener?) {
+    receiverReportListener = listener
+    baseSenderReport?.receiverReportListener = listener
+  }
+
+  fun getReceiverStats(): List<ReceiverStats> = baseSenderReport?.getReceiverStats() ?: emptyList()
+
   fun start() {
-    queue.clear()
+    clearQueue()
     running = true
+    //after running so frames of the new session are accepted
+    sessionId++
     job = scope.launch {
-      val ssrcVideo = Random().nextInt().toLong()
-      val ssrcAudio = Random().nextInt().toLong()
+      val ssrcVideo = this@RtspSender.ssrcVideo ?: Random().nextInt().toLong()
+      val ssrcAudio = this@RtspSender.ssrcAudio ?: Random().nextInt().toLong()
       baseSenderReport?.setSSRC(ssrcVideo, ssrcAudio)
+      baseSenderReport?.receiverReportListener = receiverReportListener
+      (baseSenderReport as? SenderReportUdp)?.startReceiving()
       videoPacket?.setSSRC(ssrcVideo)
       aacPacket?.setSSRC(ssrcAudio)
       val isTcp = rtpSocket is RtpSocketTcp
       while (scope.isActive && running) {
         val error = runCatching {
           val rtpFrame = runInterruptible {
-            queue.poll(1, TimeUnit.SECONDS)
+            sendQueue.poll(1, TimeUnit.SECONDS)
           }
+          sendQueue = sendQueue.current()
           if (rtpFrame != null) {
-            rtpSocket?.sendFrame(rtpFrame, isEnableLogs)
-            //bytes to bits (4 is tcp header length)
-            val packetSize = if (isTcp) rtpFrame.length + 4 else rtpFrame.length
-            bitrateManager.calculateBitrate(packetSize * 8.toLong())
-            if (rtpFrame.isVideoFrame()) {
-              videoFramesSent++
-            } else {
-              audioFramesSent++
-            }
-            if (baseSenderReport?.update(rtpFrame, isEnableLogs) == true) {
-              //bytes to bits (4 is tcp header length)
-              val reportSize = if (isTcp) baseSenderReport?.PACKET_LENGTH ?: (0 + 4) else baseSenderReport?.PACKET_LENGTH ?: 0
-              bitrateManager.calculateBitrate(reportSize * 8.toLong())
+            //send all frames ready in the queue together
+            batch.clear()
+            batch.add(rtpFrame)
+            sendQueue.drainTo(batch, MAX_BATCH_SIZE - 1)
+            try {
+              rtpSocket?.sendFrames(batch, isEnableLogs)
+              batch.forEach { frame ->
+                //bytes to bits (4 is tcp header length)
+                val packetSize = if (isTcp) frame.length + 4 else frame.length
+                bitrateManager.calculateBitrate(packetSize * 8.toLong())
+                if (frame.isVideoFrame()) {
+                  videoFramesSent++
+                } else {
+                  audioFramesSent++
+                }
+                if (baseSenderReport?.update(frame, isEnableLogs) == true) {
+                  //bytes to bits (4 is tcp header length)
+                  val reportSize = if (isTcp) baseSenderReport?.PACKET_LENGTH ?: (0 + 4) else baseSenderReport?.PACKET_LENGTH ?: 0
+                  bitrateManager.calculateBitrate(reportSize * 8.toLong())
+                }
+              }
+            } finally {
+              //the frames are already written in the socket (or failed), the buffers can be reused
+              batch.forEach { it.release() }
+              batch.clear()
             }
           }
         }.exceptionOrNull()
@@ -182,9 +298,19 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     resetSentVideoFrames()
     resetDroppedAudioFrames()
     resetDroppedVideoFrames()
+    dropController.reset()
+    dropController.dropStats.reset()
     job?.cancelAndJoin()
     job = null
-    queue.clear()
+    clearQueue()
+  }
+
+  private fun clearQueue() {
+    while (true) {
+      val rtpFrame = sendQueue.poll() ?: break
+      rtpFrame.release()
+    }
+    sendQueue = sendQueue.current()
   }
 
   fun hasCongestion(): Boolean {
@@ -194,13 +320,21 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     return size >= capacity * 0.2f //more than 20% queue used. You could have congestion
   }
 
+  @Synchronized
   fun resizeCache(newSize: Int) {
-    if (newSize < queue.size - queue.remainingCapacity()) {
+    if (newSize < queue.size) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<RtpFrame> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    //without locks, packets of the old queue are sent before packets of the new queue
+    queue = queue.resize(newSize)
+  }
+
+  private fun enqueue(packet: RtpFrame) {
+    dropController.enqueue(queue, packet)
+  }
+
+  private fun enqueueVideo(packets: List<RtpFrame>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    dropController.enqueueVideo(queue, packets, isKeyFrame, isNonReference)
   }
 
   fun getCacheSize(): Int {
@@ -215,6 +349,10 @@ class RtspSender(private val connectCheckerRtsp: ConnectCheckerRtsp) {
     return videoFramesSent
   }
 
+  fun getBufferPool(): BufferPool {
+    return bufferPool
+  }
+
   fun resetSentAudioFrames() {
     audioFramesSent = 0
   }
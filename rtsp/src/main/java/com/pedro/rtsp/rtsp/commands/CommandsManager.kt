@@ -55,6 +55,8 @@ open class CommandsManager {
   private val timeStamp: Long
   var sampleRate = 32000
   var isStereo = true
+  //0 to send one aac AU per rtp packet
+  var audioAggregationDelayMs = 0L
   var protocol: Protocol = Protocol.TCP
   var videoDisabled = false
   var audioDisabled = false
@@ -146,7 +148,7 @@ open class CommandsManager {
     }
     var audioBody = ""
     if (!audioDisabled) {
-      audioBody = createAacBody(RtpConstants.trackAudio, sampleRate, isStereo)
+      audioBody = createAacBody(RtpConstants.trackAudio, sampleRate, isStereo, audioAggregationDelayMs)
     }
     return "v=0\r\n" +
         "o=- $timeStamp $timeStamp IN IP4 127.0.0.1\r\n" +
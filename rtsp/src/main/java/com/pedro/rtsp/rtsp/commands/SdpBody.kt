@@ -16,6 +16,7 @@
 
 package com.pedro.rtsp.rtsp.commands
 
+import com.pedro.rtsp.rtp.packets.AacPacket
 import com.pedro.rtsp.utils.RtpConstants
 
 /**
@@ -42,14 +43,24 @@ object SdpBody {
       -1,  // 14
       -1)
 
-  fun createAacBody(trackAudio: Int, sampleRate: Int, isStereo: Boolean): String {
+  /**
+   * @param maxAggregationDelayMs 0 if each rtp packet contains one AU. Otherwise, the duration of AUs in a packet
+   * is indicated with maxptime and constantDuration.
+   */
+  fun createAacBody(trackAudio: Int, sampleRate: Int, isStereo: Boolean, maxAggregationDelayMs: Long = 0): String {
     val sampleRateNum = AUDIO_SAMPLING_RATES.toList().indexOf(sampleRate)
     val channel = if (isStereo) 2 else 1
     val config = 2 and 0x1F shl 11 or (sampleRateNum and 0x0F shl 7) or (channel and 0x0F shl 3)
     val payload = RtpConstants.payloadType + trackAudio
+    val maxAus = AacPacket.getMaxAusPerPacket(sampleRate, maxAggregationDelayMs)
+    val aggregation = if (maxAus > 1) "; constantDuration=${AacPacket.SAMPLES_PER_AU}" else ""
+    val maxPTime = if (maxAus > 1) {
+      "a=maxptime:${(maxAus * AacPacket.SAMPLES_PER_AU * 1000L + sampleRate - 1) / sampleRate}\r\n"
+    } else ""
     return "m=audio 0 RTP/AVP ${payload}\r\n" +
         "a=rtpmap:$payload MPEG4-GENERIC/$sampleRate/$channel\r\n" +
-        "a=fmtp:$payload profile-level-id=1; mode=AAC-hbr; config=${Integer.toHexString(config)}; sizelength=13; indexlength=3; indexdeltalength=3\r\n" +
+        "a=fmtp:$payload profile-level-id=1; mode=AAC-hbr; config=${Integer.toHexString(config)}; sizelength=13; indexlength=3; indexdeltalength=3$aggregation\r\n" +
+        maxPTime +
         "a=control:streamid=$trackAudio\r\n"
   }
 
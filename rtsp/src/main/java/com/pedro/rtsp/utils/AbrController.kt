@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.utils
+
+import com.pedro.rtsp.rtcp.ReceiverStats
+import kotlin.math.abs
+import kotlin.math.min
+
+/**
+ * Adapt the video bitrate to the packets lost reported by the server in RTCP receiver reports.
+ *
+ * The bitrate is reduced in proportion to the loss if it is high, increased step by step while the loss is low and
+ * kept otherwise. If the server reports an estimated max bitrate (REMB) the bitrate never goes over it. Small changes
+ * are ignored to avoid reconfigure the encoder too often.
+ *
+ * @param listener called in a background thread with the new bitrate, normally you want to call setVideoBitrateOnFly.
+ */
+class AbrController(
+  private val minBitrate: Int,
+  private val maxBitrate: Int,
+  private val listener: Listener
+) {
+
+  interface Listener {
+    fun onBitrateAdapted(bitrate: Int)
+  }
+
+  companion object {
+    private const val HIGH_LOSS = 0.1f
+    private const val LOW_LOSS = 0.02f
+    //part of the bitrate increased each report
+    private const val INCREASE_FACTOR = 1.08f
+    private const val MIN_CHANGE = 0.03f
+    //the packet has no report block of the video stream (RR with RC=0 or only REMB), keep the bitrate
+    const val NO_LOSS_SAMPLE = -1f
+  }
+
+  @Volatile
+  var bitrate = maxBitrate
+    private set
+
+  /**
+   * Called with each RTCP packet received with report blocks or REMB.
+   *
+   * @param stats report blocks of the streams sent, the loss of the video stream is used if it is reported
+   * @param rembBitrate max bitrate estimated by the server, 0 if not reported
+   */
+  fun update(stats: List<ReceiverStats>, rembBitrate: Long) {
+    val videoStats = stats.firstOrNull { it.isVideo }
+    update(videoStats?.lossRate ?: NO_LOSS_SAMPLE, rembBitrate)
+  }
+
+  /**
+   * Called with each receiver report of the video stream.
+   *
+   * @param lossRate packets lost since the previous report (0 to 1) or NO_LOSS_SAMPLE
+   * @param rembBitrate max bitrate estimated by the server, 0 if not reported
+   */
+  @Synchronized
+  fun update(lossRate: Float, rembBitrate: Long = 0) {
+    var target = bitrate
+    //without loss sample only remb is applied
+    if (lossRate > HIGH_LOSS) {
+      target = (bitrate * (1 - 0.5f * lossRate)).toInt()
+    } else if (lossRate != NO_LOSS_SAMPLE && lossRate < LOW_LOSS) {
+      target = (bitrate * INCREASE_FACTOR).toInt()
+    }
+    if (rembBitrate > 0) target = min(target.toLong(), rembBitrate).toInt()
+    target = target.coerceIn(minBitrate, maxBitrate)
+    val change = abs(target - bitrate)
+    if (change > 0 && (change >= bitrate * MIN_CHANGE || target == minBitrate || target == maxBitrate)) {
+      bitrate = target
+      listener.onBitrateAdapted(target)
+    }
+  }
+}
@@ -52,6 +52,14 @@ fun ByteArray.setLong(n: Long, begin: Int, end: Int) {
   }
 }
 
+fun ByteArray.getLong(begin: Int, end: Int): Long {
+  var value = 0L
+  for (i in begin until end) {
+    value = (value shl 8) or (this[i].toLong() and 0xFF)
+  }
+  return value
+}
+
 fun ByteBuffer.getVideoStartCodeSize(): Int {
   var startCodeSize = 0
   if (this.get(0).toInt() == 0x00 && this.get(1).toInt() == 0x00
@@ -32,8 +32,15 @@ object RtpConstants {
 
   //H264 IDR
   const val IDR = 5
+  //H264 video info
+  const val SPS = 7
+  const val PPS = 8
 
   //H265 IDR
   const val IDR_N_LP = 20
   const val IDR_W_DLP = 19
+  //H265 video info
+  const val VPS = 32
+  const val H265_SPS = 33
+  const val H265_PPS = 34
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class ReceiverReportTest {
+
+  private val block = ReportBlock(ssrc = 0xAABBCCDDL, fractionLost = 64, cumulativeLost = 1200,
+    highestSequence = 0x0001FFFFL, jitter = 450, lastSr = 0x12345678L, delaySinceLastSr = 0x00010000L)
+
+  @Test
+  fun `GIVEN a receiver report WHEN parse THEN get all report blocks`() {
+    val otherBlock = block.copy(ssrc = 1, fractionLost = 0, cumulativeLost = 0)
+    val data = RtcpGenerator().addReceiverReport(block, otherBlock).build()
+    val report = ReceiverReport.parse(data, data.size)
+    assertEquals(listOf(block, otherBlock), report?.reportBlocks)
+    assertEquals(0L, report?.rembBitrate)
+  }
+
+  @Test
+  fun `GIVEN a compound packet with sender report and remb WHEN parse THEN get report blocks and remb bitrate`() {
+    val data = RtcpGenerator().addSenderReport(block).addRemb(2_500_000, block.ssrc).build()
+    val report = ReceiverReport.parse(data, data.size)
+    assertEquals(listOf(block), report?.reportBlocks)
+    //mantissa has 18 bits, low bits are lost with high values
+    assertEquals(2_500_000L, report?.rembBitrate)
+  }
+
+  @Test
+  fun `GIVEN a negative cumulative lost WHEN parse THEN get negative value`() {
+    //duplicated packets could make the value negative
+    val data = RtcpGenerator().addReceiverReport(block.copy(cumulativeLost = -3)).build()
+    val report = ReceiverReport.parse(data, data.size)
+    assertEquals(-3, report?.reportBlocks?.first()?.cumulativeLost)
+  }
+
+  @Test
+  fun `GIVEN an invalid packet WHEN parse THEN get null`() {
+    val data = RtcpGenerator().addReceiverReport(block).build()
+    assertNull(ReceiverReport.parse(data, data.size - 4))
+    data[0] = 0x40
+    assertNull(ReceiverReport.parse(data, data.size))
+  }
+}
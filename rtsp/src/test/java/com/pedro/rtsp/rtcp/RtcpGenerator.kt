@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+import com.pedro.rtsp.utils.setLong
+
+/**
+ * Create RTCP packets like a server. Used to test the RTCP receive path.
+ */
+class RtcpGenerator(private val senderSsrc: Long = 0x11223344L) {
+
+  private val packets = mutableListOf<ByteArray>()
+
+  fun addReceiverReport(vararg blocks: ReportBlock): RtcpGenerator {
+    val packet = ByteArray(8 + blocks.size * 24)
+    packet[0] = (0x80 or blocks.size).toByte()
+    packet[1] = 201.toByte()
+    packet.setLong(packet.size / 4 - 1L, 2, 4)
+    packet.setLong(senderSsrc, 4, 8)
+    blocks.forEachIndexed { index, block -> writeBlock(packet, 8 + index * 24, block) }
+    packets.add(packet)
+    return this
+  }
+
+  fun addSenderReport(vararg blocks: ReportBlock): RtcpGenerator {
+    val packet = ByteArray(28 + blocks.size * 24)
+    packet[0] = (0x80 or blocks.size).toByte()
+    packet[1] = 200.toByte()
+    packet.setLong(packet.size / 4 - 1L, 2, 4)
+    packet.setLong(senderSsrc, 4, 8)
+    blocks.forEachIndexed { index, block -> writeBlock(packet, 28 + index * 24, block) }
+    packets.add(packet)
+    return this
+  }
+
+  fun addRemb(bitrate: Long, vararg ssrcs: Long): RtcpGenerator {
+    val packet = ByteArray(20 + ssrcs.size * 4)
+    packet[0] = (0x80 or 15).toByte()
+    packet[1] = 206.toByte()
+    packet.setLong(packet.size / 4 - 1L, 2, 4)
+    packet.setLong(senderSsrc, 4, 8)
+    "REMB".forEachIndexed { index, char -> packet[12 + index] = char.code.toByte() }
+    var exponent = 0
+    var mantissa = bitrate
+    while (mantissa > 0x3FFFF) {
+      mantissa = mantissa shr 1
+      exponent++
+    }
+    packet[16] = ssrcs.size.toByte()
+    packet.setLong((exponent.toLong() shl 18) or mantissa, 17, 20)
+    ssrcs.forEachIndexed { index, ssrc -> packet.setLong(ssrc, 20 + index * 4, 24 + index * 4) }
+    packets.add(packet)
+    return this
+  }
+
+  /**
+   * @return all packets added in a compound packet
+   */
+  fun build(): ByteArray {
+    val result = ByteArray(packets.sumOf { it.size })
+    var offset = 0
+    packets.forEach {
+      System.arraycopy(it, 0, result, offset, it.size)
+      offset += it.size
+    }
+    packets.clear()
+    return result
+  }
+
+  private fun writeBlock(packet: ByteArray, offset: Int, block: ReportBlock) {
+    packet.setLong(block.ssrc, offset, offset + 4)
+    packet[offset + 4] = block.fractionLost.toByte()
+    packet.setLong(block.cumulativeLost.toLong() and 0xFFFFFF, offset + 5, offset + 8)
+    packet.setLong(block.highestSequence, offset + 8, offset + 12)
+    packet.setLong(block.jitter, offset + 12, offset + 16)
+    packet.setLong(block.lastSr, offset + 16, offset + 20)
+    packet.setLong(block.delaySinceLastSr, offset + 20, offset + 24)
+  }
+}
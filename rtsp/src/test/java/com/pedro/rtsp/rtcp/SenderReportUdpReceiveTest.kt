@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.MulticastSocket
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Send RTCP packets from a local generator to the rtcp ports of SenderReportUdp.
+ */
+class SenderReportUdpReceiveTest {
+
+  private val ssrcVideo = 0x01020304L
+  private val ssrcAudio = 0x0A0B0C0DL
+  private lateinit var senderReport: SenderReportUdp
+  private lateinit var videoSocket: MulticastSocket
+  private lateinit var audioSocket: MulticastSocket
+  private lateinit var generatorSocket: DatagramSocket
+  private val reports = mutableListOf<Pair<List<ReceiverStats>, Long>>()
+  private var latch = CountDownLatch(1)
+
+  @Before
+  fun setup() {
+    videoSocket = MulticastSocket(0)
+    audioSocket = MulticastSocket(0)
+    senderReport = SenderReportUdp(0, 0, videoSocket, audioSocket)
+    senderReport.setSSRC(ssrcVideo, ssrcAudio)
+    senderReport.receiverReportListener = object : BaseSenderReport.ReceiverReportListener {
+      override fun onReceiverReport(stats: List<ReceiverStats>, rembBitrate: Long) {
+        synchronized(reports) { reports.add(Pair(stats, rembBitrate)) }
+        latch.countDown()
+      }
+    }
+    senderReport.startReceiving()
+    generatorSocket = DatagramSocket()
+  }
+
+  @After
+  fun teardown() {
+    senderReport.close()
+    generatorSocket.close()
+  }
+
+  @Test
+  fun `GIVEN a receiver report of video and audio WHEN received THEN get stats of each stream`() {
+    //sender report sent 150ms ago and the server waited 50ms to reply, rtt is 100ms
+    val lastSr = ntpMiddle(System.nanoTime() - 150_000_000L)
+    val delay = 50L * 65536 / 1000
+    val data = RtcpGenerator().addReceiverReport(
+      ReportBlock(ssrcVideo, 64, 20, 1000, 900, lastSr, delay),
+      ReportBlock(ssrcAudio, 0, 0, 500, 30, 0, 0)
+    ).build()
+    send(data, videoSocket.localPort)
+    assertTrue(latch.await(2, TimeUnit.SECONDS))
+
+    val video = senderReport.getReceiverStats().first { it.isVideo }
+    assertEquals(ssrcVideo, video.ssrc)
+    assertEquals(0.25f, video.lossRate)
+    assertEquals(20, video.cumulativeLost)
+    assertEquals(900L, video.jitter)
+    assertTrue("rtt ${video.rtt}", video.rtt in 100L..140L)
+    val audio = senderReport.getReceiverStats().first { !it.isVideo }
+    assertEquals(0f, audio.lossRate)
+    //no sender report received by the server
+    assertEquals(-1L, audio.rtt)
+  }
+
+  @Test
+  fun `GIVEN remb and reports of other streams WHEN received THEN get remb and ignore other streams`() {
+    val data = RtcpGenerator()
+      .addReceiverReport(ReportBlock(0x55555555L, 128, 5, 10, 10, 0, 0))
+      .addRemb(1_000_000, ssrcVideo)
+      .build()
+    send(data, audioSocket.localPort)
+    assertTrue(latch.await(2, TimeUnit.SECONDS))
+
+    synchronized(reports) {
+      assertEquals(1, reports.size)
+      assertTrue(reports[0].first.isEmpty())
+      assertEquals(1_000_000L, reports[0].second)
+    }
+    assertTrue(senderReport.getReceiverStats().isEmpty())
+  }
+
+  private fun send(data: ByteArray, port: Int) {
+    generatorSocket.send(DatagramPacket(data, data.size, InetAddress.getByName("127.0.0.1"), port))
+  }
+
+  //same clock used in the sender reports
+  private fun ntpMiddle(ntpts: Long): Long {
+    val hb = ntpts / 1000000000
+    val lb = (ntpts - hb * 1000000000) * 4294967296L / 1000000000
+    return ((hb and 0xFFFF) shl 16) or (lb ushr 16)
+  }
+}
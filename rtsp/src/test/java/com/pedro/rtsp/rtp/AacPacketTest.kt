@@ -54,4 +54,67 @@ class AacPacketTest {
     assertEquals(1, frames.size)
     assertEquals(packetResult, frames[0])
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `GIVEN aggregation enabled WHEN create packets THEN get multiple AUs in a rtp packet`() {
+    //50ms at 48khz, 3 AUs (21.3ms each one) max
+    val aacPacket = AacPacket(48000, 50)
+    aacPacket.setPorts(1, 2)
+    aacPacket.setSSRC(123456789)
+    val frames = mutableListOf<RtpFrame>()
+    repeat(4) { i -> sendAu(aacPacket, ByteArray(300) { i.toByte() }, i * 21333L) { frames.add(it) } }
+
+    assertEquals(1, frames.size)
+    val frame = frames[0]
+    val header = RtpConstants.RTP_HEADER_LENGTH
+    assertEquals(header + 2 + 3 * 2 + 3 * 300, frame.length)
+    //marker and timestamp of the first AU
+    assertEquals(0x80 or (RtpConstants.payloadType + RtpConstants.trackAudio), frame.buffer[1].toInt() and 0xFF)
+    assertEquals(0L, frame.timeStamp)
+    //AU-headers-length in bits
+    assertEquals(0, frame.buffer[header].toInt())
+    assertEquals(48, frame.buffer[header + 1].toInt())
+    //AU-size 300 and AU-Index/AU-Index-delta 0
+    for (i in 0 until 3) {
+      assertEquals(9, frame.buffer[header + 2 + i * 2].toInt())
+      assertEquals(0x60, frame.buffer[header + 3 + i * 2].toInt())
+    }
+    for (i in 0 until 3) assertEquals(i.toByte(), frame.buffer[header + 8 + i * 300])
+  }
+
+  @Test
+  fun `GIVEN aggregation enabled WHEN AUs don't fit in the MTU or are not consecutive THEN send pending AUs`() {
+    val aacPacket = AacPacket(48000, 100)
+    val frames = mutableListOf<RtpFrame>()
+    //2 AUs of 700 bytes fit in a packet but not 3
+    repeat(3) { i -> sendAu(aacPacket, ByteArray(700), i * 21333L) { frames.add(it) } }
+    assertEquals(1, frames.size)
+    assertEquals(RtpConstants.RTP_HEADER_LENGTH + 2 + 2 * 2 + 2 * 700, frames[0].length)
+    //gap of 5 AUs
+    sendAu(aacPacket, ByteArray(100), 8 * 21333L) { frames.add(it) }
+    assertEquals(2, frames.size)
+    assertEquals(RtpConstants.RTP_HEADER_LENGTH + 2 + 2 + 700, frames[1].length)
+    //sequence number increased per packet
+    assertEquals(2, frames[1].buffer[3].toInt())
+  }
+
+  @Test
+  fun `GIVEN aggregation enabled WHEN AU is bigger than the MTU THEN send it alone`() {
+    val aacPacket = AacPacket(48000, 100)
+    val frames = mutableListOf<RtpFrame>()
+    sendAu(aacPacket, ByteArray(100), 0) { frames.add(it) }
+    sendAu(aacPacket, ByteArray(1500), 21333L) { frames.add(it) }
+    assertEquals(2, frames.size)
+    assertEquals(RtpConstants.RTP_HEADER_LENGTH + 2 + 2 + 100, frames[0].length)
+    assertEquals(RtpConstants.RTP_HEADER_LENGTH + 2 + 2 + 1500, frames[1].length)
+  }
+
+  private fun sendAu(aacPacket: AacPacket, au: ByteArray, timestamp: Long, callback: (RtpFrame) -> Unit) {
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = timestamp
+    info.offset = 0
+    info.size = au.size
+    info.flags = 1
+    aacPacket.createAndSendPacket(ByteBuffer.wrap(au), info, callback)
+  }
+}
@@ -20,11 +20,13 @@ import android.media.MediaCodec
 import com.pedro.rtsp.rtp.packets.H264Packet
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertArrayEquals
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertNotEquals
 import org.junit.Assert.assertTrue
 import org.junit.Test
 import java.nio.ByteBuffer
+import kotlin.experimental.and
 
 /**
  * Created by pedro on 15/4/22.
@@ -54,7 +56,7 @@ class H264PacketTest {
     }
 
     val expectedRtp = byteArrayOf(-128, -32, 0, 2, 0, -87, -118, -57, 7, 91, -51, 21, 5).plus(fakeH264.copyOfRange(header.size, fakeH264.size))
-    val expectedStapA = byteArrayOf(-128, -32, 0, 1, 0, -87, -118, -57, 7, 91, -51, 21, 24, 0, 7, 0, 0, 0, 1, 2, 3, 4, 0, 7, 0, 0, 0, 1, 10, 11, 12)
+    val expectedStapA = byteArrayOf(-128, 96, 0, 1, 0, -87, -118, -57, 7, 91, -51, 21, 24, 0, 7, 0, 0, 0, 1, 2, 3, 4, 0, 7, 0, 0, 0, 1, 10, 11, 12)
     val expectedTimeStamp = 11111111L
     val expectedSize = RtpConstants.RTP_HEADER_LENGTH + 1 + info.size - header.size
     val expectedStapAResult = RtpFrame(expectedStapA, expectedTimeStamp, fakePps.size + fakePps.size + 5 + RtpConstants.RTP_HEADER_LENGTH, 1, 2, RtpConstants.trackVideo)
@@ -94,7 +96,7 @@ class H264PacketTest {
     val expectedRtp = byteArrayOf(-128, 96, 0, 2, 0, -87, -118, -57, 7, 91, -51, 21, 28, -123).plus(chunk1)
     val expectedRtp2 = byteArrayOf(-128, -32, 0, 3, 0, -87, -118, -57, 7, 91, -51, 21, 28, 69).plus(chunk2)
 
-    val expectedStapA = byteArrayOf(-128, -32, 0, 1, 0, -87, -118, -57, 7, 91, -51, 21, 24, 0, 7, 0, 0, 0, 1, 2, 3, 4, 0, 7, 0, 0, 0, 1, 10, 11, 12)
+    val expectedStapA = byteArrayOf(-128, 96, 0, 1, 0, -87, -118, -57, 7, 91, -51, 21, 24, 0, 7, 0, 0, 0, 1, 2, 3, 4, 0, 7, 0, 0, 0, 1, 10, 11, 12)
     val expectedTimeStamp = 11111111L
     val expectedSize = chunk1.size + RtpConstants.RTP_HEADER_LENGTH + 2
     val expectedSize2 = chunk2.size + RtpConstants.RTP_HEADER_LENGTH + 2
@@ -109,4 +111,81 @@ class H264PacketTest {
     assertEquals(expectedPacketResult, frames[1])
     assertEquals(expectedPacketResult2, frames[2])
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `GIVEN a h264 keyframe with video info and multiple slices WHEN create a packet THEN send a RTP packet per slice and mark only the last`() {
+    val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+    val sps = byteArrayOf(0x67, 0x02, 0x03)
+    val pps = byteArrayOf(0x68, 0x0B, 0x0C)
+    val slice1 = byteArrayOf(0x65).plus(ByteArray(100) { 0x01 })
+    val slice2 = byteArrayOf(0x65).plus(ByteArray(2000) { 0x02 })
+    val fakeH264 = startCode.plus(sps).plus(startCode).plus(pps).plus(startCode).plus(slice1).plus(startCode).plus(slice2)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 0
+    info.offset = 0
+    info.size = fakeH264.size
+    info.flags = 0
+
+    val h264Packet = H264Packet(sps, pps)
+    h264Packet.setPorts(1, 2)
+    h264Packet.setSSRC(123456789)
+    val frames = mutableListOf<RtpFrame>()
+    h264Packet.createAndSendPacket(ByteBuffer.wrap(fakeH264), info) {
+      frames.add(it)
+    }
+
+    //stap-a, single nal for slice 1 and 2 FU-A for slice 2
+    assertEquals(4, frames.size)
+    assertEquals(24.toByte(), frames[0].buffer[RtpConstants.RTP_HEADER_LENGTH])
+    assertEquals(0x65.toByte(), frames[1].buffer[RtpConstants.RTP_HEADER_LENGTH])
+    assertEquals(RtpConstants.RTP_HEADER_LENGTH + slice1.size, frames[1].length)
+    assertEquals(28.toByte(), frames[2].buffer[RtpConstants.RTP_HEADER_LENGTH] and 0x1F)
+    assertEquals(28.toByte(), frames[3].buffer[RtpConstants.RTP_HEADER_LENGTH] and 0x1F)
+    //marker bit
+    assertEquals(0, frames[0].buffer[1].toInt() and 0x80)
+    assertEquals(0, frames[1].buffer[1].toInt() and 0x80)
+    assertEquals(0, frames[2].buffer[1].toInt() and 0x80)
+    assertEquals(0x80, frames[3].buffer[1].toInt() and 0x80)
+    val payloadSize = frames.drop(2).sumOf { it.length - RtpConstants.RTP_HEADER_LENGTH - 2 }
+    assertEquals(slice2.size - 1, payloadSize)
+  }
+
+  @Test
+  fun `GIVEN a h264 frame with sei, aud and small slices WHEN create a packet THEN send all nal units in a STAP-A packet`() {
+    val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+    val sps = byteArrayOf(0x67, 0x02, 0x03)
+    val pps = byteArrayOf(0x68, 0x0B, 0x0C)
+    val aud = byteArrayOf(0x09, 0xF0.toByte())
+    val sei = byteArrayOf(0x06, 0x05, 0x01, 0x80.toByte())
+    val slice1 = byteArrayOf(0x21).plus(ByteArray(100) { 0x01 })
+    val slice2 = byteArrayOf(0x41).plus(ByteArray(200) { 0x02 })
+    val fakeH264 = startCode.plus(aud).plus(startCode).plus(sei).plus(startCode).plus(slice1).plus(startCode).plus(slice2)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 0
+    info.offset = 0
+    info.size = fakeH264.size
+    info.flags = 1
+
+    val h264Packet = H264Packet(sps, pps)
+    h264Packet.setPorts(1, 2)
+    h264Packet.setSSRC(123456789)
+    val frames = mutableListOf<RtpFrame>()
+    h264Packet.createAndSendPacket(ByteBuffer.wrap(fakeH264), info) {
+      frames.add(it)
+    }
+
+    //stap-a with sps and pps, stap-a with all nal units of the frame
+    assertEquals(2, frames.size)
+    val expectedPayload = byteArrayOf(0x58) //NRI of slice2 and type 24
+      .plus(byteArrayOf(0, aud.size.toByte())).plus(aud)
+      .plus(byteArrayOf(0, sei.size.toByte())).plus(sei)
+      .plus(byteArrayOf(0, slice1.size.toByte())).plus(slice1)
+      .plus(byteArrayOf(0, slice2.size.toByte())).plus(slice2)
+    assertEquals(RtpConstants.RTP_HEADER_LENGTH + expectedPayload.size, frames[1].length)
+    assertArrayEquals(expectedPayload, frames[1].buffer.copyOfRange(RtpConstants.RTP_HEADER_LENGTH, frames[1].length))
+    assertEquals(0, frames[0].buffer[1].toInt() and 0x80)
+    assertEquals(0x80, frames[1].buffer[1].toInt() and 0x80)
+  }
+}
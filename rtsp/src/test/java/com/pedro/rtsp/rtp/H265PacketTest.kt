@@ -20,6 +20,7 @@ import android.media.MediaCodec
 import com.pedro.rtsp.rtp.packets.H265Packet
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertArrayEquals
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertNotEquals
 import org.junit.Assert.assertTrue
@@ -55,10 +56,10 @@ class H265PacketTest {
     }
 
     val expectedRtp = byteArrayOf(-128, -32, 0, 2, 0, -87, -118, -57, 7, 91, -51, 21, 5, 0).plus(fakeH265.copyOfRange(header.size, fakeH265.size))
-    val expectedStapA = byteArrayOf(-128, -32, 0, 1, 0, -87, -118, -57, 7, 91, -51, 21, 96, 1, 0, 7, 0, 0, 0, 1, 2, 3, 4, 0, 7, 0, 0, 0, 1, 10, 11, 12)
+    val expectedStapA = byteArrayOf(-128, 96, 0, 1, 0, -87, -118, -57, 7, 91, -51, 21, 96, 1, 0, 7, 0, 0, 0, 1, 13, 14, 15, 0, 7, 0, 0, 0, 1, 2, 3, 4, 0, 7, 0, 0, 0, 1, 10, 11, 12)
     val expectedTimeStamp = 11111111L
     val expectedSize = RtpConstants.RTP_HEADER_LENGTH + 2 + info.size - header.size
-    val expectedStapAResult = RtpFrame(expectedStapA, expectedTimeStamp, fakePps.size + fakePps.size + 6 + RtpConstants.RTP_HEADER_LENGTH, 1, 2, RtpConstants.trackVideo)
+    val expectedStapAResult = RtpFrame(expectedStapA, expectedTimeStamp, fakeVps.size + fakeSps.size + fakePps.size + 8 + RtpConstants.RTP_HEADER_LENGTH, 1, 2, RtpConstants.trackVideo)
     val expectedPacketResult = RtpFrame(expectedRtp, expectedTimeStamp, expectedSize, 1, 2, RtpConstants.trackVideo)
 
     assertNotEquals(0, frames.size)
@@ -96,11 +97,11 @@ class H265PacketTest {
     val expectedRtp = byteArrayOf(-128, 96, 0, 2, 0, -87, -118, -57, 7, 91, -51, 21, 98, 1, -126).plus(chunk1)
     val expectedRtp2 = byteArrayOf(-128, -32, 0, 3, 0, -87, -118, -57, 7, 91, -51, 21, 98, 1, 66).plus(chunk2)
 
-    val expectedStapA = byteArrayOf(-128, -32, 0, 1, 0, -87, -118, -57, 7, 91, -51, 21, 96, 1, 0, 7, 0, 0, 0, 1, 2, 3, 4, 0, 7, 0, 0, 0, 1, 10, 11, 12)
+    val expectedStapA = byteArrayOf(-128, 96, 0, 1, 0, -87, -118, -57, 7, 91, -51, 21, 96, 1, 0, 7, 0, 0, 0, 1, 13, 14, 15, 0, 7, 0, 0, 0, 1, 2, 3, 4, 0, 7, 0, 0, 0, 1, 10, 11, 12)
     val expectedTimeStamp = 11111111L
     val expectedSize = chunk1.size + RtpConstants.RTP_HEADER_LENGTH + 3
     val expectedSize2 = chunk2.size + RtpConstants.RTP_HEADER_LENGTH + 3
-    val expectedStapAResult = RtpFrame(expectedStapA, expectedTimeStamp, fakePps.size + fakePps.size + 6 + RtpConstants.RTP_HEADER_LENGTH, 1, 2, RtpConstants.trackVideo)
+    val expectedStapAResult = RtpFrame(expectedStapA, expectedTimeStamp, fakeVps.size + fakeSps.size + fakePps.size + 8 + RtpConstants.RTP_HEADER_LENGTH, 1, 2, RtpConstants.trackVideo)
 
     val expectedPacketResult = RtpFrame(expectedRtp, expectedTimeStamp, expectedSize, 1, 2, RtpConstants.trackVideo)
     val expectedPacketResult2 = RtpFrame(expectedRtp2, expectedTimeStamp, expectedSize2, 1, 2, RtpConstants.trackVideo)
@@ -111,4 +112,149 @@ class H265PacketTest {
     assertEquals(expectedPacketResult, frames[1])
     assertEquals(expectedPacketResult2, frames[2])
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `GIVEN a h265 frame with small nal units and a big slice WHEN create a packet THEN aggregate small nal units in an AP packet and fragment the big one`() {
+    val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+    val aud = byteArrayOf(0x46, 0x01, 0x50)
+    val sei = byteArrayOf(0x4E, 0x01, 0x05, 0x01, 0x80.toByte())
+    val slice1 = byteArrayOf(0x02, 0x01).plus(ByteArray(100) { 0x01 })
+    val slice2 = byteArrayOf(0x02, 0x01).plus(ByteArray(2000) { 0x02 })
+    val fakeH265 = startCode.plus(aud).plus(startCode).plus(sei).plus(startCode).plus(slice1).plus(startCode).plus(slice2)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 0
+    info.offset = 0
+    info.size = fakeH265.size
+    info.flags = 1
+
+    val fakeSps = byteArrayOf(0x42, 0x01, 0x01)
+    val fakePps = byteArrayOf(0x44, 0x01, 0x02)
+    val fakeVps = byteArrayOf(0x40, 0x01, 0x03)
+    val h265Packet = H265Packet(fakeSps, fakePps, fakeVps)
+    h265Packet.setPorts(1, 2)
+    h265Packet.setSSRC(123456789)
+    val frames = mutableListOf<RtpFrame>()
+    h265Packet.createAndSendPacket(ByteBuffer.wrap(fakeH265), info) {
+      frames.add(it)
+    }
+
+    //ap with sps and pps, ap with aud, sei and slice1 and 2 FU for slice2
+    assertEquals(4, frames.size)
+    val expectedPayload = byteArrayOf(0x60, 0x01)
+      .plus(byteArrayOf(0, aud.size.toByte())).plus(aud)
+      .plus(byteArrayOf(0, sei.size.toByte())).plus(sei)
+      .plus(byteArrayOf(0, slice1.size.toByte())).plus(slice1)
+    assertArrayEquals(expectedPayload, frames[1].buffer.copyOfRange(RtpConstants.RTP_HEADER_LENGTH, frames[1].length))
+    assertEquals(0, frames[1].buffer[1].toInt() and 0x80)
+    assertEquals(49, (frames[2].buffer[RtpConstants.RTP_HEADER_LENGTH].toInt() shr 1) and 0x3F)
+    assertEquals(49, (frames[3].buffer[RtpConstants.RTP_HEADER_LENGTH].toInt() shr 1) and 0x3F)
+    assertEquals(0, frames[2].buffer[1].toInt() and 0x80)
+    assertEquals(0x80, frames[3].buffer[1].toInt() and 0x80)
+  }
+
+  @Test
+  fun `GIVEN a h265 keyframe WHEN create a packet THEN send vps, sps and pps in the keyframe AP`() {
+    val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+    val slice = byteArrayOf(0x26, 0x01).plus(ByteArray(2000) { 0x01 })
+    val fakeH265 = startCode.plus(slice)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 0
+    info.offset = 0
+    info.size = fakeH265.size
+    info.flags = 1
+
+    val h265Packet = H265Packet(byteArrayOf(0x42, 0x01, 0x01), byteArrayOf(0x44, 0x01, 0x02), byteArrayOf(0x40, 0x01, 0x03))
+    h265Packet.setPorts(1, 2)
+    h265Packet.setSSRC(123456789)
+    val frames = mutableListOf<RtpFrame>()
+    h265Packet.createAndSendPacket(ByteBuffer.wrap(fakeH265), info) {
+      frames.add(it)
+    }
+
+    //ap with video info and 2 FU for the slice
+    assertEquals(3, frames.size)
+    val ap = frames[0].buffer
+    assertEquals(48, (ap[RtpConstants.RTP_HEADER_LENGTH].toInt() shr 1) and 0x3F)
+    val types = mutableListOf<Int>()
+    var offset = RtpConstants.RTP_HEADER_LENGTH + 2
+    while (offset < frames[0].length) {
+      val size = ((ap[offset].toInt() and 0xFF) shl 8) or (ap[offset + 1].toInt() and 0xFF)
+      types.add((ap[offset + 2].toInt() shr 1) and 0x3F)
+      offset += 2 + size
+    }
+    assertEquals(frames[0].length, offset)
+    assertEquals(listOf(RtpConstants.VPS, RtpConstants.H265_SPS, RtpConstants.H265_PPS), types)
+    //only the last packet of the frame is marked
+    assertEquals(0, frames[0].buffer[1].toInt() and 0x80)
+    assertEquals(0, frames[1].buffer[1].toInt() and 0x80)
+    assertEquals(0x80, frames[2].buffer[1].toInt() and 0x80)
+  }
+
+  @Test
+  fun `GIVEN a h265 keyframe with vps, sps and pps in band WHEN create a packet THEN video info is only sent in the keyframe AP`() {
+    val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+    val vps = byteArrayOf(0x40, 0x01, 0x03)
+    val sps = byteArrayOf(0x42, 0x01, 0x01)
+    val pps = byteArrayOf(0x44, 0x01, 0x02)
+    val sei = byteArrayOf(0x4E, 0x01, 0x05, 0x01, 0x80.toByte())
+    val slice = byteArrayOf(0x26, 0x01).plus(ByteArray(100) { 0x01 })
+    val fakeH265 = startCode.plus(vps).plus(startCode).plus(sps).plus(startCode).plus(pps)
+      .plus(startCode).plus(sei).plus(startCode).plus(slice)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 0
+    info.offset = 0
+    info.size = fakeH265.size
+    info.flags = 1
+
+    val h265Packet = H265Packet(sps, pps, vps)
+    h265Packet.setPorts(1, 2)
+    h265Packet.setSSRC(123456789)
+    val frames = mutableListOf<RtpFrame>()
+    h265Packet.createAndSendPacket(ByteBuffer.wrap(fakeH265), info) {
+      frames.add(it)
+    }
+
+    //ap with video info and ap with sei and slice
+    assertEquals(2, frames.size)
+    val expectedVideoInfo = byteArrayOf(0x60, 0x01)
+      .plus(byteArrayOf(0, vps.size.toByte())).plus(vps)
+      .plus(byteArrayOf(0, sps.size.toByte())).plus(sps)
+      .plus(byteArrayOf(0, pps.size.toByte())).plus(pps)
+    assertArrayEquals(expectedVideoInfo, frames[0].buffer.copyOfRange(RtpConstants.RTP_HEADER_LENGTH, frames[0].length))
+    val expectedPayload = byteArrayOf(0x60, 0x01)
+      .plus(byteArrayOf(0, sei.size.toByte())).plus(sei)
+      .plus(byteArrayOf(0, slice.size.toByte())).plus(slice)
+    assertArrayEquals(expectedPayload, frames[1].buffer.copyOfRange(RtpConstants.RTP_HEADER_LENGTH, frames[1].length))
+    assertEquals(0, frames[0].buffer[1].toInt() and 0x80)
+    assertEquals(0x80, frames[1].buffer[1].toInt() and 0x80)
+  }
+
+  @Test
+  fun `GIVEN a h265 frame ending with an invalid nal WHEN create a packet THEN last sent packet is marked`() {
+    val startCode = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+    val slice = byteArrayOf(0x02, 0x01).plus(ByteArray(100) { 0x01 })
+    val invalid = byteArrayOf(0x02)
+    val fakeH265 = startCode.plus(slice).plus(startCode).plus(invalid)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 0
+    info.offset = 0
+    info.size = fakeH265.size
+    info.flags = 1
+
+    val h265Packet = H265Packet(byteArrayOf(0x42, 0x01, 0x01), byteArrayOf(0x44, 0x01, 0x02), byteArrayOf(0x40, 0x01, 0x03))
+    h265Packet.setPorts(1, 2)
+    h265Packet.setSSRC(123456789)
+    val frames = mutableListOf<RtpFrame>()
+    h265Packet.createAndSendPacket(ByteBuffer.wrap(fakeH265), info) {
+      frames.add(it)
+    }
+
+    assertEquals(2, frames.size)
+    assertArrayEquals(slice, frames[1].buffer.copyOfRange(RtpConstants.RTP_HEADER_LENGTH, frames[1].length))
+    assertEquals(0x80, frames[1].buffer[1].toInt() and 0x80)
+  }
+}
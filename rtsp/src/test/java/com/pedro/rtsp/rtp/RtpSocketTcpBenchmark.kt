@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp
+
+import com.pedro.rtsp.rtp.sockets.RtpSocketTcp
+import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.utils.RtpConstants
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import java.io.OutputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import kotlin.concurrent.thread
+
+/**
+ * Compare stream and gathering channel paths of RtpSocketTcp writing in a loopback socket.
+ * Report packets per second and write calls (syscalls) per frame in the assert message.
+ * Ignored in the unit suite, remove @Ignore to run it.
+ */
+@Ignore("benchmark")
+class RtpSocketTcpBenchmark {
+
+  private val frames = 300
+  private val gopSize = 30
+  private val keyFramePackets = 300
+  private val interFramePackets = 10
+  private val packetSize = 1400
+
+  private lateinit var server: ServerSocketChannel
+  private var acceptThread: Thread? = null
+
+  @Before
+  fun setup() {
+    server = ServerSocketChannel.open()
+    server.bind(InetSocketAddress("127.0.0.1", 0))
+    //read and discard all data of each connection
+    acceptThread = thread {
+      runCatching {
+        while (server.isOpen) {
+          val client = server.accept()
+          thread {
+            client.use {
+              val buffer = ByteBuffer.allocateDirect(256 * 1024)
+              while (client.read(buffer) >= 0) buffer.clear()
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @After
+  fun teardown() {
+    server.close()
+    acceptThread?.join(1000)
+  }
+
+  @Test
+  fun `GIVEN access units split in rtp packets WHEN write it THEN gathering writes use less syscalls per frame than stream writes`() = runTest {
+    val streamResult = Socket().use { socket ->
+      socket.connect(server.localAddress)
+      val output = CountingOutputStream(socket.getOutputStream())
+      val rtpSocketTcp = RtpSocketTcp()
+      rtpSocketTcp.setDataStream(output, "127.0.0.1")
+      runFrames("stream", rtpSocketTcp) { output.writes }
+    }
+    val channelResult = SocketChannel.open(server.localAddress).use { socketChannel ->
+      val channel = CountingChannel(socketChannel)
+      val rtpSocketTcp = RtpSocketTcp()
+      rtpSocketTcp.setDataChannel(channel)
+      runFrames("gathering", rtpSocketTcp) { channel.writes }
+    }
+    assertTrue("$streamResult, $channelResult", channelResult.syscallsPerFrame < streamResult.syscallsPerFrame)
+  }
+
+  private suspend fun runFrames(name: String, rtpSocketTcp: RtpSocketTcp, writes: () -> Long): Result {
+    val buffer = ByteArray(packetSize)
+    var packets = 0L
+    val startTime = System.nanoTime()
+    for (frame in 0 until frames) {
+      val numPackets = if (frame % gopSize == 0) keyFramePackets else interFramePackets
+      for (i in 0 until numPackets) {
+        //marker bit in the last packet of the access unit
+        buffer[1] = if (i == numPackets - 1) 0x80.toByte() else 0x00
+        rtpSocketTcp.sendFrame(RtpFrame(buffer, 0, packetSize, 0, 0, RtpConstants.trackVideo), false)
+        packets++
+      }
+    }
+    val elapsed = (System.nanoTime() - startTime).coerceAtLeast(1)
+    return Result(name, packets * 1_000_000_000L / elapsed, writes().toFloat() / frames)
+  }
+
+  private data class Result(val name: String, val packetsPerSecond: Long, val syscallsPerFrame: Float) {
+    override fun toString(): String = "$name: packets/s $packetsPerSecond, syscalls per frame $syscallsPerFrame"
+  }
+
+  private class CountingOutputStream(private val output: OutputStream): OutputStream() {
+    var writes = 0L
+
+    override fun write(b: Int) {
+      writes++
+      output.write(b)
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+      writes++
+      output.write(b, off, len)
+    }
+  }
+
+  private class CountingChannel(private val channel: SocketChannel): GatheringByteChannel {
+    var writes = 0L
+
+    override fun write(srcs: Array<out ByteBuffer>, offset: Int, length: Int): Long {
+      writes++
+      return channel.write(srcs, offset, length)
+    }
+
+    override fun write(srcs: Array<out ByteBuffer>): Long = write(srcs, 0, srcs.size)
+
+    override fun write(src: ByteBuffer): Int {
+      writes++
+      return channel.write(src)
+    }
+
+    override fun isOpen(): Boolean = channel.isOpen
+
+    override fun close() = channel.close()
+  }
+}
@@ -1,6 +1,8 @@
 package com.pedro.rtsp.rtp
 
+import com.pedro.common.BufferPool
 import com.pedro.rtsp.rtp.sockets.BaseRtpSocket
+import com.pedro.rtsp.rtp.sockets.RtpSocketTcp
 import com.pedro.rtsp.rtp.sockets.RtpSocketUdp
 import com.pedro.rtsp.rtsp.Protocol
 import com.pedro.rtsp.rtsp.RtpFrame
@@ -8,6 +10,8 @@ import com.pedro.rtsp.utils.RtpConstants
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.test.runTest
 import kotlinx.coroutines.withContext
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.mockito.Mock
@@ -15,9 +19,14 @@ import org.mockito.junit.MockitoJUnitRunner
 import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.times
 import org.mockito.kotlin.verify
+import java.io.ByteArrayOutputStream
 import java.io.OutputStream
 import java.net.DatagramPacket
+import java.net.InetSocketAddress
 import java.net.MulticastSocket
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.nio.channels.GatheringByteChannel
 
 /**
  * Created by pedro on 9/9/23.
@@ -61,4 +70,104 @@ class RtpSocketTest {
       verify(multicastSocketMocked, times((10))).send(resultValue.capture())
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `GIVEN rtp frames of an access unit WHEN send with channel THEN write all frames together when marker bit is found`() = runTest {
+    val channel = PartialWriteChannel(5)
+    val bufferPool = BufferPool()
+    val rtpSocketTcp = RtpSocketTcp()
+    rtpSocketTcp.setDataChannel(channel)
+    val expected = ByteArrayOutputStream()
+    (0 until 4).forEach { value ->
+      val buffer = bufferPool.obtain(13)
+      buffer.fill(value.toByte(), 0, 13)
+      buffer[1] = if (value == 3) 0x80.toByte() else 0x00
+      val frame = RtpFrame(buffer, 0, 13, 0, 0, RtpConstants.trackVideo, bufferPool)
+      rtpSocketTcp.sendFrame(frame, false)
+      //released by the sender after send it
+      frame.release()
+      expected.write(byteArrayOf('$'.code.toByte(), 0, 0, 13))
+      expected.write(buffer, 0, 13)
+      if (value < 3) {
+        assertEquals(0, channel.output.size())
+        assertEquals(value + 1L, bufferPool.liveBuffers)
+      }
+    }
+    assertArrayEquals(expected.toByteArray(), channel.output.toByteArray())
+    assertEquals(0, bufferPool.liveBuffers)
+  }
+
+  @Test
+  fun `GIVEN rtp frames without marker bit WHEN max batch delay is reached THEN write pending frames`() = runTest {
+    val channel = PartialWriteChannel(5)
+    val rtpSocketTcp = RtpSocketTcp(maxBatchDelayMs = 50)
+    rtpSocketTcp.setDataChannel(channel)
+    val buffer = ByteArray(13) { 1 }
+    buffer[1] = 0x00
+    rtpSocketTcp.sendFrame(RtpFrame(buffer, 0, 13, 0, 0, RtpConstants.trackVideo), false)
+    assertEquals(0, channel.output.size())
+    //no more frames are sent, the timer must write the batch
+    withContext(Dispatchers.IO) {
+      Thread.sleep(500)
+    }
+    val size = synchronized(RtpConstants.lock) { channel.output.size() }
+    assertEquals(17, size)
+    rtpSocketTcp.close()
+  }
+
+  @Test
+  fun `GIVEN multiple rtp frames WHEN send frames with udp channels THEN receive all frames in order`() = runTest {
+    val receiver = DatagramChannel.open()
+    receiver.socket().bind(InetSocketAddress("127.0.0.1", 0))
+    val port = receiver.socket().localPort
+    val rtpSocketUdp = RtpSocketUdp(0, 0)
+    try {
+      rtpSocketUdp.setDataStream(outputMocked, "127.0.0.1")
+      val frames = (0 until 40).map { value ->
+        val buffer = ByteArray(100) { value.toByte() }
+        RtpFrame(buffer, 0, 50 + value, port, port, RtpConstants.trackVideo)
+      }
+      rtpSocketUdp.sendFrames(frames, false)
+      val received = ByteBuffer.allocate(RtpConstants.MTU)
+      frames.forEach { frame ->
+        received.clear()
+        receiver.receive(received)
+        received.flip()
+        val data = ByteArray(received.remaining())
+        received.get(data)
+        assertArrayEquals(frame.buffer.copyOf(frame.length), data)
+      }
+    } finally {
+      rtpSocketUdp.close()
+      receiver.close()
+    }
+  }
+
+  /**
+   * Channel that write only maxBytes per call to simulate a socket with a full send buffer.
+   */
+  private class PartialWriteChannel(private val maxBytes: Int): GatheringByteChannel {
+
+    val output = ByteArrayOutputStream()
+
+    override fun write(srcs: Array<out ByteBuffer>, offset: Int, length: Int): Long {
+      var written = 0
+      for (i in offset until offset + length) {
+        val src = srcs[i]
+        while (src.hasRemaining() && written < maxBytes) {
+          output.write(src.get().toInt())
+          written++
+        }
+      }
+      return written.toLong()
+    }
+
+    override fun write(srcs: Array<out ByteBuffer>): Long = write(srcs, 0, srcs.size)
+
+    override fun write(src: ByteBuffer): Int = write(arrayOf(src)).toInt()
+
+    override fun isOpen(): Boolean = true
+
+    override fun close() {}
+  }
+}
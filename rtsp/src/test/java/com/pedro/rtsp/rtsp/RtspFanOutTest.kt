@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtsp
+
+import android.media.MediaCodec
+import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.whenever
+import java.nio.ByteBuffer
+
+class RtspFanOutTest {
+
+  private val sps = byteArrayOf(0, 0, 0, 1, 103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+  private val pps = byteArrayOf(0, 0, 0, 1, 104, -18, 13, -117)
+  private val clients = Array(3) { Mockito.mock(RtspClient::class.java) }
+  private val streaming = BooleanArray(clients.size) { true }
+  private val sessions = IntArray(clients.size) { 1 }
+  //rtp frames received by each client, one list for each video frame
+  private val received = Array(clients.size) { mutableListOf<List<RtpFrame>>() }
+  private var keyFrameRequests = 0
+  private lateinit var fanOut: RtspFanOut
+
+  @Before
+  fun setup() {
+    clients.forEachIndexed { index, client ->
+      whenever(client.isStreaming).then { streaming[index] }
+      whenever(client.sessionId).then { sessions[index] }
+      doAnswer { received[index].add(ArrayList(it.getArgument<List<RtpFrame>>(0))) }
+        .whenever(client).sendVideoFrames(any(), any(), any())
+    }
+    fanOut = RtspFanOut(clients)
+    fanOut.setKeyFrameRequestListener { keyFrameRequests++ }
+    fanOut.setVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+  }
+
+  private fun sendVideo(isKeyFrame: Boolean) {
+    val frame = byteArrayOf(0x00, 0x00, 0x00, 0x01, if (isKeyFrame) 0x65 else 0x41).plus(ByteArray(3000) { 0x01 })
+    val info = MediaCodec.BufferInfo()
+    info.set(0, frame.size, 0, if (isKeyFrame) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0)
+    fanOut.sendVideo(ByteBuffer.wrap(frame), info)
+  }
+
+  //nal type of a single nal unit or the type in the fu header
+  private fun getNalType(rtpFrame: RtpFrame): Int {
+    val type = rtpFrame.buffer[RtpConstants.RTP_HEADER_LENGTH].toInt() and 0x1F
+    return if (type == 28) rtpFrame.buffer[RtpConstants.RTP_HEADER_LENGTH + 1].toInt() and 0x1F else type
+  }
+
+  @Test
+  fun `GIVEN multiple clients WHEN send a frame THEN rtp frames are shared and returned to the pool after the last release`() {
+    sendVideo(true)
+    val frames = received.map { it.single() }
+    assertTrue(frames[0].size > 1)
+    frames.forEach { list -> list.forEachIndexed { i, rtpFrame -> assertSame(frames[0][i], rtpFrame) } }
+    val pool = fanOut.getBufferPool()
+    val pooledBytes = pool.getPooledBytes()
+    frames[0].forEach { it.release() }
+    frames[1].forEach { it.release() }
+    assertEquals(pooledBytes, pool.getPooledBytes())
+    frames[2].forEach { it.release() }
+    assertTrue(pool.getPooledBytes() > pooledBytes)
+  }
+
+  @Test
+  fun `GIVEN a client that drops a frame WHEN other clients send it THEN the buffer is not reused`() {
+    sendVideo(true)
+    received.forEach { frames -> frames.single().forEach { it.release() } }
+    sendVideo(false)
+    val frames = received.map { it.last() }
+    //client 0 discard the frame
+    frames[0].forEach { it.release() }
+    val pool = fanOut.getBufferPool()
+    val rtpFrame = frames[1][0]
+    val buffer = pool.obtain(rtpFrame.buffer.size)
+    assertNotSame(rtpFrame.buffer, buffer)
+    assertEquals(1, getNalType(rtpFrame))
+    pool.release(buffer)
+    sendVideo(false)
+    received.forEach { assertEquals(3, it.size) }
+  }
+
+  @Test
+  fun `GIVEN a client that starts in the middle of the stream WHEN send frames THEN that client starts in a keyframe`() {
+    streaming[2] = false
+    sendVideo(true)
+    sendVideo(false)
+    //a new session is started
+    streaming[2] = true
+    sessions[2]++
+    sendVideo(false)
+    sendVideo(false)
+    //no frames until the next keyframe and the keyframe is requested only once
+    assertEquals(0, received[2].size)
+    assertEquals(1, keyFrameRequests)
+    assertEquals(4, received[0].size)
+    sendVideo(true)
+    val frames = received[2].single()
+    //sps and pps are sent with the keyframe
+    assertEquals(24, frames[0].buffer[RtpConstants.RTP_HEADER_LENGTH].toInt() and 0x1F)
+    assertEquals(5, getNalType(frames[1]))
+    sendVideo(false)
+    assertEquals(2, received[2].size)
+    assertEquals(1, keyFrameRequests)
+  }
+}
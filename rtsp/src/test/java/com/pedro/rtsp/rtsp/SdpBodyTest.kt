@@ -18,6 +18,7 @@ package com.pedro.rtsp.rtsp
 
 import com.pedro.rtsp.rtsp.commands.SdpBody
 import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Test
 
@@ -44,6 +45,17 @@ class SdpBodyTest {
     assertTrue(result.contains(expectedTrack))
   }
 
+  @Test
+  fun `GIVEN aac info with aggregation WHEN create aac body THEN get constant duration and max ptime`() {
+    val result = SdpBody.createAacBody(1, 48000, true, 50)
+    assertTrue(result.contains("indexdeltalength=3; constantDuration=1024\r\n"))
+    //3 AUs of 21.3ms
+    assertTrue(result.contains("a=maxptime:64\r\n"))
+    val single = SdpBody.createAacBody(1, 48000, true)
+    assertFalse(single.contains("constantDuration"))
+    assertFalse(single.contains("maxptime"))
+  }
+
   @Test
   fun `GIVEN h264 info WHEN create h264 body THEN get expected string`() {
     val track = 1
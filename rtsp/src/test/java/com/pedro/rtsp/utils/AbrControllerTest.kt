@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.utils
+
+import com.pedro.rtsp.rtcp.ReceiverReport
+import com.pedro.rtsp.rtcp.ReceiverStats
+import com.pedro.rtsp.rtcp.RtcpGenerator
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class AbrControllerTest {
+
+  private val maxBitrate = 4_000_000
+  private val minBitrate = 500_000
+  private val bitrates = mutableListOf<Int>()
+  private lateinit var abrController: AbrController
+
+  @Before
+  fun setup() {
+    bitrates.clear()
+    abrController = AbrController(minBitrate, maxBitrate, object : AbrController.Listener {
+      override fun onBitrateAdapted(bitrate: Int) {
+        bitrates.add(bitrate)
+      }
+    })
+  }
+
+  @Test
+  fun `GIVEN high loss WHEN update THEN reduce bitrate in proportion to the loss`() {
+    abrController.update(0.2f)
+    assertEquals(listOf((maxBitrate * 0.9f).toInt()), bitrates)
+  }
+
+  @Test
+  fun `GIVEN medium loss WHEN update THEN keep bitrate`() {
+    abrController.update(0.2f)
+    abrController.update(0.05f)
+    assertEquals(1, bitrates.size)
+  }
+
+  @Test
+  fun `GIVEN low loss after a reduction WHEN update THEN increase bitrate until max`() {
+    abrController.update(0.5f)
+    repeat(10) { abrController.update(0f) }
+    assertTrue(bitrates[1] > bitrates[0])
+    assertEquals(maxBitrate, bitrates.last())
+  }
+
+  @Test
+  fun `GIVEN remb lower than bitrate WHEN update THEN use remb`() {
+    abrController.update(0f, 1_000_000)
+    assertEquals(listOf(1_000_000), bitrates)
+  }
+
+  @Test
+  fun `GIVEN high loss multiple times WHEN update THEN never go under min bitrate`() {
+    repeat(20) { abrController.update(0.8f) }
+    assertEquals(minBitrate, bitrates.last())
+  }
+
+  @Test
+  fun `GIVEN a compound packet with only remb WHEN update with the report THEN use remb`() {
+    val data = RtcpGenerator().addRemb(1_000_000, 0x01020304L).build()
+    val report = ReceiverReport.parse(data, data.size)!!
+    abrController.update(emptyList<ReceiverStats>(), report.rembBitrate)
+    assertEquals(listOf(1_000_000), bitrates)
+  }
+
+  @Test
+  fun `GIVEN a receiver report without video block and remb over bitrate WHEN update THEN keep bitrate`() {
+    abrController.update(0.5f)
+    val data = RtcpGenerator().addReceiverReport().addRemb(3_000_000, 0x01020304L).build()
+    val report = ReceiverReport.parse(data, data.size)!!
+    assertTrue(report.reportBlocks.isEmpty())
+    abrController.update(emptyList<ReceiverStats>(), report.rembBitrate)
+    //no loss sample so the bitrate is not increased
+    assertEquals(1, bitrates.size)
+  }
+}
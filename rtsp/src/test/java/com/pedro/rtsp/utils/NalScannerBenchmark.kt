@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.utils
+
+import com.pedro.common.NalScanner
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.util.Random
+
+/**
+ * Compare NalScanner with the per frame video info detection used before (start code detection and
+ * start code + sps + start code + pps + start code arrays compared with the buffer).
+ * Video info detection only read the beginning of the buffer and can't find slices so only allocations are comparable.
+ * Report ns per frame, MB/s scanned and bytes allocated per frame in the assert message.
+ * The benchmark is ignored in the unit suite, the generated bitstream check is not.
+ *
+ * Bitstreams are generated with multiple slices per frame and video info in keyframes.
+ * A recorded Annex-B file can be used instead with -Dnal.benchmark.file=path -Dnal.benchmark.hevc=true|false
+ */
+class NalScannerBenchmark {
+
+  private val frames = 10000
+  private val gopSize = 30
+  private val slices = 4
+  private val keyFrameSize = 60_000
+  private val interFrameSize = 6_000
+  private val sps = byteArrayOf(0x67, 0x64, 0x00, 0x1E, 0xAC.toByte(), 0xB4.toByte(), 0x0F, 0x02)
+  private val pps = byteArrayOf(0x68, 0xEE.toByte(), 0x0D, 0x8B.toByte())
+  private val vps = byteArrayOf(0x40, 0x01, 0x0C, 0x01, 0xFF.toByte())
+  private val spsHevc = byteArrayOf(0x42, 0x01, 0x01, 0x01, 0x60)
+  private val ppsHevc = byteArrayOf(0x44, 0x01, 0xC1.toByte(), 0x72)
+
+  private val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+  @Ignore("benchmark")
+  @Test
+  fun `GIVEN h264 and h265 bitstreams WHEN scan nal units THEN scanner allocates less per frame than video info detection`() {
+    val file = System.getProperty("nal.benchmark.file")
+    val bitstreams = if (file != null) {
+      val hevc = System.getProperty("nal.benchmark.hevc").toBoolean()
+      listOf((if (hevc) "h265 file" else "h264 file") to splitAccessUnits(File(file).readBytes(), hevc))
+    } else {
+      listOf("h264" to generate(false), "h265" to generate(true))
+    }
+    bitstreams.forEach { (name, accessUnits) ->
+      //warmup
+      run(accessUnits, ::detectVideoInfo)
+      val nalScanner = NalScanner()
+      run(accessUnits) { nalScanner.scan(it) }
+      val legacy = run(accessUnits, ::detectVideoInfo)
+      val scanner = run(accessUnits) { nalScanner.scan(it) }
+      assertTrue("$name video info detection: $legacy, nal scanner: $scanner", scanner.bytesPerFrame < legacy.bytesPerFrame)
+    }
+  }
+
+  @Test
+  fun `GIVEN a generated h264 bitstream WHEN scan it THEN find all nal units`() {
+    val nalScanner = NalScanner()
+    generate(false).forEachIndexed { index, accessUnit ->
+      val expected = if (index % gopSize == 0) slices + 2 else slices
+      assertEquals(expected, nalScanner.scan(accessUnit))
+    }
+  }
+
+  private fun run(accessUnits: List<ByteBuffer>, scan: (ByteBuffer) -> Int): Result {
+    val threadId = Thread.currentThread().id
+    var bytes = 0L
+    var result = 0L
+    val startBytes = threadMXBean.getThreadAllocatedBytes(threadId)
+    val startTime = System.nanoTime()
+    for (i in 0 until frames) {
+      val accessUnit = accessUnits[i % accessUnits.size]
+      accessUnit.rewind()
+      result += scan(accessUnit)
+      bytes += accessUnit.limit()
+    }
+    val elapsed = (System.nanoTime() - startTime).coerceAtLeast(1)
+    val allocated = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes
+    assertTrue(result > 0)
+    return Result(elapsed / frames, bytes * 1000 / elapsed, allocated / frames)
+  }
+
+  private data class Result(val nsPerFrame: Long, val mbPerSecond: Long, val bytesPerFrame: Long) {
+    override fun toString(): String = "ns per frame $nsPerFrame, MB/s $mbPerSecond, bytes allocated per frame $bytesPerFrame"
+  }
+
+  //same work done by packetizers before NalScanner to find video info at the beginning of the buffer
+  private fun detectVideoInfo(byteBuffer: ByteBuffer): Int {
+    val startCodeSize = byteBuffer.getVideoStartCodeSize()
+    if (startCodeSize == 0) return 0
+    val startCode = ByteArray(startCodeSize) { 0x00 }
+    startCode[startCodeSize - 1] = 0x01
+    val avcHeader = startCode.plus(sps).plus(startCode).plus(pps).plus(startCode)
+    if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
+    val possibleAvcHeader = ByteArray(avcHeader.size)
+    byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
+    return if (avcHeader.contentEquals(possibleAvcHeader)) avcHeader.size else startCodeSize
+  }
+
+  private fun generate(hevc: Boolean): List<ByteBuffer> {
+    val random = Random(1)
+    return List(gopSize * 2) { frame ->
+      val isKeyFrame = frame % gopSize == 0
+      val output = ByteArrayOutputStream()
+      if (isKeyFrame) {
+        val videoInfo = if (hevc) listOf(vps, spsHevc, ppsHevc) else listOf(sps, pps)
+        videoInfo.forEach { writeNal(output, it, random, 0) }
+      }
+      val sliceSize = (if (isKeyFrame) keyFrameSize else interFrameSize) / slices
+      val header = if (hevc) {
+        if (isKeyFrame) byteArrayOf(0x26, 0x01) else byteArrayOf(0x02, 0x01)
+      } else {
+        if (isKeyFrame) byteArrayOf(0x65) else byteArrayOf(0x41)
+      }
+      repeat(slices) { writeNal(output, header, random, sliceSize) }
+      ByteBuffer.wrap(output.toByteArray())
+    }
+  }
+
+  //write start code, header and random payload with emulation prevention bytes
+  private fun writeNal(output: ByteArrayOutputStream, header: ByteArray, random: Random, payloadSize: Int) {
+    output.write(byteArrayOf(0x00, 0x00, 0x00, 0x01))
+    output.write(header)
+    var zeros = 0
+    for (i in 0 until payloadSize) {
+      //zeros are frequent in real bitstreams
+      val value = if (random.nextInt(8) == 0) 0 else random.nextInt(256)
+      if (zeros >= 2 && value <= 3) {
+        output.write(0x03)
+        zeros = 0
+      }
+      output.write(value)
+      zeros = if (value == 0) zeros + 1 else 0
+    }
+    //rbsp trailing bits
+    output.write(0x80)
+  }
+
+  private fun splitAccessUnits(data: ByteArray, hevc: Boolean): List<ByteBuffer> {
+    //one buffer per vcl nal unit with the previous non vcl nal units, like encoder output with single slice
+    val nalScanner = NalScanner()
+    val buffer = ByteBuffer.wrap(data)
+    val count = nalScanner.scan(buffer)
+    val accessUnits = mutableListOf<ByteBuffer>()
+    var start = 0
+    for (i in 0 until count) {
+      val isVcl = if (hevc) nalScanner.getH265Type(i) < 32 else nalScanner.getH264Type(i) in 1..5
+      if (isVcl) {
+        accessUnits.add(ByteBuffer.wrap(data.copyOfRange(start, nalScanner.getEnd(i))))
+        start = nalScanner.getEnd(i)
+      }
+    }
+    return accessUnits
+  }
+}
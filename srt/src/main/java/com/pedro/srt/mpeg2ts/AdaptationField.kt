@@ -19,7 +19,6 @@ package com.pedro.srt.mpeg2ts
 import com.pedro.srt.utils.Constants
 import com.pedro.srt.utils.toInt
 import java.nio.ByteBuffer
-import kotlin.math.pow
 
 /**
  * Created by pedro on 24/8/23.
@@ -97,22 +96,33 @@ data class AdaptationField(
     fun getSize(): Int = length
 
     private fun addClockReference(buffer: ByteBuffer, timestamp: Long) {
-        val pcrBase =
-            (Constants.SYSTEM_CLOCK_FREQ * timestamp / 1000000 /* µs -> s */ / 300) % 2.toDouble()
-                .pow(33)
-                .toLong()
-        val pcrExt = (Constants.SYSTEM_CLOCK_FREQ * timestamp / 1000000 /* µs -> s */) % 300
+        writeClockReference(buffer.array(), buffer.arrayOffset() + buffer.position(), timestamp)
+        buffer.position(buffer.position() + CLOCK_REFERENCE_SIZE)
+    }
+
+    companion object {
+        const val CLOCK_REFERENCE_SIZE = 6
 
         /**
-         * PCR Base -> 33 bits
-         * Reserved -> 6 bits (0b111111)
-         * PCR Ext -> 9 bits
+         * Write a PCR/OPCR in buffer without allocations.
          */
-        buffer.putInt((pcrBase shr 1).toInt())
-        buffer.putShort(
-            (((pcrBase and 0x1) shl 15)
-                or (0b111111 shl 9)
-                or (pcrExt and 0x1FF)).toShort()
-        )
+        fun writeClockReference(buffer: ByteArray, offset: Int, timestamp: Long) {
+            val pcrBase = (Constants.SYSTEM_CLOCK_FREQ * timestamp / 1000000 /* µs -> s */ / 300) and 0x1FFFFFFFFL
+            val pcrExt = (Constants.SYSTEM_CLOCK_FREQ * timestamp / 1000000 /* µs -> s */) % 300
+
+            /**
+             * PCR Base -> 33 bits
+             * Reserved -> 6 bits (0b111111)
+             * PCR Ext -> 9 bits
+             */
+            val base = (pcrBase shr 1).toInt()
+            val ext = (((pcrBase and 0x1) shl 15) or (0b111111 shl 9) or (pcrExt and 0x1FF)).toInt()
+            buffer[offset] = (base ushr 24).toByte()
+            buffer[offset + 1] = (base ushr 16).toByte()
+            buffer[offset + 2] = (base ushr 8).toByte()
+            buffer[offset + 3] = base.toByte()
+            buffer[offset + 4] = (ext ushr 8).toByte()
+            buffer[offset + 5] = ext.toByte()
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+/**
+ * MediaCodec only provides the pts of each frame. Frames are received in decode order so, without reordering (no B-frames),
+ * dts is the same as pts. With B-frames, the dts of each frame is the lowest pts pending after keep as many frames as the
+ * reorder depth detected. This produce increasing dts values always lower or equal to the pts of the frame.
+ *
+ * The reorder depth is detected with the frames received so only the first frame that needs a higher depth can't get a valid dts.
+ * Set initialReorderDepth with the B-frames configured in the encoder to avoid it.
+ */
+class DtsGenerator {
+
+  companion object {
+    private const val MAX_REORDER = 16
+    //minimum dts increment, 1 tick of 90khz clock
+    private const val MIN_STEP = 12L
+  }
+
+  //pts of frames without dts assigned, sorted
+  private val pending = LongArray(MAX_REORDER + 1)
+  private var pendingSize = 0
+  //last pts received to detect the reorder depth
+  private val history = LongArray(MAX_REORDER)
+  private var historySize = 0
+  private var historyIndex = 0
+  var initialReorderDepth = 0
+    set(value) {
+      field = value.coerceIn(0, MAX_REORDER)
+      reorderDepth = maxOf(reorderDepth, field)
+    }
+  private var reorderDepth = 0
+  private var lastDts = Long.MIN_VALUE
+
+  fun getDts(pts: Long): Long {
+    //frames received before with higher pts
+    var depth = 0
+    for (i in 0 until historySize) {
+      if (history[i] > pts) depth++
+    }
+    history[historyIndex] = pts
+    historyIndex = (historyIndex + 1) % MAX_REORDER
+    if (historySize < MAX_REORDER) historySize++
+    if (depth > reorderDepth) reorderDepth = minOf(depth, MAX_REORDER)
+
+    insert(pts)
+    val dts = if (pendingSize > reorderDepth) {
+      pop()
+    } else {
+      //not enough frames yet, use the smallest steps possible before the lowest pts pending
+      pending[0] - (reorderDepth - pendingSize + 1) * MIN_STEP
+    }
+    //depth detected too late, dts can't be lower than pts and increase
+    val result = if (dts <= lastDts) minOf(lastDts + MIN_STEP, pts) else dts
+    lastDts = result
+    return result
+  }
+
+  private fun insert(pts: Long) {
+    if (pendingSize == pending.size) pop()
+    var i = pendingSize
+    while (i > 0 && pending[i - 1] > pts) {
+      pending[i] = pending[i - 1]
+      i--
+    }
+    pending[i] = pts
+    pendingSize++
+  }
+
+  private fun pop(): Long {
+    val value = pending[0]
+    System.arraycopy(pending, 1, pending, 0, pendingSize - 1)
+    pendingSize--
+    return value
+  }
+
+  fun reset() {
+    pendingSize = 0
+    historySize = 0
+    historyIndex = 0
+    reorderDepth = initialReorderDepth
+    lastDts = Long.MIN_VALUE
+  }
+}
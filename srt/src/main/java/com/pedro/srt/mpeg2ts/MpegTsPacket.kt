@@ -16,15 +16,45 @@
 
 package com.pedro.srt.mpeg2ts
 
+import com.pedro.common.BufferPool
 import com.pedro.srt.srt.packets.data.PacketPosition
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Created by pedro on 20/8/23.
  *
  * Contains multiple TS packets in a buffer no longer to MTU - data header size
+ *
+ * @param pool pool that provided buffer. If not null, buffer is returned to the pool when all references are released.
+ * buffer could be bigger than length when pooled.
  */
-data class MpegTsPacket(
+class MpegTsPacket(
   val buffer: ByteArray,
   val type: MpegType,
-  val packetPosition: PacketPosition
-)
\ No newline at end of file
+  val packetPosition: PacketPosition,
+  val length: Int = buffer.size,
+  val pool: BufferPool? = null
+) {
+
+  private val references = AtomicInteger(1)
+
+  /**
+   * Add a reference to the packet. Each call must be followed by a release call.
+   */
+  fun retain(): MpegTsPacket {
+    references.incrementAndGet()
+    return this
+  }
+
+  /**
+   * @return true if other owners have a reference to the packet so the buffer can't be modified or reused.
+   */
+  fun isShared(): Boolean = references.get() > 1
+
+  /**
+   * Remove a reference to the packet. The buffer is returned to the pool when all references are released.
+   */
+  fun release() {
+    if (references.decrementAndGet() == 0) pool?.release(buffer)
+  }
+}
\ No newline at end of file
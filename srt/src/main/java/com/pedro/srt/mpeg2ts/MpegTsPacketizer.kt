@@ -17,7 +17,6 @@
 package com.pedro.srt.mpeg2ts
 
 import com.pedro.srt.mpeg2ts.psi.Psi
-import com.pedro.srt.utils.TimeUtils
 import com.pedro.srt.utils.toByteArray
 import com.pedro.srt.utils.toInt
 import java.nio.ByteBuffer
@@ -25,14 +24,23 @@ import java.nio.ByteBuffer
 /**
  * Created by pedro on 28/8/23.
  *
+ * PCR is written in the first packet of a pes when pcrManager indicate it.
+ * Use the same pcrManager in all packetizers of the service.
  */
-class MpegTsPacketizer {
+class MpegTsPacketizer(
+  private val pcrManager: PcrManager = PcrManager()
+) {
 
   companion object {
     const val packetSize = 188
+    private const val MAX_PID = 0x2000
   }
 
-  private var pesContinuity = 0
+  //continuity counter of each pid
+  private val continuity = ByteArray(MAX_PID)
+  //pes written with writePayload
+  private var currentPes: Pes? = null
+  private var isFirstPesPacket = false
 
   //4 bytes header
   private fun writeHeader(buffer: ByteBuffer, startIndicator: Boolean, pid: Int, adaptationFieldControl: AdaptationFieldControl, continuity: Int) {
@@ -55,14 +63,11 @@ class MpegTsPacketizer {
    */
   fun write(payload: List<MpegTsPayload>): List<ByteArray> {
     val packets = mutableListOf<ByteArray>()
-    payload.forEachIndexed { index, mpegTsPayload ->
-      var buffer = ByteBuffer.allocate(packetSize)
-      var isFirstPacket = index == 0
-      val continuity = 0 and 0xF
-
+    payload.forEach { mpegTsPayload ->
       when (mpegTsPayload) {
         is Psi -> {
-          writeHeader(buffer, true, mpegTsPayload.pid, AdaptationFieldControl.PAYLOAD, continuity)
+          val buffer = ByteBuffer.allocate(packetSize)
+          writeHeader(buffer, true, mpegTsPayload.pid, AdaptationFieldControl.PAYLOAD, nextContinuity(mpegTsPayload.pid))
           val psi = mpegTsPayload
           psi.write(buffer)
           val stuffingSize = buffer.remaining()
@@ -71,38 +76,11 @@ class MpegTsPacketizer {
         }
         is Pes -> {
           val pes = mpegTsPayload
-          var adaptationFieldControl = AdaptationFieldControl.ADAPTATION_PAYLOAD
-          writeHeader(buffer, true, mpegTsPayload.pid, adaptationFieldControl, pesContinuity)
-          val adaptationField = AdaptationField(
-            discontinuityIndicator = false,
-            randomAccessIndicator = mpegTsPayload.isKeyFrame, //only video can be true
-            pcr = TimeUtils.getCurrentTimeMicro()
-          )
-          buffer.put(adaptationField.getData())
-          pes.writeHeader(buffer)
-
-          val data = pes.bufferData
-          while (data.hasRemaining()) {
-            if (isFirstPacket) {
-              isFirstPacket = false
-              adaptationFieldControl = AdaptationFieldControl.PAYLOAD
-            } else {
-              writeHeader(buffer, false, mpegTsPayload.pid, adaptationFieldControl, pesContinuity)
-            }
-            val size = minOf(data.remaining(), buffer.remaining())
-            if (size < buffer.remaining()) { //last packet
-              val stuffingSize = buffer.remaining() - data.remaining()
-              //override AdaptationFieldControl.PAYLOAD to AdaptationFieldControl.ADAPTATION_PAYLOAD
-              val byte = buffer.get(buffer.position() - 1)
-              buffer.position(buffer.position() - 1)
-              buffer.put((byte.toInt() or (1 shl 5)).toByte())
-              writeStuffingBytes(buffer, stuffingSize, true)
-            }
-            buffer.put(data.array(), data.position(), size)
-            data.position(data.position() + size)
-            packets.add(buffer.toByteArray())
-            pesContinuity = (pesContinuity + 1) and 0xF
-            buffer = ByteBuffer.allocate(packetSize)
+          startPes(pes)
+          while (hasPesRemaining()) {
+            val buffer = ByteArray(packetSize)
+            writePayload(buffer, 0, packetSize)
+            packets.add(buffer)
           }
         }
       }
@@ -116,17 +94,137 @@ class MpegTsPacketizer {
         byteBuffer.put((size - 1).toByte()) //this byte is not included in the size
       }
       else -> {
-        val bytes = ByteArray(fillSize) { 0xFF.toByte() }
         if (addHeader) {
           byteBuffer.put((size - 1).toByte()) //this byte is not included in the size
           byteBuffer.put(0x00)
         }
-        byteBuffer.put(bytes)
+        for (i in 0 until fillSize) byteBuffer.put(0xFF.toByte())
+      }
+    }
+  }
+
+  /**
+   * Allocation free mode. Set the pes to write with writePayload calls until hasPesRemaining return false.
+   * bufferData of pes is read directly so it must be valid until the pes is written.
+   */
+  fun startPes(pes: Pes) {
+    currentPes = pes
+    isFirstPesPacket = true
+  }
+
+  fun hasPesRemaining(): Boolean {
+    val pes = currentPes ?: return false
+    return isFirstPesPacket || pes.bufferData.hasRemaining()
+  }
+
+  /**
+   * Write as many TS packets of the current pes as fit in size bytes of buffer starting from offset.
+   * This way the buffer is filled as a srt payload without intermediate arrays.
+   *
+   * @return bytes written (multiple of packetSize)
+   */
+  fun writePayload(buffer: ByteArray, offset: Int, size: Int): Int {
+    val pes = currentPes ?: return 0
+    var position = offset
+    while (position + packetSize <= offset + size && hasPesRemaining()) {
+      writePesPacket(pes, buffer, position)
+      position += packetSize
+    }
+    if (!hasPesRemaining()) currentPes = null
+    return position - offset
+  }
+
+  private fun writePesPacket(pes: Pes, buffer: ByteArray, offset: Int) {
+    val data = pes.bufferData
+    val end = offset + packetSize
+    val continuity = nextContinuity(pes.pid)
+    if (isFirstPesPacket) {
+      isFirstPesPacket = false
+      val pcr = pcrManager.getPcr(pes.pid, pes.dts)
+      //adaptation field with random access (only video can be true) and pcr if needed
+      //stuffing is added to the adaptation field if data is not enough to fill the packet
+      val adaptationSize = if (pcr >= 0) 2 + AdaptationField.CLOCK_REFERENCE_SIZE else if (pes.isKeyFrame) 2 else 0
+      val availableSize = packetSize - 4 - adaptationSize - pes.getHeaderSize()
+      val dataSize = minOf(data.remaining(), availableSize)
+      val stuffingSize = availableSize - dataSize
+      val adaptationFieldSize = adaptationSize + stuffingSize
+      val adaptationFieldControl = if (adaptationFieldSize > 0) AdaptationFieldControl.ADAPTATION_PAYLOAD else AdaptationFieldControl.PAYLOAD
+      writeHeader(buffer, offset, true, pes.pid, adaptationFieldControl, continuity)
+      var position = offset + 4
+      if (adaptationFieldSize > 0) {
+        buffer[position++] = (adaptationFieldSize - 1).toByte() //this byte is not included in the size
+        if (adaptationFieldSize > 1) {
+          buffer[position++] = ((pes.isKeyFrame.toInt() shl 6) or ((pcr >= 0).toInt() shl 4)).toByte()
+          if (pcr >= 0) {
+            AdaptationField.writeClockReference(buffer, position, pcr)
+            position += AdaptationField.CLOCK_REFERENCE_SIZE
+          }
+          val fillSize = offset + 4 + adaptationFieldSize - position
+          buffer.fill(0xFF.toByte(), position, position + fillSize)
+          position += fillSize
+        }
+      }
+      position += pes.writeHeader(buffer, position)
+      data.get(buffer, position, dataSize)
+    } else {
+      val availableSize = packetSize - 4
+      val dataSize = minOf(data.remaining(), availableSize)
+      if (dataSize < availableSize) { //last packet
+        writeHeader(buffer, offset, false, pes.pid, AdaptationFieldControl.ADAPTATION_PAYLOAD, continuity)
+        val stuffingSize = availableSize - dataSize
+        buffer[offset + 4] = (stuffingSize - 1).toByte() //this byte is not included in the size
+        if (stuffingSize > 1) {
+          buffer[offset + 5] = 0x00
+          buffer.fill(0xFF.toByte(), offset + 6, offset + 4 + stuffingSize)
+        }
+      } else {
+        writeHeader(buffer, offset, false, pes.pid, AdaptationFieldControl.PAYLOAD, continuity)
       }
+      data.get(buffer, end - dataSize, dataSize)
     }
   }
 
+  /**
+   * Write a packet with only an adaptation field that carries the pcr.
+   * Continuity counter is not increased in packets without payload so it is the same of the last packet of the pid.
+   */
+  fun writePcrPacket(buffer: ByteArray, offset: Int, pid: Int, pcr: Long) {
+    val continuity = (continuity[pid] - 1) and 0xF
+    writeHeader(buffer, offset, false, pid, AdaptationFieldControl.ADAPTATION, continuity)
+    val adaptationFieldSize = packetSize - 4
+    var position = offset + 4
+    buffer[position++] = (adaptationFieldSize - 1).toByte() //this byte is not included in the size
+    buffer[position++] = (1 shl 4).toByte() //pcr flag
+    AdaptationField.writeClockReference(buffer, position, pcr)
+    position += AdaptationField.CLOCK_REFERENCE_SIZE
+    buffer.fill(0xFF.toByte(), position, offset + packetSize)
+  }
+
+  //continuity counter to use in the next packet of the pid
+  private fun nextContinuity(pid: Int): Int {
+    val value = continuity[pid].toInt()
+    continuity[pid] = ((value + 1) and 0xF).toByte()
+    return value
+  }
+
+  //4 bytes header
+  private fun writeHeader(buffer: ByteArray, offset: Int, startIndicator: Boolean, pid: Int, adaptationFieldControl: AdaptationFieldControl, continuity: Int) {
+    val transportErrorIndicator = false
+    val transportPriority = false
+    val transportScramblingControl = 0
+
+    buffer[offset] = 0x47 //sync byte
+    val combined = (transportErrorIndicator.toInt() shl 15) or (startIndicator.toInt() shl 14) or
+        (transportPriority.toInt() shl 13) or pid
+    buffer[offset + 1] = (combined shr 8).toByte()
+    buffer[offset + 2] = combined.toByte()
+    buffer[offset + 3] = ((transportScramblingControl and 0x3 shl 6)
+        or (adaptationFieldControl.value.toInt() and 0x3 shl 4) or (continuity and 0xF)).toByte()
+  }
+
   fun reset() {
-    pesContinuity = 0
+    continuity.fill(0)
+    currentPes = null
+    isFirstPesPacket = false
   }
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import com.pedro.srt.utils.TimeUtils
+
+/**
+ * Program clock of the service shared by all elementary streams.
+ *
+ * PCR is derived from the media clock (dts of the frames) instead of the wall clock so it never drifts from PTS/DTS.
+ * Timestamps written in pes are moved forward pcrDelay so the pcr never is negative and the decoder has pcrDelay
+ * of buffer between the pcr and the dts of each frame.
+ *
+ * PCR is written in each pes of the pcr pid. If that pid has no pes in pcrInterval (low frame rate or a static screen)
+ * getForcedPcr indicate the pcr to write in an adaptation field only packet.
+ */
+class PcrManager(
+  //max time without pcr before force one in microseconds (ISO/IEC 13818-1 requires 100ms or less)
+  var pcrInterval: Long = 40_000,
+  //time that pcr goes behind the dts in microseconds
+  var pcrDelay: Long = 100_000
+) {
+
+  //pid that carries the pcr, null to write it in any pid
+  @Volatile
+  var pcrPid: Int? = null
+  private var lastPcr = -1L
+  //wall clock when the last pcr was written or forced in microseconds
+  private var lastPcrTime = -1L
+  //dts of the last pes of the pcr pid, forced pcr can't go over it
+  private var lastDts = -1L
+
+  /**
+   * @return timestamp to write in pes for a media time in microseconds
+   */
+  fun getTimestamp(timeUs: Long): Long = timeUs + pcrDelay
+
+  /**
+   * Called with the first packet of each pes. Audio and video are written in different threads.
+   *
+   * @return pcr to write with the pes of that pid and dts or -1 if pcr is not needed
+   */
+  @Synchronized
+  fun getPcr(pid: Int, dts: Long): Long {
+    val pcrPid = pcrPid
+    if (pcrPid != null && pcrPid != pid) return -1
+    val pcr = (dts - pcrDelay).coerceAtLeast(0)
+    lastDts = maxOf(lastDts, dts)
+    //never write a pcr behind the last one
+    if (lastPcr >= 0 && pcr <= lastPcr) return -1
+    lastPcr = pcr
+    lastPcrTime = TimeUtils.getCurrentTimeMicro()
+    return pcr
+  }
+
+  /**
+   * Pcr to write in an adaptation field only packet of the pcr pid because no pcr was written in pcrInterval.
+   * The pcr follows the wall clock from the last pcr but never goes over the dts of the last pes of the pcr pid,
+   * so it is always lower than the dts of the next pes.
+   *
+   * @return pcr to write or -1 if not needed
+   */
+  @Synchronized
+  fun getForcedPcr(): Long {
+    if (lastPcr < 0) return -1
+    val now = TimeUtils.getCurrentTimeMicro()
+    val elapsed = now - lastPcrTime
+    if (elapsed < pcrInterval) return -1
+    val pcr = minOf(lastPcr + elapsed, lastDts)
+    //wait other pcrInterval if the pcr can't go forward until the next pes
+    lastPcrTime = now
+    if (pcr <= lastPcr) return -1
+    lastPcr = pcr
+    return pcr
+  }
+
+  /**
+   * @return time in milliseconds until a pcr must be forced or -1 if no pcr was written yet
+   */
+  @Synchronized
+  fun getForcedPcrDelay(): Long {
+    if (lastPcr < 0) return -1
+    val remaining = pcrInterval - (TimeUtils.getCurrentTimeMicro() - lastPcrTime)
+    return (remaining / 1000).coerceAtLeast(0)
+  }
+
+  @Synchronized
+  fun reset() {
+    lastPcr = -1
+    lastPcrTime = -1
+    lastDts = -1
+  }
+}
@@ -20,20 +20,23 @@ import com.pedro.srt.utils.Constants
 import com.pedro.srt.utils.toInt
 import java.nio.ByteBuffer
 import kotlin.experimental.and
-import kotlin.math.pow
 
 /**
  * Created by pedro on 28/8/23.
+ *
+ * dts is only written if it is different than pts (frames reordered by B-frames)
  */
 class Pes(
   pid: Int,
   isKeyFrame: Boolean,
   private val streamId: PesType,
   private val pts: Long,
-  val bufferData: ByteBuffer
+  val bufferData: ByteBuffer,
+  val dts: Long = pts
 ): MpegTsPayload(pid, isKeyFrame) {
 
-  private val headerLength = 14
+  private val hasDts = dts != pts
+  private val headerLength = if (hasDts) 19 else 14
 
   private val length = headerLength + bufferData.remaining()
   private val markerBits = 2
@@ -42,33 +45,55 @@ class Pes(
   private val dataAlignmentIndicator = false
   private val copyright = false
   private val originalOrCopy = true
-  private val ptsdtsIndicator = 2 //(only pts)
+  private val ptsdtsIndicator = if (hasDts) 3 else 2 //(pts and dts or only pts)
   private val otherFlags = 0 // ESCR flag, ES rate flag, DSM trick mode flag, Additional copy info flag, CRC flag, extension flag
-  private val pesHeaderLength = 5 //pts size
+  private val pesHeaderLength = if (hasDts) 10 else 5 //pts and dts size
 
   fun writeHeader(buffer: ByteBuffer) {
-    buffer.putShort(0)
-    buffer.put(1)
-    buffer.put(streamId.value)
+    writeHeader(buffer.array(), buffer.arrayOffset() + buffer.position())
+    buffer.position(buffer.position() + headerLength)
+  }
+
+  /**
+   * Write header in buffer without allocations.
+   *
+   * @return header size
+   */
+  fun writeHeader(buffer: ByteArray, offset: Int): Int {
+    buffer[offset] = 0
+    buffer[offset + 1] = 0
+    buffer[offset + 2] = 1
+    buffer[offset + 3] = streamId.value
     // - 6 because the length count after insert length in the header
     val l = if (length > 0xFFFF) 0 else length - 6
-    buffer.putShort(l.toShort())
+    buffer[offset + 4] = (l shr 8).toByte()
+    buffer[offset + 5] = l.toByte()
     val info = ((markerBits shl 6) or (scramblingControl shl 4) or (priority.toInt() shl 3) or (dataAlignmentIndicator.toInt() shl 3) or (copyright.toInt() shl 3) or originalOrCopy.toInt()).toByte()
-    buffer.put(info)
+    buffer[offset + 6] = info
     val flags = ((ptsdtsIndicator shl 6) or otherFlags).toByte()
-    buffer.put(flags)
-    buffer.put(pesHeaderLength.toByte())
-    addTimestamp(buffer, pts, 0b0010) //indicate no dts
+    buffer[offset + 7] = flags
+    buffer[offset + 8] = pesHeaderLength.toByte()
+    if (hasDts) {
+      addTimestamp(buffer, offset + 9, pts, 0b0011)
+      addTimestamp(buffer, offset + 14, dts, 0b0001)
+    } else {
+      addTimestamp(buffer, offset + 9, pts, 0b0010) //indicate no dts
+    }
+    return headerLength
   }
 
-  private fun addTimestamp(buffer: ByteBuffer, timestamp: Long, fourBits: Byte) {
-    val pts =
-      (Constants.SYSTEM_CLOCK_FREQ * timestamp / 1000000 /* µs -> s */ / 300) % 2.toDouble()
-        .pow(33)
-        .toLong()
+  fun getHeaderSize(): Int = headerLength
+
+  private fun addTimestamp(buffer: ByteArray, offset: Int, timestamp: Long, fourBits: Byte) {
+    //33 bits
+    val pts = (Constants.SYSTEM_CLOCK_FREQ * timestamp / 1000000 /* µs -> s */ / 300) and 0x1FFFFFFFFL
 
-    buffer.put((((fourBits and 0xF).toInt() shl 4) or ((pts shr 29) and 0xE).toInt() or 1).toByte())
-    buffer.putShort((((pts shr 14) and 0xFFFE) or 1).toShort())
-    buffer.putShort((((pts shl 1) and 0xFFFE) or 1).toShort())
+    buffer[offset] = (((fourBits and 0xF).toInt() shl 4) or ((pts shr 29) and 0xE).toInt() or 1).toByte()
+    val middle = (((pts shr 14) and 0xFFFE) or 1).toInt()
+    buffer[offset + 1] = (middle shr 8).toByte()
+    buffer[offset + 2] = middle.toByte()
+    val last = (((pts shl 1) and 0xFFFE) or 1).toInt()
+    buffer[offset + 3] = (last shr 8).toByte()
+    buffer[offset + 4] = last.toByte()
   }
-}
\ No newline at end of file
+}
@@ -19,10 +19,10 @@ package com.pedro.srt.mpeg2ts.packets
 import android.media.MediaCodec
 import com.pedro.srt.mpeg2ts.MpegTsPacket
 import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.mpeg2ts.PcrManager
 import com.pedro.srt.mpeg2ts.Pes
 import com.pedro.srt.mpeg2ts.PesType
 import com.pedro.srt.mpeg2ts.psi.PsiManager
-import com.pedro.srt.srt.packets.data.PacketPosition
 import com.pedro.srt.utils.toInt
 import java.nio.ByteBuffer
 
@@ -32,11 +32,13 @@ import java.nio.ByteBuffer
 class AacPacket(
   limitSize: Int,
   psiManager: PsiManager,
-): BasePacket(psiManager, limitSize) {
+  pcrManager: PcrManager = PcrManager()
+): BasePacket(psiManager, limitSize, pcrManager) {
 
   private val header = ByteArray(7) //ADTS header
   private var sampleRate = 44100
   private var isStereo = true
+  private var payload = ByteArray(0)
 
   override fun createAndSendPacket(
     byteBuffer: ByteBuffer,
@@ -47,32 +49,15 @@ class AacPacket(
     if (length < 0) return
     byteBuffer.rewind()
 
-    val payload = ByteArray(length + header.size)
-    writeAdts(payload, payload.size, 0)
+    val size = length + header.size
+    //pes is fully written before return so the adts buffer can be reused between frames
+    if (payload.size < size) payload = ByteArray(size)
+    writeAdts(payload, size, 0)
     byteBuffer.get(payload, header.size, length)
 
-    val pes = Pes(psiManager.getAudioPid().toInt(), false, PesType.AUDIO, info.presentationTimeUs, ByteBuffer.wrap(payload))
-    val mpeg2tsPackets = mpegTsPacketizer.write(listOf(pes))
-    val chunked = mpeg2tsPackets.chunked(chunkSize)
-    val packets = mutableListOf<MpegTsPacket>()
-    chunked.forEachIndexed { index, chunks ->
-      val size = chunks.sumOf { it.size }
-      val buffer = ByteBuffer.allocate(size)
-      chunks.forEach {
-        buffer.put(it)
-      }
-      val packetPosition = if (index == 0 && chunked.size == 1) {
-        PacketPosition.SINGLE
-      } else if (index == 0) {
-        PacketPosition.FIRST
-      } else if (index == chunked.size - 1) {
-        PacketPosition.LAST
-      } else {
-        PacketPosition.MIDDLE
-      }
-      packets.add(MpegTsPacket(buffer.array(), MpegType.AUDIO, packetPosition))
-    }
-    callback(packets)
+    val pts = pcrManager.getTimestamp(info.presentationTimeUs)
+    val pes = Pes(psiManager.getAudioPid().toInt(), false, PesType.AUDIO, pts, ByteBuffer.wrap(payload, 0, size))
+    callback(writePes(pes, MpegType.AUDIO))
   }
 
   override fun resetPacket() {
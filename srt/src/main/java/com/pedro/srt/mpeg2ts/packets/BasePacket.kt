@@ -17,9 +17,14 @@
 package com.pedro.srt.mpeg2ts.packets
 
 import android.media.MediaCodec
+import com.pedro.common.BufferPool
 import com.pedro.srt.mpeg2ts.MpegTsPacket
 import com.pedro.srt.mpeg2ts.MpegTsPacketizer
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.mpeg2ts.PcrManager
+import com.pedro.srt.mpeg2ts.Pes
 import com.pedro.srt.mpeg2ts.psi.PsiManager
+import com.pedro.srt.srt.packets.data.PacketPosition
 import java.nio.ByteBuffer
 
 /**
@@ -45,10 +50,13 @@ import java.nio.ByteBuffer
 abstract class BasePacket(
   val psiManager: PsiManager,
   private var limitSize: Int,
+  protected val pcrManager: PcrManager
 ) {
 
-  protected val mpegTsPacketizer =  MpegTsPacketizer()
+  protected val mpegTsPacketizer =  MpegTsPacketizer(pcrManager)
   protected var chunkSize = limitSize / MpegTsPacketizer.packetSize //max number of ts packets per srtpacket
+  //if not null, packet buffers are obtained from the pool and must be released after send it
+  var bufferPool: BufferPool? = null
 
   abstract fun createAndSendPacket(
     byteBuffer: ByteBuffer,
@@ -58,6 +66,48 @@ abstract class BasePacket(
 
   abstract fun resetPacket()
 
+  /**
+   * Write TS packets of pes directly in payloads of chunkSize TS packets.
+   */
+  protected fun writePes(pes: Pes, type: MpegType): List<MpegTsPacket> {
+    val payloadSize = chunkSize * MpegTsPacketizer.packetSize
+    val packets = mutableListOf<MpegTsPacket>()
+    val pool = bufferPool
+    mpegTsPacketizer.startPes(pes)
+    while (mpegTsPacketizer.hasPesRemaining()) {
+      val buffer = pool?.obtain(payloadSize) ?: ByteArray(payloadSize)
+      val length = mpegTsPacketizer.writePayload(buffer, 0, payloadSize)
+      val isFirst = packets.isEmpty()
+      val isLast = !mpegTsPacketizer.hasPesRemaining()
+      val packetPosition = if (isFirst && isLast) {
+        PacketPosition.SINGLE
+      } else if (isFirst) {
+        PacketPosition.FIRST
+      } else if (isLast) {
+        PacketPosition.LAST
+      } else {
+        PacketPosition.MIDDLE
+      }
+      packets.add(MpegTsPacket(buffer, type, packetPosition, length, pool))
+    }
+    return packets
+  }
+
+  /**
+   * Adaptation field only packet with a pcr if pcrManager needs it because the pcr pid had no pes in pcrInterval.
+   * Must not be called at the same time that createAndSendPacket because the continuity counter of the pid is shared.
+   *
+   * @return null if pcr is not needed
+   */
+  fun createPcrPacket(pid: Int, type: MpegType): MpegTsPacket? {
+    val pcr = pcrManager.getForcedPcr()
+    if (pcr < 0) return null
+    val pool = bufferPool
+    val buffer = pool?.obtain(MpegTsPacketizer.packetSize) ?: ByteArray(MpegTsPacketizer.packetSize)
+    mpegTsPacketizer.writePcrPacket(buffer, 0, pid, pcr)
+    return MpegTsPacket(buffer, type, PacketPosition.SINGLE, MpegTsPacketizer.packetSize, pool)
+  }
+
   fun reset() {
     mpegTsPacketizer.reset()
     resetPacket()
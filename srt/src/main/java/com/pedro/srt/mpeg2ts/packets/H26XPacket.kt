@@ -19,14 +19,15 @@ package com.pedro.srt.mpeg2ts.packets
 import android.media.MediaCodec
 import android.os.Build
 import android.util.Log
+import com.pedro.common.NalScanner
 import com.pedro.srt.mpeg2ts.Codec
+import com.pedro.srt.mpeg2ts.DtsGenerator
 import com.pedro.srt.mpeg2ts.MpegTsPacket
 import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.mpeg2ts.PcrManager
 import com.pedro.srt.mpeg2ts.Pes
 import com.pedro.srt.mpeg2ts.PesType
 import com.pedro.srt.mpeg2ts.psi.PsiManager
-import com.pedro.srt.srt.packets.data.PacketPosition
-import com.pedro.srt.utils.startWith
 import com.pedro.srt.utils.toByteArray
 import java.nio.ByteBuffer
 
@@ -38,15 +39,27 @@ import java.nio.ByteBuffer
 class H26XPacket(
   limitSize: Int,
   psiManager: PsiManager,
-): BasePacket(psiManager, limitSize) {
+  pcrManager: PcrManager = PcrManager()
+): BasePacket(psiManager, limitSize, pcrManager) {
 
   private val TAG = "H26XPacket"
 
+  companion object {
+    //nal unit types of video info
+    private const val SPS = 7
+    private const val PPS = 8
+    private const val VPS = 32
+    private const val SPS_HEVC = 33
+    private const val PPS_HEVC = 34
+  }
+
   private var sps: ByteArray? = null
   private var pps: ByteArray? = null
   private var vps: ByteArray? = null
   private var codec = Codec.AVC
   private var configSend = false
+  private val nalScanner = NalScanner()
+  private val dtsGenerator = DtsGenerator()
 
   override fun createAndSendPacket(
     byteBuffer: ByteBuffer,
@@ -80,31 +93,11 @@ class H26XPacket(
 
     byteBuffer.rewind()
     val validBuffer = fixHeader(byteBuffer, isKeyFrame)
-    val payload = ByteArray(validBuffer.remaining())
-    validBuffer.get(payload, 0, validBuffer.remaining())
-
-    val pes = Pes(psiManager.getVideoPid().toInt(), isKeyFrame, PesType.VIDEO, info.presentationTimeUs, ByteBuffer.wrap(payload))
-    val mpeg2tsPackets = mpegTsPacketizer.write(listOf(pes))
-    val chunked = mpeg2tsPackets.chunked(chunkSize)
-    val packets = mutableListOf<MpegTsPacket>()
-    chunked.forEachIndexed { index, chunks ->
-      val size = chunks.sumOf { it.size }
-      val buffer = ByteBuffer.allocate(size)
-      chunks.forEach {
-        buffer.put(it)
-      }
-      val packetPosition = if (index == 0 && chunked.size == 1) {
-        PacketPosition.SINGLE
-      } else if (index == 0) {
-        PacketPosition.FIRST
-      } else if (index == chunked.size - 1) {
-        PacketPosition.LAST
-      } else {
-        PacketPosition.MIDDLE
-      }
-      packets.add(MpegTsPacket(buffer.array(), MpegType.VIDEO, packetPosition))
-    }
-    callback(packets)
+    //pes data is read from the buffer directly while the packets are written
+    val pts = pcrManager.getTimestamp(info.presentationTimeUs)
+    val dts = pcrManager.getTimestamp(dtsGenerator.getDts(info.presentationTimeUs))
+    val pes = Pes(psiManager.getVideoPid().toInt(), isKeyFrame, PesType.VIDEO, pts, validBuffer, dts)
+    callback(writePes(pes, MpegType.VIDEO))
   }
 
   override fun resetPacket() {
@@ -112,6 +105,14 @@ class H26XPacket(
     sps = null
     pps = null
     configSend = false
+    dtsGenerator.reset()
+  }
+
+  /**
+   * Max number of frames reordered by the encoder (B-frames). Detected automatically if 0.
+   */
+  fun setReorderDepth(frames: Int) {
+    dtsGenerator.initialReorderDepth = frames
   }
 
   fun setVideoCodec(codec: Codec) {
@@ -170,35 +171,27 @@ class H26XPacket(
   }
 
   private fun removeHeader(byteBuffer: ByteBuffer, isKeyFrame: Boolean): ByteBuffer {
-      if (isKeyFrame) {
-        var validBuffer = byteBuffer
-        val vps = this.vps ?: byteArrayOf()
-        val sps = this.sps ?: byteArrayOf()
-        val pps = this.pps ?: byteArrayOf()
-        if (vps.isNotEmpty()) {
-          if (validBuffer.startWith(vps)) {
-            validBuffer.position(vps.size)
-            validBuffer = validBuffer.slice()
-          }
-        }
-        if (sps.isNotEmpty()) {
-          if (validBuffer.startWith(sps)) {
-            validBuffer.position(sps.size)
-            validBuffer = validBuffer.slice()
-          }
-        }
-        if (pps.isNotEmpty()) {
-          if (validBuffer.startWith(pps)) {
-            validBuffer.position(pps.size)
-            validBuffer = validBuffer.slice()
-          }
-        }
-        validBuffer.rewind()
-        return validBuffer
-      } else {
-        byteBuffer.rewind()
-        return byteBuffer
-      }
+    byteBuffer.rewind()
+    if (!isKeyFrame) return byteBuffer
+    val nalCount = nalScanner.scan(byteBuffer)
+    //skip video info nal units at the beginning of the keyframe
+    var first = 0
+    while (first < nalCount && isVideoInfo(first)) first++
+    if (first == 0 || first == nalCount) return byteBuffer
+    byteBuffer.position(nalScanner.getPrefixStart(first))
+    val validBuffer = byteBuffer.slice()
+    byteBuffer.rewind()
+    return validBuffer
+  }
+
+  private fun isVideoInfo(index: Int): Boolean {
+    return if (codec == Codec.HEVC) {
+      val type = nalScanner.getH265Type(index)
+      type == VPS || type == SPS_HEVC || type == PPS_HEVC
+    } else {
+      val type = nalScanner.getH264Type(index)
+      type == SPS || type == PPS
+    }
   }
 
   private fun getStartCodeSize(byteBuffer: ByteBuffer): Int {
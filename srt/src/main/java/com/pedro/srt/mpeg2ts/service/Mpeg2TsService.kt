@@ -30,14 +30,16 @@ data class Mpeg2TsService(
   val providerName: String = "com.pedro.srt",
   var pmt: Pmt? = null,
   val tracks: MutableList<Track> = mutableListOf(),
-  var pcrPid: Short? = null
+  var pcrPid: Short? = null,
+  //pcr is carried by the video track if available unless this is true
+  var pcrOnAudio: Boolean = false
 ) {
 
   fun addTrack(codec: Codec) {
     val pid = Pid.generatePID()
     tracks.add(Track(codec, pid))
     if (pcrPid == null) pcrPid = pid
-    else if (codec != Codec.AAC) pcrPid = pid
+    else if ((codec == Codec.AAC) == pcrOnAudio) pcrPid = pid
     if (pmt == null) {
       pmt = Pmt(
         Pid.generatePID().toInt(),
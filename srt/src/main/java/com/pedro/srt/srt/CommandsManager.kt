@@ -23,9 +23,12 @@ import com.pedro.srt.srt.packets.SrtPacket
 import com.pedro.srt.srt.packets.control.Ack2
 import com.pedro.srt.srt.packets.control.Shutdown
 import com.pedro.srt.srt.packets.control.handshake.Handshake
+import com.pedro.srt.utils.BandwidthEstimator
 import com.pedro.srt.utils.Constants
+import com.pedro.srt.utils.Pacer
 import com.pedro.srt.utils.SrtSocket
 import com.pedro.srt.utils.TimeUtils
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import java.io.IOException
@@ -38,8 +41,10 @@ import kotlin.random.Random
 class CommandsManager {
 
   private val TAG = "CommandsManager"
-  //used for packet lost
-  private val packetHandlingQueue = mutableListOf<DataPacket>()
+  //used for packet lost. MpegTsPacket is kept to release the payload buffer when the packet is acknowledged
+  private val packetHandlingQueue = RetransmissionBuffer()
+  private val lostPackets = mutableListOf<DataPacket>()
+  private val reSentPackets = mutableListOf<DataPacket>()
 
   var sequenceNumber: Int = generateInitialSequence()
   var messageNumber = 1
@@ -48,6 +53,10 @@ class CommandsManager {
   var startTS = 0L //microSeconds
   var audioDisabled = false
   var videoDisabled = false
+  //updated with packets sent and the feedback of the receiver
+  val bandwidthEstimator = BandwidthEstimator()
+  //spread bursts and limit retransmissions, only used with writeSync locked
+  val pacer = Pacer()
   //Avoid write a packet in middle of other.
   private val writeSync = Mutex(locked = false)
 
@@ -82,41 +91,103 @@ class CommandsManager {
     }
   }
 
+  /**
+   * Write all packets together in the socket. If pacing is enabled, packets are written when the pacer allows it
+   * so this call could wait.
+   *
+   * @return bytes written
+   */
   @Throws(IOException::class)
-  suspend fun writeData(packet: MpegTsPacket, socket: SrtSocket?): Int {
+  suspend fun writeData(packets: List<MpegTsPacket>, socket: SrtSocket?): Int {
+    if (!pacer.isEnabled()) return writePackets(packets, socket)
+    var index = 0
+    try {
+      writeSync.withLock {
+        pacer.onInput(packets.sumOf { it.length + SrtPacket.headerSize }, TimeUtils.getCurrentTimeNano())
+      }
+      var size = 0
+      while (index < packets.size) {
+        //write all packets allowed now together, the lock is released while waiting
+        var end = index
+        var waitTime = 0L
+        writeSync.withLock {
+          val now = TimeUtils.getCurrentTimeNano()
+          while (end < packets.size) {
+            waitTime = pacer.acquire(packets[end].length + SrtPacket.headerSize, now)
+            if (waitTime > 0) break
+            end++
+          }
+        }
+        if (end > index) {
+          val start = index
+          index = end
+          size += writePackets(packets.subList(start, end), socket)
+        }
+        if (waitTime > 0) delay(maxOf(waitTime / 1_000_000, 1))
+      }
+      return size
+    } finally {
+      //packets not written are owned by this class
+      for (i in index until packets.size) packets[i].release()
+    }
+  }
+
+  @Throws(IOException::class)
+  private suspend fun writePackets(packets: List<MpegTsPacket>, socket: SrtSocket?): Int {
     writeSync.withLock {
-      if (sequenceNumber.toUInt() > 0x7FFFFFFFu) sequenceNumber = 0
-      val dataPacket = DataPacket(
-        sequenceNumber = sequenceNumber++,
-        packetPosition = packet.packetPosition,
-        messageNumber = messageNumber++,
-        payload = packet.buffer,
-        ts = getTs(),
-        socketId = socketId
-      )
-      packetHandlingQueue.add(dataPacket)
-      dataPacket.write()
-      socket?.write(dataPacket)
-      return dataPacket.getSize()
+      val dataPackets = packets.map { createDataPacket(it) }
+      socket?.write(dataPackets)
+      val size = dataPackets.sumOf { it.getSize() }
+      bandwidthEstimator.onPacketsSent(dataPackets.size, size)
+      return size
     }
   }
 
+  private fun createDataPacket(packet: MpegTsPacket): DataPacket {
+    if (sequenceNumber.toUInt() > 0x7FFFFFFFu) sequenceNumber = 0
+    val dataPacket = DataPacket(
+      sequenceNumber = sequenceNumber++,
+      packetPosition = packet.packetPosition,
+      messageNumber = messageNumber++,
+      payload = packet.buffer,
+      payloadLength = packet.length,
+      ts = getTs(),
+      socketId = socketId
+    )
+    packetHandlingQueue.add(dataPacket, packet)
+    dataPacket.write()
+    return dataPacket
+  }
+
+  /**
+   * Packets not allowed by the retransmission limit of the pacer are not sent.
+   *
+   * @param packetsLostRanges pairs of first and last sequence number lost (included)
+   */
   @Throws(IOException::class)
-  suspend fun reSendPackets(packetsLost: List<Int>, socket: SrtSocket?) {
+  suspend fun reSendPackets(packetsLostRanges: List<Pair<Int, Int>>, socket: SrtSocket?) {
     writeSync.withLock {
-      val dataPackets = packetHandlingQueue.filter { packetsLost.contains(it.sequenceNumber) }
-      dataPackets.forEach { packet ->
+      lostPackets.clear()
+      packetsLostRanges.forEach { (first, last) ->
+        packetHandlingQueue.getRange(first, last, lostPackets)
+      }
+      val now = TimeUtils.getCurrentTimeNano()
+      lostPackets.forEach { packet ->
+        if (!pacer.tryRetransmit(packet.getSize(), now)) return@forEach
         packet.messageNumber = messageNumber++
         packet.retransmitted = true
         packet.write()
-        socket?.write(packet)
+        reSentPackets.add(packet)
       }
+      if (reSentPackets.isNotEmpty()) socket?.write(reSentPackets)
+      lostPackets.clear()
+      reSentPackets.clear()
     }
   }
 
   suspend fun updateHandlingQueue(lastPacketSequence: Int) {
     writeSync.withLock {
-      packetHandlingQueue.removeAll { it.sequenceNumber < lastPacketSequence }
+      packetHandlingQueue.removeUntil(lastPacketSequence)
     }
   }
 
@@ -145,6 +216,8 @@ class CommandsManager {
     socketId = 0
     startTS = 0L
     packetHandlingQueue.clear()
+    bandwidthEstimator.reset()
+    pacer.reset()
   }
 
   private fun generateInitialSequence(): Int {
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.srt.packets.DataPacket
+
+/**
+ * Ring buffer of sent data packets waiting for ACK, indexed by sequence number.
+ *
+ * Sequence numbers are consecutive and wrap from 0x7FFFFFFF to 0 so the position of a packet is
+ * the distance to the first sequence number in the buffer. Lookup is O(1) and eviction is O(evicted packets).
+ * If the buffer is full, the oldest packet is evicted to add the new one.
+ *
+ * Not thread safe.
+ */
+class RetransmissionBuffer(capacity: Int = DEFAULT_CAPACITY) {
+
+  companion object {
+    const val DEFAULT_CAPACITY = 8192
+    private const val MAX_SEQUENCE_NUMBER = 0x7FFFFFFF
+
+    /**
+     * @return forward distance from sequence number to other sequence number with wraparound
+     */
+    fun distance(from: Int, to: Int): Int = (to - from) and MAX_SEQUENCE_NUMBER
+
+    /**
+     * @return true if sequence number is before other sequence number with wraparound
+     */
+    fun isBefore(sequenceNumber: Int, other: Int): Boolean {
+      val distance = distance(sequenceNumber, other)
+      return distance != 0 && distance <= MAX_SEQUENCE_NUMBER / 2
+    }
+  }
+
+  //capacity rounded to power of 2 to use a mask instead of modulo
+  private val capacity = Integer.highestOneBit(maxOf(capacity, 2) - 1) shl 1
+  private val mask = this.capacity - 1
+  private val dataPackets = arrayOfNulls<DataPacket>(this.capacity)
+  private val mpegTsPackets = arrayOfNulls<MpegTsPacket>(this.capacity)
+  private var head = 0
+  private var firstSequenceNumber = 0
+  var size = 0
+    private set
+
+  /**
+   * Add packet with the next sequence number. If the sequence number is not consecutive the buffer is cleared.
+   * mpegTsPacket is released when the packet is evicted.
+   */
+  fun add(dataPacket: DataPacket, mpegTsPacket: MpegTsPacket) {
+    val sequenceNumber = dataPacket.sequenceNumber
+    if (size > 0 && distance(firstSequenceNumber, sequenceNumber) != size) clear()
+    if (size == 0) {
+      head = 0
+      firstSequenceNumber = sequenceNumber
+    } else if (size == capacity) {
+      removeFirst()
+    }
+    val index = (head + size) and mask
+    dataPackets[index] = dataPacket
+    mpegTsPackets[index] = mpegTsPacket
+    size++
+  }
+
+  fun get(sequenceNumber: Int): DataPacket? {
+    val distance = distance(firstSequenceNumber, sequenceNumber)
+    if (distance >= size) return null
+    return dataPackets[(head + distance) and mask]
+  }
+
+  /**
+   * Add to output all packets in range [fromSequenceNumber, toSequenceNumber] available in the buffer.
+   * The range could wrap.
+   */
+  fun getRange(fromSequenceNumber: Int, toSequenceNumber: Int, output: MutableList<DataPacket>) {
+    if (size == 0) return
+    val rangeSize = distance(fromSequenceNumber, toSequenceNumber) + 1L
+    //clamp range to the packets in the buffer
+    val start = if (isBefore(fromSequenceNumber, firstSequenceNumber)) firstSequenceNumber else fromSequenceNumber
+    val skipped = distance(fromSequenceNumber, start)
+    if (skipped >= rangeSize) return
+    val startDistance = distance(firstSequenceNumber, start)
+    if (startDistance >= size) return
+    val count = minOf(rangeSize - skipped, (size - startDistance).toLong()).toInt()
+    for (i in 0 until count) {
+      dataPackets[(head + startDistance + i) and mask]?.let { output.add(it) }
+    }
+  }
+
+  /**
+   * Remove all packets before sequence number (not included).
+   */
+  fun removeUntil(sequenceNumber: Int) {
+    if (size == 0 || !isBefore(firstSequenceNumber, sequenceNumber)) return
+    val count = minOf(distance(firstSequenceNumber, sequenceNumber), size)
+    for (i in 0 until count) removeFirst()
+  }
+
+  fun clear() {
+    while (size > 0) removeFirst()
+    head = 0
+  }
+
+  private fun removeFirst() {
+    mpegTsPackets[head]?.release()
+    dataPackets[head] = null
+    mpegTsPackets[head] = null
+    head = (head + 1) and mask
+    firstSequenceNumber = (firstSequenceNumber + 1) and MAX_SEQUENCE_NUMBER
+    size--
+  }
+}
@@ -18,7 +18,12 @@ package com.pedro.srt.srt
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.BufferPool
+import com.pedro.common.DropPolicy
+import com.pedro.common.DropStats
 import com.pedro.srt.mpeg2ts.Codec
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
 import com.pedro.srt.srt.packets.ControlPacket
 import com.pedro.srt.srt.packets.DataPacket
 import com.pedro.srt.srt.packets.SrtPacket
@@ -35,6 +40,8 @@ import com.pedro.srt.srt.packets.control.handshake.Handshake
 import com.pedro.srt.srt.packets.control.handshake.HandshakeType
 import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionContentFlag
 import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
+import com.pedro.srt.utils.AbrController
+import com.pedro.srt.utils.BandwidthEstimator
 import com.pedro.srt.utils.ConnectCheckerSrt
 import com.pedro.srt.utils.SrtSocket
 import com.pedro.srt.utils.onMainThread
@@ -75,6 +82,8 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
   private var doingRetry = false
   private var numRetry = 0
   private var reTries = 0
+  @Volatile
+  private var abrController: AbrController? = null
 
   val droppedAudioFrames: Long
     get() = srtSender.droppedAudioFrames
@@ -87,6 +96,16 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     get() = srtSender.getSentAudioFrames()
   val sentVideoFrames: Long
     get() = srtSender.getSentVideoFrames()
+  /**
+   * Pool used to reuse packet buffers. Check hits, misses and liveBuffers to know the pool status.
+   */
+  val bufferPool: BufferPool
+    get() = srtSender.getBufferPool()
+  /**
+   * Rtt, link capacity and loss rate reported by the server.
+   */
+  val bandwidthEstimator: BandwidthEstimator
+    get() = commandsManager.bandwidthEstimator
 
   fun setVideoCodec(videoCodec: VideoCodec) {
     if (!isStreaming) {
@@ -121,6 +140,58 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     checkServerAlive = enabled
   }
 
+  /**
+   * TS packets of audio, video and PSI are packed in full SRT payloads.
+   * Max time in milliseconds that a payload not completed waits more TS packets before send it.
+   * 0 (default) to send payloads when the last TS packet of each frame is added.
+   */
+  fun setMaxPayloadDelay(maxDelayMs: Long) {
+    srtSender.setMaxPayloadDelay(maxDelayMs)
+  }
+
+  /**
+   * Must be called before connect.
+   * PCR is derived from the dts of the frames and written each pcrIntervalMs (max 100ms) in the video track or audio track
+   * if pcrOnAudio is true or the stream is only audio.
+   * pcrDelayMs is the time that the pcr goes behind the dts (decoder buffer).
+   */
+  fun setPcrConfig(pcrIntervalMs: Long, pcrDelayMs: Long, pcrOnAudio: Boolean = false) {
+    srtSender.setPcrConfig(pcrIntervalMs * 1000, pcrDelayMs * 1000, pcrOnAudio)
+  }
+
+  /**
+   * MediaCodec doesn't provide dts so it is calculated using the pts of the frames.
+   * Set the number of B-frames configured in the video encoder to get a valid dts since the first frame,
+   * if 0 it is detected with the frames received.
+   */
+  fun setVideoReorderDepth(frames: Int) {
+    srtSender.setVideoReorderDepth(frames)
+  }
+
+  /**
+   * Adapt the video bitrate with the feedback of the server (rtt, link capacity and packets lost).
+   * Null to disable it.
+   */
+  fun setAbrController(abrController: AbrController?) {
+    this.abrController = abrController
+  }
+
+  /**
+   * Pace the packets written in the socket to spread the bursts (keyframes) and limit the retransmissions.
+   * Bits per second, Pacer.DISABLED (default) to write packets as soon as possible or Pacer.AUTO to use the input rate
+   * plus the retransmission overhead.
+   */
+  fun setMaxBandwidth(maxBandwidth: Long) {
+    commandsManager.pacer.maxBandwidth = maxBandwidth
+  }
+
+  /**
+   * Max retransmissions in percent of the input rate. Only used with pacing enabled. 25 by default.
+   */
+  fun setRetransmissionOverhead(percent: Int) {
+    commandsManager.pacer.retransmissionOverhead = percent
+  }
+
   fun setReTries(reTries: Int) {
     numRetry = reTries
     this.reTries = reTries
@@ -193,6 +264,7 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
             onMainThread {
               connectCheckerSrt.onConnectionSuccessSrt()
             }
+            abrController?.reset()
             srtSender.socket = socket
             srtSender.start()
             handleServerPackets()
@@ -308,10 +380,16 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
             val lastPacketSequence = srtPacket.lastAcknowledgedPacketSequenceNumber
             commandsManager.updateHandlingQueue(lastPacketSequence)
             commandsManager.writeAck2(ackSequence, socket)
+            commandsManager.bandwidthEstimator.onAck(srtPacket.rtt, srtPacket.rttVariance,
+              srtPacket.estimatedLinkCapacity, srtPacket.receivingRate)
+            abrController?.update(commandsManager.bandwidthEstimator)
           }
           is Nak -> {
             //packet lost reported, we should resend it
-            val packetsLost = srtPacket.getNakPacketsLostList()
+            val packetsLost = srtPacket.getNakPacketsLostRanges()
+            commandsManager.bandwidthEstimator.onPacketsLost(packetsLost.sumOf { (first, last) ->
+              ((last - first) and 0x7FFFFFFF) + 1
+            })
             commandsManager.reSendPackets(packetsLost, socket)
           }
           is CongestionWarning -> {
@@ -358,6 +436,55 @@ class SrtClient(private val connectCheckerSrt: ConnectCheckerSrt) {
     }
   }
 
+  /**
+   * What to do with new frames when the queue is full.
+   */
+  fun setDropPolicy(dropPolicy: DropPolicy) {
+    srtSender.dropPolicy = dropPolicy
+  }
+
+  /**
+   * Packets (PSI included) are created outside of the client. Must be called before connect.
+   */
+  internal fun setSharedPackets(shared: Boolean) {
+    srtSender.sharedPackets = shared
+  }
+
+  /**
+   * Send packets of an audio frame or PSI created outside of the client. The client owns a reference of each packet after this call.
+   */
+  internal fun sendPackets(mpegTsPackets: List<MpegTsPacket>) {
+    val disabled = mpegTsPackets.firstOrNull()?.type == MpegType.AUDIO && commandsManager.audioDisabled
+    if (disabled) mpegTsPackets.forEach { it.release() } else srtSender.sendPackets(mpegTsPackets)
+  }
+
+  /**
+   * Send packets of a video frame created outside of the client. The client owns a reference of each packet after this call.
+   */
+  internal fun sendVideoPackets(mpegTsPackets: List<MpegTsPacket>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    if (commandsManager.videoDisabled) {
+      mpegTsPackets.forEach { it.release() }
+    } else {
+      srtSender.sendVideoPackets(mpegTsPackets, isKeyFrame, isNonReference)
+    }
+  }
+
+  /**
+   * Called when a keyframe is needed to recover the stream after discard frames with DropPolicy.DROP_GOP.
+   * Normally you want to call requestKeyframe of the video encoder.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    srtSender.setKeyFrameRequestListener(listener)
+  }
+
+  /**
+   * @return frames discarded by reason. Values are reset when the stream is stopped.
+   */
+  fun getDropStats(): DropStats = srtSender.getDropStats()
+
+  internal val sessionId: Int
+    get() = srtSender.sessionId
+
   fun hasCongestion(): Boolean {
     return srtSender.hasCongestion()
   }
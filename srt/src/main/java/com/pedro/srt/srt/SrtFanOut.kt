@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import android.media.MediaCodec
+import com.pedro.common.BufferPool
+import com.pedro.common.DropController
+import com.pedro.srt.mpeg2ts.Codec
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegTsPacketizer
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.mpeg2ts.PcrManager
+import com.pedro.srt.mpeg2ts.Pid
+import com.pedro.srt.mpeg2ts.packets.AacPacket
+import com.pedro.srt.mpeg2ts.packets.H26XPacket
+import com.pedro.srt.mpeg2ts.psi.Psi
+import com.pedro.srt.mpeg2ts.psi.PsiManager
+import com.pedro.srt.mpeg2ts.psi.TableToSend
+import com.pedro.srt.mpeg2ts.service.Mpeg2TsService
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.Constants
+import java.nio.ByteBuffer
+
+/**
+ * Packetize audio and video frames in MPEG-TS once and share the packets with multiple SrtClient.
+ *
+ * Packets are reference counted so the buffer is reused only when all clients sent it.
+ * Each client keeps its own queue, drop policy and SRT payload size (TS packets are packed again with the negotiated MTU).
+ * A new session receives PSI tables and frames after the next keyframe (or the next audio frame if only audio).
+ * The keyframe is requested with the keyframe request listener.
+ * If video has no frames in pcrInterval the pcr is forced with the audio frames, so a video only stream needs frames
+ * at 10fps or more.
+ */
+class SrtFanOut(private val clients: Array<SrtClient>) {
+
+  private val service = Mpeg2TsService()
+  private val psiManager = PsiManager(service).apply {
+    upgradePatVersion()
+    upgradeSdtVersion()
+  }
+  private val bufferPool = BufferPool()
+  private val pcrManager = PcrManager()
+  private val mpegTsPacketizer = MpegTsPacketizer(pcrManager)
+  private val aacPacket = AacPacket(Constants.MTU - SrtPacket.headerSize, psiManager, pcrManager).apply {
+    bufferPool = this@SrtFanOut.bufferPool
+  }
+  private val h26XPacket = H26XPacket(Constants.MTU - SrtPacket.headerSize, psiManager, pcrManager).apply {
+    bufferPool = this@SrtFanOut.bufferPool
+  }
+  private var videoCodec = Codec.AVC
+  private var videoEnabled = true
+  private var audioEnabled = true
+  private var configured = false
+  //session of each client that received PSI tables
+  private val sessions = IntArray(clients.size)
+  //last session of each client that requested a keyframe
+  private val requestedSessions = IntArray(clients.size)
+  private var keyFrameRequestListener: Runnable? = null
+
+  init {
+    clients.forEach { it.setSharedPackets(true) }
+  }
+
+  fun setVideoCodec(videoCodec: VideoCodec) {
+    this.videoCodec = if (videoCodec == VideoCodec.H265) Codec.HEVC else Codec.AVC
+    h26XPacket.setVideoCodec(this.videoCodec)
+    configured = false
+  }
+
+  /**
+   * Tracks declared in PMT. Must be called before start.
+   */
+  fun setTrackConfig(videoEnabled: Boolean, audioEnabled: Boolean) {
+    this.videoEnabled = videoEnabled
+    this.audioEnabled = audioEnabled
+    configured = false
+  }
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    h26XPacket.sendVideoInfo(sps, pps, vps)
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    aacPacket.sendAudioInfo(sampleRate, isStereo)
+  }
+
+  fun sendVideo(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (!videoEnabled || !isAnyStreaming()) return
+    val isKeyFrame = info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+    prepare(isKeyFrame)
+    val isNonReference = DropController.isNonReference(h264Buffer, videoCodec == Codec.HEVC)
+    //locked with the forced pcr packets of the audio thread
+    synchronized(h26XPacket) {
+      h26XPacket.createAndSendPacket(h264Buffer, info) { mpegTsPackets ->
+        clients.forEachIndexed { index, client ->
+          if (client.isStreaming && sessions[index] == client.sessionId) {
+            mpegTsPackets.forEach { it.retain() }
+            client.sendVideoPackets(mpegTsPackets, isKeyFrame, isNonReference)
+          }
+        }
+        mpegTsPackets.forEach { it.release() }
+      }
+    }
+  }
+
+  fun sendAudio(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (!audioEnabled || !isAnyStreaming()) return
+    prepare(!videoEnabled)
+    aacPacket.createAndSendPacket(aacBuffer, info) { share(it) }
+    //audio frames are frequent so they are used to force the pcr if video has a low frame rate
+    val pcrPid = pcrManager.pcrPid
+    if (videoEnabled && pcrPid == psiManager.getVideoPid().toInt()) {
+      synchronized(h26XPacket) {
+        h26XPacket.createPcrPacket(pcrPid, MpegType.VIDEO)?.let { share(listOf(it)) }
+      }
+    }
+  }
+
+  /**
+   * Called when a client starts a new session and needs a keyframe to start.
+   * Normally you want to call requestKeyframe of the video encoder.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    keyFrameRequestListener = listener
+  }
+
+  fun getBufferPool(): BufferPool = bufferPool
+
+  /**
+   * Call it when all clients are stopped.
+   */
+  @Synchronized
+  fun reset() {
+    configured = false
+    sessions.fill(0)
+    requestedSessions.fill(0)
+    psiManager.reset()
+    pcrManager.reset()
+    mpegTsPacketizer.reset()
+  }
+
+  /**
+   * Configure tracks if needed, send PSI to new sessions if canStart and periodic PSI to the rest.
+   */
+  @Synchronized
+  private fun prepare(canStart: Boolean) {
+    if (!configured) {
+      Pid.reset()
+      service.clear()
+      if (videoEnabled) service.addTrack(videoCodec)
+      if (audioEnabled) service.addTrack(Codec.AAC)
+      psiManager.updateService(service)
+      pcrManager.pcrPid = service.pcrPid?.toInt()
+      configured = true
+    }
+    if (canStart) {
+      clients.forEachIndexed { index, client ->
+        val sessionId = client.sessionId
+        if (client.isStreaming && sessions[index] != sessionId) {
+          sessions[index] = sessionId
+          client.sendPackets(writePsi(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())))
+        }
+      }
+    } else {
+      checkNewSessions()
+    }
+    when (psiManager.shouldSend(false)) {
+      TableToSend.PAT_PMT -> share(writePsi(listOf(psiManager.getPmt(), psiManager.getPat())))
+      TableToSend.SDT -> share(writePsi(listOf(psiManager.getSdt())))
+      TableToSend.ALL -> share(writePsi(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())))
+      TableToSend.NONE -> {}
+    }
+  }
+
+  /**
+   * Request a keyframe once for each session waiting for it.
+   */
+  private fun checkNewSessions() {
+    var request = false
+    clients.forEachIndexed { index, client ->
+      val sessionId = client.sessionId
+      if (client.isStreaming && sessions[index] != sessionId && requestedSessions[index] != sessionId) {
+        requestedSessions[index] = sessionId
+        request = true
+      }
+    }
+    if (request) keyFrameRequestListener?.run()
+  }
+
+  private fun writePsi(psiList: List<Psi>): List<MpegTsPacket> {
+    return mpegTsPacketizer.write(psiList).map { b ->
+      MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
+    }
+  }
+
+  /**
+   * Give a reference of the packets to each client ready and release the own reference.
+   * The list is read only so it is shared too.
+   */
+  private fun share(mpegTsPackets: List<MpegTsPacket>) {
+    clients.forEachIndexed { index, client ->
+      if (client.isStreaming && sessions[index] == client.sessionId) {
+        mpegTsPackets.forEach { it.retain() }
+        client.sendPackets(mpegTsPackets)
+      }
+    }
+    mpegTsPackets.forEach { it.release() }
+  }
+
+  private fun isAnyStreaming(): Boolean {
+    return clients.any { it.isStreaming }
+  }
+}
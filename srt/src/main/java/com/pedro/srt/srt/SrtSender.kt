@@ -18,10 +18,16 @@ package com.pedro.srt.srt
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.BufferPool
+import com.pedro.common.DropController
+import com.pedro.common.DropPolicy
+import com.pedro.common.DropStats
+import com.pedro.common.FrameRing
 import com.pedro.srt.mpeg2ts.Codec
 import com.pedro.srt.mpeg2ts.MpegTsPacket
 import com.pedro.srt.mpeg2ts.MpegTsPacketizer
 import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.mpeg2ts.PcrManager
 import com.pedro.srt.mpeg2ts.Pid
 import com.pedro.srt.mpeg2ts.packets.AacPacket
 import com.pedro.srt.mpeg2ts.packets.H26XPacket
@@ -34,7 +40,6 @@ import com.pedro.srt.utils.BitrateManager
 import com.pedro.srt.utils.ConnectCheckerSrt
 import com.pedro.srt.utils.SrtSocket
 import com.pedro.srt.utils.onMainThread
-import com.pedro.srt.utils.trySend
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -45,8 +50,6 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
 import java.nio.ByteBuffer
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 
@@ -65,9 +68,19 @@ class SrtSender(
     upgradeSdtVersion()
   }
 
-  private val mpegTsPacketizer = MpegTsPacketizer()
-  private val aacPacket = AacPacket(commandsManager.MTU - SrtPacket.headerSize, psiManager)
-  private val h26XPacket = H26XPacket(commandsManager.MTU - SrtPacket.headerSize, psiManager)
+  private val bufferPool = BufferPool()
+  //shared by audio and video to write pcr only in the pcr pid
+  private val pcrManager = PcrManager()
+  private val mpegTsPacketizer = MpegTsPacketizer(pcrManager)
+  private val aacPacket = AacPacket(commandsManager.MTU - SrtPacket.headerSize, psiManager, pcrManager).apply {
+    bufferPool = this@SrtSender.bufferPool
+  }
+  private val h26XPacket = H26XPacket(commandsManager.MTU - SrtPacket.headerSize, psiManager, pcrManager).apply {
+    bufferPool = this@SrtSender.bufferPool
+  }
+  private val aggregator = TsPayloadAggregator(commandsManager.MTU - SrtPacket.headerSize, bufferPool = bufferPool)
+  //payloads ready to send, only used in the send loop
+  private val payloads = mutableListOf<MpegTsPacket>()
 
   @Volatile
   private var running = false
@@ -75,8 +88,11 @@ class SrtSender(
 
   private var job: Job? = null
   private val scope = CoroutineScope(Dispatchers.IO)
+  //queue used by producers, replaced by a new queue on resize
   @Volatile
-  private var queue: BlockingQueue<List<MpegTsPacket>> = LinkedBlockingQueue(cacheSize)
+  private var queue = FrameRing<List<MpegTsPacket>>(cacheSize)
+  //queue used by the sender, it continues with the new queue after send all packets of a resized queue
+  private var sendQueue = queue
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
   var socket: SrtSocket? = null
@@ -97,6 +113,19 @@ class SrtSender(
 
   private val bitrateManager: BitrateManager = BitrateManager(connectCheckerSrt)
   private var isEnableLogs = true
+  //each queue item contains all packets of a frame so frames are never split
+  private val dropController = DropController<List<MpegTsPacket>> { discard(it) }
+  var dropPolicy: DropPolicy
+    get() = dropController.dropPolicy
+    set(value) {
+      dropController.dropPolicy = value
+    }
+  //packets (PSI included) are created outside of the sender and shared with other senders
+  var sharedPackets = false
+  //increased each start, used to know when a new session needs the PSI tables
+  @Volatile
+  var sessionId = 0
+    private set
 
   companion object {
     private const val TAG = "SrtSender"
@@ -107,6 +136,7 @@ class SrtSender(
     if (videoEnabled) service.addTrack(videoCodec)
     if (audioEnabled) service.addTrack(Codec.AAC)
     psiManager.updateService(service)
+    pcrManager.pcrPid = service.pcrPid?.toInt()
   }
 
   fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
@@ -120,11 +150,14 @@ class SrtSender(
   fun sendVideoFrame(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       checkSendInfo()
-      h26XPacket.createAndSendPacket(h264Buffer, info) { mpegTsPackets ->
-        val result = queue.trySend(mpegTsPackets)
-        if (!result) {
-          Log.i(TAG, "Video frame discarded")
-          droppedVideoFrames++
+      val isKeyFrame = info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+      //only needed to discard frames with DROP_GOP, avoid read the buffer with other policies
+      val isNonReference = dropPolicy == DropPolicy.DROP_GOP &&
+          DropController.isNonReference(h264Buffer, videoCodec == Codec.HEVC)
+      //locked with the forced pcr packets of the send loop
+      synchronized(h26XPacket) {
+        h26XPacket.createAndSendPacket(h264Buffer, info) { mpegTsPackets ->
+          enqueueVideo(listOf(mpegTsPackets), isKeyFrame, isNonReference)
         }
       }
     }
@@ -133,40 +166,105 @@ class SrtSender(
   fun sendAudioFrame(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       checkSendInfo()
-      aacPacket.createAndSendPacket(aacBuffer, info) { mpegTsPackets ->
-        val result = queue.trySend(mpegTsPackets)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
+      synchronized(aacPacket) {
+        aacPacket.createAndSendPacket(aacBuffer, info) { mpegTsPackets ->
+          enqueue(mpegTsPackets)
         }
       }
     }
   }
 
+  /**
+   * Send packets of an audio frame or PSI created outside of the sender (shared by multiple senders).
+   * The sender owns a reference of each packet after this call.
+   */
+  fun sendPackets(mpegTsPackets: List<MpegTsPacket>) {
+    if (running) enqueue(mpegTsPackets) else mpegTsPackets.forEach { it.release() }
+  }
+
+  /**
+   * Send packets of a video frame created outside of the sender (shared by multiple senders).
+   * The sender owns a reference of each packet after this call.
+   */
+  fun sendVideoPackets(mpegTsPackets: List<MpegTsPacket>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    if (running) {
+      enqueueVideo(listOf(mpegTsPackets), isKeyFrame, isNonReference)
+    } else {
+      mpegTsPackets.forEach { it.release() }
+    }
+  }
+
+  /**
+   * Called when a keyframe is needed to recover the stream after discard frames with DropPolicy.DROP_GOP.
+   */
+  fun setKeyFrameRequestListener(listener: Runnable?) {
+    dropController.keyFrameRequestListener = listener
+  }
+
+  fun getDropStats(): DropStats = dropController.dropStats
+
+  private fun discard(mpegTsPackets: List<MpegTsPacket>) {
+    when (mpegTsPackets.firstOrNull()?.type) {
+      MpegType.VIDEO -> {
+        Log.i(TAG, "Video frame discarded")
+        droppedVideoFrames++
+      }
+      MpegType.AUDIO -> {
+        Log.i(TAG, "Audio frame discarded")
+        droppedAudioFrames++
+      }
+      else -> {}
+    }
+    mpegTsPackets.forEach { it.release() }
+  }
+
   fun start() {
-    queue.clear()
-    setTrackConfig(!commandsManager.videoDisabled, !commandsManager.audioDisabled)
+    clearQueue()
+    if (!sharedPackets) setTrackConfig(!commandsManager.videoDisabled, !commandsManager.audioDisabled)
+    //use negotiated MTU
+    val limitSize = commandsManager.MTU - SrtPacket.headerSize
+    aacPacket.setLimitSize(limitSize)
+    h26XPacket.setLimitSize(limitSize)
+    aggregator.setLimitSize(limitSize)
     running = true
+    //after running so packets of the new session are accepted
+    sessionId++
     job = scope.launch {
       //send config
-      val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())).map { b ->
-        MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
+      if (!sharedPackets) {
+        val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())).map { b ->
+          MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
+        }
+        enqueuePsi(psiPackets)
       }
-      queue.trySend(psiPackets)
       while (scope.isActive && running) {
         val error = runCatching {
+          //wait only until the pending payload must be sent or a pcr must be forced
+          val remainingDelay = aggregator.getRemainingDelay()
+          val pcrDelay = if (sharedPackets) -1 else pcrManager.getForcedPcrDelay()
+          val timeout = if (remainingDelay < 0) {
+            if (pcrDelay < 0) 1000 else pcrDelay
+          } else if (pcrDelay < 0) remainingDelay else minOf(remainingDelay, pcrDelay)
           val mpegTsPackets = runInterruptible {
-            queue.poll(1, TimeUnit.SECONDS)
+            sendQueue.poll(timeout, TimeUnit.MILLISECONDS)
+          }
+          sendQueue = sendQueue.current()
+          if (!sharedPackets) checkPcr()
+          mpegTsPackets?.forEach { aggregator.add(it, payloads) }
+          if (aggregator.hasPending() && aggregator.getRemainingDelay() == 0L) aggregator.flush(payloads)
+          if (payloads.isEmpty()) return@runCatching
+          //all payloads ready are sent in a batch. Buffers are owned by commandsManager after this call
+          val numPackets = payloads.size
+          val size = try {
+            commandsManager.writeData(payloads, socket)
+          } finally {
+            payloads.clear()
           }
-          mpegTsPackets.forEach { mpegTsPacket ->
-            var size = 0
-            size += commandsManager.writeData(mpegTsPacket, socket)
-            if (isEnableLogs) {
-              Log.i(TAG, "wrote ${mpegTsPacket.type.name} packet, size $size")
-            }
-            //bytes to bits
-            bitrateManager.calculateBitrate(size * 8L)
+          if (isEnableLogs) {
+            Log.i(TAG, "wrote $numPackets packets, size $size")
           }
+          //bytes to bits
+          bitrateManager.calculateBitrate(size * 8L)
         }.exceptionOrNull()
         if (error != null) {
           onMainThread {
@@ -185,20 +283,20 @@ class SrtSender(
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getPat())).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
         }
-        queue.trySend(psiPackets)
+        enqueuePsi(psiPackets)
       }
       TableToSend.SDT -> {
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getSdt())).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
         }
-        queue.trySend(psiPackets)
+        enqueuePsi(psiPackets)
       }
       TableToSend.NONE -> {}
       TableToSend.ALL -> {
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE)
         }
-        queue.trySend(psiPackets)
+        enqueuePsi(psiPackets)
       }
     }
   }
@@ -207,6 +305,7 @@ class SrtSender(
     running = false
     psiManager.reset()
     service.clear()
+    pcrManager.reset()
     mpegTsPacketizer.reset()
     aacPacket.reset()
     h26XPacket.reset()
@@ -214,9 +313,22 @@ class SrtSender(
     resetSentVideoFrames()
     resetDroppedAudioFrames()
     resetDroppedVideoFrames()
+    dropController.reset()
+    dropController.dropStats.reset()
     job?.cancelAndJoin()
     job = null
-    queue.clear()
+    clearQueue()
+    aggregator.reset()
+    payloads.forEach { it.release() }
+    payloads.clear()
+  }
+
+  private fun clearQueue() {
+    while (true) {
+      val mpegTsPackets = sendQueue.poll() ?: break
+      mpegTsPackets.forEach { it.release() }
+    }
+    sendQueue = sendQueue.current()
   }
 
   fun hasCongestion(): Boolean {
@@ -226,13 +338,39 @@ class SrtSender(
     return size >= capacity * 0.2f //more than 20% queue used. You could have congestion
   }
 
+  @Synchronized
   fun resizeCache(newSize: Int) {
-    if (newSize < queue.size - queue.remainingCapacity()) {
+    if (newSize < queue.size) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<List<MpegTsPacket>> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    //without locks, packets of the old queue are sent before packets of the new queue
+    queue = queue.resize(newSize)
+  }
+
+  private fun enqueue(packet: List<MpegTsPacket>) {
+    dropController.enqueue(queue, packet)
+  }
+
+  private fun enqueueVideo(packets: List<List<MpegTsPacket>>, isKeyFrame: Boolean, isNonReference: Boolean) {
+    dropController.enqueueVideo(queue, packets, isKeyFrame, isNonReference)
+  }
+
+  /**
+   * Send an adaptation field only packet with pcr if the pcr pid had no frames in pcrInterval.
+   */
+  private fun checkPcr() {
+    val pcrPid = pcrManager.pcrPid ?: return
+    val isVideo = pcrPid == psiManager.getVideoPid().toInt()
+    val basePacket = if (isVideo) h26XPacket else aacPacket
+    //the packet must be enqueued before the next frame of the pid to keep the continuity counter
+    synchronized(basePacket) {
+      val pcrPacket = basePacket.createPcrPacket(pcrPid, if (isVideo) MpegType.VIDEO else MpegType.AUDIO) ?: return
+      if (!queue.offer(listOf(pcrPacket))) pcrPacket.release()
+    }
+  }
+
+  private fun enqueuePsi(psiPackets: List<MpegTsPacket>) {
+    if (!queue.offer(psiPackets)) psiPackets.forEach { it.release() }
   }
 
   fun getCacheSize(): Int {
@@ -247,6 +385,30 @@ class SrtSender(
     return videoFramesSent
   }
 
+  /**
+   * Max time that a payload not completed waits more TS packets. 0 (default) to send payloads after each frame.
+   */
+  fun setMaxPayloadDelay(maxDelayMs: Long) {
+    aggregator.maxDelayMs = maxDelayMs
+  }
+
+  /**
+   * pcrInterval and pcrDelay in microseconds.
+   */
+  fun setPcrConfig(pcrInterval: Long, pcrDelay: Long, pcrOnAudio: Boolean) {
+    pcrManager.pcrInterval = pcrInterval
+    pcrManager.pcrDelay = pcrDelay
+    service.pcrOnAudio = pcrOnAudio
+  }
+
+  fun setVideoReorderDepth(frames: Int) {
+    h26XPacket.setReorderDepth(frames)
+  }
+
+  fun getBufferPool(): BufferPool {
+    return bufferPool
+  }
+
   fun resetSentAudioFrames() {
     audioFramesSent = 0
   }
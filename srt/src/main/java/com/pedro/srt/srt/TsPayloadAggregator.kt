@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.common.BufferPool
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegTsPacketizer
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.TimeUtils
+
+/**
+ * Coalesce consecutive TS packets of any type (audio, video and PSI) in full SRT payloads
+ * (7 TS packets of 188 bytes with the default MTU).
+ *
+ * A payload could contain the end of a frame and the start of the next one so each payload is sent as
+ * a PacketPosition.SINGLE message. This way a FIRST, MIDDLE, LAST sequence is never mixed with other frames.
+ *
+ * By default (maxDelayMs 0) a payload not completed is flushed when the last TS packet of an audio or video frame
+ * is added so frames are never delayed. With maxDelayMs greater than 0, the payload waits up to maxDelayMs since
+ * the first TS packet was added to be completed with the next frames.
+ *
+ * Not thread safe.
+ */
+class TsPayloadAggregator(
+  limitSize: Int,
+  var maxDelayMs: Long = DEFAULT_MAX_DELAY_MS,
+  private val bufferPool: BufferPool? = null
+) {
+
+  companion object {
+    const val DEFAULT_MAX_DELAY_MS = 0L
+  }
+
+  private var payloadSize = getPayloadSize(limitSize)
+  private var pending: ByteArray? = null
+  private var pendingLength = 0
+  private var pendingType = MpegType.PSI
+  private var pendingTs = 0L
+
+  fun setLimitSize(limitSize: Int) {
+    payloadSize = getPayloadSize(limitSize)
+  }
+
+  fun hasPending(): Boolean = pendingLength > 0
+
+  /**
+   * @return milliseconds until pending payload must be flushed or 0 if expired. -1 if nothing pending
+   */
+  fun getRemainingDelay(currentTs: Long = TimeUtils.getCurrentTimeMillis()): Long {
+    if (!hasPending()) return -1
+    return maxOf(0, pendingTs + maxDelayMs - currentTs)
+  }
+
+  /**
+   * Add TS packets of mpegTsPacket. The packet is released after copy it.
+   * Completed payloads are added to output.
+   */
+  fun add(mpegTsPacket: MpegTsPacket, output: MutableList<MpegTsPacket>) {
+    //full payload and nothing pending, send it without copy. Shared packets are copied because the buffer has other owners
+    if (pendingLength == 0 && mpegTsPacket.length == payloadSize && !mpegTsPacket.isShared()) {
+      //the buffer is owned by the new packet now
+      output.add(MpegTsPacket(mpegTsPacket.buffer, mpegTsPacket.type, PacketPosition.SINGLE, mpegTsPacket.length,
+        mpegTsPacket.pool))
+      return
+    }
+    var offset = 0
+    while (offset + MpegTsPacketizer.packetSize <= mpegTsPacket.length) {
+      var buffer = pending
+      if (buffer == null) {
+        buffer = bufferPool?.obtain(payloadSize) ?: ByteArray(payloadSize)
+        pending = buffer
+      }
+      if (pendingLength == 0) {
+        pendingType = mpegTsPacket.type
+        pendingTs = TimeUtils.getCurrentTimeMillis()
+      }
+      System.arraycopy(mpegTsPacket.buffer, offset, buffer, pendingLength, MpegTsPacketizer.packetSize)
+      pendingLength += MpegTsPacketizer.packetSize
+      offset += MpegTsPacketizer.packetSize
+      if (pendingLength + MpegTsPacketizer.packetSize > payloadSize) flush(output)
+    }
+    if (maxDelayMs == 0L && isEndOfFrame(mpegTsPacket)) flush(output)
+    mpegTsPacket.release()
+  }
+
+  /**
+   * Add pending payload to output even if it is not full.
+   */
+  fun flush(output: MutableList<MpegTsPacket>) {
+    val buffer = pending ?: return
+    if (pendingLength == 0) return
+    output.add(MpegTsPacket(buffer, pendingType, PacketPosition.SINGLE, pendingLength, bufferPool))
+    pending = null
+    pendingLength = 0
+  }
+
+  fun reset() {
+    pending?.let { bufferPool?.release(it) }
+    pending = null
+    pendingLength = 0
+  }
+
+  private fun isEndOfFrame(mpegTsPacket: MpegTsPacket): Boolean {
+    if (mpegTsPacket.type == MpegType.PSI) return false
+    return mpegTsPacket.packetPosition == PacketPosition.LAST || mpegTsPacket.packetPosition == PacketPosition.SINGLE
+  }
+
+  private fun getPayloadSize(limitSize: Int): Int {
+    return maxOf(1, limitSize / MpegTsPacketizer.packetSize) * MpegTsPacketizer.packetSize
+  }
+}
@@ -38,7 +38,9 @@ class DataPacket(
   var messageNumber: Int = 0,
   var ts: Int = 0,
   var socketId: Int = 0,
-  var payload: ByteArray = byteArrayOf()
+  var payload: ByteArray = byteArrayOf(),
+  //payload could be bigger than the data if it was obtained from a pool
+  var payloadLength: Int = payload.size
 ): SrtPacket() {
 
   fun write() {
@@ -50,7 +52,7 @@ class DataPacket(
     buffer.writeUInt32(info)
     buffer.writeUInt32(ts)
     buffer.writeUInt32(socketId)
-    buffer.write(payload)
+    buffer.write(payload, 0, payloadLength)
   }
 
   fun read(input: InputStream) {
@@ -70,6 +72,7 @@ class DataPacket(
     val payload = ByteArray(input.available())
     input.readUntil(payload)
     this.payload = payload
+    this.payloadLength = payload.size
   }
 
   fun getSize(): Int = buffer.size()
@@ -109,6 +109,7 @@ abstract class SrtPacket {
   fun getData(): ByteArray = buffer.toByteArray()
 
   fun resetBuffer() {
-    buffer = ByteArrayOutputStream()
+    //reuse the internal array, retransmitted packets are written again
+    buffer.reset()
   }
 }
\ No newline at end of file
@@ -80,16 +80,28 @@ class Nak: ControlPacket(ControlType.NAK) {
    * Convert packets ranges to list of packets lost
    */
   fun getNakPacketsLostList(): List<Int> {
-    val chunks = cifLostList.chunked(2)
     val values = mutableListOf<Int>()
-    chunks.forEach { ranges ->
-      val validMinValue = ranges[0] and 0x7FFFFFFF
-      val validMaxValue = ranges[1] and 0x7FFFFFFF
-      values.addAll((validMinValue..validMaxValue).toList())
+    getNakPacketsLostRanges().forEach { (minValue, maxValue) ->
+      //range could wrap from 0x7FFFFFFF to 0
+      var value = minValue
+      values.add(value)
+      while (value != maxValue) {
+        value = (value + 1) and 0x7FFFFFFF
+        values.add(value)
+      }
     }
     return values
   }
 
+  /**
+   * @return pairs of first and last packet lost (included). Ranges are not expanded
+   */
+  fun getNakPacketsLostRanges(): List<Pair<Int, Int>> {
+    return cifLostList.chunked(2) { range ->
+      Pair(range[0] and 0x7FFFFFFF, range[1] and 0x7FFFFFFF)
+    }
+  }
+
   override fun toString(): String {
     return "Nak(cifLostList=$cifLostList)"
   }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Adapt the video bitrate to the link using the feedback of the receiver.
+ *
+ * Each interval the bitrate is reduced if the loss rate or the time queued in the path (rtt over the min rtt) are high,
+ * increased step by step while the link is clean and kept otherwise. The bitrate never goes over the link capacity
+ * estimated by the receiver and small changes are ignored to avoid reconfigure the encoder too often.
+ *
+ * @param listener called in a background thread with the new bitrate, normally you want to call setVideoBitrateOnFly.
+ */
+class AbrController(
+  private val minBitrate: Int,
+  private val maxBitrate: Int,
+  private val listener: Listener
+) {
+
+  interface Listener {
+    fun onBitrateAdapted(bitrate: Int)
+  }
+
+  companion object {
+    private const val HIGH_LOSS = 0.1f
+    private const val LOW_LOSS = 0.02f
+    //min time queued in the path (us) considered as congestion
+    private const val MIN_QUEUE_DELAY = 30_000
+    private const val DECREASE_FACTOR = 0.8f
+    //part of the bitrate increased each interval
+    private const val INCREASE_FACTOR = 1.05f
+    //part of the link used by video, the rest is for audio, headers and retransmissions
+    private const val LINK_USAGE = 0.85f
+    private const val MIN_CHANGE = 0.03f
+    //intervals without increase after a decrease. The first one is ignored, its feedback is from the old bitrate
+    private const val HOLD_INTERVALS = 3
+  }
+
+  var updateIntervalMs = 1000L
+  @Volatile
+  var bitrate = maxBitrate
+    private set
+  private var lastUpdate = 0L
+  private var holdIntervals = 0
+
+  /**
+   * Called with each ACK received. The bitrate is only calculated once per interval.
+   */
+  @Synchronized
+  fun update(estimator: BandwidthEstimator, timeMs: Long = TimeUtils.getCurrentTimeMillis()) {
+    if (lastUpdate == 0L) {
+      //start the first interval
+      lastUpdate = timeMs
+      estimator.updateLossRate()
+      return
+    }
+    if (timeMs - lastUpdate < updateIntervalMs) return
+    lastUpdate = timeMs
+    val lossRate = estimator.updateLossRate()
+    if (holdIntervals == HOLD_INTERVALS) {
+      holdIntervals--
+      return
+    }
+    val minRtt = estimator.minRtt
+    val queueDelay = estimator.rtt - minRtt
+    var target = bitrate
+    if (lossRate >= HIGH_LOSS || queueDelay > max(MIN_QUEUE_DELAY, minRtt / 2)) {
+      target = (bitrate * DECREASE_FACTOR).toInt()
+      //the rate that the receiver get is a better reference than a fixed factor but never go down more than a half
+      val receivingRate = (estimator.receivingRate * LINK_USAGE).toLong()
+      if (receivingRate > 0) target = min(target.toLong(), max(receivingRate, bitrate / 2L)).toInt()
+      holdIntervals = HOLD_INTERVALS
+    } else if (holdIntervals > 0) {
+      holdIntervals--
+    } else if (lossRate < LOW_LOSS) {
+      target = (bitrate * INCREASE_FACTOR).toInt()
+    }
+    val capacity = (estimator.linkCapacity * LINK_USAGE).toLong()
+    if (capacity > 0) target = min(target.toLong(), capacity).toInt()
+    target = target.coerceIn(minBitrate, maxBitrate)
+    val change = abs(target - bitrate)
+    if (change > 0 && (change >= bitrate * MIN_CHANGE || target == minBitrate || target == maxBitrate)) {
+      bitrate = target
+      listener.onBitrateAdapted(target)
+    }
+  }
+
+  /**
+   * Start again the intervals keeping the last bitrate. Called on each connection.
+   */
+  @Synchronized
+  fun reset() {
+    lastUpdate = 0
+    holdIntervals = 0
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+/**
+ * State of the link reported by the receiver in ACK and NAK packets.
+ *
+ * Times are in microseconds and rates in bits per second.
+ */
+class BandwidthEstimator {
+
+  companion object {
+    //weight of a new sample in the average
+    private const val CAPACITY_WEIGHT = 0.125f
+    private const val LOSS_WEIGHT = 0.5f
+  }
+
+  @Volatile
+  var rtt = 0
+    private set
+  //lowest rtt of the connection, rtt over this value is time queued in the path
+  @Volatile
+  var minRtt = 0
+    private set
+  @Volatile
+  var rttVariance = 0
+    private set
+  val linkCapacity: Long
+    get() = (capacity * packetSize * 8).toLong()
+  @Volatile
+  var receivingRate = 0L
+    private set
+  //packets lost divided by packets sent, smoothed by intervals
+  @Volatile
+  var lossRate = 0f
+    private set
+  private var sentPackets = 0L
+  private var sentBytes = 0L
+  private var lostPackets = 0L
+  //packets per second
+  @Volatile
+  private var capacity = 0f
+  @Volatile
+  private var packetSize = Constants.MTU
+
+  @Synchronized
+  fun onPacketsSent(packets: Int, bytes: Int) {
+    sentPackets += packets
+    sentBytes += bytes
+  }
+
+  /**
+   * Values of a full ACK. Light ACKs don't have them, values not valid are ignored.
+   *
+   * @param estimatedLinkCapacity in packets per second
+   * @param receivingRate in bytes per second
+   */
+  @Synchronized
+  fun onAck(rtt: Int, rttVariance: Int, estimatedLinkCapacity: Int, receivingRate: Int) {
+    if (rtt > 0) {
+      this.rtt = rtt
+      this.rttVariance = rttVariance.coerceAtLeast(0)
+      if (minRtt == 0 || rtt < minRtt) minRtt = rtt
+    }
+    if (estimatedLinkCapacity > 0) {
+      capacity = if (capacity == 0f) estimatedLinkCapacity.toFloat()
+      else capacity + (estimatedLinkCapacity - capacity) * CAPACITY_WEIGHT
+    }
+    if (receivingRate > 0) this.receivingRate = receivingRate.toLong() * 8
+  }
+
+  @Synchronized
+  fun onPacketsLost(packets: Int) {
+    lostPackets += packets
+  }
+
+  /**
+   * Close the current interval and add its loss rate to the average.
+   *
+   * @return the loss rate of the interval
+   */
+  @Synchronized
+  fun updateLossRate(): Float {
+    var loss = 0f
+    if (sentPackets > 0) {
+      packetSize = (sentBytes / sentPackets).toInt()
+      loss = (lostPackets.toFloat() / sentPackets).coerceAtMost(1f)
+      lossRate += (loss - lossRate) * LOSS_WEIGHT
+    }
+    sentPackets = 0
+    sentBytes = 0
+    lostPackets = 0
+    return loss
+  }
+
+  @Synchronized
+  fun reset() {
+    rtt = 0
+    minRtt = 0
+    rttVariance = 0
+    capacity = 0f
+    receivingRate = 0
+    lossRate = 0f
+    sentPackets = 0
+    sentBytes = 0
+    lostPackets = 0
+    packetSize = Constants.MTU
+  }
+
+  override fun toString(): String {
+    return "BandwidthEstimator(rtt=$rtt, minRtt=$minRtt, rttVariance=$rttVariance, linkCapacity=$linkCapacity, " +
+        "receivingRate=$receivingRate, lossRate=$lossRate)"
+  }
+}
@@ -43,13 +43,6 @@ fun ByteBuffer.toByteArray(): ByteArray {
   }
 }
 
-fun ByteBuffer.startWith(byteArray: ByteArray): Boolean {
-  val startData = ByteArray(byteArray.size)
-  this.rewind()
-  this.get(startData)
-  return startData.contentEquals(byteArray)
-}
-
 fun Boolean.toInt(): Int {
   return if (this) 1 else 0
 }
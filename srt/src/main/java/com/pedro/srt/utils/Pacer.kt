@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+/**
+ * Limit the rate of packets written in the socket to avoid bursts (keyframes) that overflow the buffers of the
+ * routers in the path. Bursts are spread using a token bucket with the rate configured by maxBandwidth.
+ *
+ * Retransmissions are limited to retransmissionOverhead percent of the input rate while pacing is enabled.
+ * Retransmissions that exceed the limit are not sent, the receiver reports the packets lost again with the next NAK.
+ *
+ * Not thread safe except the configuration. Callers must synchronize calls.
+ */
+class Pacer {
+
+  companion object {
+    //pace to the input rate plus the retransmission overhead
+    const val AUTO = -1L
+    const val DISABLED = 0L
+    private const val INPUT_RATE_INTERVAL_NS = 1_000_000_000L
+    //weight of the last interval in the input rate
+    private const val INPUT_RATE_ALPHA = 0.25
+    private const val RETRANSMISSION_BURST_MS = 100
+  }
+
+  private val dataBucket = TokenBucket()
+  private val retransmissionBucket = TokenBucket()
+
+  /**
+   * Bits per second. DISABLED to send packets as soon as possible or AUTO to use the input rate plus
+   * retransmission overhead.
+   */
+  @Volatile
+  var maxBandwidth = DISABLED
+    set(value) {
+      field = value
+      ratesChanged = true
+    }
+  //percent of the input rate
+  @Volatile
+  var retransmissionOverhead = 25
+    set(value) {
+      field = maxOf(value, 0)
+      ratesChanged = true
+    }
+  //max time in milliseconds of packets sent together at the max bandwidth
+  var burstMs = 10
+  //bits per second of the data written in the socket without retransmissions
+  var inputRate = 0L
+    private set
+  var droppedRetransmissions = 0L
+    private set
+  private var inputBytes = 0L
+  private var inputIntervalStart = -1L
+  //rates are updated with the time of the next packet
+  @Volatile
+  private var ratesChanged = true
+
+  fun isEnabled(): Boolean = maxBandwidth != DISABLED
+
+  /**
+   * Update the input rate with data that will be written.
+   */
+  fun onInput(bytes: Int, timeNanos: Long) {
+    if (inputIntervalStart < 0) inputIntervalStart = timeNanos
+    inputBytes += bytes
+    val elapsed = timeNanos - inputIntervalStart
+    if (elapsed < INPUT_RATE_INTERVAL_NS) return
+    val rate = inputBytes * 8 * 1_000_000_000L / elapsed
+    inputRate = if (inputRate == 0L) rate else (inputRate * (1 - INPUT_RATE_ALPHA) + rate * INPUT_RATE_ALPHA).toLong()
+    inputBytes = 0
+    inputIntervalStart = timeNanos
+    updateRates(timeNanos)
+  }
+
+  /**
+   * Consume tokens for a data packet if possible.
+   *
+   * @return 0 if the packet can be sent or the time to wait in nanoseconds
+   */
+  fun acquire(bytes: Int, timeNanos: Long): Long {
+    if (!isEnabled()) return 0
+    if (ratesChanged) updateRates(timeNanos)
+    val waitTime = dataBucket.getWaitTime(timeNanos)
+    if (waitTime == 0L) dataBucket.forceConsume(bytes, timeNanos)
+    return waitTime
+  }
+
+  /**
+   * Retransmissions are never delayed, they consume tokens of the data packets to keep the max bandwidth.
+   *
+   * @return true if the retransmission is allowed
+   */
+  fun tryRetransmit(bytes: Int, timeNanos: Long): Boolean {
+    if (!isEnabled()) return true
+    if (ratesChanged) updateRates(timeNanos)
+    if (!retransmissionBucket.tryConsume(bytes, timeNanos)) {
+      droppedRetransmissions++
+      return false
+    }
+    dataBucket.forceConsume(bytes, timeNanos)
+    return true
+  }
+
+  fun reset() {
+    dataBucket.reset()
+    retransmissionBucket.reset()
+    inputRate = 0
+    inputBytes = 0
+    inputIntervalStart = -1
+    droppedRetransmissions = 0
+    ratesChanged = true
+  }
+
+  private fun updateRates(timeNanos: Long) {
+    ratesChanged = false
+    //rates in bytes per second, 0 is no limit. Input rate is unknown until the first interval
+    val retransmissionRate = inputRate * retransmissionOverhead / 100 / 8
+    val dataRate = when (maxBandwidth) {
+      DISABLED -> 0
+      AUTO -> inputRate * (100 + retransmissionOverhead) / 100 / 8
+      else -> maxBandwidth / 8
+    }
+    dataBucket.setRate(dataRate, maxOf(dataRate * burstMs / 1000, Constants.MTU.toLong()), timeNanos)
+    retransmissionBucket.setRate(retransmissionRate,
+      maxOf(retransmissionRate * RETRANSMISSION_BURST_MS / 1000, Constants.MTU.toLong()), timeNanos)
+  }
+}
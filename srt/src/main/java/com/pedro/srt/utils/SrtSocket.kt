@@ -16,10 +16,14 @@
 
 package com.pedro.srt.utils
 
+import com.pedro.common.DatagramBatchWriter
 import com.pedro.srt.srt.packets.SrtPacket
-import java.net.DatagramPacket
-import java.net.DatagramSocket
+import java.io.IOException
+import java.io.OutputStream
 import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
 
 /**
  * Created by pedro on 22/8/23.
@@ -27,44 +31,83 @@ import java.net.InetAddress
 class SrtSocket(private val host: String, private val port: Int) {
 
   private val TAG = "SrtSocket"
-  private var socket: DatagramSocket? = null
+  private var channel: DatagramChannel? = null
   private var packetSize = Constants.MTU
+  private val batchWriter = DatagramBatchWriter(Constants.MTU)
+  private val bufferOutput = ByteBufferOutputStream()
 
   fun connect() {
     val address = InetAddress.getByName(host)
-    socket = DatagramSocket()
-    socket?.connect(address, port)
+    channel = DatagramChannel.open().apply {
+      connect(InetSocketAddress(address, port))
+    }
   }
 
   fun close() {
-    if (socket?.isClosed == false) {
-      socket?.close()
-      socket = null
+    if (channel?.isOpen == true) {
+      channel?.close()
+      channel = null
     }
   }
 
   fun isConnected(): Boolean {
-    return socket?.isConnected ?: false
+    return channel?.isConnected ?: false
   }
 
   fun isReachable(): Boolean {
-    return socket?.inetAddress?.isReachable(5000) ?: false
+    return channel?.socket()?.inetAddress?.isReachable(5000) ?: false
   }
 
   fun setPacketSize(size: Int) {
     packetSize = size
   }
 
+  @Throws(IOException::class)
   fun write(srtPacket: SrtPacket) {
-    val buffer = srtPacket.getData()
-    val udpPacket = DatagramPacket(buffer, buffer.size)
-    socket?.send(udpPacket)
+    val channel = this.channel ?: return
+    synchronized(batchWriter) {
+      addToBatch(srtPacket)
+      batchWriter.flush(channel)
+    }
   }
 
+  /**
+   * Send all packets in order reusing the same buffers.
+   */
+  @Throws(IOException::class)
+  fun write(srtPackets: List<SrtPacket>) {
+    val channel = this.channel ?: return
+    synchronized(batchWriter) {
+      srtPackets.forEach { srtPacket ->
+        if (batchWriter.isFull()) batchWriter.flush(channel)
+        addToBatch(srtPacket)
+      }
+      batchWriter.flush(channel)
+    }
+  }
+
+  @Throws(IOException::class)
   fun readBuffer(): ByteArray {
-    val buffer = ByteArray(packetSize)
-    val udpPacket = DatagramPacket(buffer, buffer.size)
-    socket?.receive(udpPacket)
-    return udpPacket.data.sliceArray(0 until udpPacket.length)
+    val buffer = ByteBuffer.allocate(packetSize)
+    channel?.read(buffer)
+    return buffer.array().sliceArray(0 until buffer.position())
+  }
+
+  private fun addToBatch(srtPacket: SrtPacket) {
+    bufferOutput.buffer = batchWriter.next(srtPacket.buffer.size())
+    //copy the packet without create a new array
+    srtPacket.buffer.writeTo(bufferOutput)
+  }
+
+  private class ByteBufferOutputStream : OutputStream() {
+    var buffer: ByteBuffer? = null
+
+    override fun write(b: Int) {
+      buffer?.put(b.toByte())
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+      buffer?.put(b, off, len)
+    }
   }
-}
\ No newline at end of file
+}
@@ -24,6 +24,9 @@ object TimeUtils {
   @JvmStatic
   fun getCurrentTimeMicro(): Long = System.nanoTime() / 1000
 
+  @JvmStatic
+  fun getCurrentTimeNano(): Long = System.nanoTime()
+
   @JvmStatic
   fun getCurrentTimeMillis(): Long = System.currentTimeMillis()
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+/**
+ * Token bucket with tokens in bytes refilled at rate bytes per second until capacity.
+ *
+ * A packet can be sent while tokens are positive, so packets bigger than the capacity are allowed and the debt
+ * delays the next packets. Tokens could be consumed without check them to keep the average rate.
+ *
+ * Not thread safe.
+ */
+class TokenBucket {
+
+  //bytes per second, 0 is no limit
+  var rate = 0L
+    private set
+  var capacity = 0L
+    private set
+  private var tokens = 0.0
+  private var lastTime = -1L
+
+  /**
+   * Change rate and capacity keeping the current tokens (limited to the new capacity).
+   */
+  fun setRate(rate: Long, capacity: Long, timeNanos: Long) {
+    val started = lastTime >= 0
+    refill(timeNanos)
+    this.rate = maxOf(rate, 0)
+    this.capacity = maxOf(capacity, 1)
+    //start full
+    if (!started || tokens > this.capacity) tokens = this.capacity.toDouble()
+  }
+
+  /**
+   * @return 0 if tokens are available or the time to wait in nanoseconds until tokens are available
+   */
+  fun getWaitTime(timeNanos: Long): Long {
+    if (rate <= 0) return 0
+    refill(timeNanos)
+    if (tokens > 0) return 0
+    return ((-tokens + 1) * 1_000_000_000 / rate).toLong()
+  }
+
+  /**
+   * Consume tokens if available.
+   *
+   * @return true if bytes can be sent
+   */
+  fun tryConsume(bytes: Int, timeNanos: Long): Boolean {
+    if (getWaitTime(timeNanos) > 0) return false
+    tokens -= bytes
+    return true
+  }
+
+  /**
+   * Consume tokens even if not available. The debt is paid with the next refills.
+   */
+  fun forceConsume(bytes: Int, timeNanos: Long) {
+    if (rate <= 0) return
+    refill(timeNanos)
+    tokens -= bytes
+  }
+
+  fun reset() {
+    rate = 0
+    capacity = 0
+    tokens = 0.0
+    lastTime = -1
+  }
+
+  private fun refill(timeNanos: Long) {
+    if (lastTime < 0) {
+      tokens = capacity.toDouble()
+    } else if (timeNanos > lastTime) {
+      tokens = minOf(capacity.toDouble(), tokens + (timeNanos - lastTime) * rate / 1_000_000_000.0)
+    }
+    lastTime = maxOf(lastTime, timeNanos)
+  }
+}
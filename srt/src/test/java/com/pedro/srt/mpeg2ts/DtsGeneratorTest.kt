@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DtsGeneratorTest {
+
+  @Test
+  fun `GIVEN frames without reorder WHEN get dts THEN dts is the same than pts`() {
+    val dtsGenerator = DtsGenerator()
+    for (i in 0 until 100) {
+      val pts = i * 33_333L
+      assertEquals(pts, dtsGenerator.getDts(pts))
+    }
+  }
+
+  @Test
+  fun `GIVEN frames with B-frames WHEN get dts THEN dts increase and is not higher than pts after the first reordered frame`() {
+    val dtsGenerator = DtsGenerator()
+    //I0 P3 B1 B2 P6 B4 B5... (pyramid with depth 2 after 60 frames)
+    val order = mutableListOf<Long>()
+    order.add(0)
+    var i = 1
+    while (i < 58) {
+      order.addAll(listOf(i + 2L, i.toLong(), i + 1L))
+      i += 3
+    }
+    while (i < 120) {
+      order.addAll(listOf(i + 3L, i + 1L, i.toLong(), i + 2L))
+      i += 4
+    }
+    var lastDts = Long.MIN_VALUE
+    val invalid = mutableListOf<Int>()
+    order.forEachIndexed { index, frame ->
+      val pts = frame * 33_333
+      val dts = dtsGenerator.getDts(pts)
+      if (dts > pts || dts <= lastDts) invalid.add(index)
+      lastDts = dts
+    }
+    //only the first frame that increase the reorder depth
+    assertTrue(invalid.size <= 2)
+  }
+
+  @Test
+  fun `GIVEN initial reorder depth WHEN get dts of frames with B-frames THEN all dts are valid`() {
+    val dtsGenerator = DtsGenerator()
+    dtsGenerator.initialReorderDepth = 1
+    val order = mutableListOf(0L)
+    var i = 1
+    while (i < 90) {
+      order.addAll(listOf(i + 2L, i.toLong(), i + 1L))
+      i += 3
+    }
+    var lastDts = Long.MIN_VALUE
+    order.forEach { frame ->
+      val pts = frame * 33_333
+      val dts = dtsGenerator.getDts(pts)
+      assertTrue(dts <= pts)
+      assertTrue(dts > lastDts)
+      lastDts = dts
+    }
+  }
+}
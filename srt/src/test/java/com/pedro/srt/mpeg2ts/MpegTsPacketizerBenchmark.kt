@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import com.pedro.common.BufferPool
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+
+/**
+ * Compare list mode (TS packet arrays chunked and copied in srt payloads) and payload mode of MpegTsPacketizer.
+ * Report TS packets per second and bytes allocated per video frame in the assert message.
+ * Ignored in the unit suite, remove @Ignore to run it.
+ */
+@Ignore("benchmark")
+class MpegTsPacketizerBenchmark {
+
+  private val warmupFrames = 2000
+  private val frames = 6000
+  private val gopSize = 30
+  private val keyFrameSize = 60_000
+  private val interFrameSize = 6_000
+  private val chunkSize = 7
+  private val payloadSize = chunkSize * MpegTsPacketizer.packetSize
+
+  private val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+  @Test
+  fun `GIVEN video frames WHEN packetize in srt payloads THEN payload mode allocates less per frame than list mode`() {
+    val keyFrame = ByteBuffer.allocateDirect(keyFrameSize)
+    val interFrame = ByteBuffer.allocateDirect(interFrameSize)
+
+    val listPacketizer = MpegTsPacketizer()
+    runFrames("list", warmupFrames, keyFrame, interFrame) { writeList(listPacketizer, it) }
+    val listResult = runFrames("list", frames, keyFrame, interFrame) { writeList(listPacketizer, it) }
+
+    val bufferPool = BufferPool()
+    val payloadPacketizer = MpegTsPacketizer()
+    runFrames("payload", warmupFrames, keyFrame, interFrame) { writePayloads(payloadPacketizer, bufferPool, it) }
+    val payloadResult = runFrames("payload", frames, keyFrame, interFrame) { writePayloads(payloadPacketizer, bufferPool, it) }
+
+    assertTrue("$listResult, $payloadResult", payloadResult.bytesPerFrame < listResult.bytesPerFrame)
+  }
+
+  //same work done by srt packets before payload mode
+  private fun writeList(mpegTsPacketizer: MpegTsPacketizer, pes: Pes): Int {
+    val packets = mpegTsPacketizer.write(listOf(pes))
+    packets.chunked(chunkSize).forEach { chunks ->
+      val buffer = ByteArray(chunks.sumOf { it.size })
+      var offset = 0
+      chunks.forEach {
+        System.arraycopy(it, 0, buffer, offset, it.size)
+        offset += it.size
+      }
+    }
+    return packets.size
+  }
+
+  private fun writePayloads(mpegTsPacketizer: MpegTsPacketizer, bufferPool: BufferPool, pes: Pes): Int {
+    var tsPackets = 0
+    mpegTsPacketizer.startPes(pes)
+    while (mpegTsPacketizer.hasPesRemaining()) {
+      val buffer = bufferPool.obtain(payloadSize)
+      tsPackets += mpegTsPacketizer.writePayload(buffer, 0, payloadSize) / MpegTsPacketizer.packetSize
+      //released by CommandsManager after ACK in a real stream
+      bufferPool.release(buffer)
+    }
+    return tsPackets
+  }
+
+  private fun runFrames(name: String, frames: Int, keyFrame: ByteBuffer, interFrame: ByteBuffer, write: (Pes) -> Int): Result {
+    val threadId = Thread.currentThread().id
+    var tsPackets = 0L
+    val startBytes = threadMXBean.getThreadAllocatedBytes(threadId)
+    val startTime = System.nanoTime()
+    for (frame in 0 until frames) {
+      val isKeyFrame = frame % gopSize == 0
+      val data = if (isKeyFrame) keyFrame else interFrame
+      data.rewind()
+      tsPackets += write(Pes(256, isKeyFrame, PesType.VIDEO, frame * 33_333L, data))
+    }
+    val elapsed = (System.nanoTime() - startTime).coerceAtLeast(1)
+    val allocated = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes
+    return Result(name, tsPackets * 1_000_000_000L / elapsed, allocated / frames)
+  }
+
+  private data class Result(val name: String, val tsPacketsPerSecond: Long, val bytesPerFrame: Long) {
+    override fun toString(): String = "$name: ts packets/s $tsPacketsPerSecond, bytes allocated per frame $bytesPerFrame"
+  }
+}
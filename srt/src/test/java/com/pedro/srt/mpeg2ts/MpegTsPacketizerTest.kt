@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import com.pedro.srt.Utils
+import com.pedro.srt.utils.TimeUtils
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito
+import java.nio.ByteBuffer
+
+class MpegTsPacketizerTest {
+
+  private val timeUtilsMock = Mockito.mockStatic(TimeUtils::class.java)
+
+  @Before
+  fun setup() {
+    timeUtilsMock.`when`<Long>(TimeUtils::getCurrentTimeMicro).thenReturn(700000)
+  }
+
+  @Test
+  fun `GIVEN a big pes WHEN write it in payloads THEN get the same packets that write it as list`() = runTest {
+    Utils.useStatics(listOf(timeUtilsMock)) {
+      val data = ByteArray(5000) { it.toByte() }
+      val expectedPackets = MpegTsPacketizer().write(listOf(Pes(256, true, PesType.VIDEO, 1400000, ByteBuffer.wrap(data))))
+      val expected = ByteBuffer.allocate(expectedPackets.sumOf { it.size })
+      expectedPackets.forEach { expected.put(it) }
+
+      val mpegTsPacketizer = MpegTsPacketizer()
+      mpegTsPacketizer.startPes(Pes(256, true, PesType.VIDEO, 1400000, ByteBuffer.wrap(data)))
+      val payloadSize = MpegTsPacketizer.packetSize * 7
+      val result = ByteBuffer.allocate(expected.capacity())
+      val payload = ByteArray(payloadSize)
+      while (mpegTsPacketizer.hasPesRemaining()) {
+        val length = mpegTsPacketizer.writePayload(payload, 0, payloadSize)
+        assertEquals(0, length % MpegTsPacketizer.packetSize)
+        result.put(payload, 0, length)
+      }
+      assertFalse(result.hasRemaining())
+      assertArrayEquals(expected.array(), result.array())
+    }
+  }
+
+  @Test
+  fun `GIVEN a small pes WHEN write it in payloads THEN stuffing is in adaptation field and data is at the end of the packet`() = runTest {
+    Utils.useStatics(listOf(timeUtilsMock)) {
+      val data = ByteArray(100) { 0xAA.toByte() }
+      val mpegTsPacketizer = MpegTsPacketizer()
+      val pes = Pes(256, false, PesType.AUDIO, 1400000, ByteBuffer.wrap(data))
+      mpegTsPacketizer.startPes(pes)
+      val payload = ByteArray(MpegTsPacketizer.packetSize * 7)
+      val length = mpegTsPacketizer.writePayload(payload, 0, payload.size)
+      assertEquals(MpegTsPacketizer.packetSize, length)
+      assertFalse(mpegTsPacketizer.hasPesRemaining())
+      val headerSize = 4
+      val adaptationSize = payload[headerSize].toInt() + 1
+      val pesStart = headerSize + adaptationSize
+      //pes start code
+      assertArrayEquals(byteArrayOf(0, 0, 1), payload.copyOfRange(pesStart, pesStart + 3))
+      assertEquals(MpegTsPacketizer.packetSize, pesStart + pes.getHeaderSize() + data.size)
+      assertArrayEquals(data, payload.copyOfRange(MpegTsPacketizer.packetSize - data.size, MpegTsPacketizer.packetSize))
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import android.media.MediaCodec
+import com.pedro.srt.mpeg2ts.packets.H26XPacket
+import com.pedro.srt.mpeg2ts.psi.PsiManager
+import com.pedro.srt.mpeg2ts.service.Mpeg2TsService
+import com.pedro.srt.utils.TimeUtils
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+class PcrManagerTest {
+
+  private val timeUtilsMocked = Mockito.mockStatic(TimeUtils::class.java)
+  private var fakeTime = 0L
+  private val sps = byteArrayOf(0, 0, 0, 1, 103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+  private val pps = byteArrayOf(0, 0, 0, 1, 104, -18, 13, -117)
+
+  @Before
+  fun setup() {
+    Pid.reset()
+    timeUtilsMocked.`when`<Long>(TimeUtils::getCurrentTimeMicro).then { fakeTime }
+  }
+
+  @After
+  fun teardown() {
+    timeUtilsMocked.close()
+  }
+
+  @Test
+  fun `GIVEN pes of the pcr pid more often than pcrInterval WHEN get pcr THEN each pes has pcr and no pcr is forced`() {
+    val pcrManager = PcrManager(pcrInterval = 40_000, pcrDelay = 100_000)
+    pcrManager.pcrPid = 256
+    for (i in 0 until 30) {
+      fakeTime = i * 33_333L
+      assertEquals(i * 33_333L, pcrManager.getPcr(256, pcrManager.getTimestamp(fakeTime)))
+      assertEquals(-1, pcrManager.getPcr(257, pcrManager.getTimestamp(fakeTime)))
+      assertEquals(-1, pcrManager.getForcedPcr())
+    }
+  }
+
+  @Test
+  fun `GIVEN no pes in pcrInterval WHEN get forced pcr THEN pcr follows the wall clock until the last dts`() {
+    val pcrManager = PcrManager(pcrInterval = 40_000, pcrDelay = 100_000)
+    assertEquals(-1, pcrManager.getForcedPcr())
+    assertEquals(-1, pcrManager.getForcedPcrDelay())
+    assertEquals(0, pcrManager.getPcr(256, pcrManager.getTimestamp(0)))
+    assertEquals(40, pcrManager.getForcedPcrDelay())
+    fakeTime = 39_000
+    assertEquals(-1, pcrManager.getForcedPcr())
+    fakeTime = 40_000
+    assertEquals(0, pcrManager.getForcedPcrDelay())
+    assertEquals(40_000, pcrManager.getForcedPcr())
+    fakeTime = 90_000
+    assertEquals(90_000, pcrManager.getForcedPcr())
+    fakeTime = 130_000
+    //never over the dts of the last pes
+    assertEquals(100_000, pcrManager.getForcedPcr())
+    fakeTime = 170_000
+    assertEquals(-1, pcrManager.getForcedPcr())
+    assertEquals(40, pcrManager.getForcedPcrDelay())
+    fakeTime = 200_000
+    //a pes behind the forced pcr has no pcr
+    assertEquals(-1, pcrManager.getPcr(256, pcrManager.getTimestamp(50_000)))
+    assertEquals(200_000, pcrManager.getPcr(256, pcrManager.getTimestamp(200_000)))
+  }
+
+  @Test
+  fun `GIVEN video at 5fps WHEN mux with forced pcr THEN stream is valid and max pcr interval is 100ms`() {
+    val service = Mpeg2TsService()
+    service.addTrack(Codec.AVC)
+    val pcrPid = service.pcrPid!!.toInt()
+    val psiManager = PsiManager(service)
+    val pcrManager = PcrManager(pcrInterval = 40_000, pcrDelay = 100_000)
+    pcrManager.pcrPid = pcrPid
+    val h26XPacket = H26XPacket(MpegTsPacketizer.packetSize * 7, psiManager, pcrManager)
+    h26XPacket.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+    val output = ByteArrayOutputStream()
+    val info = MediaCodec.BufferInfo()
+    val frameDuration = 200_000L
+    //wall clock advance 10ms each step like the poll timeout of the send loop
+    for (step in 0 until 500) {
+      fakeTime = step * 10_000L
+      if (fakeTime % frameDuration == 0L) {
+        val isKeyFrame = fakeTime % (10 * frameDuration) == 0L
+        val frame = ByteArray(2_000) { (it % 200 + 2).toByte() }
+        frame[0] = 0
+        frame[1] = 0
+        frame[2] = 0
+        frame[3] = 1
+        frame[4] = if (isKeyFrame) 0x65 else 0x41
+        info.set(0, frame.size, fakeTime, if (isKeyFrame) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0)
+        h26XPacket.createAndSendPacket(ByteBuffer.wrap(frame), info) { packets ->
+          packets.forEach { output.write(it.buffer, 0, it.length) }
+        }
+      }
+      h26XPacket.createPcrPacket(pcrPid, MpegType.VIDEO)?.let { output.write(it.buffer, 0, it.length) }
+    }
+    val stream = output.toByteArray()
+    val checker = TsConformanceChecker(pcrPid)
+    checker.check(stream, 0, stream.size)
+    assertEquals(listOf<String>(), checker.errors)
+    assertTrue(checker.maxPcrIntervalFound <= 100_000)
+    //a pcr in each frame and 3 forced between frames
+    assertEquals(25 * 4, checker.pcrCount)
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+/**
+ * Validate a mpeg2ts stream following ISO/IEC 13818-1:
+ * sync byte, continuity counter of each pid, pcr interval and monotonic, pts/dts of each pes and pcr lower than dts.
+ * Errors found are added to errors instead of fail so all of them can be reported.
+ */
+class TsConformanceChecker(
+  private val pcrPid: Int,
+  //max time between pcr in microseconds
+  private val maxPcrInterval: Long = 100_000
+) {
+
+  val errors = mutableListOf<String>()
+  var packetCount = 0
+    private set
+  var pcrCount = 0
+    private set
+  var pesCount = 0
+    private set
+  var pesWithDtsCount = 0
+    private set
+  //max time between pcr found in microseconds
+  var maxPcrIntervalFound = 0L
+    private set
+  private val continuity = HashMap<Int, Int>()
+  private val lastDts = HashMap<Int, Long>()
+  //27mhz
+  private var lastPcr = -1L
+
+  fun check(buffer: ByteArray, offset: Int, length: Int) {
+    if (length % MpegTsPacketizer.packetSize != 0) errors.add("length $length is not multiple of ${MpegTsPacketizer.packetSize}")
+    var position = offset
+    while (position + MpegTsPacketizer.packetSize <= offset + length) {
+      checkPacket(buffer, position)
+      position += MpegTsPacketizer.packetSize
+    }
+  }
+
+  private fun checkPacket(buffer: ByteArray, offset: Int) {
+    val index = packetCount++
+    if (buffer[offset] != 0x47.toByte()) {
+      errors.add("packet $index: invalid sync byte")
+      return
+    }
+    val startIndicator = buffer[offset + 1].toInt() and 0x40 != 0
+    val pid = ((buffer[offset + 1].toInt() and 0x1F) shl 8) or (buffer[offset + 2].toInt() and 0xFF)
+    val adaptationFieldControl = (buffer[offset + 3].toInt() shr 4) and 0x3
+    val counter = buffer[offset + 3].toInt() and 0xF
+    val hasPayload = adaptationFieldControl and 0x1 != 0
+    //continuity counter only increase in packets with payload
+    if (hasPayload) {
+      val last = continuity[pid]
+      if (last != null && counter != (last + 1) and 0xF) {
+        errors.add("packet $index: pid $pid continuity $counter after $last")
+      }
+      continuity[pid] = counter
+    }
+    var position = offset + 4
+    if (adaptationFieldControl and 0x2 != 0) {
+      val adaptationLength = buffer[position].toInt() and 0xFF
+      if (adaptationLength > 0 && buffer[position + 1].toInt() and 0x10 != 0) {
+        checkPcr(index, pid, readPcr(buffer, position + 2))
+      }
+      position += 1 + adaptationLength
+      if (position > offset + MpegTsPacketizer.packetSize) {
+        errors.add("packet $index: adaptation field out of packet")
+        return
+      }
+    }
+    if (hasPayload && startIndicator && isPesStart(buffer, position)) checkPes(index, pid, buffer, position)
+  }
+
+  private fun checkPcr(index: Int, pid: Int, pcr: Long) {
+    pcrCount++
+    if (pid != pcrPid) errors.add("packet $index: pcr in pid $pid, expected in $pcrPid")
+    if (lastPcr >= 0) {
+      if (pcr <= lastPcr) errors.add("packet $index: pcr $pcr not increasing after $lastPcr")
+      val interval = (pcr - lastPcr) / 27
+      if (interval > maxPcrIntervalFound) maxPcrIntervalFound = interval
+      if (interval > maxPcrInterval) errors.add("packet $index: pcr interval $interval us")
+    }
+    lastPcr = pcr
+  }
+
+  private fun checkPes(index: Int, pid: Int, buffer: ByteArray, offset: Int) {
+    pesCount++
+    val ptsDtsIndicator = (buffer[offset + 7].toInt() shr 6) and 0x3
+    when (ptsDtsIndicator) {
+      2 -> {
+        if (buffer[offset + 9].toInt() shr 4 and 0xF != 0b0010) errors.add("packet $index: invalid pts marker")
+        val pts = readTimestamp(buffer, offset + 9)
+        checkDts(index, pid, pts, pts)
+      }
+      3 -> {
+        pesWithDtsCount++
+        if (buffer[offset + 9].toInt() shr 4 and 0xF != 0b0011) errors.add("packet $index: invalid pts marker")
+        if (buffer[offset + 14].toInt() shr 4 and 0xF != 0b0001) errors.add("packet $index: invalid dts marker")
+        if (buffer[offset + 8].toInt() < 10) errors.add("packet $index: pes header length too small for pts and dts")
+        checkDts(index, pid, readTimestamp(buffer, offset + 9), readTimestamp(buffer, offset + 14))
+      }
+      else -> errors.add("packet $index: pes without pts")
+    }
+  }
+
+  private fun checkDts(index: Int, pid: Int, pts: Long, dts: Long) {
+    if (dts > pts) errors.add("packet $index: dts $dts higher than pts $pts")
+    val last = lastDts[pid]
+    if (last != null && dts <= last) errors.add("packet $index: pid $pid dts $dts not increasing after $last")
+    lastDts[pid] = dts
+    //pes before the first pcr are allowed, the decoder waits for the pcr
+    if (lastPcr >= 0 && lastPcr / 300 > dts) errors.add("packet $index: pcr ${lastPcr / 300} higher than dts $dts")
+  }
+
+  private fun isPesStart(buffer: ByteArray, offset: Int): Boolean {
+    return buffer[offset].toInt() == 0 && buffer[offset + 1].toInt() == 0 && buffer[offset + 2].toInt() == 1
+  }
+
+  //90khz
+  private fun readTimestamp(buffer: ByteArray, offset: Int): Long {
+    return (((buffer[offset].toLong() shr 1) and 0x7) shl 30) or
+        ((buffer[offset + 1].toLong() and 0xFF) shl 22) or
+        (((buffer[offset + 2].toLong() and 0xFF) shr 1) shl 15) or
+        ((buffer[offset + 3].toLong() and 0xFF) shl 7) or
+        ((buffer[offset + 4].toLong() and 0xFF) shr 1)
+  }
+
+  //27mhz
+  private fun readPcr(buffer: ByteArray, offset: Int): Long {
+    val base = ((buffer[offset].toLong() and 0xFF) shl 25) or
+        ((buffer[offset + 1].toLong() and 0xFF) shl 17) or
+        ((buffer[offset + 2].toLong() and 0xFF) shl 9) or
+        ((buffer[offset + 3].toLong() and 0xFF) shl 1) or
+        ((buffer[offset + 4].toLong() and 0xFF) shr 7)
+    val ext = ((buffer[offset + 4].toLong() and 0x1) shl 8) or (buffer[offset + 5].toLong() and 0xFF)
+    return base * 300 + ext
+  }
+}
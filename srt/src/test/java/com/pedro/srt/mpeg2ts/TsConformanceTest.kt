@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.mpeg2ts
+
+import android.media.MediaCodec
+import com.pedro.srt.mpeg2ts.packets.AacPacket
+import com.pedro.srt.mpeg2ts.packets.H26XPacket
+import com.pedro.srt.mpeg2ts.psi.PsiManager
+import com.pedro.srt.mpeg2ts.psi.TableToSend
+import com.pedro.srt.mpeg2ts.service.Mpeg2TsService
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * Mux audio and video like SrtSender and validate the result with TsConformanceChecker.
+ */
+class TsConformanceTest {
+
+  private val limitSize = MpegTsPacketizer.packetSize * 7
+  private val frameDuration = 33_333L
+  private val audioDuration = 21_333L
+  private val sps = byteArrayOf(0, 0, 0, 1, 103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+  private val pps = byteArrayOf(0, 0, 0, 1, 104, -18, 13, -117)
+
+  @Before
+  fun setup() {
+    Pid.reset()
+  }
+
+  @Test
+  fun `GIVEN video without B-frames and audio WHEN mux THEN stream is valid and pes only have pts`() {
+    val result = mux(durationUs = 5_000_000, bFrames = false, pcrOnAudio = false)
+    val checker = result.checker
+    assertEquals(listOf<String>(), checker.errors)
+    assertEquals(0, checker.pesWithDtsCount)
+    assertTrue(checker.pcrCount >= 5_000_000 / 100_000)
+    assertTrue(checker.maxPcrIntervalFound <= 100_000)
+  }
+
+  @Test
+  fun `GIVEN video with B-frames and audio WHEN mux THEN stream is valid and video pes have dts`() {
+    val result = mux(durationUs = 5_000_000, bFrames = true, pcrOnAudio = false)
+    val checker = result.checker
+    assertEquals(listOf<String>(), checker.errors)
+    assertTrue(checker.pesWithDtsCount > 0)
+    assertTrue(checker.pcrCount >= 5_000_000 / 100_000)
+    assertTrue(checker.maxPcrIntervalFound <= 100_000)
+  }
+
+  @Test
+  fun `GIVEN pcr on audio configured WHEN mux THEN pcr is only in audio pid and spacing is valid`() {
+    val result = mux(durationUs = 5_000_000, bFrames = false, pcrOnAudio = true)
+    assertEquals(listOf<String>(), result.checker.errors)
+    assertTrue(result.checker.maxPcrIntervalFound <= 100_000)
+  }
+
+  @Test
+  fun `GIVEN a stream with a continuity error WHEN check it THEN the error is found`() {
+    val result = mux(durationUs = 1_000_000, bFrames = false, pcrOnAudio = false)
+    val stream = result.stream
+    //change continuity counter of a packet in the middle of the stream
+    val offset = (stream.size / MpegTsPacketizer.packetSize / 2) * MpegTsPacketizer.packetSize
+    stream[offset + 3] = ((stream[offset + 3].toInt() and 0xF0) or ((stream[offset + 3].toInt() + 5) and 0xF)).toByte()
+    val checker = TsConformanceChecker(result.pcrPid)
+    checker.check(stream, 0, stream.size)
+    assertFalse(checker.errors.isEmpty())
+  }
+
+  private class MuxResult(val stream: ByteArray, val checker: TsConformanceChecker, val pcrPid: Int)
+
+  private fun mux(durationUs: Long, bFrames: Boolean, pcrOnAudio: Boolean): MuxResult {
+    val service = Mpeg2TsService(pcrOnAudio = pcrOnAudio)
+    service.addTrack(Codec.AVC)
+    service.addTrack(Codec.AAC)
+    val pcrPid = service.pcrPid!!.toInt()
+    val psiManager = PsiManager(service)
+    val pcrManager = PcrManager()
+    pcrManager.pcrPid = pcrPid
+    val psiPacketizer = MpegTsPacketizer(pcrManager)
+    val h26XPacket = H26XPacket(limitSize, psiManager, pcrManager)
+    h26XPacket.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+    if (bFrames) h26XPacket.setReorderDepth(1)
+    val aacPacket = AacPacket(limitSize, psiManager, pcrManager)
+    aacPacket.sendAudioInfo(48000, true)
+
+    val output = ByteArrayOutputStream()
+    val write: (List<MpegTsPacket>) -> Unit = { packets ->
+      packets.forEach { output.write(it.buffer, 0, it.length) }
+    }
+    val writePsi: (TableToSend) -> Unit = { table ->
+      val psi = when (table) {
+        TableToSend.ALL -> listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())
+        TableToSend.PAT_PMT -> listOf(psiManager.getPmt(), psiManager.getPat())
+        TableToSend.SDT -> listOf(psiManager.getSdt())
+        TableToSend.NONE -> listOf()
+      }
+      psiPacketizer.write(psi).forEach { output.write(it) }
+    }
+    writePsi(TableToSend.ALL)
+
+    val videoPts = getVideoPtsInDecodeOrder((durationUs / frameDuration).toInt(), bFrames)
+    val info = MediaCodec.BufferInfo()
+    var videoIndex = 0
+    var audioIndex = 0
+    //frames are received in decode order, audio and video interleaved by time
+    while (videoIndex < videoPts.size) {
+      val videoTime = videoIndex * frameDuration
+      val audioTime = audioIndex * audioDuration
+      writePsi(psiManager.shouldSend(false))
+      if (videoTime <= audioTime) {
+        val pts = videoPts[videoIndex]
+        val isKeyFrame = pts % (30 * frameDuration) == 0L
+        val frame = createVideoFrame(isKeyFrame, if (isKeyFrame) 20_000 else 3_000 + videoIndex * 7 % 1000)
+        info.set(0, frame.size, pts, if (isKeyFrame) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0)
+        h26XPacket.createAndSendPacket(ByteBuffer.wrap(frame), info, write)
+        videoIndex++
+      } else {
+        val frame = ByteArray(300 + audioIndex % 50) { 0x11 }
+        info.set(0, frame.size, audioTime, 0)
+        aacPacket.createAndSendPacket(ByteBuffer.wrap(frame), info, write)
+        audioIndex++
+      }
+    }
+    val stream = output.toByteArray()
+    val checker = TsConformanceChecker(pcrPid)
+    checker.check(stream, 0, stream.size)
+    return MuxResult(stream, checker, pcrPid)
+  }
+
+  /**
+   * GOP of 30 frames. With B-frames: I0 P3 B1 B2 P6 B4 B5...
+   */
+  private fun getVideoPtsInDecodeOrder(frames: Int, bFrames: Boolean): List<Long> {
+    val order = mutableListOf<Int>()
+    var gopStart = 0
+    while (order.size < frames) {
+      order.add(gopStart)
+      var i = 1
+      while (i < 30) {
+        if (bFrames && i + 2 < 30) {
+          order.add(gopStart + i + 2)
+          order.add(gopStart + i)
+          order.add(gopStart + i + 1)
+          i += 3
+        } else {
+          order.add(gopStart + i)
+          i++
+        }
+      }
+      gopStart += 30
+    }
+    return order.take(frames).map { it * frameDuration }
+  }
+
+  private fun createVideoFrame(isKeyFrame: Boolean, size: Int): ByteArray {
+    val frame = ByteArray(size) { (it % 200 + 2).toByte() }
+    frame[0] = 0
+    frame[1] = 0
+    frame[2] = 0
+    frame[3] = 1
+    frame[4] = if (isKeyFrame) 0x65 else 0x41
+    return frame
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.control.Ack
+import com.pedro.srt.srt.packets.control.Ack2
+import com.pedro.srt.srt.packets.control.Nak
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.AbrController
+import com.pedro.srt.utils.Constants
+import com.pedro.srt.utils.LossyUdpProxy
+import com.pedro.srt.utils.SrtSocket
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetSocketAddress
+import java.net.SocketAddress
+import java.net.SocketTimeoutException
+import java.util.TreeSet
+import kotlin.math.abs
+
+/**
+ * Stream through a simulated bad link and check that the bitrate selected by AbrController follows the link.
+ * The feedback (ACK and NAK) is handled like in SrtClient.
+ * Ignored in the unit suite because it depends on real time and loopback timing, AbrControllerTest is deterministic.
+ */
+@Ignore("timing dependent")
+class AbrLossyLinkTest {
+
+  private val maxBitrate = 4_000_000
+  private val minBitrate = 200_000
+  private val payloadSize = 1316
+  private lateinit var receiver: FakeSrtReceiver
+  private lateinit var proxy: LossyUdpProxy
+  private lateinit var socket: SrtSocket
+  private lateinit var commandsManager: CommandsManager
+  private lateinit var abrController: AbrController
+  private var feedbackThread: Thread? = null
+  @Volatile
+  private var running = false
+
+  @Before
+  fun setup() {
+    receiver = FakeSrtReceiver()
+    receiver.start()
+    proxy = LossyUdpProxy(receiver.port, delayMs = 20)
+    proxy.start()
+    socket = SrtSocket("127.0.0.1", proxy.port)
+    socket.connect()
+    //avoid sequence number wrap in the receiver
+    commandsManager = CommandsManager().apply { sequenceNumber = 0 }
+    commandsManager.loadStartTs()
+    abrController = AbrController(minBitrate, maxBitrate, object : AbrController.Listener {
+      override fun onBitrateAdapted(bitrate: Int) { }
+    })
+    abrController.updateIntervalMs = 200
+    running = true
+    feedbackThread = Thread { handleFeedback() }.apply { start() }
+  }
+
+  @After
+  fun teardown() {
+    running = false
+    socket.close()
+    feedbackThread?.join()
+    proxy.stop()
+    receiver.stop()
+  }
+
+  @Test
+  fun `GIVEN a link slower than max bitrate WHEN stream THEN bitrate goes under the link speed`() {
+    proxy.bandwidth = 1_500_000
+    val bitrates = stream(4000)
+    //ignore the first part, the time needed to detect the congestion
+    val average = bitrates.drop(bitrates.size / 2).average()
+    assertTrue("average $average", average < 1_500_000)
+    assertTrue("average $average", average > 500_000)
+  }
+
+  @Test
+  fun `GIVEN packets lost WHEN stream THEN reduce bitrate`() {
+    proxy.lossRate = 0.2f
+    stream(2000)
+    assertTrue("bitrate ${abrController.bitrate}", abrController.bitrate < maxBitrate / 2)
+  }
+
+  @Test
+  fun `GIVEN a link recovered WHEN stream THEN increase bitrate`() {
+    proxy.lossRate = 0.2f
+    stream(1500)
+    val lossBitrate = abrController.bitrate
+    proxy.lossRate = 0f
+    stream(3000)
+    assertTrue("bitrate ${abrController.bitrate}, loss bitrate $lossBitrate", abrController.bitrate > lossBitrate * 1.3f)
+  }
+
+  /**
+   * Send packets at the bitrate selected, like the encoder does.
+   *
+   * @return bitrate used each 10ms
+   */
+  private fun stream(durationMs: Long): List<Int> {
+    val bitrates = mutableListOf<Int>()
+    val end = System.currentTimeMillis() + durationMs
+    var pendingBytes = 0f
+    while (System.currentTimeMillis() < end) {
+      val bitrate = abrController.bitrate
+      bitrates.add(bitrate)
+      pendingBytes += bitrate / 8f / 100f
+      val packets = mutableListOf<MpegTsPacket>()
+      while (pendingBytes >= payloadSize) {
+        packets.add(MpegTsPacket(ByteArray(payloadSize), MpegType.VIDEO, PacketPosition.SINGLE))
+        pendingBytes -= payloadSize
+      }
+      if (packets.isNotEmpty()) runBlocking { commandsManager.writeData(packets, socket) }
+      Thread.sleep(10)
+    }
+    return bitrates
+  }
+
+  private fun handleFeedback() {
+    while (running) {
+      val buffer = runCatching { socket.readBuffer() }.getOrNull() ?: break
+      if (buffer.isEmpty()) continue
+      runBlocking {
+        when (val srtPacket = SrtPacket.getSrtPacket(buffer)) {
+          is Ack -> {
+            commandsManager.updateHandlingQueue(srtPacket.lastAcknowledgedPacketSequenceNumber)
+            commandsManager.writeAck2(srtPacket.typeSpecificInformation, socket)
+            commandsManager.bandwidthEstimator.onAck(srtPacket.rtt, srtPacket.rttVariance,
+              srtPacket.estimatedLinkCapacity, srtPacket.receivingRate)
+            abrController.update(commandsManager.bandwidthEstimator)
+          }
+          is Nak -> {
+            val packetsLost = srtPacket.getNakPacketsLostRanges()
+            commandsManager.bandwidthEstimator.onPacketsLost(packetsLost.sumOf { (first, last) ->
+              ((last - first) and 0x7FFFFFFF) + 1
+            })
+            commandsManager.reSendPackets(packetsLost, socket)
+          }
+          else -> { }
+        }
+      }
+    }
+  }
+
+  /**
+   * Minimal SRT receiver. Report packets lost with NAK and send a full ACK each 10ms with the rtt measured with ACK2.
+   * Link capacity is not estimated.
+   */
+  private class FakeSrtReceiver {
+
+    private val socket = DatagramSocket(InetSocketAddress("127.0.0.1", 0))
+    private var peer: SocketAddress? = null
+    @Volatile
+    private var running = false
+    private var thread: Thread? = null
+    private var expectedSequence = -1
+    private val lost = TreeSet<Int>()
+    private var rtt = 0
+    private var rttVariance = 0
+    private var ackNumber = 1
+    private val ackTimes = HashMap<Int, Long>()
+    private var receivedBytes = 0L
+    private var rateStart = System.nanoTime()
+    private var receivingRate = 0
+    private val startTs = System.nanoTime()
+
+    val port: Int
+      get() = socket.localPort
+
+    fun start() {
+      running = true
+      socket.soTimeout = 2
+      thread = Thread {
+        val buffer = ByteArray(Constants.MTU)
+        var lastAck = System.nanoTime()
+        while (running) {
+          val packet = DatagramPacket(buffer, buffer.size)
+          try {
+            socket.receive(packet)
+            peer = packet.socketAddress
+            handlePacket(packet.data.copyOf(packet.length))
+          } catch (ignored: SocketTimeoutException) { }
+          catch (e: Exception) {
+            break
+          }
+          if (System.nanoTime() - lastAck >= 10_000_000) {
+            lastAck = System.nanoTime()
+            sendAck()
+          }
+        }
+      }.apply { start() }
+    }
+
+    fun stop() {
+      running = false
+      thread?.join()
+      socket.close()
+    }
+
+    private fun handlePacket(data: ByteArray) {
+      val isControl = (data[0].toInt() ushr 7) and 0x01 == 1
+      if (isControl) {
+        val ack2 = SrtPacket.getSrtPacket(data) as? Ack2 ?: return
+        val ackTime = ackTimes.remove(ack2.acknowledgementNumber) ?: return
+        val sample = ((System.nanoTime() - ackTime) / 1000).toInt()
+        if (rtt == 0) {
+          rtt = sample
+          rttVariance = sample / 2
+        } else {
+          rttVariance = (3 * rttVariance + abs(rtt - sample)) / 4
+          rtt = (7 * rtt + sample) / 8
+        }
+        return
+      }
+      receivedBytes += data.size
+      val sequence = (data[0].toInt() and 0x7F shl 24) or (data[1].toInt() and 0xFF shl 16) or
+          (data[2].toInt() and 0xFF shl 8) or (data[3].toInt() and 0xFF)
+      if (expectedSequence < 0) expectedSequence = sequence
+      if (sequence >= expectedSequence) {
+        if (sequence > expectedSequence) {
+          for (i in expectedSequence until sequence) lost.add(i)
+          val nak = Nak()
+          nak.addLostPacketsRange(expectedSequence, sequence - 1)
+          nak.write(ts(), 0)
+          send(nak.getData())
+        }
+        expectedSequence = sequence + 1
+      } else {
+        lost.remove(sequence)
+      }
+    }
+
+    private fun sendAck() {
+      if (expectedSequence < 0) return
+      val now = System.nanoTime()
+      if (now - rateStart >= 1_000_000_000) {
+        receivingRate = (receivedBytes * 1_000_000_000 / (now - rateStart)).toInt()
+        receivedBytes = 0
+        rateStart = now
+      }
+      val ack = Ack(
+        lastAcknowledgedPacketSequenceNumber = if (lost.isEmpty()) expectedSequence else lost.first(),
+        rtt = rtt, rttVariance = rttVariance, availableBufferSize = 8192,
+        packetReceivingRate = receivingRate / Constants.MTU, estimatedLinkCapacity = 0, receivingRate = receivingRate
+      )
+      ack.typeSpecificInformation = ackNumber
+      ack.write(ts(), 0)
+      ackTimes[ackNumber++] = now
+      send(ack.getData())
+    }
+
+    private fun ts(): Int = ((System.nanoTime() - startTs) / 1000).toInt()
+
+    private fun send(data: ByteArray) {
+      val peer = this.peer ?: return
+      runCatching { socket.send(DatagramPacket(data, data.size, peer)) }
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.Pacer
+import com.pedro.srt.utils.SrtSocket
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import kotlin.concurrent.thread
+
+/**
+ * Write a stream with keyframe bursts in a loopback socket using CommandsManager with and without pacing.
+ * Arrival times are used to simulate a bottleneck with a shallow buffer (like a router). Report the max burst
+ * and the loss in the bottleneck in the assert message.
+ * Ignored in the unit suite, pacing decisions are checked with explicit times in PacerTest.
+ */
+@Ignore("benchmark")
+class PacingBenchmark {
+
+  private val payloadSize = 1316
+  private val fps = 30
+  private val frames = 90
+  private val gop = 30
+  private val keyFrameSize = 60_000
+  private val frameSize = 6_000
+  //about 1.9Mbps of input rate
+  private val bottleneckBandwidth = 3_000_000L
+  private val bottleneckBufferMs = 20L
+  private val burstWindowNs = 10_000_000L
+  //auto mode needs 1 second to know the input rate
+  private val measureStartNs = 1_500_000_000L
+
+  private lateinit var receiver: DatagramChannel
+  private lateinit var socket: SrtSocket
+  //arrival time and size of each packet
+  private val arrivals = mutableListOf<Pair<Long, Int>>()
+
+  @Before
+  fun setup() {
+    receiver = DatagramChannel.open().bind(InetSocketAddress("127.0.0.1", 0))
+    receiver.socket().receiveBufferSize = 1024 * 1024
+    socket = SrtSocket("127.0.0.1", receiver.socket().localPort)
+    socket.connect()
+    thread(isDaemon = true) {
+      val buffer = ByteBuffer.allocateDirect(2048)
+      runCatching {
+        while (receiver.isOpen) {
+          buffer.clear()
+          receiver.receive(buffer)
+          val time = System.nanoTime()
+          synchronized(arrivals) { arrivals.add(Pair(time, buffer.position())) }
+        }
+      }
+    }
+  }
+
+  @After
+  fun teardown() {
+    socket.close()
+    receiver.close()
+  }
+
+  @Test
+  fun `GIVEN keyframe bursts WHEN pacing is enabled THEN bursts and loss in the bottleneck are reduced`() {
+    val disabled = run(Pacer.DISABLED)
+    val auto = run(Pacer.AUTO)
+    val fixed = run(2_500_000)
+    val results = "no pacing: $disabled, pacing auto: $auto, pacing 2.5Mbps: $fixed"
+    assertTrue(results, auto.maxBurst < disabled.maxBurst)
+    assertTrue(results, fixed.maxBurst < disabled.maxBurst)
+    assertTrue(results, auto.lossRate < disabled.lossRate)
+    assertTrue(results, fixed.lossRate < disabled.lossRate)
+  }
+
+  private data class Result(val maxBurst: Int, val lossRate: Float, val packets: Int, val durationMs: Long) {
+    override fun toString(): String {
+      return "max burst $maxBurst bytes in ${10}ms, loss ${"%.1f".format(lossRate * 100)}% of $packets packets, " +
+          "duration ${durationMs}ms"
+    }
+  }
+
+  private fun run(maxBandwidth: Long): Result {
+    val commandsManager = CommandsManager()
+    commandsManager.loadStartTs()
+    commandsManager.pacer.maxBandwidth = maxBandwidth
+    synchronized(arrivals) { arrivals.clear() }
+    val start = System.nanoTime()
+    runBlocking {
+      for (i in 0 until frames) {
+        val frameTime = start + i * 1_000_000_000L / fps
+        val wait = (frameTime - System.nanoTime()) / 1_000_000
+        if (wait > 0) delay(wait)
+        val size = if (i % gop == 0) keyFrameSize else frameSize
+        val packets = List((size + payloadSize - 1) / payloadSize) {
+          MpegTsPacket(ByteArray(payloadSize), MpegType.VIDEO, PacketPosition.SINGLE)
+        }
+        commandsManager.writeData(packets, socket)
+      }
+    }
+    val duration = (System.nanoTime() - start) / 1_000_000
+    Thread.sleep(100)
+    val measured = synchronized(arrivals) { arrivals.filter { it.first - start >= measureStartNs } }
+    return Result(getMaxBurst(measured), simulateBottleneck(measured), measured.size, duration)
+  }
+
+  private fun getMaxBurst(arrivals: List<Pair<Long, Int>>): Int {
+    var maxBurst = 0
+    var first = 0
+    var bytes = 0
+    arrivals.forEachIndexed { index, (time, size) ->
+      bytes += size
+      while (time - arrivals[first].first > burstWindowNs) bytes -= arrivals[first++].second
+      if (index >= first) maxBurst = maxOf(maxBurst, bytes)
+    }
+    return maxBurst
+  }
+
+  /**
+   * Drop tail queue with bottleneckBufferMs of buffer at bottleneckBandwidth.
+   *
+   * @return packets lost rate
+   */
+  private fun simulateBottleneck(arrivals: List<Pair<Long, Int>>): Float {
+    if (arrivals.isEmpty()) return 0f
+    var linkFreeTime = 0L
+    var lost = 0
+    arrivals.forEach { (time, size) ->
+      val start = maxOf(time, linkFreeTime)
+      if ((start - time) / 1_000_000 > bottleneckBufferMs) {
+        lost++
+      } else {
+        linkFreeTime = start + size * 8 * 1_000_000_000L / bottleneckBandwidth
+      }
+    }
+    return lost.toFloat() / arrivals.size
+  }
+}
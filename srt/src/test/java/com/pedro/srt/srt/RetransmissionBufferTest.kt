@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.common.BufferPool
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.packets.DataPacket
+import com.pedro.srt.srt.packets.data.PacketPosition
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class RetransmissionBufferTest {
+
+  private val bufferPool = BufferPool()
+
+  private fun addPackets(buffer: RetransmissionBuffer, firstSequenceNumber: Int, count: Int) {
+    var sequenceNumber = firstSequenceNumber
+    repeat(count) {
+      val mpegTsPacket = MpegTsPacket(bufferPool.obtain(188), MpegType.VIDEO, PacketPosition.SINGLE, 188, bufferPool)
+      buffer.add(DataPacket(sequenceNumber = sequenceNumber), mpegTsPacket)
+      sequenceNumber = (sequenceNumber + 1) and 0x7FFFFFFF
+    }
+  }
+
+  private fun getRange(buffer: RetransmissionBuffer, from: Int, to: Int): List<Int> {
+    val output = mutableListOf<DataPacket>()
+    buffer.getRange(from, to, output)
+    return output.map { it.sequenceNumber }
+  }
+
+  @Test
+  fun `GIVEN packets with sequence number wraparound WHEN get packets THEN find all of them`() {
+    val buffer = RetransmissionBuffer()
+    addPackets(buffer, 0x7FFFFFFD, 6)
+    assertEquals(6, buffer.size)
+    listOf(0x7FFFFFFD, 0x7FFFFFFE, 0x7FFFFFFF, 0, 1, 2).forEach {
+      assertEquals(it, buffer.get(it)?.sequenceNumber)
+    }
+    assertNull(buffer.get(3))
+    assertNull(buffer.get(0x7FFFFFFC))
+  }
+
+  @Test
+  fun `GIVEN packets with sequence number wraparound WHEN ack received THEN remove packets before ack and release buffers`() {
+    val buffer = RetransmissionBuffer()
+    addPackets(buffer, 0x7FFFFFFD, 6)
+    buffer.removeUntil(1)
+    assertEquals(2, buffer.size)
+    assertNull(buffer.get(0))
+    assertEquals(1, buffer.get(1)?.sequenceNumber)
+    assertEquals(2L, bufferPool.liveBuffers)
+    //old ack is ignored
+    buffer.removeUntil(0x7FFFFFFE)
+    assertEquals(2, buffer.size)
+    buffer.removeUntil(10)
+    assertEquals(0, buffer.size)
+    assertEquals(0L, bufferPool.liveBuffers)
+  }
+
+  @Test
+  fun `GIVEN a range nak WHEN get range THEN get only packets in the buffer`() {
+    val buffer = RetransmissionBuffer()
+    addPackets(buffer, 100, 10)
+    assertEquals(listOf(103, 104, 105), getRange(buffer, 103, 105))
+    assertEquals(listOf(100, 101), getRange(buffer, 90, 101))
+    assertEquals(listOf(108, 109), getRange(buffer, 108, 200))
+    assertEquals(emptyList<Int>(), getRange(buffer, 50, 60))
+    assertEquals(emptyList<Int>(), getRange(buffer, 110, 120))
+  }
+
+  @Test
+  fun `GIVEN a range nak with sequence number wraparound WHEN get range THEN get packets in order`() {
+    val buffer = RetransmissionBuffer()
+    addPackets(buffer, 0x7FFFFFFA, 10)
+    assertEquals(listOf(0x7FFFFFFE, 0x7FFFFFFF, 0, 1), getRange(buffer, 0x7FFFFFFE, 1))
+    assertEquals(listOf(0x7FFFFFFA, 0x7FFFFFFB), getRange(buffer, 0x7FFFFFF0, 0x7FFFFFFB))
+    assertEquals(listOf(2, 3), getRange(buffer, 2, 20))
+  }
+
+  @Test
+  fun `GIVEN a full buffer WHEN add packet THEN evict oldest packet`() {
+    val buffer = RetransmissionBuffer(4)
+    addPackets(buffer, 0x7FFFFFFE, 5)
+    assertEquals(4, buffer.size)
+    assertNull(buffer.get(0x7FFFFFFE))
+    assertEquals(2, buffer.get(2)?.sequenceNumber)
+    assertEquals(4L, bufferPool.liveBuffers)
+  }
+}
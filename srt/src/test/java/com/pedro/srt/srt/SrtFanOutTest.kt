@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import android.media.MediaCodec
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.mpeg2ts.Pid
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.whenever
+import java.nio.ByteBuffer
+
+class SrtFanOutTest {
+
+  private val sps = byteArrayOf(0, 0, 0, 1, 103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+  private val pps = byteArrayOf(0, 0, 0, 1, 104, -18, 13, -117)
+  private val clients = Array(3) { Mockito.mock(SrtClient::class.java) }
+  private val streaming = BooleanArray(clients.size) { true }
+  private val sessions = IntArray(clients.size) { 1 }
+  //packets received by each client (PSI and video), one list for each call
+  private val received = Array(clients.size) { mutableListOf<List<MpegTsPacket>>() }
+  private var keyFrameRequests = 0
+  private lateinit var fanOut: SrtFanOut
+
+  @Before
+  fun setup() {
+    Pid.reset()
+    clients.forEachIndexed { index, client ->
+      whenever(client.isStreaming).then { streaming[index] }
+      whenever(client.sessionId).then { sessions[index] }
+      doAnswer { received[index].add(ArrayList(it.getArgument<List<MpegTsPacket>>(0))) }
+        .whenever(client).sendVideoPackets(any(), any(), any())
+      doAnswer { received[index].add(ArrayList(it.getArgument<List<MpegTsPacket>>(0))) }
+        .whenever(client).sendPackets(any())
+    }
+    fanOut = SrtFanOut(clients)
+    fanOut.setTrackConfig(videoEnabled = true, audioEnabled = false)
+    fanOut.setKeyFrameRequestListener { keyFrameRequests++ }
+    fanOut.setVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+  }
+
+  private fun sendVideo(isKeyFrame: Boolean) {
+    val frame = byteArrayOf(0x00, 0x00, 0x00, 0x01, if (isKeyFrame) 0x65 else 0x41).plus(ByteArray(3000) { 0x01 })
+    val info = MediaCodec.BufferInfo()
+    info.set(0, frame.size, 0, if (isKeyFrame) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0)
+    fanOut.sendVideo(ByteBuffer.wrap(frame), info)
+  }
+
+  private fun videoFrames(index: Int): List<List<MpegTsPacket>> {
+    return received[index].filter { it.first().type == MpegType.VIDEO }
+  }
+
+  @Test
+  fun `GIVEN multiple clients WHEN send a frame THEN packets are shared and returned to the pool after the last release`() {
+    sendVideo(true)
+    val frames = clients.indices.map { videoFrames(it).single() }
+    frames.forEach { list -> list.forEachIndexed { i, packet -> assertSame(frames[0][i], packet) } }
+    assertTrue(frames[0][0].isShared())
+    val pool = fanOut.getBufferPool()
+    val pooledBytes = pool.getPooledBytes()
+    frames[0].forEach { it.release() }
+    frames[1].forEach { it.release() }
+    assertEquals(pooledBytes, pool.getPooledBytes())
+    frames[2].forEach { it.release() }
+    assertTrue(pool.getPooledBytes() > pooledBytes)
+  }
+
+  @Test
+  fun `GIVEN a client that drops a frame WHEN other clients send it THEN the buffer is not reused`() {
+    sendVideo(true)
+    clients.indices.forEach { index -> videoFrames(index).single().forEach { it.release() } }
+    sendVideo(false)
+    val frames = clients.indices.map { videoFrames(it).last() }
+    //client 0 discard the frame
+    frames[0].forEach { it.release() }
+    val pool = fanOut.getBufferPool()
+    val packet = frames[1][0]
+    val buffer = pool.obtain(packet.buffer.size)
+    assertNotSame(packet.buffer, buffer)
+    assertEquals(0x47.toByte(), packet.buffer[0])
+    pool.release(buffer)
+    sendVideo(false)
+    clients.indices.forEach { assertEquals(3, videoFrames(it).size) }
+  }
+
+  @Test
+  fun `GIVEN a client that starts in the middle of the stream WHEN send frames THEN that client receives psi and starts in a keyframe`() {
+    streaming[2] = false
+    sendVideo(true)
+    sendVideo(false)
+    //a new session is started
+    streaming[2] = true
+    sessions[2]++
+    sendVideo(false)
+    sendVideo(false)
+    //nothing until the next keyframe and the keyframe is requested only once
+    assertEquals(0, received[2].size)
+    assertEquals(1, keyFrameRequests)
+    assertEquals(4, videoFrames(0).size)
+    val psiCount = received[0].size - videoFrames(0).size
+    sendVideo(true)
+    assertEquals(MpegType.PSI, received[2][0].first().type)
+    val frames = videoFrames(2)
+    assertEquals(1, frames.size)
+    //random access indicator of the first packet
+    assertEquals(0x40, frames[0][0].buffer[5].toInt() and 0x40)
+    //clients already streaming don't receive psi again
+    assertEquals(psiCount, received[0].size - videoFrames(0).size)
+    sendVideo(false)
+    assertEquals(2, videoFrames(2).size)
+    assertEquals(1, keyFrameRequests)
+  }
+}
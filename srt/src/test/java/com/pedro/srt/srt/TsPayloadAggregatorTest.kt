@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.common.BufferPool
+import com.pedro.srt.mpeg2ts.MpegTsPacket
+import com.pedro.srt.mpeg2ts.MpegType
+import com.pedro.srt.srt.packets.data.PacketPosition
+import com.pedro.srt.utils.TimeUtils
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito
+
+class TsPayloadAggregatorTest {
+
+  private val timeUtilsMocked = Mockito.mockStatic(TimeUtils::class.java)
+  private var fakeTime = 1000L
+  private val bufferPool = BufferPool()
+  //1500 MTU - 16 srt header
+  private val aggregator = TsPayloadAggregator(1484, 20, bufferPool)
+
+  @Before
+  fun setup() {
+    timeUtilsMocked.`when`<Long>(TimeUtils::getCurrentTimeMillis).then { fakeTime }
+  }
+
+  @After
+  fun teardown() {
+    timeUtilsMocked.close()
+  }
+
+  private fun createPacket(type: MpegType, numTsPackets: Int, value: Int, position: PacketPosition = PacketPosition.SINGLE): MpegTsPacket {
+    val size = numTsPackets * 188
+    val buffer = bufferPool.obtain(size)
+    buffer.fill(value.toByte(), 0, size)
+    return MpegTsPacket(buffer, type, position, size, bufferPool)
+  }
+
+  @Test
+  fun `GIVEN psi, audio and video packets WHEN add to aggregator THEN get full payloads in order`() {
+    val output = mutableListOf<MpegTsPacket>()
+    aggregator.add(createPacket(MpegType.PSI, 1, 1), output)
+    aggregator.add(createPacket(MpegType.PSI, 1, 2), output)
+    aggregator.add(createPacket(MpegType.AUDIO, 2, 3), output)
+    assertTrue(output.isEmpty())
+    aggregator.add(createPacket(MpegType.VIDEO, 7, 4, PacketPosition.FIRST), output)
+    aggregator.add(createPacket(MpegType.VIDEO, 2, 5, PacketPosition.LAST), output)
+    assertEquals(1, output.size)
+    val payload = output[0]
+    assertEquals(1316, payload.length)
+    assertEquals(PacketPosition.SINGLE, payload.packetPosition)
+    val expected = ByteArray(1316)
+    expected.fill(1, 0, 188)
+    expected.fill(2, 188, 376)
+    expected.fill(3, 376, 752)
+    expected.fill(4, 752, 1316)
+    assertArrayEquals(expected, payload.buffer.copyOf(payload.length))
+    //4 ts packets of first video packet + 2 of last video packet are pending
+    assertTrue(aggregator.hasPending())
+    aggregator.flush(output)
+    assertEquals(188 * 6, output[1].length)
+  }
+
+  @Test
+  fun `GIVEN a full payload and nothing pending WHEN add to aggregator THEN send it without copy`() {
+    val output = mutableListOf<MpegTsPacket>()
+    val packet = createPacket(MpegType.VIDEO, 7, 1, PacketPosition.MIDDLE)
+    aggregator.add(packet, output)
+    assertEquals(1, output.size)
+    assertTrue(packet.buffer === output[0].buffer)
+    assertEquals(PacketPosition.SINGLE, output[0].packetPosition)
+  }
+
+  @Test
+  fun `GIVEN a payload not completed WHEN max delay is reached THEN flush it`() {
+    val output = mutableListOf<MpegTsPacket>()
+    aggregator.add(createPacket(MpegType.AUDIO, 2, 1), output)
+    assertEquals(20, aggregator.getRemainingDelay())
+    fakeTime += 15
+    assertEquals(5, aggregator.getRemainingDelay())
+    fakeTime += 10
+    assertEquals(0, aggregator.getRemainingDelay())
+    aggregator.flush(output)
+    assertEquals(1, output.size)
+    assertEquals(376, output[0].length)
+    assertEquals(MpegType.AUDIO, output[0].type)
+    assertEquals(-1, aggregator.getRemainingDelay())
+  }
+
+  @Test
+  fun `GIVEN packets added WHEN payloads are released THEN all buffers return to the pool`() {
+    val output = mutableListOf<MpegTsPacket>()
+    (0 until 10).forEach { aggregator.add(createPacket(MpegType.AUDIO, 3, it), output) }
+    aggregator.flush(output)
+    output.forEach { it.release() }
+    aggregator.reset()
+    assertEquals(0L, bufferPool.liveBuffers)
+  }
+
+  @Test
+  fun `GIVEN default max delay WHEN last packet of a frame is added THEN flush the payload`() {
+    val aggregator = TsPayloadAggregator(1484, bufferPool = bufferPool)
+    val output = mutableListOf<MpegTsPacket>()
+    aggregator.add(createPacket(MpegType.PSI, 1, 1), output)
+    assertTrue(output.isEmpty())
+    aggregator.add(createPacket(MpegType.VIDEO, 2, 2, PacketPosition.FIRST), output)
+    assertTrue(output.isEmpty())
+    aggregator.add(createPacket(MpegType.VIDEO, 1, 3, PacketPosition.LAST), output)
+    assertEquals(1, output.size)
+    assertEquals(188 * 4, output[0].length)
+    assertFalse(aggregator.hasPending())
+    aggregator.add(createPacket(MpegType.AUDIO, 1, 4), output)
+    assertEquals(2, output.size)
+    assertEquals(188, output[1].length)
+    assertFalse(aggregator.hasPending())
+    output.forEach { it.release() }
+  }
+}
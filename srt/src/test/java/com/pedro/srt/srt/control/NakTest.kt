@@ -19,6 +19,7 @@ package com.pedro.srt.srt.control
 import com.pedro.srt.Utils
 import com.pedro.srt.srt.packets.control.Nak
 import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
 import org.junit.Test
 import java.io.ByteArrayInputStream
 
@@ -68,4 +69,13 @@ class NakTest {
     packet.addLostPacket(1)
     assertArrayEquals(expectedPacketLostList, packet.getNakPacketsLostList().toTypedArray())
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `GIVEN a nak packet with a range that wraps sequence number WHEN get packets lost list THEN get all packets in order`() {
+    val expectedPacketLostList = arrayOf(0x7FFFFFFE, 0x7FFFFFFF, 0, 1)
+    val packet = Nak()
+    packet.addLostPacketsRange(0x7FFFFFFE, 1)
+    assertArrayEquals(expectedPacketLostList, packet.getNakPacketsLostList().toTypedArray())
+    assertEquals(listOf(Pair(0x7FFFFFFE, 1)), packet.getNakPacketsLostRanges())
+  }
+}
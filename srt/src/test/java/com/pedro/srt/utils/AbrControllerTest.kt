@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class AbrControllerTest {
+
+  private val maxBitrate = 4_000_000
+  private val minBitrate = 500_000
+  private val bitrates = mutableListOf<Int>()
+  private lateinit var estimator: BandwidthEstimator
+  private lateinit var abrController: AbrController
+  private var time = 0L
+
+  @Before
+  fun setup() {
+    bitrates.clear()
+    estimator = BandwidthEstimator()
+    abrController = AbrController(minBitrate, maxBitrate, object : AbrController.Listener {
+      override fun onBitrateAdapted(bitrate: Int) {
+        bitrates.add(bitrate)
+      }
+    })
+    time = 1000
+    //start the first interval
+    abrController.update(estimator, time)
+  }
+
+  private fun interval(sent: Int, lost: Int, rtt: Int, linkCapacity: Int = 0) {
+    estimator.onPacketsSent(sent, sent * 1000)
+    estimator.onPacketsLost(lost)
+    estimator.onAck(rtt, rtt / 4, linkCapacity, 0)
+    time += abrController.updateIntervalMs
+    abrController.update(estimator, time)
+  }
+
+  @Test
+  fun `GIVEN packets lost WHEN update THEN reduce bitrate`() {
+    interval(100, 0, 20_000)
+    interval(100, 40, 20_000)
+    assertEquals(listOf((maxBitrate * 0.8f).toInt()), bitrates)
+  }
+
+  @Test
+  fun `GIVEN rtt increased WHEN update THEN reduce bitrate`() {
+    interval(100, 0, 20_000)
+    interval(100, 0, 200_000)
+    assertEquals(listOf((maxBitrate * 0.8f).toInt()), bitrates)
+  }
+
+  @Test
+  fun `GIVEN clean link after a reduction WHEN update THEN increase bitrate after hold intervals`() {
+    interval(100, 0, 20_000)
+    interval(100, 20, 20_000)
+    interval(100, 0, 20_000)
+    interval(100, 0, 20_000)
+    assertEquals(1, bitrates.size)
+    //loss rate is an average so it needs some intervals to go down
+    repeat(5) { interval(100, 0, 20_000) }
+    assertTrue(bitrates.size > 1)
+    assertTrue(bitrates.last() > bitrates.first())
+  }
+
+  @Test
+  fun `GIVEN link capacity lower than bitrate WHEN update THEN bitrate under capacity`() {
+    //1000 bytes per packet, 250 packets per second is 2Mbps
+    interval(100, 0, 20_000, 250)
+    assertEquals(1, bitrates.size)
+    assertTrue(bitrates.last() < 2_000_000)
+  }
+
+  @Test
+  fun `GIVEN a congested link WHEN update multiple times THEN never go under min bitrate`() {
+    repeat(20) { interval(100, 50, 20_000) }
+    assertEquals(minBitrate, bitrates.last())
+    assertEquals(minBitrate, abrController.bitrate)
+  }
+
+  @Test
+  fun `GIVEN light acks WHEN update THEN ignore invalid values`() {
+    estimator.onAck(20_000, 5_000, 100, 1000)
+    estimator.onAck(-1, -1, -1, -1)
+    assertEquals(20_000, estimator.rtt)
+    assertEquals(5_000, estimator.rttVariance)
+    assertEquals(8_000L, estimator.receivingRate)
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.SocketAddress
+import java.net.SocketTimeoutException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * UDP proxy in localhost that simulates a bad link between a client and a server.
+ *
+ * Packets sent by the client are lost with lossRate probability, limited to bandwidth (bits per second) with a queue
+ * of maxQueueDelayMs (packets that don't fit are lost) and delayed delayMs. Packets sent by the server are only delayed.
+ */
+class LossyUdpProxy(
+  private val serverPort: Int,
+  private val delayMs: Long,
+  private val maxQueueDelayMs: Long = 200,
+  seed: Int = 1
+) {
+
+  @Volatile
+  var lossRate = 0f
+  //0 is no limit
+  @Volatile
+  var bandwidth = 0L
+  private val random = Random(seed)
+  private val socket = DatagramSocket(InetSocketAddress("127.0.0.1", 0))
+  private val server = InetSocketAddress(InetAddress.getByName("127.0.0.1"), serverPort)
+  private val scheduler = Executors.newSingleThreadScheduledExecutor()
+  private var client: SocketAddress? = null
+  @Volatile
+  private var running = false
+  private var thread: Thread? = null
+  //time in nanoseconds when the link is free to send the next packet
+  private var linkFreeTime = 0L
+
+  val port: Int
+    get() = socket.localPort
+
+  fun start() {
+    running = true
+    socket.soTimeout = 10
+    thread = Thread {
+      val buffer = ByteArray(Constants.MTU)
+      while (running) {
+        val packet = DatagramPacket(buffer, buffer.size)
+        try {
+          socket.receive(packet)
+        } catch (e: SocketTimeoutException) {
+          continue
+        } catch (e: Exception) {
+          break
+        }
+        val data = packet.data.copyOf(packet.length)
+        if (packet.socketAddress == server) {
+          client?.let { forward(data, it, delayMs) }
+        } else {
+          client = packet.socketAddress
+          if (random.nextFloat() < lossRate) continue
+          val queueDelay = queue(data.size)
+          if (queueDelay < 0) continue
+          forward(data, server, delayMs + queueDelay)
+        }
+      }
+    }.apply { start() }
+  }
+
+  fun stop() {
+    running = false
+    thread?.join()
+    scheduler.shutdownNow()
+    socket.close()
+  }
+
+  /**
+   * @return time that the packet waits in the queue of the link or -1 if the queue is full
+   */
+  private fun queue(size: Int): Long {
+    val bandwidth = this.bandwidth
+    if (bandwidth <= 0) return 0
+    val now = System.nanoTime()
+    val start = maxOf(now, linkFreeTime)
+    val queueDelay = (start - now) / 1_000_000
+    if (queueDelay > maxQueueDelayMs) return -1
+    linkFreeTime = start + size * 8 * 1_000_000_000L / bandwidth
+    return queueDelay
+  }
+
+  private fun forward(data: ByteArray, address: SocketAddress, delay: Long) {
+    scheduler.schedule({
+      runCatching { socket.send(DatagramPacket(data, data.size, address)) }
+    }, delay, TimeUnit.MILLISECONDS)
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PacerTest {
+
+  private val second = 1_000_000_000L
+  private val packetSize = 1316
+
+  @Test
+  fun `GIVEN a burst bigger than the bucket WHEN acquire THEN wait the time needed by the max bandwidth`() {
+    val pacer = Pacer().apply { maxBandwidth = 8_000_000 } //1MB/s
+    var sent = 0
+    while (pacer.acquire(packetSize, 0) == 0L) sent++
+    //10ms of burst, 10000 bytes
+    assertEquals(10000 / packetSize + 1, sent)
+    val waitTime = pacer.acquire(packetSize, 0)
+    assertTrue(waitTime > 0)
+    assertEquals(0L, pacer.acquire(packetSize, waitTime))
+  }
+
+  @Test
+  fun `GIVEN packets sent during a second WHEN acquire THEN average rate is max bandwidth`() {
+    val pacer = Pacer().apply { maxBandwidth = 8_000_000 }
+    var time = 0L
+    var bytes = 0L
+    while (time < second) {
+      val waitTime = pacer.acquire(packetSize, time)
+      if (waitTime == 0L) bytes += packetSize else time += waitTime
+    }
+    //burst of the first packets is allowed
+    assertTrue("bytes $bytes", bytes in 1_000_000L..1_000_000L + 10000 + packetSize)
+  }
+
+  @Test
+  fun `GIVEN pacer disabled WHEN acquire and retransmit THEN never limited`() {
+    val pacer = Pacer()
+    repeat(10000) {
+      assertEquals(0L, pacer.acquire(packetSize, 0))
+      assertTrue(pacer.tryRetransmit(packetSize, 0))
+    }
+  }
+
+  @Test
+  fun `GIVEN auto mode WHEN input rate is calculated THEN pace to input rate plus overhead`() {
+    val pacer = Pacer().apply {
+      maxBandwidth = Pacer.AUTO
+      retransmissionOverhead = 25
+    }
+    //input rate unknown, no limit
+    pacer.onInput(100_000, 0)
+    assertEquals(0L, pacer.acquire(100_000, 0))
+    pacer.onInput(100_000, second)
+    assertEquals(1_600_000L, pacer.inputRate)
+    //(1.6Mbps * 1.25) / 8 = 250000 bytes per second
+    var time = second
+    var bytes = 0L
+    while (time < 2 * second) {
+      val waitTime = pacer.acquire(packetSize, time)
+      if (waitTime == 0L) bytes += packetSize else time += waitTime
+    }
+    assertTrue("bytes $bytes", bytes in 250_000L..250_000L + 2500 + 2 * packetSize)
+  }
+
+  @Test
+  fun `GIVEN retransmissions over the overhead WHEN retransmit THEN discard retransmissions`() {
+    val pacer = Pacer().apply {
+      maxBandwidth = 8_000_000
+      retransmissionOverhead = 10
+    }
+    pacer.onInput(100_000, 0)
+    pacer.onInput(100_000, second)
+    //10% of 1.6Mbps is 20000 bytes per second, 2000 bytes of burst (100ms)
+    var allowed = 0
+    repeat(100) { if (pacer.tryRetransmit(packetSize, second)) allowed++ }
+    assertEquals(2, allowed)
+    assertEquals(98L, pacer.droppedRetransmissions)
+    //refilled after wait, 2000 bytes paying the debt of the last packet
+    allowed = 0
+    repeat(100) { if (pacer.tryRetransmit(packetSize, second + second / 10)) allowed++ }
+    assertEquals(2, allowed)
+  }
+
+  @Test
+  fun `GIVEN retransmissions WHEN acquire THEN retransmissions consume bandwidth of data packets`() {
+    val pacer = Pacer().apply { maxBandwidth = 8_000_000 }
+    //input rate unknown, retransmissions not limited
+    repeat(8) { assertTrue(pacer.tryRetransmit(packetSize, 0)) }
+    assertTrue(pacer.acquire(packetSize, 0) > 0)
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import com.pedro.srt.srt.packets.DataPacket
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Before
+import org.junit.Test
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+
+class SrtSocketTest {
+
+  private lateinit var receiver: DatagramChannel
+  private lateinit var srtSocket: SrtSocket
+
+  @Before
+  fun setup() {
+    receiver = DatagramChannel.open()
+    receiver.socket().bind(InetSocketAddress("127.0.0.1", 0))
+    srtSocket = SrtSocket("127.0.0.1", receiver.socket().localPort)
+    srtSocket.connect()
+  }
+
+  @After
+  fun teardown() {
+    srtSocket.close()
+    receiver.close()
+  }
+
+  @Test
+  fun `GIVEN multiple srt packets WHEN write packets in a batch THEN receive all packets in order`() {
+    val packets = (0 until 40).map { value ->
+      DataPacket(sequenceNumber = value, payload = ByteArray(100 + value) { value.toByte() }).apply { write() }
+    }
+    srtSocket.write(packets)
+    val received = ByteBuffer.allocate(Constants.MTU)
+    packets.forEach { packet ->
+      received.clear()
+      receiver.receive(received)
+      received.flip()
+      val data = ByteArray(received.remaining())
+      received.get(data)
+      assertArrayEquals(packet.getData(), data)
+    }
+  }
+}